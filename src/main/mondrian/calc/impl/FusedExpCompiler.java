@@ -0,0 +1,537 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.mdx.*;
+import mondrian.olap.*;
+import mondrian.olap.fun.FunUtil;
+import mondrian.olap.fun.UdfResolver;
+import mondrian.olap.type.MemberType;
+
+import java.util.*;
+
+/**
+ * Expression compiler that fuses each tree of numeric operators into a
+ * single calculation.
+ *
+ * <p>{@link BetterExpCompiler} compiles {@code a + b * c} into one
+ * {@link DoubleCalc} per operator, each of which calls its children's
+ * {@link DoubleCalc#evaluateDouble} methods. This compiler instead compiles
+ * the whole tree into a flat sequence of instructions, which a single
+ * {@link FusedDoubleCalc} executes over a stack of {@code double} values.
+ * The tree may contain the arithmetic operators {@code +}, {@code -},
+ * {@code *} and {@code /}, unary {@code -}, numeric {@code IIf} and
+ * {@code CoalesceEmpty}, numeric literals and members, whose values are
+ * looked up directly. Any other expression in the tree is compiled as usual,
+ * and the instructions call its calculation.</p>
+ *
+ * <p>The results are the same as those of {@link BetterExpCompiler},
+ * including the treatment of null values. To use this compiler, set
+ * {@link MondrianProperties#ExpCompilerClass} to the name of this class.</p>
+ */
+public class FusedExpCompiler extends BetterExpCompiler {
+    private static final int CONST = 0;
+    private static final int CALC = 1;
+    private static final int MEMBER = 2;
+    private static final int ADD = 3;
+    private static final int SUBTRACT = 4;
+    private static final int MULTIPLY = 5;
+    private static final int DIVIDE = 6;
+    private static final int DIVIDE_NULL = 7;
+    private static final int NEGATE = 8;
+    private static final int JUMP = 9;
+    private static final int JUMP_IF_FALSE = 10;
+    private static final int JUMP_IF_NOT_NULL = 11;
+
+    /**
+     * Operand stack of the fused calculations that each thread is executing.
+     */
+    private static final ThreadLocal<OperandStack> OPERAND_STACK =
+        new ThreadLocal<OperandStack>() {
+            protected OperandStack initialValue() {
+                return new OperandStack();
+            }
+        };
+
+    public FusedExpCompiler(Evaluator evaluator, Validator validator) {
+        super(evaluator, validator);
+    }
+
+    public FusedExpCompiler(
+        Evaluator evaluator,
+        Validator validator,
+        List<ResultStyle> resultStyles)
+    {
+        super(evaluator, validator, resultStyles);
+    }
+
+    public Calc compile(Exp exp) {
+        if (exp instanceof ResolvedFunCall
+            && isArithmetic((ResolvedFunCall) exp))
+        {
+            return new Program(exp).compile();
+        }
+        return super.compile(exp);
+    }
+
+    /**
+     * Returns whether a call is one of the built-in arithmetic operators.
+     */
+    private static boolean isArithmetic(ResolvedFunCall call) {
+        final FunDef funDef = call.getFunDef();
+        if (UdfResolver.isUdf(funDef)
+            || funDef.getReturnCategory() != Category.Numeric
+            || !allNumeric(funDef.getParameterCategories(), 0))
+        {
+            return false;
+        }
+        final String name = call.getFunName();
+        switch (call.getSyntax()) {
+        case Infix:
+            return call.getArgCount() == 2
+                && (name.equals("+")
+                    || name.equals("-")
+                    || name.equals("*")
+                    || name.equals("/"));
+        case Prefix:
+            return call.getArgCount() == 1 && name.equals("-");
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether a call is numeric {@code IIf} or
+     * {@code CoalesceEmpty}. These are fused only within an arithmetic
+     * expression, which converts their result to a {@code double}; on their
+     * own, they return the value of their argument unconverted.
+     */
+    private static boolean isConditional(ResolvedFunCall call) {
+        final FunDef funDef = call.getFunDef();
+        if (UdfResolver.isUdf(funDef)
+            || call.getSyntax() != Syntax.Function
+            || funDef.getReturnCategory() != Category.Numeric)
+        {
+            return false;
+        }
+        final int[] categories = funDef.getParameterCategories();
+        final String name = call.getFunName();
+        if (name.equalsIgnoreCase("IIf")) {
+            return call.getArgCount() == 3
+                && categories.length == 3
+                && categories[0] == Category.Logical
+                && allNumeric(categories, 1);
+        }
+        if (name.equalsIgnoreCase("CoalesceEmpty")) {
+            return call.getArgCount() == categories.length
+                && allNumeric(categories, 0);
+        }
+        return false;
+    }
+
+    private static boolean allNumeric(int[] categories, int start) {
+        for (int i = start; i < categories.length; i++) {
+            if (categories[i] != Category.Numeric) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stack of {@code double} values, reused by all of the fused calculations
+     * executed by a thread.
+     *
+     * <p>A calculation can be re-entered, for instance if a calculated member
+     * refers to itself in another context, so each execution uses its own
+     * frame, above the frames of the executions in progress. If the values
+     * are full, a larger array replaces them; the executions in progress keep
+     * using the old one.</p>
+     */
+    private static class OperandStack {
+        double[] values = new double[64];
+        int top;
+    }
+
+    private static int[] copyOf(int[] a, int length) {
+        final int[] b = new int[length];
+        System.arraycopy(a, 0, b, 0, Math.min(a.length, length));
+        return b;
+    }
+
+    /**
+     * Builds the instructions for an expression.
+     */
+    private class Program {
+        private final Exp exp;
+        private int[] code = new int[16];
+        private int codeCount;
+        private final List<Double> constants = new ArrayList<Double>();
+        private final List<Calc> calcs = new ArrayList<Calc>();
+        private final List<Member> members = new ArrayList<Member>();
+        private final List<GenericCalc> memberCalcs =
+            new ArrayList<GenericCalc>();
+        private int depth;
+        private int maxDepth;
+
+        Program(Exp exp) {
+            this.exp = exp;
+        }
+
+        FusedDoubleCalc compile() {
+            add(exp);
+            final double[] constantArray = new double[constants.size()];
+            for (int i = 0; i < constantArray.length; i++) {
+                constantArray[i] = constants.get(i);
+            }
+            final List<Calc> allCalcs = new ArrayList<Calc>(calcs);
+            allCalcs.addAll(memberCalcs);
+            return new FusedDoubleCalc(
+                exp,
+                allCalcs.toArray(new Calc[allCalcs.size()]),
+                copyOf(code, codeCount),
+                constantArray,
+                calcs.toArray(new Calc[calcs.size()]),
+                members.toArray(new Member[members.size()]),
+                memberCalcs.toArray(new GenericCalc[memberCalcs.size()]),
+                getEvaluator().mightReturnNullForUnrelatedDimension(),
+                maxDepth);
+        }
+
+        private void add(Exp exp) {
+            if (exp instanceof Literal) {
+                final Object value = ((Literal) exp).getValue();
+                if (value == null || value instanceof Number) {
+                    emit(
+                        CONST,
+                        index(
+                            constants,
+                            value == null
+                                ? FunUtil.DoubleNull
+                                : ((Number) value).doubleValue()));
+                    push();
+                    return;
+                }
+            } else if (exp instanceof MemberExpr) {
+                final Member member = ((MemberExpr) exp).getMember();
+                emit(MEMBER, members.size());
+                members.add(member);
+                memberCalcs.add(
+                    MemberValueCalc.create(
+                        new DummyExp(
+                            ((MemberType) exp.getType()).getValueType()),
+                        new MemberCalc[] {
+                            (MemberCalc) ConstantCalc.constantMember(member)
+                        },
+                        getEvaluator().mightReturnNullForUnrelatedDimension()));
+                push();
+                return;
+            } else if (exp instanceof ResolvedFunCall) {
+                final ResolvedFunCall call = (ResolvedFunCall) exp;
+                if (isArithmetic(call)) {
+                    addArithmetic(call);
+                    return;
+                }
+                if (isConditional(call)) {
+                    if (call.getFunName().equalsIgnoreCase("IIf")) {
+                        addIif(call);
+                    } else {
+                        addCoalesceEmpty(call);
+                    }
+                    return;
+                }
+            }
+            emit(CALC, index(calcs, compileDouble(exp)));
+            push();
+        }
+
+        private void addArithmetic(ResolvedFunCall call) {
+            for (Exp arg : call.getArgs()) {
+                add(arg);
+            }
+            if (call.getArgCount() == 1) {
+                emit(NEGATE);
+                return;
+            }
+            switch (call.getFunName().charAt(0)) {
+            case '+':
+                emit(ADD);
+                break;
+            case '-':
+                emit(SUBTRACT);
+                break;
+            case '*':
+                emit(MULTIPLY);
+                break;
+            default:
+                emit(
+                    MondrianProperties.instance().NullDenominatorProducesNull
+                        .get()
+                        ? DIVIDE_NULL
+                        : DIVIDE);
+                break;
+            }
+            pop();
+        }
+
+        private void addIif(ResolvedFunCall call) {
+            emit(
+                JUMP_IF_FALSE,
+                index(calcs, compileBoolean(call.getArg(0))),
+                -1);
+            final int elseJump = codeCount - 1;
+            add(call.getArg(1));
+            pop();
+            emit(JUMP, -1);
+            final int endJump = codeCount - 1;
+            code[elseJump] = codeCount;
+            add(call.getArg(2));
+            code[endJump] = codeCount;
+        }
+
+        private void addCoalesceEmpty(ResolvedFunCall call) {
+            final int[] jumps = new int[call.getArgCount() - 1];
+            for (int i = 0; i < call.getArgCount(); i++) {
+                add(call.getArg(i));
+                if (i < jumps.length) {
+                    emit(JUMP_IF_NOT_NULL, -1);
+                    jumps[i] = codeCount - 1;
+                    pop();
+                }
+            }
+            for (int jump : jumps) {
+                code[jump] = codeCount;
+            }
+        }
+
+        private <T> int index(List<T> list, T element) {
+            list.add(element);
+            return list.size() - 1;
+        }
+
+        private void push() {
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+
+        private void pop() {
+            --depth;
+        }
+
+        private void emit(int... words) {
+            if (codeCount + words.length > code.length) {
+                code = copyOf(code, code.length * 2 + words.length);
+            }
+            for (int word : words) {
+                code[codeCount++] = word;
+            }
+        }
+    }
+
+    /**
+     * Calculation that executes the instructions of a fused numeric
+     * expression.
+     */
+    static class FusedDoubleCalc extends AbstractDoubleCalc {
+        private final int[] code;
+        private final double[] constants;
+        private final Calc[] calcs;
+        private final Member[] members;
+        private final GenericCalc[] memberCalcs;
+        private final boolean nullCheck;
+        private final int maxDepth;
+
+        FusedDoubleCalc(
+            Exp exp,
+            Calc[] allCalcs,
+            int[] code,
+            double[] constants,
+            Calc[] calcs,
+            Member[] members,
+            GenericCalc[] memberCalcs,
+            boolean nullCheck,
+            int maxDepth)
+        {
+            super(exp, allCalcs);
+            this.code = code;
+            this.constants = constants;
+            this.calcs = calcs;
+            this.members = members;
+            this.memberCalcs = memberCalcs;
+            this.nullCheck = nullCheck;
+            this.maxDepth = maxDepth;
+        }
+
+        public double evaluateDouble(Evaluator evaluator) {
+            final OperandStack operandStack = OPERAND_STACK.get();
+            final int base = operandStack.top;
+            if (base + maxDepth > operandStack.values.length) {
+                operandStack.values =
+                    new double[
+                        Math.max(
+                            operandStack.values.length * 2,
+                            base + maxDepth)];
+            }
+            operandStack.top = base + maxDepth;
+            try {
+                return execute(evaluator, operandStack.values, base);
+            } finally {
+                operandStack.top = base;
+            }
+        }
+
+        /**
+         * Executes the instructions, using a frame of a stack that starts at
+         * a given position.
+         */
+        private double execute(
+            Evaluator evaluator,
+            double[] stack,
+            int base)
+        {
+            int top = base - 1;
+            int pc = 0;
+            while (pc < code.length) {
+                double v0, v1;
+                switch (code[pc]) {
+                case CONST:
+                    stack[++top] = constants[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case CALC:
+                    stack[++top] =
+                        ((DoubleCalc) calcs[code[pc + 1]])
+                            .evaluateDouble(evaluator);
+                    pc += 2;
+                    break;
+                case MEMBER:
+                    stack[++top] = evaluateMember(evaluator, code[pc + 1]);
+                    pc += 2;
+                    break;
+                case ADD:
+                    v1 = stack[top--];
+                    v0 = stack[top];
+                    stack[top] =
+                        v0 == FunUtil.DoubleNull
+                            ? v1
+                            : v1 == FunUtil.DoubleNull
+                                ? v0
+                                : v0 + v1;
+                    ++pc;
+                    break;
+                case SUBTRACT:
+                    v1 = stack[top--];
+                    v0 = stack[top];
+                    stack[top] =
+                        v0 == FunUtil.DoubleNull
+                            ? (v1 == FunUtil.DoubleNull ? v1 : -v1)
+                            : v1 == FunUtil.DoubleNull
+                                ? v0
+                                : v0 - v1;
+                    ++pc;
+                    break;
+                case MULTIPLY:
+                    v1 = stack[top--];
+                    v0 = stack[top];
+                    stack[top] =
+                        v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull
+                            ? FunUtil.DoubleNull
+                            : v0 * v1;
+                    ++pc;
+                    break;
+                case DIVIDE:
+                    // Null in numerator returns null; null only in
+                    // denominator returns infinity.
+                    v1 = stack[top--];
+                    v0 = stack[top];
+                    stack[top] =
+                        v0 == FunUtil.DoubleNull
+                            ? FunUtil.DoubleNull
+                            : v1 == FunUtil.DoubleNull
+                                ? Double.POSITIVE_INFINITY
+                                : v0 / v1;
+                    ++pc;
+                    break;
+                case DIVIDE_NULL:
+                    v1 = stack[top--];
+                    v0 = stack[top];
+                    stack[top] =
+                        v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull
+                            ? FunUtil.DoubleNull
+                            : v0 / v1;
+                    ++pc;
+                    break;
+                case NEGATE:
+                    if (stack[top] != FunUtil.DoubleNull) {
+                        stack[top] = -stack[top];
+                    }
+                    ++pc;
+                    break;
+                case JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case JUMP_IF_FALSE:
+                    pc =
+                        ((BooleanCalc) calcs[code[pc + 1]])
+                            .evaluateBoolean(evaluator)
+                            ? pc + 3
+                            : code[pc + 2];
+                    break;
+                case JUMP_IF_NOT_NULL:
+                    if (stack[top] != FunUtil.DoubleNull) {
+                        pc = code[pc + 1];
+                    } else {
+                        --top;
+                        pc += 2;
+                    }
+                    break;
+                default:
+                    throw Util.newInternal("invalid instruction " + code[pc]);
+                }
+            }
+            assert top == base;
+            return stack[base];
+        }
+
+        /**
+         * Returns the value of a member, as {@link MemberValueCalc} would.
+         */
+        private double evaluateMember(Evaluator evaluator, int i) {
+            final Member member = members[i];
+            if (member.isNull()) {
+                return FunUtil.DoubleNull;
+            }
+            final Object o;
+            final int savepoint = evaluator.savepoint();
+            try {
+                evaluator.setContext(member);
+                if (nullCheck
+                    && evaluator.needToReturnNullForUnrelatedDimension(
+                        new Member[] {member}))
+                {
+                    return FunUtil.DoubleNull;
+                }
+                o = evaluator.evaluateCurrent();
+            } finally {
+                evaluator.restore(savepoint);
+            }
+            if (o == null) {
+                return FunUtil.DoubleNull;
+            }
+            if (o instanceof Number) {
+                return ((Number) o).doubleValue();
+            }
+            // Let the member calculation report the error.
+            return memberCalcs[i].evaluateDouble(evaluator);
+        }
+    }
+}
+
+// End FusedExpCompiler.java
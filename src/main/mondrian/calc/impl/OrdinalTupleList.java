@@ -0,0 +1,521 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.olap.*;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link TupleList} that stores each member of a tuple as
+ * an ordinal into an array of the members of its column.
+ *
+ * <p>For example, the cartesian product of {A1, A2} and {B1, B2, B3} is
+ * stored as the dictionaries [A1, A2] and [B1, B2, B3], and the ordinals
+ * {0, 0, 0, 1, 0, 2, 1, 0, 1, 1, 1, 2}, end-to-end. While every dictionary
+ * has fewer than 65,536 members, ordinals are stored as {@code char}s, which
+ * take half the space of a member reference or less; if a dictionary grows
+ * beyond that, the list widens its ordinals to {@code int}s.</p>
+ *
+ * <p>Lists created by {@link #cloneList(int)} share the dictionaries of the
+ * original list, so that tuples added from one to the other
+ * (via {@link #addCurrent(TupleCursor)}, {@link #add(java.util.List)} or
+ * {@link #set(int, java.util.List)}) are copied as ordinals, without looking
+ * up their members. Thus filtering or sorting a list that was created by
+ * {@link #cartesianProduct(java.util.List)} also produces an ordinal list.
+ * The cursor of the list sets the evaluator's context without creating a
+ * list per tuple.</p>
+ */
+public class OrdinalTupleList extends AbstractTupleList {
+    /**
+     * Number of ordinals that can be stored as {@code char}s.
+     */
+    private static final int NARROW_LIMIT = Character.MAX_VALUE + 1;
+
+    private final Dictionary[] dictionaries;
+    private char[] narrowData;
+    private int[] wideData;
+    private int size;
+
+    /**
+     * Creates an empty OrdinalTupleList.
+     *
+     * @param columns Initial members of each column; may contain duplicates
+     * @param initialCapacity Initial capacity, in tuples
+     */
+    public OrdinalTupleList(
+        List<? extends List<Member>> columns,
+        int initialCapacity)
+    {
+        this(createDictionaries(columns), initialCapacity);
+    }
+
+    private OrdinalTupleList(Dictionary[] dictionaries, int initialCapacity) {
+        super(dictionaries.length);
+        this.dictionaries = dictionaries;
+        final int capacity = initialCapacity * arity;
+        boolean narrow = true;
+        for (Dictionary dictionary : dictionaries) {
+            narrow &= dictionary.size() <= NARROW_LIMIT;
+        }
+        if (narrow) {
+            narrowData = new char[capacity];
+        } else {
+            wideData = new int[capacity];
+        }
+    }
+
+    private static Dictionary[] createDictionaries(
+        List<? extends List<Member>> columns)
+    {
+        final Dictionary[] dictionaries = new Dictionary[columns.size()];
+        for (int i = 0; i < dictionaries.length; i++) {
+            final List<Member> column = columns.get(i);
+            dictionaries[i] =
+                new Dictionary(column.toArray(new Member[column.size()]));
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Creates a list containing the cartesian product of a list of lists.
+     *
+     * <p>The members of each input list become the dictionaries of its
+     * columns, so populating the product requires no lookups.</p>
+     *
+     * @param lists Lists; none is empty
+     * @return Cartesian product
+     */
+    public static OrdinalTupleList cartesianProduct(List<TupleList> lists) {
+        final List<List<Member>> columns = new ArrayList<List<Member>>();
+        long size = 1;
+        for (TupleList list : lists) {
+            assert !list.isEmpty();
+            for (int i = 0; i < list.getArity(); i++) {
+                columns.add(list.slice(i));
+            }
+            size *= list.size();
+        }
+        final OrdinalTupleList result =
+            new OrdinalTupleList(columns, (int) size);
+        final int[] sizes = new int[lists.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = lists.get(i).size();
+        }
+
+        // Each tuple of the i'th list uses the same ordinal in every column
+        // of that list. Count through the ordinals like an odometer.
+        final int[] ordinals = new int[lists.size()];
+        final int[] tuple = new int[result.arity];
+        for (;;) {
+            int n = 0;
+            for (int i = 0; i < ordinals.length; i++) {
+                for (int j = lists.get(i).getArity(); j > 0; j--) {
+                    tuple[n++] = ordinals[i];
+                }
+            }
+            result.addOrdinals(tuple);
+            int i = ordinals.length - 1;
+            while (i >= 0 && ++ordinals[i] == sizes[i]) {
+                ordinals[i--] = 0;
+            }
+            if (i < 0) {
+                return result;
+            }
+        }
+    }
+
+    private int ordinal(int i) {
+        return narrowData != null ? narrowData[i] : wideData[i];
+    }
+
+    private void setOrdinal(int i, int ordinal) {
+        if (narrowData != null) {
+            if (ordinal < NARROW_LIMIT) {
+                narrowData[i] = (char) ordinal;
+                return;
+            }
+            widen();
+        }
+        wideData[i] = ordinal;
+    }
+
+    private int capacity() {
+        return narrowData != null ? narrowData.length : wideData.length;
+    }
+
+    /**
+     * Converts the ordinals from {@code char}s to {@code int}s.
+     */
+    private void widen() {
+        wideData = new int[narrowData.length];
+        for (int i = 0, n = size * arity; i < n; i++) {
+            wideData[i] = narrowData[i];
+        }
+        narrowData = null;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int oldCapacity = capacity();
+        if (minCapacity > oldCapacity) {
+            int newCapacity = (oldCapacity * 3) / 2 + 1;
+            if (newCapacity < minCapacity) {
+                newCapacity = minCapacity;
+            }
+            if (narrowData != null) {
+                final char[] newData = new char[newCapacity];
+                System.arraycopy(narrowData, 0, newData, 0, size * arity);
+                narrowData = newData;
+            } else {
+                wideData = Util.copyOf(wideData, newCapacity);
+            }
+        }
+    }
+
+    /**
+     * Moves the tuples from {@code index} onwards {@code count} positions to
+     * the right, making room for {@code count} tuples, and increases the size
+     * of this list accordingly.
+     */
+    private void openGap(int index, int count) {
+        ensureCapacity((size + count) * arity);
+        final Object data = narrowData != null ? narrowData : wideData;
+        System.arraycopy(
+            data, index * arity, data, (index + count) * arity,
+            (size - index) * arity);
+        size += count;
+    }
+
+    /**
+     * Writes a tuple's ordinals into position {@code index}.
+     */
+    private void setTuple(int index, List<Member> members) {
+        if (members.size() != arity) {
+            throw new IllegalArgumentException(
+                "Tuple length does not match arity");
+        }
+        final int n = index * arity;
+        if (members instanceof Tuple
+            && ((Tuple) members).dictionaries == dictionaries)
+        {
+            final int[] ordinals = ((Tuple) members).ordinals;
+            for (int i = 0; i < arity; i++) {
+                setOrdinal(n + i, ordinals[i]);
+            }
+        } else {
+            for (int i = 0; i < arity; i++) {
+                setOrdinal(n + i, dictionaries[i].ordinal(members.get(i)));
+            }
+        }
+    }
+
+    private void addOrdinals(int[] ordinals) {
+        ensureCapacity((size + 1) * arity);
+        final int n = size * arity;
+        for (int i = 0; i < arity; i++) {
+            setOrdinal(n + i, ordinals[i]);
+        }
+        ++size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Member get(int slice, int index) {
+        return dictionaries[slice].get(ordinal(index * arity + slice));
+    }
+
+    @Override
+    public List<Member> get(int index) {
+        final int[] ordinals = new int[arity];
+        for (int i = 0, n = index * arity; i < arity; i++) {
+            ordinals[i] = ordinal(n + i);
+        }
+        return new Tuple(dictionaries, ordinals);
+    }
+
+    @Override
+    public List<Member> set(int index, List<Member> element) {
+        assert mutable;
+        setTuple(index, element);
+        return null; // not compliant with List contract
+    }
+
+    @Override
+    public boolean add(List<Member> members) {
+        assert mutable;
+        ensureCapacity((size + 1) * arity);
+        setTuple(size, members);
+        ++size;
+        return true;
+    }
+
+    @Override
+    public void add(int index, List<Member> members) {
+        assert mutable;
+        if (members.size() != arity) {
+            throw new IllegalArgumentException(
+                "Tuple length does not match arity");
+        }
+        openGap(index, 1);
+        setTuple(index, members);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends List<Member>> c) {
+        assert mutable;
+        final int count = c.size();
+        openGap(index, count);
+        for (List<Member> members : c) {
+            setTuple(index++, members);
+        }
+        return count > 0;
+    }
+
+    public void addTuple(Member... members) {
+        assert mutable;
+        add(Arrays.asList(members));
+    }
+
+    @Override
+    public void addCurrent(TupleCursor tupleIter) {
+        assert mutable;
+        if (tupleIter instanceof OrdinalIterator
+            && ((OrdinalIterator) tupleIter).dictionaries() == dictionaries)
+        {
+            final int n = ((OrdinalIterator) tupleIter).lastRet * arity;
+            final OrdinalTupleList list =
+                ((OrdinalIterator) tupleIter).list();
+            ensureCapacity((size + 1) * arity);
+            for (int i = 0, m = size * arity; i < arity; i++) {
+                setOrdinal(m + i, list.ordinal(n + i));
+            }
+            ++size;
+        } else {
+            add(tupleIter.current());
+        }
+    }
+
+    @Override
+    public List<Member> remove(int index) {
+        assert mutable;
+        removeRange(index, index + 1);
+        return null; // breach of List contract
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        assert mutable;
+        final Object data = narrowData != null ? narrowData : wideData;
+        System.arraycopy(
+            data, toIndex * arity, data, fromIndex * arity,
+            (size - toIndex) * arity);
+        size -= toIndex - fromIndex;
+    }
+
+    @Override
+    public void clear() {
+        assert mutable;
+        size = 0;
+    }
+
+    public List<Member> slice(final int column) {
+        if (column < 0 || column >= arity) {
+            throw new IllegalArgumentException();
+        }
+        return new AbstractList<Member>() {
+            @Override
+            public Member get(int index) {
+                return OrdinalTupleList.this.get(column, index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public TupleList cloneList(int capacity) {
+        if (capacity < 0) {
+            // copy of this list with the same contents
+            final OrdinalTupleList list =
+                new OrdinalTupleList(dictionaries, size);
+            list.addAll(this);
+            return list;
+        } else {
+            // empty copy of this list with given capacity
+            return new OrdinalTupleList(dictionaries, capacity);
+        }
+    }
+
+    public TupleList project(int[] destIndices) {
+        final Dictionary[] projected = new Dictionary[destIndices.length];
+        for (int i = 0; i < destIndices.length; i++) {
+            projected[i] = dictionaries[destIndices[i]];
+        }
+        final OrdinalTupleList list = new OrdinalTupleList(projected, size);
+        final int[] ordinals = new int[destIndices.length];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < destIndices.length; j++) {
+                ordinals[j] = ordinal(i * arity + destIndices[j]);
+            }
+            list.addOrdinals(ordinals);
+        }
+        return list;
+    }
+
+    @Override
+    public TupleList subList(final int fromIndex, final int toIndex) {
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                @Override
+                public List<Member> get(int index) {
+                    return OrdinalTupleList.this.get(fromIndex + index);
+                }
+
+                @Override
+                public int size() {
+                    return toIndex - fromIndex;
+                }
+            });
+    }
+
+    public TupleList withPositionCallback(
+        final PositionCallback positionCallback)
+    {
+        return new DelegatingTupleList(
+            arity,
+            new AbstractList<List<Member>>() {
+                @Override
+                public List<Member> get(int index) {
+                    positionCallback.onPosition(index);
+                    return OrdinalTupleList.this.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            });
+    }
+
+    public TupleIterator tupleIteratorInternal() {
+        return new OrdinalIterator();
+    }
+
+    /**
+     * Iterator over an {@link OrdinalTupleList}. Sets the context of an
+     * evaluator directly from the dictionaries.
+     */
+    private class OrdinalIterator extends AbstractTupleListIterator {
+        Dictionary[] dictionaries() {
+            return dictionaries;
+        }
+
+        OrdinalTupleList list() {
+            return OrdinalTupleList.this;
+        }
+
+        public void setContext(Evaluator evaluator) {
+            for (int i = 0, n = lastRet * arity; i < arity; i++) {
+                evaluator.setContext(dictionaries[i].get(ordinal(n + i)));
+            }
+        }
+
+        public Member member(int column) {
+            return get(column, lastRet);
+        }
+
+        public void currentToArray(Member[] members, int offset) {
+            for (int i = 0, n = lastRet * arity; i < arity; i++) {
+                members[offset + i] = dictionaries[i].get(ordinal(n + i));
+            }
+        }
+    }
+
+    /**
+     * Tuple in an {@link OrdinalTupleList}. Remembers its ordinals, so that
+     * it can be added to a list that shares the same dictionaries without
+     * looking up its members.
+     */
+    private static class Tuple extends AbstractList<Member> {
+        private final Dictionary[] dictionaries;
+        private final int[] ordinals;
+
+        Tuple(Dictionary[] dictionaries, int[] ordinals) {
+            this.dictionaries = dictionaries;
+            this.ordinals = ordinals;
+        }
+
+        public Member get(int index) {
+            return dictionaries[index].get(ordinals[index]);
+        }
+
+        public int size() {
+            return ordinals.length;
+        }
+    }
+
+    /**
+     * Array of members, each identified by its ordinal. Members can be added
+     * but not removed, so ordinals remain valid for all lists that share
+     * the dictionary.
+     */
+    private static class Dictionary {
+        private volatile Member[] members;
+        private int size;
+        private Map<Member, Integer> ordinalMap;
+
+        Dictionary(Member[] members) {
+            this.members = members;
+            this.size = members.length;
+        }
+
+        Member get(int ordinal) {
+            return members[ordinal];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Returns the ordinal of a member, adding the member if it is not
+         * present.
+         */
+        synchronized int ordinal(Member member) {
+            if (ordinalMap == null) {
+                ordinalMap = new HashMap<Member, Integer>();
+                for (int i = size - 1; i >= 0; i--) {
+                    ordinalMap.put(members[i], i);
+                }
+            }
+            Integer ordinal = ordinalMap.get(member);
+            if (ordinal == null) {
+                ordinal = size;
+                Member[] newMembers = members;
+                if (size == newMembers.length) {
+                    newMembers = Util.copyOf(newMembers, size * 2 + 1);
+                }
+                newMembers[size++] = member;
+                members = newMembers;
+                ordinalMap.put(member, ordinal);
+            }
+            return ordinal;
+        }
+    }
+}
+
+// End OrdinalTupleList.java
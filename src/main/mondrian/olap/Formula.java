@@ -41,6 +41,13 @@ public class Formula extends QueryPart {
     private Member mdxMember;
     private NamedSet mdxSet;
 
+    /**
+     * Whether {@link #mdxMember} was created by the formula this one is a
+     * clone of. The member may be in use by other queries, so validating
+     * this formula must not modify it.
+     */
+    private boolean sharedMember;
+
     /**
      * Constructs formula specifying a set.
      */
@@ -79,13 +86,18 @@ public class Formula extends QueryPart {
     }
 
     public Object clone() {
-        return new Formula(
-            isMember,
-            id,
-            exp.clone(),
-            MemberProperty.cloneArray(memberProperties),
-            mdxMember,
-            mdxSet);
+        final Formula formula =
+            new Formula(
+                isMember,
+                id,
+                exp.clone(),
+                MemberProperty.cloneArray(memberProperties),
+                mdxMember,
+                mdxSet);
+        // The original formula set the member's properties when it was
+        // validated.
+        formula.sharedMember = mdxMember != null;
+        return formula;
     }
 
     static Formula[] cloneArray(Formula[] x) {
@@ -122,7 +134,7 @@ public class Formula extends QueryPart {
         }
         // Get the format expression from the property list, or derive it from
         // the formula.
-        if (isMember) {
+        if (isMember && !sharedMember) {
             Exp formatExp = getFormatExp(validator);
             if (formatExp != null) {
                 mdxMember.setProperty(
@@ -341,6 +341,23 @@ public class Query extends QueryPart {
         "CloneDoesntDeclareCloneNotSupportedException"
     })
     public Query clone() {
+        return clone(statement);
+    }
+
+    /**
+     * Creates a copy of this Query that belongs to a given statement.
+     *
+     * <p>The copy's expressions are clones of this query's, and are validated
+     * and compiled again; but since they are already resolved, their
+     * identifiers are not looked up again. The copy refers to the same
+     * members, calculated members and named sets as this query; validating
+     * the copy does not modify the calculated members, so copies may be
+     * validated and executed concurrently by different statements.
+     *
+     * @param statement Statement
+     * @return Copy of this query
+     */
+    public Query clone(Statement statement) {
         return new Query(
             statement,
             cube,
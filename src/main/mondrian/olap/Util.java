@@ -281,6 +281,51 @@ public class Util extends XOMUtil {
         return executor;
     }
 
+    /**
+     * Returns the executor that runs CPU-bound work in parallel, such as
+     * sorting large lists, rolling up segments and evaluating partitions of
+     * cells.
+     *
+     * <p>The executor has at most one thread per processor, and is shared by
+     * all statements. It does not queue tasks: when all of its threads are
+     * busy, the thread that submits a task runs the task itself. Therefore a
+     * task may submit further tasks and wait for them without risk of
+     * deadlock.</p>
+     *
+     * @return Executor for CPU-bound work
+     */
+    public static ExecutorService getCpuExecutorService() {
+        return CpuExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Creates an {@link ExecutorService} object backed by a thread pool
+     * with a fixed number of threads. Tasks submitted while all threads are
+     * busy wait in an unbounded queue, rather than being rejected.
+     * @param nbThreads Maximum number of concurrent
+     * threads.
+     * @param name The name of the threads.
+     * @return An executor service preconfigured.
+     */
+    public static ExecutorService getFixedExecutorService(
+        final int nbThreads,
+        final String name)
+    {
+        return Executors.newFixedThreadPool(
+            nbThreads,
+            new ThreadFactory() {
+                final AtomicInteger counter = new AtomicInteger(0);
+                public Thread newThread(Runnable r) {
+                    final Thread thread =
+                        Executors.defaultThreadFactory().newThread(r);
+                    thread.setDaemon(true);
+                    thread.setName(name + '_' + counter.incrementAndGet());
+                    return thread;
+                }
+            }
+        );
+    }
+
     /**
      * Creates an {@link ScheduledExecutorService} object backed by a
      * thread pool with a fixed number of threads..
@@ -2730,6 +2775,19 @@ public class Util extends XOMUtil {
         return new ConnectStringParser(s).parse();
     }
 
+    /**
+     * Holds the executor returned by {@link Util#getCpuExecutorService()},
+     * so that it is created on first use.
+     */
+    private static class CpuExecutorHolder {
+        static final ExecutorService EXECUTOR =
+            getExecutorService(
+                Runtime.getRuntime().availableProcessors(),
+                0, 1,
+                "mondrian.olap.Util$cpuExecutor",
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
     private static class ConnectStringParser {
         private final String s;
         private final int n;
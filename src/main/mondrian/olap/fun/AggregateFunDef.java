@@ -106,7 +106,9 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                     null,
                     "Don't know how to rollup aggregator '" + aggregator + "'");
             }
-            if (aggregator != RolapAggregator.DistinctCount) {
+            if (aggregator != RolapAggregator.DistinctCount
+                && aggregator != RolapAggregator.ApproxDistinctCount)
+            {
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
@@ -119,8 +121,8 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
                 }
             }
 
-            // All that follows is logic for distinct count. It's not like the
-            // other aggregators.
+            // All that follows is logic for distinct count (exact or
+            // approximate). It's not like the other aggregators.
             if (tupleList.size() == 0) {
                 return DoubleNull;
             }
@@ -38,6 +38,10 @@ class AvgFunDef extends AbstractAggregateFunDef {
         final Calc calc = call.getArgCount() > 1
             ? compiler.compileScalar(call.getArg(1), true)
             : new ValueCalc(call);
+        final Member member = call.getArgCount() > 1
+            ? ValueAccumulator.getValueMember(
+                call.getArg(0), call.getArg(1), compiler)
+            : null;
         return new AbstractDoubleCalc(call, new Calc[]{listCalc, calc}) {
             public double evaluateDouble(Evaluator evaluator) {
                 TupleList memberList = evaluateCurrentList(listCalc, evaluator);
@@ -45,8 +49,8 @@ class AvgFunDef extends AbstractAggregateFunDef {
                 evaluator.setNonEmpty(false);
                 try {
                     final double avg =
-                        (Double) avg(
-                            evaluator, memberList, calc);
+                        (Double) ValueAccumulator.accumulate(
+                            evaluator, memberList, calc, member).avg();
                     return avg;
                 } finally {
                     evaluator.restore(savepoint);
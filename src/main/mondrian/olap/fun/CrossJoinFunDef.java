@@ -42,6 +42,12 @@ public class CrossJoinFunDef extends FunDefBase {
 
     private static int counterTag = 0;
 
+    /**
+     * Number of tuples of a cartesian product that
+     * {@link #nonEmptyIterable} checks at a time.
+     */
+    private static final int STREAM_BATCH_SIZE = 1000;
+
     // used to tell the difference between crossjoin expressions.
     private final int ctag = counterTag++;
 
@@ -203,6 +209,13 @@ public class CrossJoinFunDef extends FunDefBase {
                 o2 = l2;
             }
 
+            if (o1 instanceof TupleList
+                && o2 instanceof TupleList
+                && evaluator.isNonEmpty()
+                && isStreamed((TupleList) o1, (TupleList) o2))
+            {
+                return nonEmptyIterable(evaluator, makeIterable(o1, o2), call);
+            }
             return makeIterable(o1, o2);
         }
 
@@ -210,66 +223,80 @@ public class CrossJoinFunDef extends FunDefBase {
             final TupleIterable it1,
             final TupleIterable it2)
         {
-            // There is no knowledge about how large either it1 ore it2
-            // are or how many null members they might have, so all
-            // one can do is iterate across them:
-            // iterate across it1 and for each member iterate across it2
-
-            return new AbstractTupleIterable(it1.getArity() + it2.getArity()) {
-                public TupleCursor tupleCursor() {
-                    return new AbstractTupleCursor(getArity()) {
-                        final TupleCursor i1 = it1.tupleCursor();
-                        final int arity1 = i1.getArity();
-                        TupleCursor i2 =
-                            TupleCollections.emptyList(1).tupleCursor();
-                        final Member[] members = new Member[arity];
-
-                        public boolean forward() {
+            return productIterable(it1, it2);
+        }
+    }
+
+    /**
+     * Returns an iterable over the cartesian product of two iterables.
+     *
+     * @param it1 First iterable
+     * @param it2 Second iterable
+     * @return Iterable over the product
+     */
+    static TupleIterable productIterable(
+        final TupleIterable it1,
+        final TupleIterable it2)
+    {
+        // There is no knowledge about how large either it1 ore it2
+        // are or how many null members they might have, so all
+        // one can do is iterate across them:
+        // iterate across it1 and for each member iterate across it2
+
+        return new AbstractTupleIterable(it1.getArity() + it2.getArity()) {
+            public TupleCursor tupleCursor() {
+                return new AbstractTupleCursor(getArity()) {
+                    final TupleCursor i1 = it1.tupleCursor();
+                    final int arity1 = i1.getArity();
+                    TupleCursor i2 =
+                        TupleCollections.emptyList(1).tupleCursor();
+                    final Member[] members = new Member[arity];
+
+                    public boolean forward() {
+                        if (i2.forward()) {
+                            return true;
+                        }
+                        while (i1.forward()) {
+                            i2 = it2.tupleCursor();
                             if (i2.forward()) {
                                 return true;
                             }
-                            while (i1.forward()) {
-                                i2 = it2.tupleCursor();
-                                if (i2.forward()) {
-                                    return true;
-                                }
-                            }
-                            return false;
                         }
+                        return false;
+                    }
 
-                        public List<Member> current() {
-                            i1.currentToArray(members, 0);
-                            i2.currentToArray(members, arity1);
-                            return Util.flatList(members);
-                        }
+                    public List<Member> current() {
+                        i1.currentToArray(members, 0);
+                        i2.currentToArray(members, arity1);
+                        return Util.flatList(members);
+                    }
 
-                        @Override
-                        public Member member(int column) {
-                            if (column < arity1) {
-                                return i1.member(column);
-                            } else {
-                                return i2.member(column - arity1);
-                            }
+                    @Override
+                    public Member member(int column) {
+                        if (column < arity1) {
+                            return i1.member(column);
+                        } else {
+                            return i2.member(column - arity1);
                         }
+                    }
 
-                        @Override
-                        public void setContext(Evaluator evaluator) {
-                            i1.setContext(evaluator);
-                            i2.setContext(evaluator);
-                        }
+                    @Override
+                    public void setContext(Evaluator evaluator) {
+                        i1.setContext(evaluator);
+                        i2.setContext(evaluator);
+                    }
 
-                        @Override
-                        public void currentToArray(
-                            Member[] members,
-                            int offset)
-                        {
-                            i1.currentToArray(members, offset);
-                            i2.currentToArray(members, offset + arity1);
-                        }
-                    };
-                }
-            };
-        }
+                    @Override
+                    public void currentToArray(
+                        Member[] members,
+                        int offset)
+                    {
+                        i1.currentToArray(members, offset);
+                        i2.currentToArray(members, offset + arity1);
+                    }
+                };
+            }
+        };
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -365,6 +392,9 @@ public class CrossJoinFunDef extends FunDefBase {
                     l1.getArity() + l2.getArity());
             }
 
+            if (evaluator.isNonEmpty() && isStreamed(l1, l2)) {
+                return nonEmptyCrossJoin(evaluator, l1, l2, call);
+            }
             return makeList(l1, l2);
         }
 
@@ -534,37 +564,155 @@ public class CrossJoinFunDef extends FunDefBase {
         // Now we can safely cast size to an integer. It still might be very
         // large - which means we're allocating a huge array which we might
         // pare down later by applying NON EMPTY constraints - which is a
-        // concern.
-        List<Member> result = new ArrayList<Member>((int) size * arity);
+        // concern. Storing ordinals rather than members keeps it compact.
+        return OrdinalTupleList.cartesianProduct(lists);
+    }
 
-        final Member[] partialArray = new Member[arity];
-        final List<Member> partial = Arrays.asList(partialArray);
-        cartesianProductRecurse(0, lists, partial, partialArray, 0, result);
-        return new ListTupleList(arity, result);
+    /**
+     * Returns whether the non-empty tuples of the cartesian product of two
+     * lists should be streamed by {@link #nonEmptyIterable} rather than
+     * the product being materialized; see
+     * {@link MondrianProperties#CrossJoinStreamingSize}.
+     *
+     * @param list1 First list
+     * @param list2 Second list
+     * @return Whether to stream the product
+     */
+    static boolean isStreamed(TupleList list1, TupleList list2) {
+        return (long) list1.size() * (long) list2.size()
+            > MondrianProperties.instance().CrossJoinStreamingSize.get();
     }
 
-    private static void cartesianProductRecurse(
-        int i,
-        List<TupleList> lists,
-        List<Member> partial,
-        Member[] partialArray,
-        int partialSize,
-        List<Member> result)
+    /**
+     * Returns the tuples of the cartesian product of two lists that are not
+     * empty, as a mutable list. Unlike {@link #mutableCrossJoin}, never holds
+     * the whole product in memory, and applies the result limit to the
+     * number of non-empty tuples.
+     *
+     * @param evaluator Evaluator
+     * @param list1 First list
+     * @param list2 Second list
+     * @param call Calling ResolvedFunCall used to determine what Measures
+     *             to use
+     * @return List of non-empty tuples
+     */
+    protected TupleList nonEmptyCrossJoin(
+        Evaluator evaluator,
+        TupleList list1,
+        TupleList list2,
+        ResolvedFunCall call)
     {
-        final TupleList tupleList = lists.get(i);
-        final int partialSizeNext = partialSize + tupleList.getArity();
-        final int iNext = i + 1;
-        final TupleCursor cursor = tupleList.tupleCursor();
+        final TupleList result =
+            TupleCollections.createList(list1.getArity() + list2.getArity());
+        final TupleCursor cursor =
+            nonEmptyIterable(
+                evaluator, productIterable(list1, list2), call)
+                .tupleCursor();
         while (cursor.forward()) {
-            cursor.currentToArray(partialArray, partialSize);
-            if (i == lists.size() - 1) {
-                result.addAll(partial);
-            } else {
-                cartesianProductRecurse(
-                    iNext, lists, partial, partialArray, partialSizeNext,
-                    result);
+            result.addCurrent(cursor);
+            if (result.size() % STREAM_BATCH_SIZE == 0) {
+                Util.checkCJResultLimit(result.size());
             }
         }
+        Util.checkCJResultLimit(result.size());
+        return result;
+    }
+
+    /**
+     * Returns an iterable over the tuples of a cartesian product that are not
+     * empty, per {@link #nonEmptyList}. Reads the product lazily, and checks
+     * {@link #STREAM_BATCH_SIZE} tuples at a time.
+     *
+     * <p>If checking a batch requests cells that are not in the cache, and
+     * the evaluator is reading through a batching cell reader, loads those
+     * cells and checks the batch again. So each batch needs one round trip
+     * for its cells, and a tuple is not dropped just because its cells have
+     * not been loaded yet.</p>
+     *
+     * @param evaluator Evaluator
+     * @param product Cartesian product
+     * @param call Calling ResolvedFunCall used to determine what Measures
+     *             to use
+     * @return Iterable over non-empty tuples
+     */
+    protected TupleIterable nonEmptyIterable(
+        Evaluator evaluator,
+        final TupleIterable product,
+        final ResolvedFunCall call)
+    {
+        // The caller may restore the context before it reads the iterable.
+        final Evaluator streamEvaluator = evaluator.push();
+        return new AbstractTupleIterable(product.getArity()) {
+            public TupleCursor tupleCursor() {
+                return new AbstractTupleCursor(getArity()) {
+                    final TupleCursor source = product.tupleCursor();
+                    TupleList batch = TupleCollections.emptyList(arity);
+                    int position = -1;
+                    boolean exhausted;
+
+                    public boolean forward() {
+                        while (position + 1 >= batch.size()) {
+                            if (exhausted) {
+                                return false;
+                            }
+                            batch = nextBatch();
+                            position = -1;
+                        }
+                        ++position;
+                        return true;
+                    }
+
+                    private TupleList nextBatch() {
+                        final TupleList candidates =
+                            TupleCollections.createList(
+                                arity, STREAM_BATCH_SIZE);
+                        while (candidates.size() < STREAM_BATCH_SIZE) {
+                            if (!source.forward()) {
+                                exhausted = true;
+                                break;
+                            }
+                            candidates.addCurrent(source);
+                        }
+                        return nonEmptyBatch(streamEvaluator, candidates, call);
+                    }
+
+                    public List<Member> current() {
+                        return batch.get(position);
+                    }
+
+                    @Override
+                    public Member member(int column) {
+                        return batch.get(column, position);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the non-empty tuples of a batch, loading any cells that they
+     * need and that are not in the cache.
+     */
+    private TupleList nonEmptyBatch(
+        Evaluator evaluator,
+        TupleList candidates,
+        ResolvedFunCall call)
+    {
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        final boolean dirty =
+            evaluator instanceof RolapEvaluator
+            && ((RolapEvaluator) evaluator).isDirty();
+        final int missCount = evaluator.getMissCount();
+        TupleList result = nonEmptyList(evaluator, candidates, call);
+        if (evaluator.getMissCount() != missCount
+            && evaluator instanceof RolapEvaluator
+            && ((RolapEvaluator) evaluator).loadPendingCells(dirty))
+        {
+            result = nonEmptyList(evaluator, candidates, call);
+        }
+        return result;
     }
 
     /**
@@ -753,9 +901,8 @@ public class CrossJoinFunDef extends FunDefBase {
             return list;
         }
 
-        TupleList result =
-            TupleCollections.createList(
-                list.getArity(), (list.size() + 2) >> 1);
+        // Clone the list, so that an ordinal list stays ordinal.
+        TupleList result = list.cloneList((list.size() + 2) >> 1);
 
         // Get all of the Measures
         final Query query = evaluator.getQuery();
@@ -150,9 +150,7 @@ class FilterFunDef extends FunDefBase {
                 TupleList list = lcalc.evaluateList(evaluator);
 
                 // make list mutable; guess selectivity .5
-                TupleList result =
-                    TupleCollections.createList(
-                        list.getArity(), list.size() / 2);
+                TupleList result = list.cloneList(list.size() / 2);
                 evaluator.setNonEmpty(false);
                 TupleCursor cursor = list.tupleCursor();
                 while (cursor.forward()) {
@@ -476,6 +476,69 @@ public class FunUtil extends Util {
         }
     }
 
+    /**
+     * For each member in a list, evaluates an expression, and returns the
+     * values in an array aligned with the list.
+     *
+     * <p>Evaluates every value in one pass, so that if the evaluator is
+     * batching cell requests, all of the cells that the values need are
+     * requested together.
+     *
+     * @param evaluator Evaluation context
+     * @param exp Expression to evaluate
+     * @param members List of members
+     * @return Values; null values are converted to {@link Util#nullValue}
+     */
+    static Object[] evaluateMemberValues(
+        Evaluator evaluator,
+        Calc exp,
+        List<Member> members)
+    {
+        final int savepoint = evaluator.savepoint();
+        try {
+            final Object[] values = new Object[members.size()];
+            for (int i = 0; i < values.length; i++) {
+                evaluator.setContext(members.get(i));
+                final Object result = exp.evaluate(evaluator);
+                values[i] = result == null ? Util.nullValue : result;
+            }
+            return values;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
+    /**
+     * For each tuple in a list, evaluates an expression, and returns the
+     * values in an array aligned with the list.
+     *
+     * @see #evaluateMemberValues(Evaluator, Calc, List)
+     *
+     * @param evaluator Evaluation context
+     * @param exp Expression to evaluate
+     * @param tuples List of tuples
+     * @return Values; null values are converted to {@link Util#nullValue}
+     */
+    static Object[] evaluateTupleValues(
+        Evaluator evaluator,
+        Calc exp,
+        TupleList tuples)
+    {
+        final int savepoint = evaluator.savepoint();
+        try {
+            final Object[] values = new Object[tuples.size()];
+            final TupleCursor cursor = tuples.tupleCursor();
+            for (int i = 0; cursor.forward(); i++) {
+                cursor.setContext(evaluator);
+                final Object result = exp.evaluate(evaluator);
+                values[i] = result == null ? Util.nullValue : result;
+            }
+            return values;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+
     /**
      * Helper function to sort a list of members according to an expression.
      *
@@ -513,25 +576,44 @@ public class FunUtil extends Util {
         boolean timingEval = true;
         boolean timingSort = false;
         try {
-            // REVIEW mberkowitz 1/09: test whether precomputing
-            // values saves time.
+            if (brk) {
+                // Evaluate each key once, then sort positions by key.
+                if (memberList == null) {
+                    memberList = new ArrayList<Member>();
+                    for (Member member : memberIter) {
+                        memberList.add(member);
+                    }
+                }
+                final Object[] values =
+                    evaluateMemberValues(evaluator, exp, memberList);
+                evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
+                timingEval = false;
+                evaluator.getTiming().markStart(SORT_TIMING_NAME);
+                timingSort = true;
+                final int[] indexes =
+                    IndexSorter.forValues(values, desc).sort(values.length);
+                final Member[] members =
+                    memberList.toArray(new Member[values.length]);
+                for (int i = 0; i < indexes.length; i++) {
+                    memberList.set(i, members[indexes[i]]);
+                }
+                return memberList;
+            }
+
+            // Hierarchical sort compares ancestors, so evaluate the parents
+            // too.
             Map<Member, Object> mapMemberToValue;
-            final boolean parentsToo = !brk;
             if (memberList == null) {
                 memberList = new ArrayList<Member>();
                 mapMemberToValue = evaluateMembers(
-                    evaluator, exp, memberIter, memberList, parentsToo);
+                    evaluator, exp, memberIter, memberList, true);
             } else {
                 mapMemberToValue = evaluateMembers(
-                    evaluator, exp, memberIter, null, parentsToo);
+                    evaluator, exp, memberIter, null, true);
             }
 
-            MemberComparator comp;
-            if (brk) {
-                comp = new BreakMemberComparator(evaluator, exp, desc);
-            } else {
-                comp = new HierarchicalMemberComparator(evaluator, exp, desc);
-            }
+            MemberComparator comp =
+                new HierarchicalMemberComparator(evaluator, exp, desc);
             comp.preloadValues(mapMemberToValue);
             evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
             timingEval = false;
@@ -647,26 +729,31 @@ public class FunUtil extends Util {
         }
 
         @SuppressWarnings({"unchecked"})
-        List<Member>[] tuples =
-            tupleArrayList.toArray(new List[tupleArrayList.size()]);
-        final DelegatingTupleList result =
-            new DelegatingTupleList(
-                tupleIterable.getArity(),
-                Arrays.asList(tuples));
-
-        Comparator<List<Member>> comparator;
+        List<Member>[] tuples = new List[tupleArrayList.size()];
         if (brk) {
-            comparator =
-                new BreakTupleComparator(evaluator, exp, arity);
-            if (desc) {
-                comparator = Collections.reverseOrder(comparator);
+            // Evaluate each key once, then sort positions by key.
+            final Object[] values =
+                evaluateTupleValues(
+                    evaluator,
+                    exp,
+                    tupleList != null
+                        ? tupleList
+                        : new DelegatingTupleList(arity, tupleArrayList));
+            final int[] indexes =
+                IndexSorter.forValues(values, desc).sort(values.length);
+            for (int i = 0; i < indexes.length; i++) {
+                tuples[i] = tupleArrayList.get(indexes[i]);
             }
         } else {
-            comparator =
-                new HierarchicalTupleComparator(evaluator, exp, arity, desc);
+            tuples = tupleArrayList.toArray(tuples);
+            Arrays.sort(
+                tuples,
+                new HierarchicalTupleComparator(evaluator, exp, arity, desc));
         }
-
-        Arrays.sort(tuples, comparator);
+        final DelegatingTupleList result =
+            new DelegatingTupleList(
+                tupleIterable.getArity(),
+                Arrays.asList(tuples));
 
         if (LOGGER.isDebugEnabled()) {
             StringBuilder sb =
@@ -678,6 +765,13 @@ public class FunUtil extends Util {
             LOGGER.debug(sb.toString());
         }
 
+        if (tupleList instanceof OrdinalTupleList) {
+            // Keep the result compact. The tuples remember their ordinals,
+            // so adding them to a clone of the list requires no lookups.
+            final TupleList ordinalList = tupleList.cloneList(tuples.length);
+            ordinalList.addAll(result);
+            return ordinalList;
+        }
         return result;
     }
 
@@ -711,16 +805,19 @@ public class FunUtil extends Util {
         boolean timingEval = true;
         boolean timingSort = false;
         try {
-            MemberComparator comp =
-                new BreakMemberComparator(evaluator, exp, desc);
-            Map<Member, Object> valueMap =
-                evaluateMembers(evaluator, exp, list, null, false);
+            final Object[] values =
+                evaluateMemberValues(evaluator, exp, list);
             evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
             timingEval = false;
             evaluator.getTiming().markStart(SORT_TIMING_NAME);
             timingSort = true;
-            comp.preloadValues(valueMap);
-            return stablePartialSort(list, comp.wrap(), limit);
+            final int[] indexes =
+                IndexSorter.forValues(values, desc).top(values.length, limit);
+            final List<Member> result = new ArrayList<Member>(limit);
+            for (int index : indexes) {
+                result.add(list.get(index));
+            }
+            return result;
         } finally {
             if (timingEval) {
                 evaluator.getTiming().markEnd(SORT_EVAL_TIMING_NAME);
@@ -800,8 +897,7 @@ public class FunUtil extends Util {
      * valued Tuples, and returns them as a new List. Helper function for MDX
      * functions TopCount and BottomCount.
      *
-     * <p>NOTE: Does not preserve the contents of the validator. The returned
-     * list is immutable.
+     * <p>NOTE: Does not preserve the contents of the validator.
      *
      * @param evaluator Evaluator
      * @param list a list of tuples
@@ -820,12 +916,14 @@ public class FunUtil extends Util {
     {
         assert list.size() > 0;
         assert limit <= list.size();
-        Comparator<List<Member>> comp =
-            new BreakTupleComparator(evaluator, exp, list.getArity());
-        if (desc) {
-            comp = Collections.reverseOrder(comp);
+        final Object[] values = evaluateTupleValues(evaluator, exp, list);
+        final int[] indexes =
+            IndexSorter.forValues(values, desc).top(values.length, limit);
+        final List<List<Member>> result = new ArrayList<List<Member>>(limit);
+        for (int index : indexes) {
+            result.add(list.get(index));
         }
-        return stablePartialSort(list, comp, limit);
+        return result;
     }
 
     /**
@@ -1456,12 +1554,8 @@ public class FunUtil extends Util {
         TupleList members,
         Calc calc)
     {
-        SetWrapper sw = evaluateSet(evaluator, members, calc);
-        return (sw.errorCount > 0)
-            ? new Double(Double.NaN)
-            : (sw.v.size() == 0)
-            ? Util.nullValue
-            : new Double(_avg(sw));
+        return ValueAccumulator.accumulate(evaluator, members, calc, null)
+            .avg();
     }
 
     // TODO: parameterize inclusion of nulls; also, maybe make _avg a method of
@@ -1489,18 +1583,8 @@ public class FunUtil extends Util {
         TupleList members,
         Calc exp)
     {
-        SetWrapper sw = evaluateSet(evaluator, members, exp);
-        if (sw.errorCount > 0) {
-            return Double.NaN;
-        } else if (sw.v.size() == 0) {
-            return DoubleNull;
-        } else {
-            double sum = 0.0;
-            for (int i = 0; i < sw.v.size(); i++) {
-                sum += ((Number) sw.v.get(i)).doubleValue();
-            }
-            return sum;
-        }
+        return ValueAccumulator.accumulate(evaluator, members, exp, null)
+            .sum();
     }
 
     public static double sumDouble(
@@ -1508,18 +1592,8 @@ public class FunUtil extends Util {
         TupleIterable iterable,
         Calc exp)
     {
-        SetWrapper sw = evaluateSet(evaluator, iterable, exp);
-        if (sw.errorCount > 0) {
-            return Double.NaN;
-        } else if (sw.v.size() == 0) {
-            return DoubleNull;
-        } else {
-            double sum = 0.0;
-            for (int i = 0; i < sw.v.size(); i++) {
-                sum += ((Number) sw.v.get(i)).doubleValue();
-            }
-            return sum;
-        }
+        return ValueAccumulator.accumulate(evaluator, iterable, exp, null)
+            .sum();
     }
 
     public static int count(
@@ -2282,36 +2356,56 @@ public class FunUtil extends Util {
 
     /**
      * Stable partial sort of a list, using a specified algorithm.
+     *
+     * <p>Algorithm 0, the default, is {@link #stablePartialSortHeap}; the
+     * others remain so that their speed can be compared.
      */
     public static <T> List<T> stablePartialSort(
         final List<T> list, final Comparator<T> comp, int limit, int algorithm)
     {
         assert limit <= list.size();
         assert list.size() > 0;
-        for (;;) {
-            switch (algorithm) {
-            case 0:
-                float ratio = (float) limit / (float) list.size();
-                if (ratio <= .05) {
-                    algorithm = 4; // julian's algorithm
-                } else if (ratio <= .35) {
-                    algorithm = 2; // marc's algorithm
-                } else {
-                    algorithm = 1; // array sort
-                }
-                break;
-            case 1:
-                return stablePartialSortArray(list, comp, limit);
-            case 2:
-                return stablePartialSortMarc(list, comp, limit);
-            case 3:
-                return stablePartialSortPedro(list, comp, limit);
-            case 4:
-                return stablePartialSortJulian(list, comp, limit);
-            default:
-                throw new RuntimeException();
-            }
+        switch (algorithm) {
+        case 0:
+        case 5:
+            return stablePartialSortHeap(list, comp, limit);
+        case 1:
+            return stablePartialSortArray(list, comp, limit);
+        case 2:
+            return stablePartialSortMarc(list, comp, limit);
+        case 3:
+            return stablePartialSortPedro(list, comp, limit);
+        case 4:
+            return stablePartialSortJulian(list, comp, limit);
+        default:
+            throw new RuntimeException();
+        }
+    }
+
+    /**
+     * Stable partial sort of a list, using a binary heap of the positions of
+     * the best {@code limit} elements seen so far. Takes O(n log limit) time,
+     * and unlike {@link #stablePartialSortJulian} allocates nothing per
+     * element.
+     *
+     * @param list List to sort
+     * @param comp Comparator
+     * @param limit Maximum number of items to return
+     * @param <T> Element type
+     * @return Sorted list, containing at most limit items
+     */
+    public static <T> List<T> stablePartialSortHeap(
+        final List<T> list, final Comparator<T> comp, int limit)
+    {
+        @SuppressWarnings({"unchecked"})
+        final T[] items = (T[]) list.toArray();
+        final int[] indexes =
+            IndexSorter.forItems(items, comp).top(items.length, limit);
+        final List<T> result = new ArrayList<T>(indexes.length);
+        for (int index : indexes) {
+            result.add(items[index]);
         }
+        return result;
     }
 
     /**
@@ -2467,7 +2561,7 @@ public class FunUtil extends Util {
      * by using a heap (priority queue) for the top {@code limit} items seen.
      * The items on the priority queue have an ordinal field, so the queue
      * can be used to generate a list of stably sorted items. (Heap sort is
-     * not normally stable.)
+     * not normally stable.) Now superseded by {@link #stablePartialSortHeap}.
      *
      * @param list List to sort
      * @param comp Comparator
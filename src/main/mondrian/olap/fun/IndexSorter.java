@@ -0,0 +1,387 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.olap.fun;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapUtil;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sorts the positions of a list whose sort keys have been computed in
+ * advance.
+ *
+ * <p>Sorting positions (indexes into the list), rather than the elements
+ * themselves, means that the keys can be held in arrays aligned with the
+ * list, and that comparing two elements never evaluates an expression. Both
+ * {@link #sort} and {@link #top} are stable: elements whose keys are equal
+ * remain in the order they had in the list.</p>
+ *
+ * <p>Because the keys are immutable once computed, {@link #sort} can sort
+ * large lists on several threads; see
+ * {@link MondrianProperties#ParallelSortThreshold}.</p>
+ */
+abstract class IndexSorter {
+    /**
+     * Ranges shorter than this are sorted by insertion sort.
+     */
+    private static final int INSERTION_SORT_SIZE = 7;
+
+    private static final byte NOT_READY = 0;
+    private static final byte NULL = 1;
+    private static final byte NUMBER = 2;
+
+    /**
+     * Compares the keys of the elements at two positions.
+     *
+     * @param i First position
+     * @param j Second position
+     * @return negative, zero or positive, as the first element sorts before,
+     *   with or after the second
+     */
+    abstract int compare(int i, int j);
+
+    /**
+     * Creates a sorter that orders the positions of a list by cell values,
+     * as {@link FunUtil#compareValues(Object, Object)} does.
+     *
+     * <p>If every value is a number, null or not ready, the numbers are
+     * copied into a {@code double} array and compared without unboxing.</p>
+     *
+     * @param values Values, one per element of the list; null values must
+     *   have been converted to {@link Util#nullValue}
+     * @param desc Whether to sort descending
+     * @return Sorter
+     */
+    static IndexSorter forValues(Object[] values, boolean desc) {
+        final double[] numbers = new double[values.length];
+        final byte[] kinds = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final Object value = values[i];
+            if (value instanceof Number) {
+                numbers[i] = ((Number) value).doubleValue();
+                kinds[i] = NUMBER;
+            } else if (value == Util.nullValue) {
+                kinds[i] = NULL;
+            } else if (value == RolapUtil.valueNotReadyException) {
+                kinds[i] = NOT_READY;
+            } else {
+                return new ObjectSorter(values, desc);
+            }
+        }
+        return new NumberSorter(numbers, kinds, desc);
+    }
+
+    /**
+     * Creates a sorter that orders the positions of an array by a
+     * comparator.
+     *
+     * @param items Items
+     * @param comp Comparator
+     * @return Sorter
+     */
+    static <T> IndexSorter forItems(
+        final T[] items,
+        final Comparator<? super T> comp)
+    {
+        return new IndexSorter() {
+            int compare(int i, int j) {
+                return comp.compare(items[i], items[j]);
+            }
+        };
+    }
+
+    /**
+     * Returns the positions {@code 0 .. n - 1} in sorted order.
+     *
+     * <p>If {@code n} is at least
+     * {@link MondrianProperties#ParallelSortThreshold}, sorts partitions of
+     * the positions on several threads, then merges them.</p>
+     *
+     * @param n Number of elements
+     * @return Sorted positions
+     */
+    final int[] sort(int n) {
+        final int threshold =
+            MondrianProperties.instance().ParallelSortThreshold.get();
+        final int partitionCount =
+            threshold <= 0 || n < threshold
+                ? 1
+                : Runtime.getRuntime().availableProcessors();
+        return sort(n, partitionCount);
+    }
+
+    /**
+     * Returns the positions {@code 0 .. n - 1} in sorted order, sorting
+     * up to a given number of partitions in parallel.
+     *
+     * @param n Number of elements
+     * @param partitionCount Number of partitions
+     * @return Sorted positions
+     */
+    final int[] sort(int n, int partitionCount) {
+        final int[] dest = new int[n];
+        for (int i = 0; i < n; i++) {
+            dest[i] = i;
+        }
+        final int[] src = dest.clone();
+        partitionCount = Math.min(partitionCount, n / INSERTION_SORT_SIZE);
+        if (partitionCount <= 1) {
+            mergeSort(src, dest, 0, n);
+            return dest;
+        }
+
+        // Sort each partition, leaving the results in 'dest'.
+        int[] bounds = new int[partitionCount + 1];
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int p = 0; p < partitionCount; p++) {
+            final int lo = (int) ((long) n * p / partitionCount);
+            final int hi = (int) ((long) n * (p + 1) / partitionCount);
+            bounds[p] = lo;
+            tasks.add(
+                new Runnable() {
+                    public void run() {
+                        mergeSort(src, dest, lo, hi);
+                    }
+                });
+        }
+        bounds[partitionCount] = n;
+        runAll(tasks);
+
+        // Merge adjacent runs pairwise until one run remains, alternating
+        // between the two arrays.
+        int[] from = dest;
+        int[] to = src;
+        while (bounds.length > 2) {
+            final int runCount = bounds.length - 1;
+            final int[] nextBounds = new int[(runCount + 1) / 2 + 1];
+            tasks.clear();
+            for (int r = 0; r < runCount; r += 2) {
+                final int lo = bounds[r];
+                final int mid = bounds[Math.min(r + 1, runCount)];
+                final int hi = bounds[Math.min(r + 2, runCount)];
+                final int[] mergeFrom = from;
+                final int[] mergeTo = to;
+                nextBounds[r / 2] = lo;
+                tasks.add(
+                    new Runnable() {
+                        public void run() {
+                            merge(mergeFrom, mergeTo, lo, mid, hi);
+                        }
+                    });
+            }
+            nextBounds[nextBounds.length - 1] = n;
+            runAll(tasks);
+            bounds = nextBounds;
+            final int[] temp = from;
+            from = to;
+            to = temp;
+        }
+        return from;
+    }
+
+    /**
+     * Returns the positions of the first {@code limit} elements in sorted
+     * order, as if the first {@code limit} positions returned by
+     * {@link #sort} were taken.
+     *
+     * <p>Keeps a heap of the best {@code limit} positions seen so far, whose
+     * root is the worst of them, so takes O(n log limit) time and
+     * O(limit) space.</p>
+     *
+     * @param n Number of elements
+     * @param limit Number of positions to return
+     * @return Sorted positions of the first elements
+     */
+    final int[] top(int n, int limit) {
+        assert limit <= n;
+        final int[] heap = new int[limit];
+        if (limit == 0) {
+            return heap;
+        }
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size < limit) {
+                heap[size] = i;
+                siftUp(heap, size++);
+            } else if (compare(i, heap[0]) < 0) {
+                // Ties are not replaced: the earlier position wins.
+                heap[0] = i;
+                siftDown(heap, limit);
+            }
+        }
+        // Heap sort: repeatedly move the worst remaining position to the end.
+        for (int end = limit - 1; end > 0; end--) {
+            final int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, end);
+        }
+        return heap;
+    }
+
+    /**
+     * Compares two positions by key, then by position, which imposes a
+     * total order.
+     */
+    private int compareStable(int i, int j) {
+        final int c = compare(i, j);
+        if (c != 0) {
+            return c;
+        }
+        return i < j ? -1 : i == j ? 0 : 1;
+    }
+
+    private void siftUp(int[] heap, int k) {
+        final int x = heap[k];
+        while (k > 0) {
+            final int parent = (k - 1) >>> 1;
+            if (compareStable(x, heap[parent]) <= 0) {
+                break;
+            }
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = x;
+    }
+
+    private void siftDown(int[] heap, int size) {
+        final int x = heap[0];
+        int k = 0;
+        for (;;) {
+            int child = 2 * k + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size
+                && compareStable(heap[child + 1], heap[child]) > 0)
+            {
+                ++child;
+            }
+            if (compareStable(x, heap[child]) >= 0) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = x;
+    }
+
+    /**
+     * Sorts the range {@code [lo, hi)} of {@code dest}, using the same range
+     * of {@code src}, which must have the same contents, as scratch space.
+     */
+    private void mergeSort(int[] src, int[] dest, int lo, int hi) {
+        if (hi - lo < INSERTION_SORT_SIZE) {
+            for (int i = lo + 1; i < hi; i++) {
+                for (int j = i; j > lo && compare(dest[j - 1], dest[j]) > 0;
+                     j--)
+                {
+                    final int t = dest[j];
+                    dest[j] = dest[j - 1];
+                    dest[j - 1] = t;
+                }
+            }
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        mergeSort(dest, src, lo, mid);
+        mergeSort(dest, src, mid, hi);
+        merge(src, dest, lo, mid, hi);
+    }
+
+    /**
+     * Merges the sorted ranges {@code [lo, mid)} and {@code [mid, hi)} of
+     * {@code src} into the range {@code [lo, hi)} of {@code dest}. On ties,
+     * takes from the first range, so that the merge is stable.
+     */
+    private void merge(int[] src, int[] dest, int lo, int mid, int hi) {
+        if (mid == hi || compare(src[mid - 1], src[mid]) <= 0) {
+            // Already in order.
+            System.arraycopy(src, lo, dest, lo, hi - lo);
+            return;
+        }
+        for (int i = lo, p = lo, q = mid; i < hi; i++) {
+            if (q >= hi || p < mid && compare(src[p], src[q]) <= 0) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Runs tasks, the first on the calling thread and the others on the
+     * executor, and waits for all of them to complete.
+     */
+    private static void runAll(List<Runnable> tasks) {
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (Runnable task : tasks.subList(1, tasks.size())) {
+                futures.add(Util.getCpuExecutorService().submit(task));
+            }
+            tasks.get(0).run();
+            for (Future<?> future : futures) {
+                Util.safeGet(future, "Error while sorting");
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Sorter whose keys are numbers, nulls, or values that are not ready.
+     */
+    private static class NumberSorter extends IndexSorter {
+        private final double[] numbers;
+        private final byte[] kinds;
+        private final boolean desc;
+
+        NumberSorter(double[] numbers, byte[] kinds, boolean desc) {
+            this.numbers = numbers;
+            this.kinds = kinds;
+            this.desc = desc;
+        }
+
+        int compare(int i, int j) {
+            // Values that are not ready sort first, then nulls, then
+            // numbers.
+            int c = kinds[i] - kinds[j];
+            if (c == 0 && kinds[i] == NUMBER) {
+                c = FunUtil.compareValues(numbers[i], numbers[j]);
+            }
+            return desc ? -c : c;
+        }
+    }
+
+    /**
+     * Sorter whose keys are arbitrary cell values, such as strings.
+     */
+    private static class ObjectSorter extends IndexSorter {
+        private final Object[] values;
+        private final boolean desc;
+
+        ObjectSorter(Object[] values, boolean desc) {
+            this.values = values;
+            this.desc = desc;
+        }
+
+        int compare(int i, int j) {
+            final int c = FunUtil.compareValues(values[i], values[j]);
+            return desc ? -c : c;
+        }
+    }
+}
+
+// End IndexSorter.java
@@ -89,6 +89,11 @@ public class NonEmptyCrossJoinFunDef extends CrossJoinFunDef {
                         return list1;
                     }
                     final TupleList list2 = listCalc2.evaluateList(evaluator);
+                    if (isStreamed(list1, list2)) {
+                        // Check tuples as the product is generated, rather
+                        // than materializing the whole product.
+                        return nonEmptyCrossJoin(evaluator, list1, list2, call);
+                    }
                     TupleList result = mutableCrossJoin(list1, list2);
 
                     // remove any remaining empty crossings from the result
@@ -82,18 +82,23 @@ class SumFunDef extends AbstractAggregateFunDef {
         final Calc calc = call.getArgCount() > 1
             ? compiler.compileScalar(call.getArg(1), true)
             : new ValueCalc(call);
+        final Member member = call.getArgCount() > 1
+            ? ValueAccumulator.getValueMember(
+                call.getArg(0), call.getArg(1), compiler)
+            : null;
         // we may have asked for one sort of Calc, but here's what we got.
         if (ncalc instanceof ListCalc) {
-            return genListCalc(call, (ListCalc) ncalc, calc);
+            return genListCalc(call, (ListCalc) ncalc, calc, member);
         } else {
-            return genIterCalc(call, (IterCalc) ncalc, calc);
+            return genIterCalc(call, (IterCalc) ncalc, calc, member);
         }
     }
 
     protected Calc genIterCalc(
         final ResolvedFunCall call,
         final IterCalc iterCalc,
-        final Calc calc)
+        final Calc calc,
+        final Member member)
     {
         return new AbstractDoubleCalc(call, new Calc[] {iterCalc, calc}) {
             public double evaluateDouble(Evaluator evaluator) {
@@ -101,7 +106,8 @@ class SumFunDef extends AbstractAggregateFunDef {
                     evaluateCurrentIterable(iterCalc, evaluator);
                 final int savepoint = evaluator.savepoint();
                 try {
-                    return sumDouble(evaluator, iterable, calc);
+                    return ValueAccumulator.accumulate(
+                        evaluator, iterable, calc, member).sum();
                 } finally {
                     evaluator.restore(savepoint);
                 }
@@ -116,7 +122,8 @@ class SumFunDef extends AbstractAggregateFunDef {
     protected Calc genListCalc(
         final ResolvedFunCall call,
         final ListCalc listCalc,
-        final Calc calc)
+        final Calc calc,
+        final Member member)
     {
         return new AbstractDoubleCalc(call, new Calc[] {listCalc, calc}) {
             public double evaluateDouble(Evaluator evaluator) {
@@ -124,9 +131,8 @@ class SumFunDef extends AbstractAggregateFunDef {
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
-                    return
-                        sumDouble(
-                            evaluator, memberList, calc);
+                    return ValueAccumulator.accumulate(
+                        evaluator, memberList, calc, member).sum();
                 } finally {
                     evaluator.restore(savepoint);
                 }
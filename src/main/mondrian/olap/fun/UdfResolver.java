@@ -105,6 +105,16 @@ public class UdfResolver implements Resolver {
         return new UdfFunDef(parameterCategories, returnType);
     }
 
+    /**
+     * Returns whether a function is a user-defined function.
+     *
+     * @param funDef Function
+     * @return Whether function was created by a UdfResolver
+     */
+    public static boolean isUdf(FunDef funDef) {
+        return funDef instanceof UdfFunDef;
+    }
+
     public boolean requiresExpression(int k) {
         return false;
     }
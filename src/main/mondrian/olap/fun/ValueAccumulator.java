@@ -0,0 +1,193 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.olap.fun;
+
+import mondrian.calc.*;
+import mondrian.mdx.MemberExpr;
+import mondrian.olap.*;
+import mondrian.olap.type.SetType;
+import mondrian.rolap.RolapEvaluator;
+import mondrian.rolap.RolapUtil;
+
+import java.util.List;
+
+/**
+ * Accumulates the sum and count of the values of an expression over a set,
+ * for the {@code Sum}, {@code Avg} and {@code Aggregate} functions.
+ *
+ * <p>Gives the same results as summing the values collected by
+ * {@link FunUtil#evaluateSet(Evaluator, TupleIterable, Calc)}, but adds each
+ * value to a {@code double} as it is evaluated, rather than boxing it and
+ * adding it to a list.</p>
+ *
+ * <p>If the expression is a member, such as {@code [Measures].[Unit Sales]},
+ * and the set does not contain members of its hierarchy, the accumulator
+ * sets the member into the context once, then evaluates the current cell for
+ * each tuple; see {@link #getValueMember}. If the member is a stored measure
+ * and there are no calculated members in the context, the evaluator reads
+ * the cells of the whole set in one call, making a cell request from each
+ * tuple rather than setting the tuple into the context; see
+ * {@link RolapEvaluator#evaluateCells}.</p>
+ *
+ * <p>The accumulator does not request the aggregate of the set as a single
+ * cell; cells not yet in the cache are batched by the cell reader, as
+ * before.</p>
+ */
+class ValueAccumulator {
+    private double sum;
+    private int count;
+    private int errorCount;
+    private Object nonNumeric;
+
+    private ValueAccumulator() {
+    }
+
+    /**
+     * Returns the member whose value an expression returns, if
+     * {@link #accumulate} can set that member into the context once for all
+     * tuples of a set; otherwise null.
+     *
+     * @param setExp Set expression
+     * @param valueExp Value expression
+     * @param compiler Compiler
+     * @return Member, or null
+     */
+    static Member getValueMember(
+        Exp setExp,
+        Exp valueExp,
+        ExpCompiler compiler)
+    {
+        if (!(valueExp instanceof MemberExpr)
+            || !(setExp.getType() instanceof SetType)
+            || compiler.getEvaluator().mightReturnNullForUnrelatedDimension())
+        {
+            return null;
+        }
+        final Member member = ((MemberExpr) valueExp).getMember();
+        if (member.isNull()
+            || setExp.getType().usesHierarchy(member.getHierarchy(), false))
+        {
+            return null;
+        }
+        return member;
+    }
+
+    /**
+     * Evaluates an expression for each tuple in a set, and accumulates the
+     * values.
+     *
+     * <p>If {@code member} is not null, the expression is its value, and
+     * this method sets it into the context of the evaluator; the caller must
+     * restore the context.</p>
+     *
+     * @param evaluator Evaluator
+     * @param tuples Set of tuples
+     * @param calc Compiled expression
+     * @param member Member returned by {@link #getValueMember}, or null
+     * @return Accumulated values
+     */
+    static ValueAccumulator accumulate(
+        Evaluator evaluator,
+        TupleIterable tuples,
+        Calc calc,
+        Member member)
+    {
+        assert tuples != null;
+        assert calc != null;
+        final ValueAccumulator accumulator = new ValueAccumulator();
+        if (member != null) {
+            evaluator.setContext(member);
+            if (evaluator instanceof RolapEvaluator) {
+                final List<Object> values =
+                    ((RolapEvaluator) evaluator).evaluateCells(tuples);
+                if (values != null) {
+                    for (Object value : values) {
+                        accumulator.add(value);
+                    }
+                    return accumulator;
+                }
+            }
+        }
+        final TupleCursor cursor = tuples.tupleCursor();
+        while (cursor.forward()) {
+            cursor.setContext(evaluator);
+            accumulator.add(
+                member != null
+                    ? evaluator.evaluateCurrent()
+                    : calc.evaluate(evaluator));
+        }
+        return accumulator;
+    }
+
+    private void add(Object o) {
+        if (o == null || o == Util.nullValue) {
+            return;
+        }
+        if (o == RolapUtil.valueNotReadyException) {
+            // Carry on summing, so that if we are running in a
+            // BatchingCellReader, we find out all the dependent cells we
+            // need
+            ++errorCount;
+        } else if (o instanceof Number) {
+            sum += ((Number) o).doubleValue();
+            ++count;
+        } else {
+            if (nonNumeric == null) {
+                nonNumeric = o;
+            }
+            ++count;
+        }
+    }
+
+    /**
+     * Returns the sum of the values: NaN if any value was not ready, or
+     * {@link FunUtil#DoubleNull} if all values were null.
+     *
+     * @return Sum
+     * @throws ClassCastException if a value was not numeric
+     */
+    double sum() {
+        if (errorCount > 0) {
+            return Double.NaN;
+        } else if (count == 0) {
+            return FunUtil.DoubleNull;
+        } else {
+            checkNumeric();
+            return sum;
+        }
+    }
+
+    /**
+     * Returns the average of the non-null values: NaN if any value was not
+     * ready, or {@link Util#nullValue} if all values were null.
+     *
+     * @return Average
+     * @throws ClassCastException if a value was not numeric
+     */
+    Object avg() {
+        if (errorCount > 0) {
+            return Double.NaN;
+        } else if (count == 0) {
+            return Util.nullValue;
+        } else {
+            checkNumeric();
+            return sum / (double) count;
+        }
+    }
+
+    private void checkNumeric() {
+        if (nonNumeric != null) {
+            // Throw the same exception as casting the value to a number.
+            ((Number) nonNumeric).doubleValue();
+        }
+    }
+}
+
+// End ValueAccumulator.java
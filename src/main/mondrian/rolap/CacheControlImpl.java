@@ -199,6 +199,7 @@ public class CacheControlImpl implements CacheControl {
             throw MondrianResource.instance().CacheFlushRegionMustContainMembers
                 .ex();
         }
+        clearSharedExpResultCaches();
         final UnionCellRegion union = normalize((CellRegionImpl) region);
         for (CellRegionImpl cellRegion : union.regions) {
             // Figure out the bits.
@@ -206,6 +207,32 @@ public class CacheControlImpl implements CacheControl {
         }
     }
 
+    /**
+     * Clears the caches of expression results that are shared between
+     * queries. A flushed cell or member may have contributed to any result,
+     * so all results of all schemas are discarded.
+     */
+    private void clearSharedExpResultCaches() {
+        for (RolapSchema schema
+            : RolapSchemaPool.instance().getRolapSchemas())
+        {
+            schema.getSharedExpResultCache().clear();
+        }
+    }
+
+    /**
+     * Clears the caches of validated queries. Queries refer to the members
+     * they were validated against, which may have been flushed or modified,
+     * so all queries of all schemas are discarded.
+     */
+    private void clearQueryPlanCaches() {
+        for (RolapSchema schema
+            : RolapSchemaPool.instance().getRolapSchemas())
+        {
+            schema.getQueryPlanCache().clear();
+        }
+    }
+
     /**
      * Flushes a list of cell regions.
      *
@@ -632,6 +659,8 @@ public class CacheControlImpl implements CacheControl {
                 }
            );
             // STUB: flush the set: another visitor
+            clearSharedExpResultCaches();
+            clearQueryPlanCaches();
 
             // finally, flush cells now invalid
             flushRegionList(cellRegionList);
@@ -827,6 +856,8 @@ public class CacheControlImpl implements CacheControl {
                 final List<CellRegion> cellRegionList =
                     new ArrayList<CellRegion>();
                 ((MemberEditCommandPlus) cmd).execute(cellRegionList);
+                clearSharedExpResultCaches();
+                clearQueryPlanCaches();
 
                 // Flush the cells touched by the regions
                 for (CellRegion memberRegion : cellRegionList) {
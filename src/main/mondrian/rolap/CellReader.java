@@ -14,6 +14,7 @@
 package mondrian.rolap;
 
 import mondrian.olap.Util;
+import mondrian.rolap.agg.CellRequest;
 
 /**
  * A <code>CellReader</code> finds the cell value for the current context
@@ -51,6 +52,19 @@ interface CellReader {
      */
     Object get(RolapEvaluator evaluator);
 
+    /**
+     * Returns the value of the cell identified by a cell request.
+     *
+     * <p>Same as {@link #get(RolapEvaluator)}, for a caller that has already
+     * made the request for the context.
+     *
+     * @param request Cell request, or null if the context does not identify
+     * a cell
+     * @return Cell value, or null if not found, or {@link Util#nullValue} if
+     * the value is null
+     */
+    Object get(CellRequest request);
+
     /**
      * Returns the number of times this cell reader has told a lie
      * (since creation), because the required cell value is not in the
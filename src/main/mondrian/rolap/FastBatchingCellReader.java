@@ -44,6 +44,12 @@ public class FastBatchingCellReader implements CellReader {
     private static final Logger LOGGER =
         Logger.getLogger(FastBatchingCellReader.class);
 
+    /**
+     * Name under which query timing records the time taken by each in-memory
+     * rollup.
+     */
+    private static final String ROLLUP_TIMING_NAME = "Rollup";
+
     private final int cellRequestLimit;
 
     private final RolapCube cube;
@@ -112,10 +118,41 @@ public class FastBatchingCellReader implements CellReader {
                 : MondrianProperties.instance().CellBatchSize.get();
     }
 
+    /**
+     * Creates a reader for the same execution and cube, which another thread
+     * can use while evaluating some of the cells of the same query. Its cell
+     * requests are added to this reader by {@link #merge}.
+     *
+     * @return New reader
+     */
+    FastBatchingCellReader createSibling() {
+        return new FastBatchingCellReader(execution, cube, aggMgr);
+    }
+
+    /**
+     * Adds the cell requests, statistics and pinned segments of a reader
+     * created by {@link #createSibling()} to this reader.
+     *
+     * <p>Unlike {@link #recordCellRequest}, never throws
+     * {@link CellRequestQuantumExceededException}.
+     *
+     * @param reader Sibling reader
+     */
+    void merge(FastBatchingCellReader reader) {
+        cellRequests.addAll(reader.cellRequests);
+        missCount += reader.missCount;
+        hitCount += reader.hitCount;
+        pendingCount += reader.pendingCount;
+        ((AggregationManager.PinSetImpl) pinnedSegments).addAll(
+            (AggregationManager.PinSetImpl) reader.pinnedSegments);
+        dirty |= reader.dirty;
+    }
+
     public Object get(RolapEvaluator evaluator) {
-        final CellRequest request =
-            RolapAggregationManager.makeRequest(evaluator);
+        return get(RolapAggregationManager.makeRequest(evaluator));
+    }
 
+    public Object get(CellRequest request) {
         if (request == null || request.isUnsatisfiable()) {
             return Util.nullValue; // request not satisfiable.
         }
@@ -240,6 +277,13 @@ public class FastBatchingCellReader implements CellReader {
         preloadColumnCardinality(cellRequests1);
 
         for (int iteration = 0;; ++iteration) {
+            // If many SQL statements are already waiting to run against this
+            // cube's database, wait before asking for more.
+            if (cube.getStar() != null) {
+                cacheMgr.getSqlExecutor(cube.getStar().getDataSource())
+                    .awaitCapacity(execution);
+            }
+
             final BatchLoader.LoadBatchResponse response =
                 cacheMgr.execute(
                     new BatchLoader.LoadBatchCommand(
@@ -276,6 +320,8 @@ public class FastBatchingCellReader implements CellReader {
                 final SegmentWithData segmentWithData =
                     response.convert(header, body);
                 segmentWithData.getStar().register(segmentWithData);
+                segmentWithData.getStar().getCellLoadCostModel()
+                    .recordCellCount(header, body);
             }
 
             // Perform each suggested rollup.
@@ -303,6 +349,7 @@ public class FastBatchingCellReader implements CellReader {
                     keepColumns.add(
                         column.getExpression().getGenericExpression());
                 }
+                final long rollupStart = System.nanoTime();
                 Pair<SegmentHeader, SegmentBody> rollupHeaderBody =
                     SegmentBuilder.rollup(
                         map,
@@ -310,10 +357,25 @@ public class FastBatchingCellReader implements CellReader {
                         rollup.constrainedColumnsBitKey,
                         rollup.measure.getAggregator().getRollup(),
                         rollup.measure.getDatatype());
+                final long rollupNanos = System.nanoTime() - rollupStart;
 
                 final SegmentHeader header = rollupHeaderBody.left;
                 final SegmentBody body = rollupHeaderBody.right;
 
+                // Teach the cost model how long the rollup took, and how big
+                // the new segment is, should it be rolled up in turn.
+                final CellLoadCostModel costModel =
+                    rollup.measure.getStar().getCellLoadCostModel();
+                long sourceCellCount = 0;
+                for (SegmentBody sourceBody : map.values()) {
+                    sourceCellCount +=
+                        Math.max(SegmentBuilder.getCellCount(sourceBody), 0);
+                }
+                costModel.recordRollup(sourceCellCount, rollupNanos);
+                costModel.recordCellCount(header, body);
+                execution.getQueryTiming().markFull(
+                    ROLLUP_TIMING_NAME, rollupNanos / 1000000);
+
                 if (headerBodies.containsKey(header)) {
                     // We had already created this segment, somehow.
                     continue;
@@ -336,6 +398,7 @@ public class FastBatchingCellReader implements CellReader {
                 if (!MondrianProperties.instance().DisableCaching.get()) {
                     final Locus locus = Locus.peek();
                     cacheMgr.execute(
+                        segmentWithData.getStar(),
                         new SegmentCacheManager.Command<Void>() {
                             public Void call() throws Exception {
                                 SegmentCacheIndex index =
@@ -554,6 +617,19 @@ class BatchLoader {
     private static final Logger LOGGER =
         Logger.getLogger(FastBatchingCellReader.class);
 
+    /**
+     * Name under which query timing records the estimated cost of each
+     * segment that the cost model chose to roll up.
+     */
+    private static final String ROLLUP_CHOSEN_TIMING_NAME =
+        "CellLoadCost.rollup";
+
+    /**
+     * Name under which query timing records the estimated cost of each
+     * segment that the cost model chose to load by SQL rather than roll up.
+     */
+    private static final String SQL_CHOSEN_TIMING_NAME = "CellLoadCost.sql";
+
     private final Locus locus;
     private final SegmentCacheManager cacheMgr;
     private final Dialect dialect;
@@ -562,6 +638,16 @@ class BatchLoader {
     private final Map<AggregationKey, Batch> batches =
         new HashMap<AggregationKey, Batch>();
 
+    /**
+     * Batches of approximate distinct-count measures, keyed by aggregation
+     * key and measure. Their SQL returns a row for each distinct key of each
+     * cell, so they cannot share a statement with other measures, nor with
+     * each other; two such measures in one statement would return a row for
+     * each combination of their keys.
+     */
+    private final Map<List<Object>, Batch> sketchBatches =
+        new HashMap<List<Object>, Batch>();
+
     private final Set<SegmentHeader> cacheHeaders =
         new LinkedHashSet<SegmentHeader>();
 
@@ -730,7 +816,9 @@ class BatchLoader {
                     AggregationKey.getCompoundPredicateStringList(
                         star,
                         key.getCompoundPredicateList()));
-            if (!rollup.isEmpty()) {
+            if (!rollup.isEmpty()
+                && !isSqlCheaper(request, key, rollup.get(0)))
+            {
                 rollups.add(
                     new RollupInfo(
                         request,
@@ -747,6 +835,59 @@ class BatchLoader {
         return false;
     }
 
+    /**
+     * Returns whether loading a request's segment by SQL is estimated to be
+     * cheaper than rolling up a list of cached segments, and records the
+     * decision in the statement's query timing.
+     *
+     * @param request Cell request
+     * @param key Aggregation key of the request
+     * @param headers Segments that the rollup would read
+     * @return Whether to execute SQL rather than roll up
+     */
+    private boolean isSqlCheaper(
+        CellRequest request,
+        AggregationKey key,
+        List<SegmentHeader> headers)
+    {
+        final RolapStar star = key.getStar();
+        final BitKey levelBitKey = request.getConstrainedColumnsBitKey();
+        final BitKey measureBitKey = levelBitKey.emptyCopy();
+        measureBitKey.set(request.getMeasure().getBitPosition());
+        final AggStar aggStar =
+            AggregationManager.findAggForSql(
+                star,
+                levelBitKey,
+                measureBitKey,
+                key.getCompoundPredicateList(),
+                new boolean[1]);
+        // The fact table's row count is not used: it might need SQL, and
+        // the cache manager must not block.
+        final CellLoadCostModel.Estimate estimate =
+            star.getCellLoadCostModel().estimate(
+                headers,
+                CellLoadCostModel.getTableName(star, aggStar),
+                aggStar == null
+                    ? -1
+                    : aggStar.getFactTable().getNumberOfRows());
+        final boolean sqlCheaper = estimate.isSqlCheaper();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "Cost of loading " + request.getMeasure().getName()
+                + " at " + levelBitKey + ": " + estimate + "; chose "
+                + (sqlCheaper ? "SQL" : "rollup"));
+        }
+        if (locus.execution != null) {
+            // Timed as the estimated cost of the path chosen.
+            final double millis =
+                sqlCheaper ? estimate.sqlMillis : estimate.rollupMillis;
+            locus.execution.getQueryTiming().markFull(
+                sqlCheaper ? SQL_CHOSEN_TIMING_NAME : ROLLUP_CHOSEN_TIMING_NAME,
+                Double.isNaN(millis) ? 0 : Math.round(millis));
+        }
+        return sqlCheaper;
+    }
+
       /**
        * Checks if the request can be satisfied by a rollup already in place
        * and moves that rollup to the top of the list if not there.
@@ -833,10 +974,22 @@ class BatchLoader {
         final SegmentBuilder.SegmentConverterImpl converter)
     {
         // Finally, add to a batch. It will turn in to a SQL request.
-        Batch batch = batches.get(key);
+        final List<Object> sketchKey =
+            request.getMeasure().getAggregator()
+            == RolapAggregator.ApproxDistinctCount
+                ? Arrays.<Object>asList(key, request.getMeasure())
+                : null;
+        Batch batch =
+            sketchKey != null
+                ? sketchBatches.get(sketchKey)
+                : batches.get(key);
         if (batch == null) {
             batch = new Batch(request);
-            batches.put(key, batch);
+            if (sketchKey != null) {
+                sketchBatches.put(sketchKey, batch);
+            } else {
+                batches.put(key, batch);
+            }
             converterMap.put(
                 SegmentCacheIndexImpl.makeConverterKey(request, key),
                 converter);
@@ -904,6 +1057,13 @@ class BatchLoader {
                 batch.loadAggregation(segmentMapFutures);
             }
         }
+        // Batches of approximate distinct-count measures are never grouped.
+        List<Batch> sketchBatchList =
+            new ArrayList<Batch>(sketchBatches.values());
+        Collections.sort(sketchBatchList, BatchComparator.instance);
+        for (Batch batch : sketchBatchList) {
+            batch.loadAggregation(segmentMapFutures);
+        }
 
         if (LOGGER.isDebugEnabled()) {
             final long t2 = System.currentTimeMillis();
@@ -0,0 +1,229 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.mdx.*;
+import mondrian.olap.*;
+import mondrian.server.Locus;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads, on several threads, the members that the slicer, axes and named sets
+ * of a query will read, so that the SQL statements that load them overlap.
+ *
+ * <p>{@link RolapResult} evaluates the slicer, then each axis, and named sets
+ * as they are referenced, one after another; each may read level members or
+ * member children from the database. Before evaluation starts, this class
+ * walks the expressions of the axes, and of the named sets they reference,
+ * to find the levels and members whose members or children they read
+ * regardless of context. It loads them into the member cache of each
+ * hierarchy, one thread per hierarchy, and evaluation then finds them in the
+ * cache.</p>
+ *
+ * <p>The reads found are {@code <Level>.Members},
+ * {@code <Level>.AllMembers} and {@code <Member>.Children} whose argument is
+ * a literal. If native non-empty evaluation is enabled, non-empty axes and
+ * the arguments of non-empty functions are skipped, because their members
+ * are read using SQL that depends on the context.</p>
+ *
+ * @see MondrianProperties#ConcurrentMemberPrefetch
+ */
+class MemberPrefetcher {
+    private static final Logger LOGGER =
+        Logger.getLogger(MemberPrefetcher.class);
+
+    /**
+     * Functions whose arguments are evaluated in non-empty context.
+     */
+    private static final Set<String> NON_EMPTY_FUNCTIONS =
+        new HashSet<String>(
+            Arrays.asList("NonEmptyCrossJoin", "NonEmpty", "NativizeSet"));
+
+    private final SchemaReader schemaReader;
+    private final boolean nativeNonEmpty;
+
+    /**
+     * Levels whose members to read, and members whose children to read,
+     * grouped by hierarchy. Reads of a hierarchy lock its member cache, so
+     * there is no point making them concurrently.
+     */
+    private final Map<Hierarchy, Set<Object>> readsByHierarchy =
+        new LinkedHashMap<Hierarchy, Set<Object>>();
+
+    private final Set<String> visitedNamedSets = new HashSet<String>();
+
+    /**
+     * Creates a MemberPrefetcher.
+     *
+     * @param schemaReader Schema reader that the query will read members
+     *   with
+     */
+    MemberPrefetcher(SchemaReader schemaReader) {
+        this.schemaReader = schemaReader;
+        this.nativeNonEmpty =
+            MondrianProperties.instance().EnableNativeNonEmpty.get();
+    }
+
+    /**
+     * Finds the members read by the slicer and axes of a query, and by the
+     * named sets they reference.
+     *
+     * @param query Query
+     */
+    void addQuery(Query query) {
+        if (query.getSlicerAxis() != null) {
+            addAxis(query.getSlicerAxis());
+        }
+        for (QueryAxis axis : query.axes) {
+            addAxis(axis);
+        }
+    }
+
+    private void addAxis(QueryAxis axis) {
+        if (axis.getSet() == null
+            || (axis.isNonEmpty() && nativeNonEmpty))
+        {
+            return;
+        }
+        axis.getSet().accept(new FindReadsVisitor());
+    }
+
+    /**
+     * Returns the reads found, each a {@link Level} whose members to read
+     * or a {@link Member} whose children to read.
+     *
+     * @return List of reads
+     */
+    List<Object> getReads() {
+        final List<Object> reads = new ArrayList<Object>();
+        for (Set<Object> hierarchyReads : readsByHierarchy.values()) {
+            reads.addAll(hierarchyReads);
+        }
+        return reads;
+    }
+
+    /**
+     * Makes the reads found, one hierarchy per thread, and returns when all
+     * are complete. Does nothing unless there are reads in more than one
+     * hierarchy.
+     *
+     * <p>Errors are logged and ignored; if the query needs the members, it
+     * will read them again, and fail then.
+     */
+    void prefetch() {
+        if (readsByHierarchy.size() < 2) {
+            return;
+        }
+        final Locus locus = Locus.peek();
+        final List<Set<Object>> groups =
+            new ArrayList<Set<Object>>(readsByHierarchy.values());
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final Set<Object> group : groups.subList(1, groups.size())) {
+                futures.add(
+                    Util.getCpuExecutorService().submit(
+                        new Runnable() {
+                            public void run() {
+                                Locus.push(locus);
+                                try {
+                                    read(locus, group);
+                                } finally {
+                                    Locus.pop(locus);
+                                }
+                            }
+                        }));
+            }
+            read(locus, groups.get(0));
+            for (Future<?> future : futures) {
+                Util.safeGet(future, "Error while prefetching members");
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private void read(Locus locus, Set<Object> reads) {
+        for (Object read : reads) {
+            locus.execution.checkCancelOrTimeout();
+            try {
+                if (read instanceof Level) {
+                    schemaReader.getLevelMembers((Level) read, false);
+                } else {
+                    schemaReader.getMemberChildren((Member) read);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("Error while prefetching members: " + read, e);
+            }
+        }
+    }
+
+    private void addRead(Hierarchy hierarchy, Object read) {
+        Set<Object> reads = readsByHierarchy.get(hierarchy);
+        if (reads == null) {
+            reads = new LinkedHashSet<Object>();
+            readsByHierarchy.put(hierarchy, reads);
+        }
+        reads.add(read);
+    }
+
+    /**
+     * Visitor that finds the reads in an expression.
+     */
+    private class FindReadsVisitor extends MdxVisitorImpl {
+        public Object visit(ResolvedFunCall call) {
+            final String name = call.getFunName();
+            if (nativeNonEmpty && NON_EMPTY_FUNCTIONS.contains(name)) {
+                turnOffVisitChildren();
+                return null;
+            }
+            if (call.getArgCount() != 1) {
+                return null;
+            }
+            final Exp arg = call.getArg(0);
+            if ((name.equals("Members") || name.equals("AllMembers"))
+                && arg instanceof LevelExpr)
+            {
+                final Level level = ((LevelExpr) arg).getLevel();
+                if (!level.isAll()
+                    && !level.getDimension().isMeasures()
+                    && !level.getDimension().isHighCardinality())
+                {
+                    addRead(level.getHierarchy(), level);
+                }
+            } else if (name.equals("Children") && arg instanceof MemberExpr) {
+                final Member member = ((MemberExpr) arg).getMember();
+                if (!member.isCalculated()
+                    && !member.isMeasure()
+                    && member.getLevel().getChildLevel() != null
+                    && !member.getDimension().isHighCardinality())
+                {
+                    addRead(member.getHierarchy(), member);
+                }
+            }
+            return null;
+        }
+
+        public Object visit(NamedSetExpr namedSetExpr) {
+            final NamedSet namedSet = namedSetExpr.getNamedSet();
+            if (visitedNamedSets.add(namedSet.getNameUniqueWithinQuery())) {
+                namedSet.getExp().accept(this);
+            }
+            return null;
+        }
+    }
+}
+
+// End MemberPrefetcher.java
@@ -0,0 +1,246 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.olap.*;
+
+import java.util.*;
+
+/**
+ * Cache of validated queries, shared by all connections to a schema.
+ *
+ * <p>If property {@link MondrianProperties#QueryPlanCacheSize} is positive,
+ * {@link RolapConnection} looks up the text of each MDX statement here before
+ * it parses it. The cache holds a validated copy of each query that was
+ * parsed, keyed by its normalized text, the role and function table it was
+ * validated with, and the properties that affect how identifiers are
+ * resolved. On a hit, the connection clones the cached query (see
+ * {@link Query#clone(mondrian.server.Statement)}) instead of parsing it and
+ * looking up its identifiers again.</p>
+ *
+ * <p>Queries that contain parameters are not cached, because their
+ * {@link Parameter} objects hold values.</p>
+ *
+ * <p>The cache holds at most {@code QueryPlanCacheSize} queries, discarding
+ * the least recently used. The cache belongs to a schema, so flushing the
+ * schema discards it; {@link CacheControlImpl} also clears it whenever it
+ * flushes or modifies members, and a generation, incremented on each clear,
+ * prevents queries that were parsed before the clear from being added.</p>
+ *
+ * <p>Thread safe.</p>
+ */
+class QueryPlanCache {
+    private final Map<List<Object>, Query> map =
+        new LinkedHashMap<List<Object>, Query>(16, 0.75f, true);
+
+    private int generation;
+
+    /**
+     * Creates a QueryPlanCache.
+     */
+    QueryPlanCache() {
+    }
+
+    /**
+     * Creates a key for a query.
+     *
+     * @param mdx Text of MDX statement
+     * @param role Role of connection
+     * @param funTable Function table
+     * @param strictValidation Whether invalid members are errors
+     * @return Key
+     */
+    static List<Object> createKey(
+        String mdx,
+        Role role,
+        FunTable funTable,
+        boolean strictValidation)
+    {
+        final MondrianProperties properties = MondrianProperties.instance();
+        return Arrays.<Object>asList(
+            normalize(mdx),
+            role,
+            funTable,
+            strictValidation,
+            properties.IgnoreInvalidMembersDuringQuery.get(),
+            properties.CaseSensitive.get(),
+            properties.SsasCompatibleNaming.get(),
+            properties.NeedDimensionPrefix.get());
+    }
+
+    /**
+     * Normalizes the text of an MDX statement, trimming it and replacing
+     * each run of white space outside quoted strings, bracketed identifiers
+     * and comments with a single space.
+     *
+     * @param mdx Text of MDX statement
+     * @return Normalized text
+     */
+    static String normalize(String mdx) {
+        final StringBuilder buf = new StringBuilder(mdx.length());
+        boolean space = false;
+        int i = 0;
+        while (i < mdx.length()) {
+            if (Character.isWhitespace(mdx.charAt(i))) {
+                space = true;
+                ++i;
+                continue;
+            }
+            if (space && buf.length() > 0) {
+                buf.append(' ');
+            }
+            space = false;
+            final int end = tokenEnd(mdx, i);
+            buf.append(mdx, i, end);
+            i = end;
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns the end of the text, starting at a given position, that must
+     * be copied unchanged: a quoted string, a bracketed identifier or a
+     * comment, or else a single character.
+     *
+     * <p>A line comment ends with its line terminator, which is copied too;
+     * collapsing it would comment out the rest of the statement.</p>
+     *
+     * @param mdx Text of MDX statement
+     * @param i Start position
+     * @return End position
+     */
+    private static int tokenEnd(String mdx, int i) {
+        final char c = mdx.charAt(i);
+        final char next = i + 1 < mdx.length() ? mdx.charAt(i + 1) : 0;
+        switch (c) {
+        case '[':
+            return quoteEnd(mdx, i + 1, ']');
+        case '\'':
+        case '"':
+            return quoteEnd(mdx, i + 1, c);
+        case '-':
+        case '/':
+            if (next == c) {
+                int j = i + 2;
+                while (j < mdx.length()) {
+                    final char d = mdx.charAt(j++);
+                    if (d == '\n' || d == '\r') {
+                        break;
+                    }
+                }
+                return j;
+            }
+            if (c == '/' && next == '*') {
+                final int j = mdx.indexOf("*/", i + 2);
+                return j < 0 ? mdx.length() : j + 2;
+            }
+            break;
+        }
+        return i + 1;
+    }
+
+    /**
+     * Returns the position after the closing character of a quoted string
+     * or bracketed identifier. A doubled closing character is an escaped
+     * one, and does not close it.
+     *
+     * @param mdx Text of MDX statement
+     * @param i Position after the opening character
+     * @param close Closing character
+     * @return End position
+     */
+    private static int quoteEnd(String mdx, int i, char close) {
+        while (i < mdx.length()) {
+            if (mdx.charAt(i++) == close) {
+                if (i < mdx.length() && mdx.charAt(i) == close) {
+                    ++i;
+                } else {
+                    break;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Returns whether a query can be cached.
+     *
+     * @param query Query
+     * @return Whether query can be cached
+     */
+    static boolean isCacheable(Query query) {
+        return query.getParameters().length == 0;
+    }
+
+    /**
+     * Returns the current generation of the cache. A connection should call
+     * this before it parses a query, and pass the value to {@link #put}.
+     *
+     * @return Generation
+     */
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the cached query for a key, or null.
+     *
+     * @param key Key
+     * @return Cached query, or null
+     */
+    synchronized Query get(List<Object> key) {
+        return map.get(key);
+    }
+
+    /**
+     * Caches a query, unless the cache has been cleared since the given
+     * generation.
+     *
+     * @param key Key
+     * @param query Query; must not be modified or executed
+     * @param generation Generation of the cache when the query was parsed
+     * @param maxSize Maximum number of queries to hold
+     */
+    synchronized void put(
+        List<Object> key,
+        Query query,
+        int generation,
+        int maxSize)
+    {
+        if (generation != this.generation) {
+            return;
+        }
+        map.put(key, query);
+        final Iterator<List<Object>> iterator = map.keySet().iterator();
+        while (map.size() > maxSize) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all queries, and starts a new generation.
+     */
+    synchronized void clear() {
+        map.clear();
+        ++generation;
+    }
+
+    /**
+     * Returns the number of queries in the cache.
+     *
+     * @return Number of queries
+     */
+    synchronized int size() {
+        return map.size();
+    }
+}
+
+// End QueryPlanCache.java
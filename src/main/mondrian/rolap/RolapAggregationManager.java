@@ -812,7 +812,10 @@ public abstract class RolapAggregationManager {
         return new CellReader() {
             // implement CellReader
             public Object get(RolapEvaluator evaluator) {
-                CellRequest request = makeRequest(evaluator);
+                return get(makeRequest(evaluator));
+            }
+
+            public Object get(CellRequest request) {
                 if (request == null || request.isUnsatisfiable()) {
                     // request out of bounds
                     return Util.nullValue;
@@ -18,6 +18,7 @@ import mondrian.olap.fun.AggregateFunDef;
 import mondrian.olap.fun.FunUtil;
 import mondrian.spi.Dialect;
 import mondrian.spi.Dialect.Datatype;
+import mondrian.util.HyperLogLog;
 
 import java.util.List;
 
@@ -49,6 +50,17 @@ public abstract class RolapAggregator
                     return false;
                 }
             };
+            public boolean supportsPrimitiveAggregates(
+                Dialect.Datatype dataType)
+            {
+                return supportsFastAggregates(dataType);
+            }
+            public long aggregate(long accumulator, long value) {
+                return accumulator + value;
+            }
+            public double aggregate(double accumulator, double value) {
+                return accumulator + value;
+            }
             public Object aggregate(List<Object> rawData, Datatype datatype) {
                 assert rawData.size() > 0;
                 switch (datatype) {
@@ -118,6 +130,17 @@ public abstract class RolapAggregator
                     return false;
                 }
             };
+            public boolean supportsPrimitiveAggregates(
+                Dialect.Datatype dataType)
+            {
+                return supportsFastAggregates(dataType);
+            }
+            public long aggregate(long accumulator, long value) {
+                return Math.min(accumulator, value);
+            }
+            public double aggregate(double accumulator, double value) {
+                return Math.min(accumulator, value);
+            }
             public Object aggregate(List<Object> rawData, Datatype datatype) {
                 assert rawData.size() > 0;
                 switch (datatype) {
@@ -168,6 +191,17 @@ public abstract class RolapAggregator
                     return false;
                 }
             };
+            public boolean supportsPrimitiveAggregates(
+                Dialect.Datatype dataType)
+            {
+                return supportsFastAggregates(dataType);
+            }
+            public long aggregate(long accumulator, long value) {
+                return Math.max(accumulator, value);
+            }
+            public double aggregate(double accumulator, double value) {
+                return Math.max(accumulator, value);
+            }
             public Object aggregate(List<Object> rawData, Datatype datatype) {
                 assert rawData.size() > 0;
                 switch (datatype) {
@@ -182,9 +216,13 @@ public abstract class RolapAggregator
                         ? null
                         : maxInt;
                 case Numeric:
-                    double maxDouble = Double.MIN_VALUE;
+                    // Double.MIN_VALUE is positive, so cannot be used to
+                    // detect that all values are null.
+                    double maxDouble = Double.NEGATIVE_INFINITY;
+                    boolean found = false;
                     for (Object data : rawData) {
                         if (data != null) {
+                            found = true;
                             maxDouble =
                                 Math.max(
                                     maxDouble,
@@ -192,9 +230,9 @@ public abstract class RolapAggregator
                         }
                     }
 
-                    return maxDouble == Double.MIN_VALUE
-                        ? null
-                        : maxDouble;
+                    return found
+                        ? maxDouble
+                        : null;
                 default:
                     throw new MondrianException(
                         "Aggregator " + this.name
@@ -254,12 +292,73 @@ public abstract class RolapAggregator
             };
         };
 
+    /**
+     * Aggregator that estimates the number of distinct values.
+     *
+     * <p>Unlike {@link #DistinctCount}, it can be rolled up in memory. The
+     * segment loader reads the distinct keys of each cell and builds a
+     * {@link HyperLogLog} sketch from them; the cells of the segment hold
+     * sketches, which are merged to roll up to coarser segments, and each
+     * cell's value is the sketch's estimate.</p>
+     *
+     * <p>In SQL that does not go through the segment loader, such as native
+     * evaluation of TopCount, the measure is computed exactly, using
+     * <code>count(distinct ...)</code>.</p>
+     */
+    public static final RolapAggregator ApproxDistinctCount =
+        new RolapAggregator("approx-distinct-count", index++, false) {
+            public Aggregator getRollup() {
+                // Sketches are merged, not summed.
+                return this;
+            }
+
+            public Object aggregate(
+                Evaluator evaluator, TupleList members, Calc exp)
+            {
+                // The members' estimates cannot be combined. Evaluate the
+                // measure over all of the members at once, as for
+                // distinct-count, so that the segment loader merges their
+                // sketches.
+                if (members.size() == 0) {
+                    return FunUtil.DoubleNull;
+                }
+                final Evaluator evaluator2 =
+                    evaluator.pushAggregation(members);
+                evaluator2.setNonEmpty(false);
+                return evaluator2.evaluateCurrent();
+            }
+
+            public String getExpression(String operand) {
+                return "count(distinct " + operand + ")";
+            }
+
+            public boolean supportsFastAggregates(Dialect.Datatype dataType) {
+                return true;
+            }
+
+            public Object aggregate(List<Object> rawData, Datatype datatype) {
+                HyperLogLog sketch = null;
+                for (Object data : rawData) {
+                    if (data instanceof HyperLogLog) {
+                        final HyperLogLog other = (HyperLogLog) data;
+                        if (sketch == null) {
+                            sketch = new HyperLogLog(other.getPrecision());
+                        }
+                        sketch.merge(other);
+                    }
+                }
+                return sketch;
+            }
+        };
+
     /**
      * List of all valid aggregation operators.
      */
     public static final EnumeratedValues<RolapAggregator> enumeration =
         new EnumeratedValues<RolapAggregator>(
-            new RolapAggregator[] {Sum, Count, Min, Max, Avg, DistinctCount});
+            new RolapAggregator[] {
+                Sum, Count, Min, Max, Avg, DistinctCount, ApproxDistinctCount
+            });
 
     /**
      * This is the base class for implementing aggregators over sum and
@@ -434,6 +533,53 @@ public abstract class RolapAggregator
     {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Returns whether this aggregator can roll up values of a given datatype
+     * into primitive accumulators, using {@link #aggregate(long, long)} and
+     * {@link #aggregate(double, double)}. This avoids boxing each value when
+     * rolling up large segments.
+     *
+     * <p>By default, primitive aggregation is not supported.</p>
+     *
+     * @param dataType Datatype of values
+     * @return Whether primitive aggregation is supported
+     */
+    public boolean supportsPrimitiveAggregates(Dialect.Datatype dataType) {
+        return false;
+    }
+
+    /**
+     * Combines an integer value into an accumulator. The accumulator is
+     * initially the first non-null value; nulls are not passed to this
+     * method.
+     *
+     * <p>Called only if {@link #supportsPrimitiveAggregates} returns true for
+     * {@link Dialect.Datatype#Integer}.</p>
+     *
+     * @param accumulator Aggregate of the values so far
+     * @param value Next value
+     * @return Aggregate including the next value
+     */
+    public long aggregate(long accumulator, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Combines a numeric value into an accumulator. The accumulator is
+     * initially the first non-null value; nulls are not passed to this
+     * method.
+     *
+     * <p>Called only if {@link #supportsPrimitiveAggregates} returns true for
+     * {@link Dialect.Datatype#Numeric}.</p>
+     *
+     * @param accumulator Aggregate of the values so far
+     * @param value Next value
+     * @return Aggregate including the next value
+     */
+    public double aggregate(double accumulator, double value) {
+        throw new UnsupportedOperationException();
+    }
 }
 
 // End RolapAggregator.java
@@ -772,6 +772,59 @@ public class RolapConnection extends ConnectionBase {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If {@link MondrianProperties#QueryPlanCacheSize} is positive, and the
+     * schema has already validated the same query for the same role, returns
+     * a copy of the validated query rather than parsing it again.
+     */
+    public QueryPart parseStatement(
+        Statement statement,
+        String query,
+        FunTable funTable,
+        boolean strictValidation)
+    {
+        final int planCacheSize =
+            MondrianProperties.instance().QueryPlanCacheSize.get();
+        final RolapConnection internalConnection =
+            schema.getInternalConnection();
+        if (planCacheSize <= 0
+            || internalConnection == null
+            || internalConnection == this)
+        {
+            return super.parseStatement(
+                statement, query, funTable, strictValidation);
+        }
+        if (funTable == null) {
+            funTable = schema.getFunTable();
+        }
+        final QueryPlanCache planCache = schema.getQueryPlanCache();
+        final List<Object> key =
+            QueryPlanCache.createKey(
+                query, getRole(), funTable, strictValidation);
+        final Query cachedQuery = planCache.get(key);
+        if (cachedQuery != null) {
+            return cachedQuery.clone(statement);
+        }
+        final int generation = planCache.getGeneration();
+        final QueryPart queryPart =
+            super.parseStatement(statement, query, funTable, strictValidation);
+        if (queryPart instanceof Query
+            && QueryPlanCache.isCacheable((Query) queryPart))
+        {
+            // Cache a copy, which belongs to the schema's internal statement,
+            // because the caller may modify the query it is given.
+            planCache.put(
+                key,
+                ((Query) queryPart).clone(
+                    internalConnection.getInternalStatement()),
+                generation,
+                planCacheSize);
+        }
+        return queryPart;
+    }
+
     public Exp parseExpression(String expr) {
         boolean debug = false;
         if (getLogger().isDebugEnabled()) {
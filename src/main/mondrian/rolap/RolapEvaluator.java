@@ -15,6 +15,10 @@ package mondrian.rolap;
 
 import mondrian.calc.Calc;
 import mondrian.calc.ParameterSlot;
+import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleIterable;
+import mondrian.calc.TupleList;
 import mondrian.olap.*;
 import mondrian.olap.fun.FunUtil;
 import mondrian.server.Statement;
@@ -695,6 +699,71 @@ public class RolapEvaluator implements Evaluator {
         return o;
     }
 
+    /**
+     * Evaluates the current cell at the intersection of the context with each
+     * tuple of a set.
+     *
+     * <p>Returns the same values as setting each tuple into the context and
+     * calling {@link #evaluateCurrent()}, but if the current measure is
+     * stored, and the context contains no calculated or compound members,
+     * makes the cell request for each tuple from the current members and the
+     * members of the tuple, without modifying the context. A tuple that
+     * contains a calculated member or a measure is set into the context and
+     * evaluated in the usual way.
+     *
+     * <p>If the current measure is calculated, or the context contains
+     * calculated or compound members, evaluates nothing and returns null; the
+     * caller must evaluate each tuple itself.
+     *
+     * @param tuples Set of tuples
+     * @return Value of each tuple's cell, or null
+     */
+    public final List<Object> evaluateCells(TupleIterable tuples) {
+        if (calculationCount > 0
+            || aggregationLists != null
+            || !(currentMembers[0] instanceof RolapStoredMeasure))
+        {
+            return null;
+        }
+        final List<Object> values =
+            tuples instanceof TupleList
+                ? new ArrayList<Object>(((TupleList) tuples).size())
+                : new ArrayList<Object>();
+        final RolapMember[] members = currentMembers.clone();
+        final int[] ordinals = new int[tuples.getArity()];
+        final TupleCursor cursor = tuples.tupleCursor();
+        while (cursor.forward()) {
+            boolean plain = true;
+            for (int i = 0; i < ordinals.length; i++) {
+                final RolapMember member = (RolapMember) cursor.member(i);
+                final int ordinal = member.getHierarchy().getOrdinalInCube();
+                if (ordinal == 0 || member.isEvaluated()) {
+                    plain = false;
+                }
+                ordinals[i] = ordinal;
+                members[ordinal] = member;
+            }
+            final Object o;
+            if (plain) {
+                o = cellReader.get(
+                    RolapAggregationManager.makeRequest(members));
+            } else {
+                final int savepoint = savepoint();
+                try {
+                    cursor.setContext(this);
+                    o = evaluateCurrent();
+                } finally {
+                    restore(savepoint);
+                }
+            }
+            values.add(o == Util.nullValue ? null : o);
+            for (int ordinal : ordinals) {
+                members[ordinal] = currentMembers[ordinal];
+            }
+        }
+        return values;
+    }
+
     void setExpanding(Member member) {
         assert member != null;
         ensureCommandCapacity(commandCount + 3);
@@ -918,7 +987,7 @@ public class RolapEvaluator implements Evaluator {
      * context. The context includes members of dimensions which the
      * expression is dependent upon.
      */
-    private Object getExpResultCacheKey(ExpCacheDescriptor descriptor) {
+    private List<Object> getExpResultCacheKey(ExpCacheDescriptor descriptor) {
         // in NON EMPTY mode the result depends on everything, e.g.
         // "NON EMPTY [Customer].[Name].members" may return different results
         // for 1997-01 and 1997-02
@@ -947,9 +1016,19 @@ public class RolapEvaluator implements Evaluator {
     public final Object getCachedResult(ExpCacheDescriptor cacheDescriptor) {
         // Look up a cached result, and if not present, compute one and add to
         // cache. Use a dummy value to represent nulls.
-        final Object key = getExpResultCacheKey(cacheDescriptor);
+        final List<Object> key = getExpResultCacheKey(cacheDescriptor);
         Object result = root.getCacheResult(key);
         if (result == null) {
+            // Look in the cache shared with other queries.
+            final Object sharedKey =
+                root.getSharedCacheKey(cacheDescriptor, key, nonEmpty);
+            if (sharedKey != null) {
+                result = root.getSharedCacheResult(sharedKey);
+                if (result != null) {
+                    root.putCacheResult(key, result, true);
+                    return result == nullResult ? null : result;
+                }
+            }
             boolean aggCacheDirty = cellReader.isDirty();
             int aggregateCacheMissCountBefore = cellReader.getMissCount();
             result = cacheDescriptor.evaluate(this);
@@ -975,6 +1054,12 @@ public class RolapEvaluator implements Evaluator {
                 key,
                 result == null ? nullResult : result,
                 isValidResult);
+            if (isValidResult && sharedKey != null) {
+                final Object sharedResult = toSharedResult(result);
+                if (sharedResult != null) {
+                    root.putSharedCacheResult(sharedKey, sharedResult);
+                }
+            }
         } else if (result == nullResult) {
             result = null;
         }
@@ -982,10 +1067,49 @@ public class RolapEvaluator implements Evaluator {
         return result;
     }
 
+    /**
+     * Converts the result of an expression to a value that can be shared
+     * with other queries, or returns null if it cannot be shared. Immutable
+     * values are shared as is; lists of tuples are copied, because the
+     * query may modify the list it was given.
+     *
+     * @param result Result of expression
+     * @return Shareable value, or null
+     */
+    private static Object toSharedResult(Object result) {
+        if (result == null) {
+            return nullResult;
+        }
+        if (result instanceof Number
+            || result instanceof String
+            || result instanceof Boolean
+            || result instanceof Member)
+        {
+            return result;
+        }
+        if (result instanceof TupleList) {
+            final TupleList list = (TupleList) result;
+            final TupleList copy =
+                TupleCollections.createList(list.getArity(), list.size());
+            copy.addAll(list);
+            return TupleCollections.unmodifiableList(copy);
+        }
+        return null;
+    }
+
     public final void clearExpResultCache(boolean clearValidResult) {
         root.clearResultCache(clearValidResult);
     }
 
+    /**
+     * Returns whether any calculated member is in the current context.
+     *
+     * @return Whether there are calculations
+     */
+    final boolean hasCalculations() {
+        return calculationCount > 0;
+    }
+
     public final boolean isNonEmpty() {
         return nonEmpty;
     }
@@ -1021,6 +1145,46 @@ public class RolapEvaluator implements Evaluator {
         return cellReader.getMissCount();
     }
 
+    /**
+     * Returns whether the cell reader has requests that are not loaded yet,
+     * or has been told that some values were computed from missing cells.
+     *
+     * @return Whether the cell reader is dirty
+     */
+    public final boolean isDirty() {
+        return cellReader.isDirty();
+    }
+
+    /**
+     * Loads the cells that have been requested from the batching cell
+     * reader, so that evaluations later in the same pass see their values.
+     * Discards expression results that were computed while cells were
+     * missing.
+     *
+     * <p>If values that used missing cells were computed earlier in the
+     * pass (that is, the reader was dirty before the caller started
+     * requesting cells), set {@code keepDirty}, so that the pass is
+     * evaluated again.</p>
+     *
+     * @param keepDirty Whether to leave the cell reader dirty
+     * @return Whether any cells were loaded
+     */
+    public final boolean loadPendingCells(boolean keepDirty) {
+        if (!(cellReader instanceof FastBatchingCellReader)) {
+            return false;
+        }
+        final FastBatchingCellReader reader =
+            (FastBatchingCellReader) cellReader;
+        if (!reader.loadAggregations()) {
+            return false;
+        }
+        root.clearResultCache(false);
+        if (keepDirty) {
+            reader.setDirty(true);
+        }
+        return true;
+    }
+
     public final Object getParameterValue(ParameterSlot slot) {
         return root.getParameterValue(slot);
     }
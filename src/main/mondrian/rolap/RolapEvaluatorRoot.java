@@ -10,13 +10,16 @@
 package mondrian.rolap;
 
 import mondrian.calc.*;
+import mondrian.mdx.*;
 import mondrian.olap.*;
+import mondrian.olap.fun.UdfResolver;
 import mondrian.server.Execution;
 import mondrian.server.Statement;
 import mondrian.spi.Dialect;
 import mondrian.spi.DialectManager;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Context at the root of a tree of evaluators.
@@ -31,11 +34,34 @@ class RolapEvaluatorRoot {
     final Map<Object, Object> expResultCache = new HashMap<Object, Object>();
     final Map<Object, Object> tmpExpResultCache =
         new HashMap<Object, Object>();
+    /**
+     * Number of times that {@link #getCacheResult(Object)} has returned a
+     * result from {@link #tmpExpResultCache}; that is, a result that was
+     * computed while some cells were not yet loaded.
+     */
+    private int invalidResultHitCount;
+    /**
+     * Cache of expression results shared with other queries against the
+     * same schema, or null if results are not shared.
+     */
+    private final SharedExpResultCache sharedExpResultCache;
+    private final int sharedExpResultCacheGeneration;
+    /**
+     * Text of each cacheable expression evaluated so far whose results can
+     * be shared with other queries, or the empty string if they cannot.
+     */
+    private final Map<ExpCacheDescriptor, String> sharedExpTexts =
+        new IdentityHashMap<ExpCacheDescriptor, String>();
     final RolapCube cube;
     final RolapConnection connection;
     final SchemaReader schemaReader;
+    /**
+     * Compiled expressions. Format expressions are compiled on demand,
+     * possibly by several threads evaluating the cells of the same result,
+     * so reads do not lock and compilation is serialized.
+     */
     final Map<CompiledExpKey, Calc> compiledExps =
-        new HashMap<CompiledExpKey, Calc>();
+        new ConcurrentHashMap<CompiledExpKey, Calc>();
     final Statement statement;
     final Query query;
     private final Date queryStartTime;
@@ -58,6 +84,14 @@ class RolapEvaluatorRoot {
 
     final Set<Exp> activeNativeExpansions = new HashSet<Exp>();
 
+    /**
+     * Functions whose value changes over time, so the results of expressions
+     * that call them are not shared between queries.
+     */
+    private static final Set<String> VOLATILE_FUNCTIONS =
+        new HashSet<String>(
+            Arrays.asList("Now", "Date", "Time", "Timer", "Rnd"));
+
     /**
      * The size of the command stack at which we will next check for recursion.
      */
@@ -123,6 +157,18 @@ class RolapEvaluatorRoot {
             DialectManager.createDialect(schemaReader.getDataSource(), null);
 
         this.recursionCheckCommandCount = (defaultMembers.length << 4);
+
+        if (MondrianProperties.instance().SharedExpResultCacheSize.get() > 0
+            && connection.getScenario() == null)
+        {
+            this.sharedExpResultCache =
+                cube.getSchema().getSharedExpResultCache();
+            this.sharedExpResultCacheGeneration =
+                sharedExpResultCache.getGeneration();
+        } else {
+            this.sharedExpResultCache = null;
+            this.sharedExpResultCacheGeneration = 0;
+        }
     }
 
     /**
@@ -145,10 +191,15 @@ class RolapEvaluatorRoot {
         CompiledExpKey key = new CompiledExpKey(exp, scalar, resultStyle);
         Calc calc = compiledExps.get(key);
         if (calc == null) {
-            calc =
-                statement.getQuery().compileExpression(
-                    exp, scalar, resultStyle);
-            compiledExps.put(key, calc);
+            synchronized (compiledExps) {
+                calc = compiledExps.get(key);
+                if (calc == null) {
+                    calc =
+                        statement.getQuery().compileExpression(
+                            exp, scalar, resultStyle);
+                    compiledExps.put(key, calc);
+                }
+            }
         }
         return calc;
     }
@@ -276,10 +327,138 @@ class RolapEvaluatorRoot {
         Object result = expResultCache.get(key);
         if (result == null) {
             result = tmpExpResultCache.get(key);
+            if (result != null) {
+                ++invalidResultHitCount;
+            }
         }
         return result;
     }
 
+    /**
+     * Returns the key of the result of a cacheable expression in the cache
+     * shared with other queries, or null if the result cannot be shared.
+     *
+     * <p>A result cannot be shared if the expression refers to a parameter,
+     * a named set, a calculated member defined in this query, or a function
+     * that is user-defined or whose value changes over time; or if a member
+     * of the context that it depends upon is calculated.
+     *
+     * @param descriptor Cacheable expression
+     * @param key Key of the result in this query's cache: the expression,
+     *   followed by the members of the context that it depends upon
+     * @param nonEmpty Whether the context is non-empty
+     * @return Key in shared cache, or null
+     */
+    final Object getSharedCacheKey(
+        ExpCacheDescriptor descriptor,
+        List<Object> key,
+        boolean nonEmpty)
+    {
+        if (sharedExpResultCache == null) {
+            return null;
+        }
+        String text = sharedExpTexts.get(descriptor);
+        if (text == null) {
+            text =
+                isShareable(descriptor.getExp())
+                    ? Util.unparse(descriptor.getExp())
+                    : "";
+            sharedExpTexts.put(descriptor, text);
+        }
+        if (text.length() == 0) {
+            return null;
+        }
+        final List<Object> members = key.subList(1, key.size());
+        for (Object member : members) {
+            if (((Member) member).isCalculated()) {
+                return null;
+            }
+        }
+        final List<Object> sharedKey = new ArrayList<Object>(key.size() + 3);
+        sharedKey.add(cube);
+        sharedKey.add(schemaReader.getRole());
+        sharedKey.add(nonEmpty);
+        sharedKey.add(text);
+        sharedKey.addAll(members);
+        return sharedKey;
+    }
+
+    private boolean isShareable(Exp exp) {
+        final Set<Member> queryMembers = new HashSet<Member>();
+        for (Formula formula : query.getFormulas()) {
+            if (formula.isMember()) {
+                queryMembers.add(formula.getMdxMember());
+            }
+        }
+        final boolean[] shareable = {true};
+        exp.accept(
+            new MdxVisitorImpl() {
+                public Object visit(ParameterExpr parameterExpr) {
+                    shareable[0] = false;
+                    return null;
+                }
+
+                public Object visit(NamedSetExpr namedSetExpr) {
+                    shareable[0] = false;
+                    return null;
+                }
+
+                public Object visit(MemberExpr memberExpr) {
+                    if (queryMembers.contains(memberExpr.getMember())) {
+                        shareable[0] = false;
+                    }
+                    return null;
+                }
+
+                public Object visit(ResolvedFunCall call) {
+                    if (UdfResolver.isUdf(call.getFunDef())
+                        || VOLATILE_FUNCTIONS.contains(call.getFunName()))
+                    {
+                        shareable[0] = false;
+                    }
+                    return null;
+                }
+            });
+        return shareable[0];
+    }
+
+    /**
+     * Returns a result from the cache shared with other queries, or null.
+     *
+     * @param sharedKey Key returned by {@link #getSharedCacheKey}
+     * @return Result, or null
+     */
+    final Object getSharedCacheResult(Object sharedKey) {
+        return sharedExpResultCache.get(sharedKey);
+    }
+
+    /**
+     * Puts a valid result into the cache shared with other queries.
+     *
+     * @param sharedKey Key returned by {@link #getSharedCacheKey}
+     * @param result Result; must not be null, and must not be modified
+     */
+    final void putSharedCacheResult(Object sharedKey, Object result) {
+        sharedExpResultCache.put(
+            sharedKey,
+            result,
+            sharedExpResultCacheGeneration,
+            MondrianProperties.instance().SharedExpResultCacheSize.get());
+    }
+
+    /**
+     * Returns the number of times that a cached expression result has been
+     * returned that may be invalid, because it was computed while some cells
+     * were not yet loaded. If the count does not change while evaluating an
+     * expression, and nor does the cell reader's miss count, the result of
+     * the expression is final.
+     *
+     * @return Number of invalid expression results returned
+     */
+    final int getInvalidResultHitCount() {
+        return invalidResultHitCount;
+    }
+
     /**
      * Clears the expression result cache.
      *
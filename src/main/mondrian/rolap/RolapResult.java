@@ -30,6 +30,7 @@ import mondrian.util.*;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 
 /**
@@ -232,6 +233,15 @@ public class RolapResult extends ResultBase {
             // Save, may be needed by some Expression Calc's
             query.putEvalCache("ALL_MEMBER_LIST", nonDefaultAllMembers);
 
+            // Read the members that the slicer and axes will need, several
+            // hierarchies at a time.
+            if (MondrianProperties.instance().ConcurrentMemberPrefetch.get()) {
+                final MemberPrefetcher prefetcher =
+                    new MemberPrefetcher(evaluator.getSchemaReader());
+                prefetcher.addQuery(query);
+                prefetcher.prefetch();
+            }
+
 
             final List<List<Member>> emptyNonAllMembers =
                 Collections.emptyList();
@@ -903,19 +913,54 @@ public class RolapResult extends ResultBase {
         Query query,
         final int[] pos)
     {
+        if (cellInfos.size() == 0) {
+            // Now that the axes are known, choose a container that suits
+            // their sizes.
+            cellInfos = createCellInfoContainer();
+        }
+
         // Compute the cells several times. The first time, use a dummy
         // evaluator which collects requests.
+        //
+        // If possible, each later pass evaluates only the cells whose
+        // previous evaluation missed the cache or used an expression result
+        // computed while cells were missing. The other cells already have
+        // their final values.
+        //
+        // If the grid is large and simple enough, the cells of each pass are
+        // split into partitions that are evaluated by several threads.
         int count = 0;
         final int savepoint = evaluator.savepoint();
+        final boolean incremental = canEvaluateIncrementally(evaluator);
+        final int partitionCount = getCellPartitionCount(evaluator);
+        CellPositionList cellsToEvaluate = null;
         while (true) {
             evaluator.setCellReader(batchingReader);
+            final CellPass pass =
+                new CellPass(
+                    point,
+                    cellInfos,
+                    batchingReader,
+                    incremental ? new CellPositionList(axes.length) : null);
             try {
-                executeStripe(query.axes.length - 1, evaluator, pos);
+                if (partitionCount > 1) {
+                    executeParallel(
+                        partitionCount, cellsToEvaluate, pass, evaluator);
+                } else if (cellsToEvaluate == null) {
+                    executeStripe(query.axes.length - 1, pass, evaluator, pos);
+                } else {
+                    executeCells(
+                        cellsToEvaluate, 0, cellsToEvaluate.size(), pass,
+                        evaluator);
+                }
+                cellsToEvaluate = pass.missedCells;
             } catch (CellRequestQuantumExceededException e) {
                 // Safe to ignore. Need to call 'phase' and loop again.
                 // Decrement count because it wasn't a recursive formula that
-                // caused the iteration.
+                // caused the iteration. Some cells were not evaluated, so the
+                // next pass must evaluate all cells.
                 --count;
+                cellsToEvaluate = null;
             }
             evaluator.restore(savepoint);
 
@@ -925,11 +970,10 @@ public class RolapResult extends ResultBase {
                 // We got all of the cells we needed, so the result must be
                 // correct.
                 return;
-            } else {
-                // Clear invalid expression result so that the next evaluation
-                // will pick up the newly loaded aggregates.
-                evaluator.clearExpResultCache(false);
             }
+            // Clear invalid expression result so that the next evaluation
+            // will pick up the newly loaded aggregates.
+            evaluator.clearExpResultCache(false);
 
             if (count++ > maxEvalDepth) {
                 if (evaluator instanceof RolapDependencyTestingEvaluator) {
@@ -949,7 +993,300 @@ public class RolapResult extends ResultBase {
                 }
             }
 
-            cellInfos.clear();
+            if (cellsToEvaluate == null) {
+                cellInfos.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns whether later passes of {@link #executeBody} can evaluate just
+     * the cells that missed the cache, rather than all cells.
+     *
+     * <p>Not possible if an axis is high-cardinality, because its positions
+     * are read a chunk at a time, or if the evaluator is testing
+     * dependencies, because it causes new requests in every pass.
+     */
+    private boolean canEvaluateIncrementally(RolapEvaluator evaluator) {
+        if (!MondrianProperties.instance().EnableIncrementalCellEvaluation
+                .get()
+            || evaluator instanceof RolapDependencyTestingEvaluator)
+        {
+            return false;
+        }
+        for (int i = 0; i < axes.length; i++) {
+            if (isAxisHighCardinality(
+                    i, ((RolapAxis) axes[i]).getTupleList()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of partitions in which to evaluate the cells of
+     * this result on several threads, or 1 to evaluate them on the calling
+     * thread.
+     *
+     * <p>Evaluators share expression caches which are not thread-safe, so
+     * cells are evaluated in parallel only if no calculated member can be in
+     * context and all format strings are constant. Evaluating such a cell
+     * just reads the cell from the cache, or records a request for it.
+     */
+    private int getCellPartitionCount(RolapEvaluator evaluator) {
+        final int threshold =
+            MondrianProperties.instance().ParallelCellEvaluationThreshold
+                .get();
+        final int processorCount = Runtime.getRuntime().availableProcessors();
+        if (threshold <= 0
+            || processorCount <= 1
+            || axes.length == 0
+            || evaluator.hasCalculations()
+            || evaluator instanceof RolapDependencyTestingEvaluator
+            || evaluator instanceof RolapProfilingEvaluator
+            || !isPlain(Arrays.asList(evaluator.getMembers())))
+        {
+            return 1;
+        }
+        long cellCount = 1;
+        for (int i = 0; i < axes.length; i++) {
+            final TupleList tupleList = ((RolapAxis) axes[i]).getTupleList();
+            if (isAxisHighCardinality(i, tupleList)) {
+                return 1;
+            }
+            for (List<Member> tuple : tupleList) {
+                if (!isPlain(tuple)) {
+                    return 1;
+                }
+            }
+            cellCount = Math.min(cellCount * tupleList.size(), threshold);
+        }
+        for (List<Member> tuple : ((RolapAxis) slicerAxis).getTupleList()) {
+            if (!isPlain(tuple)) {
+                return 1;
+            }
+        }
+        if (cellCount < threshold) {
+            return 1;
+        }
+        return Math.min(
+            processorCount,
+            ((RolapAxis) axes[axes.length - 1]).getTupleList().size());
+    }
+
+    /**
+     * Returns whether none of a list of members is calculated or has a
+     * format string that is computed.
+     */
+    private static boolean isPlain(List<Member> members) {
+        for (Member member : members) {
+            if (member.isEvaluated()) {
+                return false;
+            }
+            final Object formatExp =
+                member.getPropertyValue(Property.FORMAT_EXP_PARSED.name);
+            if (formatExp != null && !(formatExp instanceof Literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the cells of a pass in partitions, each on its own thread
+     * with its own evaluator, cell reader and local cache, then adds the
+     * cells, cell requests and missed cells of the partitions to the pass.
+     *
+     * <p>The first partition is evaluated on the calling thread.
+     *
+     * @param partitionCount Number of partitions
+     * @param cells Positions of cells to evaluate, or null to evaluate all
+     *   cells
+     * @param pass Pass
+     * @param evaluator Evaluator
+     */
+    private void executeParallel(
+        int partitionCount,
+        final CellPositionList cells,
+        CellPass pass,
+        RolapEvaluator evaluator)
+    {
+        final int size =
+            cells == null
+                ? ((RolapAxis) axes[axes.length - 1]).getTupleList().size()
+                : cells.size();
+        partitionCount = Math.max(Math.min(partitionCount, size), 1);
+        final Locus locus = Locus.peek();
+        final List<RolapStar> stars =
+            new ArrayList<RolapStar>(getCube().getSchema().getStars());
+        final List<CellPass> passes = new ArrayList<CellPass>();
+        final List<Callable<Boolean>> tasks =
+            new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < partitionCount; i++) {
+            final int start = (int) ((long) size * i / partitionCount);
+            final int end = (int) ((long) size * (i + 1) / partitionCount);
+            final CellPass partitionPass =
+                new CellPass(
+                    CellKey.Generator.newCellKey(axes.length),
+                    new CellInfoBuffer(axes.length),
+                    pass.reader.createSibling(),
+                    pass.missedCells == null
+                        ? null
+                        : new CellPositionList(axes.length));
+            final RolapEvaluator partitionEvaluator = evaluator.push();
+            partitionEvaluator.setCellReader(partitionPass.reader);
+            final List<RolapStar.Bar> bars = new ArrayList<RolapStar.Bar>();
+            for (RolapStar star : stars) {
+                bars.add(star.copyLocalBar());
+            }
+            passes.add(partitionPass);
+            tasks.add(
+                new Callable<Boolean>() {
+                    public Boolean call() {
+                        return executePartition(
+                            locus, stars, bars, partitionPass,
+                            partitionEvaluator, cells, start, end);
+                    }
+                });
+        }
+
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        boolean complete = true;
+        try {
+            for (Callable<Boolean> task : tasks.subList(1, tasks.size())) {
+                futures.add(Util.getCpuExecutorService().submit(task));
+            }
+            complete = tasks.get(0).call();
+            for (Future<Boolean> future : futures) {
+                complete &=
+                    Util.safeGet(future, "Error while evaluating cells");
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw Util.newError(e, "Error while evaluating cells");
+        } finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+        for (CellPass partitionPass : passes) {
+            pass.reader.merge(partitionPass.reader);
+            ((CellInfoBuffer) partitionPass.cellInfos).copyTo(
+                pass.cellInfos, pass.point);
+            if (pass.missedCells != null) {
+                pass.missedCells.addAll(partitionPass.missedCells);
+            }
+        }
+        if (!complete) {
+            // Some partitions stopped early, because they had collected
+            // enough cell requests. Let the caller load them, then evaluate
+            // all cells again.
+            throw CellRequestQuantumExceededException.INSTANCE;
+        }
+    }
+
+    /**
+     * Evaluates a partition of the cells of a pass. Called by
+     * {@link #executeParallel}, usually on a thread of the cell evaluation
+     * pool.
+     *
+     * @param locus Locus of the calling thread
+     * @param stars Stars whose local caches to install
+     * @param bars Copies of the calling thread's local cache of each star
+     * @param pass Pass for this partition
+     * @param evaluator Evaluator for this partition
+     * @param cells Positions of cells to evaluate, or null to evaluate all
+     *   cells
+     * @param start Index of the first position (or first position on the
+     *   outermost axis, if cells is null) to evaluate
+     * @param end Index after the last position to evaluate
+     * @return Whether all cells of the partition were evaluated
+     */
+    private boolean executePartition(
+        Locus locus,
+        List<RolapStar> stars,
+        List<RolapStar.Bar> bars,
+        CellPass pass,
+        RolapEvaluator evaluator,
+        CellPositionList cells,
+        int start,
+        int end)
+    {
+        Locus.push(locus);
+        final List<RolapStar.Bar> previousBars =
+            new ArrayList<RolapStar.Bar>();
+        for (int i = 0; i < stars.size(); i++) {
+            previousBars.add(stars.get(i).setLocalBar(bars.get(i)));
+        }
+        try {
+            if (cells != null) {
+                executeCells(cells, start, end, pass, evaluator);
+            } else {
+                final int axisOrdinal = axes.length - 1;
+                final TupleList tupleList =
+                    ((RolapAxis) axes[axisOrdinal]).getTupleList();
+                final int[] pos = new int[axes.length];
+                for (int i = start; i < end; i++) {
+                    pass.point.setAxis(axisOrdinal, i);
+                    final int savepoint = evaluator.savepoint();
+                    try {
+                        evaluator.setContext(tupleList.get(i));
+                        execution.checkCancelOrTimeout();
+                        executeStripe(axisOrdinal - 1, pass, evaluator, pos);
+                    } finally {
+                        evaluator.restore(savepoint);
+                    }
+                }
+            }
+            return true;
+        } catch (CellRequestQuantumExceededException e) {
+            return false;
+        } finally {
+            for (int i = 0; i < stars.size(); i++) {
+                stars.get(i).setLocalBar(previousBars.get(i));
+            }
+            Locus.pop(locus);
+        }
+    }
+
+    /**
+     * Evaluates the cells at a range of a list of positions, and stores
+     * their values and formatting.
+     *
+     * @param cells Positions of cells
+     * @param start Index of first position to evaluate
+     * @param end Index after last position to evaluate
+     * @param pass Pass
+     * @param revaluator Evaluator
+     */
+    private void executeCells(
+        CellPositionList cells,
+        int start,
+        int end,
+        CellPass pass,
+        RolapEvaluator revaluator)
+    {
+        final TupleList[] tupleLists = new TupleList[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            tupleLists[i] = ((RolapAxis) axes[i]).getTupleList();
+        }
+        final int[] pos = new int[axes.length];
+        for (int c = start; c < end; c++) {
+            cells.get(c, pos);
+            pass.point.setOrdinals(pos);
+            final int savepoint = revaluator.savepoint();
+            try {
+                for (int i = axes.length - 1; i >= 0; i--) {
+                    revaluator.setContext(tupleLists[i].get(pos[i]));
+                }
+                execution.checkCancelOrTimeout();
+                executeStripe(-1, pass, revaluator, pos);
+            } finally {
+                revaluator.restore(savepoint);
+            }
         }
     }
 
@@ -1034,6 +1371,7 @@ public class RolapResult extends ResultBase {
 
     private void executeStripe(
         int axisOrdinal,
+        CellPass pass,
         RolapEvaluator revaluator,
         final int[] pos)
     {
@@ -1044,6 +1382,9 @@ public class RolapResult extends ResultBase {
             if (tupleIterator.hasNext()) {
                 final List<Member> members = tupleIterator.next();
                 execution.checkCancelOrTimeout();
+                final int missCount = pass.reader.getMissCount();
+                final int invalidResultHitCount =
+                    revaluator.root.getInvalidResultHitCount();
                 final int savepoint = revaluator.savepoint();
                 revaluator.setContext(members);
                 Object o;
@@ -1056,7 +1397,8 @@ public class RolapResult extends ResultBase {
                     revaluator.restore(savepoint);
                 }
 
-                CellInfo ci = null;
+                String formatString = null;
+                ValueFormatter formatter = ValueFormatter.EMPTY;
 
                 // Get the Cell's format string and value formatting
                 // Object.
@@ -1066,12 +1408,6 @@ public class RolapResult extends ResultBase {
                     // <code>getCellNoDefaultFormatString</code> method and
                     // the old RolapCell <code>getFormattedValue</code> method.
 
-                    // Create a CellInfo object for the given position
-                    // integer array.
-                    ci = cellInfos.create(point.getOrdinals());
-
-                    String cachedFormatString = null;
-
                     // Determine if there is a CellFormatter registered for
                     // the current Cube's Measure's Dimension. If so,
                     // then find or create a CellFormatterValueFormatter
@@ -1082,6 +1418,7 @@ public class RolapResult extends ResultBase {
                         cube.getMeasuresHierarchy();
                     RolapMeasure m =
                         (RolapMeasure) revaluator.getContext(measuresHierarchy);
+                    String cachedFormatString = null;
                     ValueFormatter valueFormatter = m.getFormatter();
                     if (valueFormatter == null) {
                         cachedFormatString = revaluator.getFormatString();
@@ -1094,8 +1431,8 @@ public class RolapResult extends ResultBase {
                         }
                     }
 
-                    ci.formatString = cachedFormatString;
-                    ci.valueFormatter = valueFormatter;
+                    formatString = cachedFormatString;
+                    formatter = valueFormatter;
                 } catch (ResultLimitExceededException e) {
                     // Do NOT ignore a ResultLimitExceededException!!!
                     throw e;
@@ -1113,8 +1450,27 @@ public class RolapResult extends ResultBase {
                     Util.discard(e);
                 }
 
-                if (o != RolapUtil.valueNotReadyException) {
-                    ci.value = o;
+                // Store the value and formatting of the cell at the given
+                // position.
+                if (o == RolapUtil.valueNotReadyException) {
+                    o = null;
+                } else if (o == null && pass.missedCells != null) {
+                    // Overwrite the value from the previous pass, if any.
+                    o = Util.nullValue;
+                }
+                pass.cellInfos.put(
+                    pass.point.getOrdinals(),
+                    o,
+                    formatString,
+                    formatter);
+
+                // Remember the cell if its value might be wrong.
+                if (pass.missedCells != null
+                    && (missCount != pass.reader.getMissCount()
+                        || invalidResultHitCount
+                        != revaluator.root.getInvalidResultHitCount()))
+                {
+                    pass.missedCells.add(pass.point);
                 }
             }
         } else {
@@ -1161,12 +1517,12 @@ public class RolapResult extends ResultBase {
                     pi = positionIndex;
                 }
                 for (final List<Member> tuple : subTuples) {
-                    point.setAxis(axisOrdinal, pi);
+                    pass.point.setAxis(axisOrdinal, pi);
                     final int savepoint = revaluator.savepoint();
                     try {
                         revaluator.setContext(tuple);
                         execution.checkCancelOrTimeout();
-                        executeStripe(axisOrdinal - 1, revaluator, pos);
+                        executeStripe(axisOrdinal - 1, pass, revaluator, pos);
                     } finally {
                         revaluator.restore(savepoint);
                     }
@@ -1193,12 +1549,12 @@ public class RolapResult extends ResultBase {
 
                 int tupleIndex = 0;
                 for (final List<Member> tuple : tupleList) {
-                    point.setAxis(axisOrdinal, tupleIndex);
+                    pass.point.setAxis(axisOrdinal, tupleIndex);
                     final int savepoint = revaluator.savepoint();
                     try {
                         revaluator.setContext(tuple);
                         execution.checkCancelOrTimeout();
-                        executeStripe(axisOrdinal - 1, revaluator, pos);
+                        executeStripe(axisOrdinal - 1, pass, revaluator, pos);
                     } finally {
                         revaluator.restore(savepoint);
                     }
@@ -1208,6 +1564,24 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Creates a container for the cells of this result, based on the number
+     * of positions on each axis.
+     */
+    private CellInfoContainer createCellInfoContainer() {
+        final int[] axisSizes = new int[axes.length];
+        boolean sparse = false;
+        for (int i = 0; i < axes.length; i++) {
+            final TupleList tupleList = ((RolapAxis) axes[i]).getTupleList();
+            axisSizes[i] = tupleList.size();
+            if (isAxisHighCardinality(i, tupleList)) {
+                // Cells are evaluated a chunk at a time.
+                sparse = true;
+            }
+        }
+        return CellInfoStore.create(axisSizes, sparse, point);
+    }
+
     private boolean isAxisHighCardinality(
         int axisOrdinal,
         TupleList tupleList)
@@ -1763,6 +2137,206 @@ public class RolapResult extends ResultBase {
         formatValueFormatters =
             Collections.synchronizedMap(new HashMap<Locale, ValueFormatter>());
 
+    /**
+     * List of cell positions, stored in a single <code>int</code> array.
+     */
+    static class CellPositionList {
+        private final int arity;
+        private int[] ordinals;
+        private int size;
+
+        /**
+         * Creates an empty CellPositionList.
+         *
+         * @param arity Number of axes
+         */
+        CellPositionList(int arity) {
+            this.arity = arity;
+            this.ordinals = new int[arity * 16];
+        }
+
+        /**
+         * Returns the number of positions in this list.
+         *
+         * @return Number of positions
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Adds the position of a cell.
+         *
+         * @param pos Ordinal of the cell on each axis
+         */
+        void add(int[] pos) {
+            ensureCapacity(size + 1);
+            System.arraycopy(pos, 0, ordinals, size * arity, arity);
+            ++size;
+        }
+
+        /**
+         * Adds the position of a cell.
+         *
+         * @param key Cell position
+         */
+        void add(CellKey key) {
+            ensureCapacity(size + 1);
+            for (int i = 0; i < arity; i++) {
+                ordinals[size * arity + i] = key.getAxis(i);
+            }
+            ++size;
+        }
+
+        /**
+         * Adds the positions in another list.
+         *
+         * @param list List of positions with the same arity
+         */
+        void addAll(CellPositionList list) {
+            assert list.arity == arity;
+            ensureCapacity(size + list.size);
+            System.arraycopy(
+                list.ordinals, 0, ordinals, size * arity, list.size * arity);
+            size += list.size;
+        }
+
+        /**
+         * Copies a position into an array.
+         *
+         * @param i Index of position
+         * @param pos Array to receive the ordinal of the cell on each axis
+         */
+        void get(int i, int[] pos) {
+            System.arraycopy(ordinals, i * arity, pos, 0, arity);
+        }
+
+        /**
+         * Removes all positions.
+         */
+        void clear() {
+            size = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity * arity > ordinals.length) {
+                final int[] newOrdinals =
+                    new int[Math.max(ordinals.length * 2, capacity * arity)];
+                System.arraycopy(
+                    ordinals, 0, newOrdinals, 0, size * arity);
+                ordinals = newOrdinals;
+            }
+        }
+    }
+
+    /**
+     * State of a pass over the cells of a result, or of a partition of the
+     * cells if they are being evaluated by several threads.
+     */
+    private static class CellPass {
+        /**
+         * Position of the current cell. The same object that the
+         * {@link CellInfoMap}, if any, of {@link #cellInfos} uses.
+         */
+        final CellKey point;
+        /** Receives the values and formatting of the cells. */
+        final CellInfoContainer cellInfos;
+        /** Reader that records the cells that missed the cache. */
+        final FastBatchingCellReader reader;
+        /**
+         * Positions of cells whose evaluation in this pass missed the cache,
+         * and which must therefore be evaluated again; null if all cells
+         * will be evaluated again.
+         */
+        final CellPositionList missedCells;
+
+        CellPass(
+            CellKey point,
+            CellInfoContainer cellInfos,
+            FastBatchingCellReader reader,
+            CellPositionList missedCells)
+        {
+            this.point = point;
+            this.cellInfos = cellInfos;
+            this.reader = reader;
+            this.missedCells = missedCells;
+        }
+    }
+
+    /**
+     * Implementation of {@link CellInfoContainer} that records the cells put
+     * into it, in order, so that they can be copied into another container
+     * later. Used by the threads that evaluate a partition of the cells of a
+     * result; {@link #lookup} is not supported.
+     */
+    static class CellInfoBuffer implements CellInfoContainer {
+        private final CellPositionList positions;
+        private final List<Object> values = new ArrayList<Object>();
+        private final List<String> formatStrings = new ArrayList<String>();
+        private final List<ValueFormatter> valueFormatters =
+            new ArrayList<ValueFormatter>();
+
+        /**
+         * Creates a CellInfoBuffer.
+         *
+         * @param arity Number of axes
+         */
+        CellInfoBuffer(int arity) {
+            positions = new CellPositionList(arity);
+        }
+
+        public int size() {
+            return values.size();
+        }
+
+        public void trimToSize() {
+        }
+
+        public void clear() {
+            positions.clear();
+            values.clear();
+            formatStrings.clear();
+            valueFormatters.clear();
+        }
+
+        public void put(
+            int[] pos,
+            Object value,
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
+            positions.add(pos);
+            values.add(value);
+            formatStrings.add(formatString);
+            valueFormatters.add(valueFormatter);
+        }
+
+        public CellInfo lookup(int[] pos) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Puts the cells of this buffer into another container, in the order
+         * they were put into this buffer.
+         *
+         * @param container Container
+         * @param point Position that a {@link CellInfoMap} container reads;
+         *   set to the position of each cell before it is put
+         */
+        void copyTo(CellInfoContainer container, CellKey point) {
+            final int[] pos = new int[point.size()];
+            for (int i = 0; i < values.size(); i++) {
+                positions.get(i, pos);
+                point.setOrdinals(pos);
+                container.put(
+                    pos,
+                    values.get(i),
+                    formatStrings.get(i),
+                    valueFormatters.get(i));
+            }
+        }
+    }
+
     /**
      * A CellInfo contains all of the information that a Cell requires.
      * It is placed in the cellInfos map during evaluation and
@@ -1837,8 +2411,9 @@ public class RolapResult extends ResultBase {
 
     /**
      * API for the creation and
-     * lookup of {@link CellInfo} objects. There are two implementations,
-     * one that uses a Map for storage and the other uses an ObjectPool.
+     * lookup of {@link CellInfo} objects. There are three implementations:
+     * one that uses a Map for storage, one that uses an ObjectPool, and one
+     * that stores cells in primitive arrays.
      */
     interface CellInfoContainer {
         /**
@@ -1858,18 +2433,28 @@ public class RolapResult extends ResultBase {
          */
         void clear();
         /**
-         * Creates a new CellInfo object, adds it to the container
-         * a location <code>pos</code> and returns it.
+         * Stores the value and formatting of the cell at location
+         * <code>pos</code>.
          *
-         * @param pos where to store CellInfo object.
-         * @return the newly create CellInfo object.
+         * @param pos where to store the cell.
+         * @param value Value of cell, or null if not yet known
+         * @param formatString Format string of cell, or null
+         * @param valueFormatter Formatter for cell
          */
-        CellInfo create(int[] pos);
+        void put(
+            int[] pos,
+            Object value,
+            String formatString,
+            ValueFormatter valueFormatter);
         /**
          * Gets the CellInfo object at the location <code>pos</code>.
          *
+         * <p>If there is no cell at that location, returns a CellInfo whose
+         * value is null. The caller may modify the CellInfo; whether the
+         * change is seen by later calls depends on the implementation.
+         *
          * @param pos where to find the CellInfo object.
-         * @return the CellInfo found or null.
+         * @return the CellInfo found, never null.
          */
         CellInfo lookup(int[] pos);
     }
@@ -1905,18 +2490,32 @@ public class RolapResult extends ResultBase {
         public void clear() {
             this.cellInfoMap.clear();
         }
-        public CellInfo create(int[] pos) {
+        public void put(
+            int[] pos,
+            Object value,
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
             CellKey key = this.point.copy();
             CellInfo ci = this.cellInfoMap.get(key);
             if (ci == null) {
                 ci = new CellInfo(0);
                 this.cellInfoMap.put(key, ci);
             }
-            return ci;
+            ci.formatString = formatString;
+            ci.valueFormatter = valueFormatter;
+            if (value != null) {
+                ci.value = value;
+            }
         }
         public CellInfo lookup(int[] pos) {
             CellKey key = CellKey.Generator.newCellKey(pos);
-            return this.cellInfoMap.get(key);
+            CellInfo ci = this.cellInfoMap.get(key);
+            if (ci == null) {
+                ci = new CellInfo(0);
+                this.cellInfoMap.put(key, ci);
+            }
+            return ci;
         }
     }
 
@@ -2092,9 +2691,19 @@ public class RolapResult extends ResultBase {
         public void clear() {
             this.cellInfoPool.clear();
         }
-        public CellInfo create(int[] pos) {
+        public void put(
+            int[] pos,
+            Object value,
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
             long key = this.cellKeyMaker.generate(pos);
-            return this.cellInfoPool.add(new CellInfo(key));
+            CellInfo ci = this.cellInfoPool.add(new CellInfo(key));
+            ci.formatString = formatString;
+            ci.valueFormatter = valueFormatter;
+            if (value != null) {
+                ci.value = value;
+            }
         }
         public CellInfo lookup(int[] pos) {
             long key = this.cellKeyMaker.generate(pos);
@@ -2102,6 +2711,304 @@ public class RolapResult extends ResultBase {
         }
     }
 
+    /**
+     * Implementation of {@link CellInfoContainer} which stores cells in
+     * primitive arrays, without creating an object per cell.
+     *
+     * <p>The ordinal of a cell is computed from its position using a
+     * multiplier per axis; the ordinals of the cells in a result are therefore
+     * dense. If the result has few enough cells, the ordinal is the index
+     * of the cell in the arrays (dense layout). Otherwise cells are appended
+     * to the arrays, and an open-addressing hash table maps ordinals to
+     * indexes (sparse layout).
+     *
+     * <p>Values of type {@link Double} are stored unboxed in a
+     * <code>double</code> array. Each distinct combination of format string
+     * and formatter is stored once, and cells refer to it by index.
+     *
+     * <p>Unlike the other implementations, {@link #lookup(int[])} returns a
+     * new CellInfo each time, so changes that the caller makes to it are not
+     * seen by later calls.
+     */
+    static class CellInfoStore implements CellInfoContainer {
+        /**
+         * Maximum number of cells for which the dense layout is used.
+         */
+        static final long MAX_DENSE_CELL_COUNT = 1 << 24;
+
+        /**
+         * Placeholder in the values array for a value that is held in the
+         * <code>double</code> array.
+         */
+        private static final Object DOUBLE_VALUE = new Object();
+
+        private final int[] axisSizes;
+        private final long[] axisMultipliers;
+        private final boolean dense;
+
+        private int size;
+        private Object[] values;
+        private double[] doubleValues;
+        /**
+         * Index of the format of each cell in {@link #formatList}, plus one;
+         * 0 if there is no cell.
+         */
+        private int[] formats;
+        private final List<Pair<String, ValueFormatter>> formatList =
+            new ArrayList<Pair<String, ValueFormatter>>();
+        private final Map<Pair<String, ValueFormatter>, Integer> formatMap =
+            new HashMap<Pair<String, ValueFormatter>, Integer>();
+
+        // Sparse layout only.
+        private long[] ordinals;
+        /**
+         * Hash table of indexes of cells, plus one; 0 if the slot is empty.
+         */
+        private int[] table;
+
+        /**
+         * Creates a CellInfoStore.
+         *
+         * @param axisSizes Number of positions on each axis
+         * @param dense Whether to use the dense layout; if true, the product
+         *   of the axis sizes must not exceed {@link #MAX_DENSE_CELL_COUNT}
+         */
+        CellInfoStore(int[] axisSizes, boolean dense) {
+            this.axisSizes = axisSizes.clone();
+            this.axisMultipliers = new long[axisSizes.length];
+            long cellCount = 1;
+            for (int i = 0; i < axisSizes.length; i++) {
+                axisMultipliers[i] = cellCount;
+                cellCount *= axisSizes[i];
+            }
+            this.dense = dense;
+            if (dense) {
+                assert cellCount <= MAX_DENSE_CELL_COUNT;
+                allocate((int) cellCount);
+            } else {
+                allocate(16);
+                this.ordinals = new long[16];
+                this.table = new int[32];
+            }
+        }
+
+        /**
+         * Creates a container suitable for a result with the given axis
+         * sizes: a dense or sparse CellInfoStore, or a {@link CellInfoMap}
+         * if cell ordinals would not fit into a <code>long</code>.
+         *
+         * @param axisSizes Number of positions on each axis
+         * @param sparse Whether only some of the cells will be stored at a
+         *   time, for example because an axis is high-cardinality
+         * @param point Cell position, for {@link CellInfoMap}
+         * @return Container
+         */
+        static CellInfoContainer create(
+            int[] axisSizes,
+            boolean sparse,
+            CellKey point)
+        {
+            long cellCount = 1;
+            for (int axisSize : axisSizes) {
+                if (axisSize > 0 && cellCount > Long.MAX_VALUE / axisSize) {
+                    return new CellInfoMap(point);
+                }
+                cellCount *= axisSize;
+            }
+            return new CellInfoStore(
+                axisSizes,
+                !sparse && cellCount <= MAX_DENSE_CELL_COUNT);
+        }
+
+        private void allocate(int capacity) {
+            values = new Object[capacity];
+            formats = new int[capacity];
+            doubleValues = null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void trimToSize() {
+            if (!dense && size < formats.length) {
+                values = copy(values, size);
+                formats = copy(formats, size);
+                ordinals = copy(ordinals, size);
+                if (doubleValues != null) {
+                    doubleValues = copy(doubleValues, size);
+                }
+            }
+        }
+
+        public void clear() {
+            Arrays.fill(values, null);
+            Arrays.fill(formats, 0);
+            if (!dense) {
+                Arrays.fill(table, 0);
+            }
+            size = 0;
+        }
+
+        public void put(
+            int[] pos,
+            Object value,
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
+            final long ordinal = ordinal(pos);
+            int index;
+            if (dense) {
+                index = (int) ordinal;
+                if (formats[index] == 0) {
+                    ++size;
+                }
+            } else {
+                index = find(ordinal);
+                if (index < 0) {
+                    index = add(ordinal);
+                }
+            }
+            formats[index] = formatIndex(formatString, valueFormatter);
+            if (value instanceof Double) {
+                if (doubleValues == null) {
+                    doubleValues = new double[values.length];
+                }
+                doubleValues[index] = (Double) value;
+                values[index] = DOUBLE_VALUE;
+            } else if (value != null) {
+                values[index] = value;
+            }
+        }
+
+        public CellInfo lookup(int[] pos) {
+            final CellInfo ci = new CellInfo(0);
+            for (int i = 0; i < pos.length; i++) {
+                if (pos[i] < 0 || pos[i] >= axisSizes[i]) {
+                    return ci;
+                }
+            }
+            final long ordinal = ordinal(pos);
+            final int index = dense ? (int) ordinal : find(ordinal);
+            if (index < 0 || formats[index] == 0) {
+                return ci;
+            }
+            final Object value = values[index];
+            ci.key = ordinal;
+            ci.value =
+                value == DOUBLE_VALUE
+                    ? (Double) doubleValues[index]
+                    : value;
+            final Pair<String, ValueFormatter> format =
+                formatList.get(formats[index] - 1);
+            ci.formatString = format.left;
+            ci.valueFormatter = format.right;
+            return ci;
+        }
+
+        private long ordinal(int[] pos) {
+            long ordinal = 0;
+            for (int i = 0; i < axisMultipliers.length; i++) {
+                ordinal += axisMultipliers[i] * pos[i];
+            }
+            return ordinal;
+        }
+
+        private int formatIndex(
+            String formatString,
+            ValueFormatter valueFormatter)
+        {
+            final Pair<String, ValueFormatter> format =
+                Pair.of(formatString, valueFormatter);
+            Integer index = formatMap.get(format);
+            if (index == null) {
+                formatList.add(format);
+                index = formatList.size();
+                formatMap.put(format, index);
+            }
+            return index;
+        }
+
+        private static int hash(long ordinal) {
+            final long h = ordinal * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private int find(long ordinal) {
+            final int mask = table.length - 1;
+            for (int slot = hash(ordinal) & mask;;
+                 slot = (slot + 1) & mask)
+            {
+                final int entry = table[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (ordinals[entry - 1] == ordinal) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private int add(long ordinal) {
+            if (size == formats.length) {
+                final int capacity = Math.max(16, size * 2);
+                values = copy(values, capacity);
+                formats = copy(formats, capacity);
+                ordinals = copy(ordinals, capacity);
+                if (doubleValues != null) {
+                    doubleValues = copy(doubleValues, capacity);
+                }
+            }
+            if (size * 2 >= table.length) {
+                rehash(table.length * 2);
+            }
+            final int index = size++;
+            ordinals[index] = ordinal;
+            insert(ordinal, index);
+            return index;
+        }
+
+        private void rehash(int tableSize) {
+            table = new int[tableSize];
+            for (int i = 0; i < size; i++) {
+                insert(ordinals[i], i);
+            }
+        }
+
+        private void insert(long ordinal, int index) {
+            final int mask = table.length - 1;
+            int slot = hash(ordinal) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+
+        private static Object[] copy(Object[] a, int length) {
+            final Object[] a2 = new Object[length];
+            System.arraycopy(a, 0, a2, 0, Math.min(a.length, length));
+            return a2;
+        }
+
+        private static int[] copy(int[] a, int length) {
+            final int[] a2 = new int[length];
+            System.arraycopy(a, 0, a2, 0, Math.min(a.length, length));
+            return a2;
+        }
+
+        private static long[] copy(long[] a, int length) {
+            final long[] a2 = new long[length];
+            System.arraycopy(a, 0, a2, 0, Math.min(a.length, length));
+            return a2;
+        }
+
+        private static double[] copy(double[] a, int length) {
+            final double[] a2 = new double[length];
+            System.arraycopy(a, 0, a2, 0, Math.min(a.length, length));
+            return a2;
+        }
+    }
+
     static TupleList mergeAxes(
         TupleList axis1,
         TupleIterable axis2,
@@ -1413,6 +1413,31 @@ System.out.println("RolapSchema.createMemberReader: CONTAINS NAME");
         return nativeRegistry;
     }
 
+    private final SharedExpResultCache sharedExpResultCache =
+        new SharedExpResultCache();
+
+    /**
+     * Returns the cache of expression results shared by queries against this
+     * schema.
+     *
+     * @see mondrian.olap.MondrianProperties#SharedExpResultCacheSize
+     */
+    SharedExpResultCache getSharedExpResultCache() {
+        return sharedExpResultCache;
+    }
+
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+
+    /**
+     * Returns the cache of validated queries shared by connections to this
+     * schema.
+     *
+     * @see mondrian.olap.MondrianProperties#QueryPlanCacheSize
+     */
+    QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
     /**
      * @return Returns the dataSourceChangeListener.
      */
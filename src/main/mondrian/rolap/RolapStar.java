@@ -30,6 +30,7 @@ import java.lang.ref.SoftReference;
 import java.sql.Connection;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
@@ -89,6 +90,9 @@ public class RolapStar {
 
     private final RolapStatisticsCache statisticsCache;
 
+    private final CellLoadCostModel cellLoadCostModel =
+        new CellLoadCostModel();
+
     /**
      * Creates a RolapStar. Please use
      * {@link RolapSchema.RolapStarRegistry#getOrCreateStar} to create a
@@ -192,10 +196,43 @@ public class RolapStar {
             new SoftReference<SegmentWithData>(segment));
     }
 
+    /**
+     * Returns a copy of the current thread's local cache, which another
+     * thread can install using {@link #setLocalBar(Bar)} to see the same
+     * segments.
+     *
+     * @return Copy of this thread's local cache
+     */
+    public Bar copyLocalBar() {
+        return new Bar(localBars.get());
+    }
+
+    /**
+     * Replaces the current thread's local cache.
+     *
+     * @param bar Local cache
+     * @return Previous local cache of this thread
+     */
+    public Bar setLocalBar(Bar bar) {
+        final Bar previous = localBars.get();
+        localBars.set(bar);
+        return previous;
+    }
+
     public RolapStatisticsCache getStatisticsCache() {
         return statisticsCache;
     }
 
+    /**
+     * Returns the model that decides whether to load segments of this star
+     * by rollup or by SQL.
+     *
+     * @return Cost model
+     */
+    public CellLoadCostModel getCellLoadCostModel() {
+        return cellLoadCostModel;
+    }
+
     /**
      * Temporary. Contains the local cache for a particular thread. Because
      * it is accessed via a thread-local, the data structures can be accessed
@@ -208,8 +245,22 @@ public class RolapStar {
         private final Map<AggregationKey, Aggregation> aggregations =
             new ReferenceMap(ReferenceMap.WEAK, ReferenceMap.WEAK);
 
-        private final List<SoftReference<SegmentWithData>> segmentRefs =
-            new ArrayList<SoftReference<SegmentWithData>>();
+        private final List<SoftReference<SegmentWithData>> segmentRefs;
+
+        Bar() {
+            segmentRefs = new ArrayList<SoftReference<SegmentWithData>>();
+        }
+
+        /**
+         * Creates a Bar that contains the same segments as another.
+         *
+         * @param bar Bar to copy
+         */
+        Bar(Bar bar) {
+            segmentRefs =
+                new ArrayList<SoftReference<SegmentWithData>>(
+                    bar.segmentRefs);
+        }
     }
 
     private final ThreadLocal<Bar> localBars =
@@ -832,6 +883,12 @@ public class RolapStar {
      * A column in a star schema.
      */
     public static class Column {
+        /**
+         * Maximum number of values in the dictionary of a column's string
+         * values.
+         */
+        private static final int MAX_VALUE_DICTIONARY_SIZE = 100000;
+
         public static final Comparator<Column> COMPARATOR =
             new Comparator<Column>() {
                 public int compare(
@@ -881,6 +938,13 @@ public class RolapStar {
         private AtomicInteger approxCardinality = new AtomicInteger(
             Integer.MIN_VALUE);
 
+        /**
+         * Dictionary of the string values of this column, so that the axes of
+         * all segments that contain a given value share one String object.
+         * Created on first use; see {@link #internValue(String)}.
+         */
+        private volatile ConcurrentHashMap<String, String> valueDictionary;
+
         private Column(
             String name,
             Table table,
@@ -999,6 +1063,38 @@ public class RolapStar {
             return isNameColumn;
         }
 
+        /**
+         * Returns the canonical instance of a string value of this column.
+         *
+         * <p>The dictionary holds at most
+         * {@link #MAX_VALUE_DICTIONARY_SIZE} values; once it is full, values
+         * not already in it are returned as is.</p>
+         *
+         * @param value Value
+         * @return Canonical instance of the value
+         */
+        public String internValue(String value) {
+            ConcurrentHashMap<String, String> dictionary = valueDictionary;
+            if (dictionary == null) {
+                synchronized (this) {
+                    dictionary = valueDictionary;
+                    if (dictionary == null) {
+                        dictionary = new ConcurrentHashMap<String, String>();
+                        valueDictionary = dictionary;
+                    }
+                }
+            }
+            final String existing = dictionary.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            if (dictionary.size() >= MAX_VALUE_DICTIONARY_SIZE) {
+                return value;
+            }
+            final String previous = dictionary.putIfAbsent(value, value);
+            return previous == null ? value : previous;
+        }
+
         public MondrianDef.Expression getExpression() {
             return expression;
         }
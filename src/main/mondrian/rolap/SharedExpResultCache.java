@@ -0,0 +1,126 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * Cache of the results of cacheable expressions, shared by all queries
+ * against a schema.
+ *
+ * <p>Each query keeps the results of expressions such as
+ * {@code Cache(<Expression>)} in its {@link RolapEvaluatorRoot}. If property
+ * {@link mondrian.olap.MondrianProperties#SharedExpResultCacheSize} is
+ * positive, valid results whose expressions do not refer to anything that
+ * is local to a query are also stored here, keyed by the cube, the role, the
+ * text of the expression and the members of the context that it depends
+ * upon, so that later queries can use them.</p>
+ *
+ * <p>The cache holds at most {@code SharedExpResultCacheSize} results,
+ * discarding the least recently used, and holds them by soft references, so
+ * that the garbage collector can reclaim them if memory is short.</p>
+ *
+ * <p>{@link CacheControlImpl} clears the cache whenever it flushes cells or
+ * members. A result computed by a query that started before the cache was
+ * cleared may be stale, so the cache has a generation, incremented on each
+ * clear, and rejects results from earlier generations.</p>
+ *
+ * <p>Thread safe.</p>
+ */
+class SharedExpResultCache {
+    private final Map<Object, SoftReference<Object>> map =
+        new LinkedHashMap<Object, SoftReference<Object>>(16, 0.75f, true);
+
+    private int generation;
+
+    /**
+     * Creates a SharedExpResultCache.
+     */
+    SharedExpResultCache() {
+    }
+
+    /**
+     * Returns the current generation of the cache. A query should call this
+     * before it evaluates any expression, and pass the value to
+     * {@link #put}.
+     *
+     * @return Generation
+     */
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns a result, or null if there is no result for the key.
+     *
+     * @param key Key
+     * @return Result, or null
+     */
+    synchronized Object get(Object key) {
+        final SoftReference<Object> ref = map.get(key);
+        if (ref == null) {
+            return null;
+        }
+        final Object result = ref.get();
+        if (result == null) {
+            map.remove(key);
+        }
+        return result;
+    }
+
+    /**
+     * Stores a result, unless the cache has been cleared since the given
+     * generation.
+     *
+     * @param key Key
+     * @param result Result; not null
+     * @param generation Generation of the cache when the query that computed
+     *   the result started
+     * @param maxSize Maximum number of results to hold
+     */
+    synchronized void put(
+        Object key,
+        Object result,
+        int generation,
+        int maxSize)
+    {
+        assert result != null;
+        if (generation != this.generation) {
+            return;
+        }
+        map.put(key, new SoftReference<Object>(result));
+        final Iterator<Object> iterator = map.keySet().iterator();
+        while (map.size() > maxSize) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all results, and starts a new generation.
+     */
+    synchronized void clear() {
+        map.clear();
+        ++generation;
+    }
+
+    /**
+     * Returns the number of results in the cache, including any that the
+     * garbage collector has reclaimed.
+     *
+     * @return Number of results
+     */
+    synchronized int size() {
+        return map.size();
+    }
+}
+
+// End SharedExpResultCache.java
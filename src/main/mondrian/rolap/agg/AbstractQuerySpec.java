@@ -73,6 +73,16 @@ public abstract class AbstractQuerySpec implements QuerySpec {
             measure.getExpression() == null
                 ? "*"
                 : measure.generateExprString(sqlQuery);
+        if (measure.getAggregator() == RolapAggregator.ApproxDistinctCount) {
+            // Select the distinct keys of each cell; the segment loader
+            // builds a sketch from them.
+            final String alias =
+                sqlQuery.addSelect(exprInner, null, getMeasureAlias(i));
+            if (isAggregate()) {
+                sqlQuery.addGroupBy(exprInner, alias);
+            }
+            return;
+        }
         String exprOuter = measure.getAggregator().getExpression(exprInner);
         sqlQuery.addSelect(
             exprOuter,
@@ -123,10 +123,10 @@ public class Aggregation {
         GroupingSetsCollector groupingSetsCollector,
         List<Future<Map<Segment, SegmentWithData>>> segmentFutures)
     {
-        BitKey measureBitKey = getConstrainedColumnsBitKey().emptyCopy();
         int axisCount = columns.length;
         Util.assertTrue(predicates.length == axisCount);
 
+        BitKey measureBitKey = getConstrainedColumnsBitKey().emptyCopy();
         List<Segment> segments =
             createSegments(
                 columns, measures, measureBitKey, predicates);
@@ -140,13 +140,145 @@ public class Aggregation {
             groupingSetsCollector.add(groupingSet);
         } else {
             final SegmentLoader segmentLoader = new SegmentLoader(cacheMgr);
-            segmentLoader.load(
-                cellRequestCount,
-                new ArrayList<GroupingSet>(
-                    Collections.singletonList(groupingSet)),
-                compoundPredicateList,
-                segmentFutures);
+            final List<GroupingSet> parts =
+                split(
+                    columns, measures, predicates,
+                    MondrianProperties.instance().SegmentLoadParallelism
+                        .get());
+            if (parts != null) {
+                segmentLoader.loadSplit(
+                    cellRequestCount,
+                    groupingSet,
+                    parts,
+                    compoundPredicateList,
+                    segmentFutures);
+            } else {
+                segmentLoader.load(
+                    cellRequestCount,
+                    new ArrayList<GroupingSet>(
+                        Collections.singletonList(groupingSet)),
+                    compoundPredicateList,
+                    segmentFutures);
+            }
+        }
+    }
+
+    /**
+     * Divides a load into parts, to be loaded by SQL statements that the SQL
+     * executor runs concurrently, if
+     * {@link MondrianProperties#SegmentLoadParallelism} permits.
+     *
+     * <p>If a column is constrained to a list of values, divides the values
+     * into contiguous ranges, and creates a grouping set for each range.
+     * Otherwise, if there are several measures, creates a grouping set for
+     * each subset of the measures. {@link SegmentLoader#loadSplit} merges
+     * the segments of the parts into the segments of the whole load.</p>
+     *
+     * @return Grouping sets of the parts, or null if the load is not split
+     */
+    private List<GroupingSet> split(
+        RolapStar.Column[] columns,
+        List<RolapStar.Measure> measures,
+        StarColumnPredicate[] predicates,
+        int parallelism)
+    {
+        if (parallelism <= 1) {
+            return null;
+        }
+        // Find the first column constrained to a list of values.
+        int splitColumn = -1;
+        List<StarColumnPredicate> values = null;
+        for (int i = 0; i < predicates.length; i++) {
+            values = splittableValues(predicates[i]);
+            if (values != null) {
+                splitColumn = i;
+                break;
+            }
         }
+        final List<StarColumnPredicate[]> predicateLists =
+            new ArrayList<StarColumnPredicate[]>();
+        final List<List<RolapStar.Measure>> measureLists =
+            new ArrayList<List<RolapStar.Measure>>();
+        if (splitColumn >= 0) {
+            final int n = Math.min(parallelism, values.size());
+            for (int k = 0; k < n; k++) {
+                final List<StarColumnPredicate> range =
+                    values.subList(
+                        k * values.size() / n,
+                        (k + 1) * values.size() / n);
+                final StarColumnPredicate[] rangePredicates =
+                    predicates.clone();
+                rangePredicates[splitColumn] =
+                    range.size() == 1
+                        ? range.get(0)
+                        : new ListColumnPredicate(
+                            columns[splitColumn],
+                            new ArrayList<StarColumnPredicate>(range));
+                predicateLists.add(rangePredicates);
+                measureLists.add(measures);
+            }
+        } else if (measures.size() > 1) {
+            final int n = Math.min(parallelism, measures.size());
+            for (int k = 0; k < n; k++) {
+                predicateLists.add(predicates);
+                measureLists.add(
+                    new ArrayList<RolapStar.Measure>(
+                        measures.subList(
+                            k * measures.size() / n,
+                            (k + 1) * measures.size() / n)));
+            }
+        } else {
+            return null;
+        }
+        final BitKey levelBitKey = getConstrainedColumnsBitKey();
+        final List<GroupingSet> parts = new ArrayList<GroupingSet>();
+        for (int k = 0; k < predicateLists.size(); k++) {
+            final BitKey measureBitKey = levelBitKey.emptyCopy();
+            final List<Segment> segments =
+                createSegments(
+                    columns, measureLists.get(k), measureBitKey,
+                    predicateLists.get(k));
+            parts.add(
+                new GroupingSet(
+                    segments, levelBitKey, measureBitKey,
+                    predicateLists.get(k), columns));
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the values of a predicate that constrains a column to a list
+     * of two or more values, sorted; or null if the predicate has any other
+     * form.
+     */
+    private static List<StarColumnPredicate> splittableValues(
+        StarColumnPredicate predicate)
+    {
+        if (!(predicate instanceof ListColumnPredicate)) {
+            return null;
+        }
+        final List<StarColumnPredicate> children =
+            ((ListColumnPredicate) predicate).getPredicates();
+        if (children.size() < 2) {
+            return null;
+        }
+        for (StarColumnPredicate child : children) {
+            if (!(child instanceof ValueColumnPredicate)) {
+                return null;
+            }
+        }
+        final List<StarColumnPredicate> values =
+            new ArrayList<StarColumnPredicate>(children);
+        Collections.sort(
+            values,
+            new Comparator<StarColumnPredicate>() {
+                public int compare(
+                    StarColumnPredicate o1, StarColumnPredicate o2)
+                {
+                    return ((ValueColumnPredicate) o1).compareTo(o2);
+                }
+            });
+        return values;
     }
 
     private List<Segment> createSegments(
@@ -490,7 +622,7 @@ public class Aggregation {
                 } else {
                     axes[i] = segmentAxes[axisOrdinal];
                     axisInverseOrdinals[axisOrdinal] = i;
-                    final int keyCount = axes[i].getKeys().length;
+                    final int keyCount = axes[i].getKeyCount();
                     keepBitSets[i] = new BitSet(keyCount);
                 }
             }
@@ -564,12 +696,12 @@ public class Aggregation {
                 if (axis == null) {
                     evaluatePredicate(axisOrdinal + 1);
                 } else {
-                    final Comparable[] keys = axis.getKeys();
+                    final int keyCount = axis.getKeyCount();
                     for (int keyOrdinal = 0;
-                        keyOrdinal < keys.length;
+                        keyOrdinal < keyCount;
                         keyOrdinal++)
                     {
-                        Object key = keys[keyOrdinal];
+                        Object key = axis.getKey(keyOrdinal);
                         values[axisOrdinal] = key;
                         ordinals[axisOrdinal] = keyOrdinal;
                         cellKey.setAxis(
@@ -232,65 +232,57 @@ public class AggregationManager extends RolapAggregationManager {
         BitKey levelBitKey = groupingSetsList.getDefaultLevelBitKey();
         BitKey measureBitKey = groupingSetsList.getDefaultMeasureBitKey();
 
-        // Check if using aggregates is enabled.
-        boolean hasCompoundPredicates = false;
-        if (compoundPredicateList != null && compoundPredicateList.size() > 0) {
-            // Do not use Aggregate tables if compound predicates are present.
-            hasCompoundPredicates = true;
-        }
-        if (MondrianProperties.instance().UseAggregates.get()
-             && !hasCompoundPredicates)
-        {
-            final boolean[] rollup = {false};
-            AggStar aggStar = findAgg(star, levelBitKey, measureBitKey, rollup);
-
-            if (aggStar != null) {
-                // Got a match, hot damn
-
-                if (LOGGER.isDebugEnabled()) {
-                    StringBuilder buf = new StringBuilder(256);
-                    buf.append("MATCH: ");
-                    buf.append(star.getFactTable().getAlias());
-                    buf.append(Util.nl);
-                    buf.append("   foreign=");
-                    buf.append(levelBitKey);
-                    buf.append(Util.nl);
-                    buf.append("   measure=");
-                    buf.append(measureBitKey);
-                    buf.append(Util.nl);
-                    buf.append("   aggstar=");
-                    buf.append(aggStar.getBitKey());
-                    buf.append(Util.nl);
-                    buf.append("AggStar=");
-                    buf.append(aggStar.getFactTable().getName());
+        final boolean[] rollup = {false};
+        AggStar aggStar =
+            findAggForSql(
+                star, levelBitKey, measureBitKey, compoundPredicateList,
+                rollup);
+        if (aggStar != null) {
+            // Got a match, hot damn
+
+            if (LOGGER.isDebugEnabled()) {
+                StringBuilder buf = new StringBuilder(256);
+                buf.append("MATCH: ");
+                buf.append(star.getFactTable().getAlias());
+                buf.append(Util.nl);
+                buf.append("   foreign=");
+                buf.append(levelBitKey);
+                buf.append(Util.nl);
+                buf.append("   measure=");
+                buf.append(measureBitKey);
+                buf.append(Util.nl);
+                buf.append("   aggstar=");
+                buf.append(aggStar.getBitKey());
+                buf.append(Util.nl);
+                buf.append("AggStar=");
+                buf.append(aggStar.getFactTable().getName());
+                buf.append(Util.nl);
+                for (AggStar.Table.Column column
+                    : aggStar.getFactTable().getColumns())
+                {
+                    buf.append("   ");
+                    buf.append(column);
                     buf.append(Util.nl);
-                    for (AggStar.Table.Column column
-                        : aggStar.getFactTable().getColumns())
-                    {
-                        buf.append("   ");
-                        buf.append(column);
-                        buf.append(Util.nl);
-                    }
-                    LOGGER.debug(buf.toString());
                 }
+                LOGGER.debug(buf.toString());
+            }
 
-                AggQuerySpec aggQuerySpec =
-                    new AggQuerySpec(
-                        aggStar, rollup[0], groupingSetsList);
-                Pair<String, List<Type>> sql = aggQuerySpec.generateSqlQuery();
-
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug(
-                        "generateSqlQuery: sql="
-                        + sql.left);
-                }
+            AggQuerySpec aggQuerySpec =
+                new AggQuerySpec(
+                    aggStar, rollup[0], groupingSetsList);
+            Pair<String, List<Type>> sql = aggQuerySpec.generateSqlQuery();
 
-                return sql;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "generateSqlQuery: sql="
+                    + sql.left);
             }
 
-            // No match, fall through and use fact table.
+            return sql;
         }
 
+        // No match, fall through and use fact table.
+
         if (LOGGER.isDebugEnabled()) {
             StringBuilder sb = new StringBuilder();
             sb.append("NO MATCH : ");
@@ -304,8 +296,8 @@ public class AggregationManager extends RolapAggregationManager {
             sb.append(Util.nl);
             sb.append("Agg Stars=[");
             sb.append(Util.nl);
-            for (AggStar aggStar : star.getAggStars()) {
-                sb.append(aggStar.toString());
+            for (AggStar candidate : star.getAggStars()) {
+                sb.append(candidate.toString());
             }
             sb.append(Util.nl);
             sb.append("]");
@@ -327,6 +319,38 @@ public class AggregationManager extends RolapAggregationManager {
         return pair;
     }
 
+    /**
+     * Finds the aggregate table that {@link #generateSql} would read to load
+     * the given levels and measures. Returns null if the SQL would read the
+     * fact table, because aggregate tables are disabled, compound predicates
+     * are present, or no aggregate table is suitable.
+     *
+     * @param star Star
+     * @param levelBitKey Set of levels
+     * @param measureBitKey Set of measures
+     * @param compoundPredicateList Compound predicates, or null
+     * @param rollup Out parameter, is set to true if the aggregate is not
+     *   an exact match
+     * @return An aggregate, or null if SQL would read the fact table
+     */
+    public static AggStar findAggForSql(
+        RolapStar star,
+        BitKey levelBitKey,
+        BitKey measureBitKey,
+        List<StarPredicate> compoundPredicateList,
+        boolean[] rollup)
+    {
+        // Check if using aggregates is enabled.
+        if (!MondrianProperties.instance().UseAggregates.get()) {
+            return null;
+        }
+        if (compoundPredicateList != null && compoundPredicateList.size() > 0) {
+            // Do not use Aggregate tables if compound predicates are present.
+            return null;
+        }
+        return findAgg(star, levelBitKey, measureBitKey, rollup);
+    }
+
     /**
      * Finds an aggregate table in the given star which has the desired levels
      * and measures. Returns null if no aggregate table is suitable.
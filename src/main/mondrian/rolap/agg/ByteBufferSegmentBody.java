@@ -0,0 +1,785 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.*;
+import mondrian.spi.SegmentBody;
+import mondrian.util.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Implementation of {@link SegmentBody} whose cell values and axis keys are
+ * stored in a {@link ByteBuffer}, typically a direct (off-heap) buffer.
+ *
+ * <p>Objects are only created on the heap when they are asked for. In
+ * particular, a segment of {@code double} or {@code int} values is converted
+ * by {@link SegmentBuilder#addData} into a dataset that reads cell values
+ * directly from the buffer, without copying them into an array.</p>
+ *
+ * <p>The buffer holds:</p>
+ *
+ * <pre>
+ * byte kind (see {@link Kind})
+ * int axisCount
+ * int byte length of axes
+ * axisCount * (byte hasNull, values)
+ * int cellCount
+ * DOUBLE, INT: int wordCount, wordCount * long null bits,
+ *              cellCount * double or int
+ * OBJECT:      dictionary-encoded values
+ * SPARSE:      cellCount * (axisCount * int ordinal, value)
+ * </pre>
+ *
+ * <p>Columns of values, single values and dictionary-encoded values are
+ * written by {@link SegmentCodec}.</p>
+ *
+ * <p>Instances are immutable. The buffer is not modified, and because each
+ * instance has its own view of the buffer, instances may be used from
+ * several threads. When serialized, the body is converted to a regular
+ * heap-based body.</p>
+ */
+public class ByteBufferSegmentBody implements SegmentBody {
+    private static final long serialVersionUID = 8103521843306417722L;
+
+    private final transient ByteBuffer buffer;
+    private final transient Kind kind;
+    private final transient int axisCount;
+    private final transient int axesOffset;
+    private final transient int cellCount;
+    private final transient int dataOffset;
+
+    /**
+     * Axis value sets, decoded on first use. Cached per instance; the cache
+     * does not keep them, so they are garbage once the segment is no longer
+     * in use.
+     */
+    private transient SortedSet<Comparable>[] axisValueSets;
+    private transient boolean[] nullAxisFlags;
+
+    /**
+     * Creates a ByteBufferSegmentBody that reads from a buffer created by
+     * {@link #encode(mondrian.spi.SegmentBody, boolean)}.
+     *
+     * @param buffer Buffer; its position and limit are not modified
+     */
+    public ByteBufferSegmentBody(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+        this.buffer.position(0);
+        this.kind = Kind.values()[this.buffer.get(0)];
+        this.axisCount = this.buffer.getInt(1);
+        final int axesLength = this.buffer.getInt(5);
+        this.axesOffset = 9;
+        this.cellCount = this.buffer.getInt(axesOffset + axesLength);
+        this.dataOffset = axesOffset + axesLength + 4;
+    }
+
+    /**
+     * Returns the number of bytes in the encoded form of this body.
+     *
+     * @return Number of bytes
+     */
+    int getEncodedSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns whether this body holds a sparse segment; if not,
+     * {@link #getValueArray()} returns its values.
+     *
+     * @return Whether sparse
+     */
+    boolean isSparse() {
+        return kind == Kind.SPARSE;
+    }
+
+    /**
+     * Returns the number of cells in this body; if sparse, the number of
+     * cells that have a value.
+     *
+     * @return Number of cells
+     */
+    int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Encodes a segment body into a buffer.
+     *
+     * <p>Writes directly into the buffer, which is allocated with room for
+     * the axes and, for segments of native values, the exact size of the
+     * cells; it grows if a segment of objects needs more room.</p>
+     *
+     * @param body Segment body
+     * @param direct Whether to allocate a direct (off-heap) buffer
+     * @return Buffer, positioned at 0, whose limit is the encoded length
+     */
+    public static ByteBuffer encode(SegmentBody body, boolean direct) {
+        final Kind kind = Kind.of(body);
+        final BufferOutputStream out;
+        try {
+            final byte[] axes = writeAxes(body);
+            out =
+                new BufferOutputStream(
+                    9 + axes.length + estimateCellsSize(kind, body),
+                    direct);
+            write(kind, axes, body, new DataOutputStream(out));
+        } catch (IOException e) {
+            throw Util.newError(e, "Error while encoding segment body");
+        }
+        return out.toBuffer();
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the cells of a body:
+     * exact for a dense segment of native values, otherwise a guess.
+     */
+    private static int estimateCellsSize(Kind kind, SegmentBody body) {
+        final int cellCount =
+            Math.max(SegmentBuilder.getCellCount(body), 0);
+        final int bitSetSize = 4 + (cellCount + 63) / 64 * 8;
+        switch (kind) {
+        case DOUBLE:
+            return 4 + bitSetSize + cellCount * 8;
+        case INT:
+            return 4 + bitSetSize + cellCount * 4;
+        default:
+            return 4 + cellCount * 16;
+        }
+    }
+
+    /**
+     * Writes a segment body in the layout read by this class.
+     *
+     * @param body Segment body
+     * @param out Output stream
+     * @throws IOException on error
+     */
+    static void write(SegmentBody body, DataOutputStream out)
+        throws IOException
+    {
+        write(Kind.of(body), writeAxes(body), body, out);
+    }
+
+    /**
+     * Encodes the axes of a body, which are preceded in the layout by their
+     * length.
+     */
+    private static byte[] writeAxes(SegmentBody body) throws IOException {
+        final SortedSet<Comparable>[] axisValueSets = body.getAxisValueSets();
+        final boolean[] nullAxisFlags = body.getNullAxisFlags();
+        final ByteArrayOutputStream axesBytes = new ByteArrayOutputStream();
+        final DataOutputStream axesOut = new DataOutputStream(axesBytes);
+        axesOut.writeInt(axisValueSets.length);
+        for (int i = 0; i < axisValueSets.length; i++) {
+            axesOut.writeBoolean(nullAxisFlags[i]);
+            SegmentCodec.writeValues(axesOut, axisValueSets[i]);
+        }
+        axesOut.flush();
+        return axesBytes.toByteArray();
+    }
+
+    private static void write(
+        Kind kind,
+        byte[] axes,
+        SegmentBody body,
+        DataOutputStream out)
+        throws IOException
+    {
+        out.writeByte(kind.ordinal());
+        // The axis count, then the length of the axis values.
+        out.write(axes, 0, 4);
+        out.writeInt(axes.length - 4);
+        out.write(axes, 4, axes.length - 4);
+
+        switch (kind) {
+        case DOUBLE:
+        {
+            final double[] values = (double[]) body.getValueArray();
+            out.writeInt(values.length);
+            writeBitSet(out, body.getNullValueIndicators());
+            for (double value : values) {
+                out.writeDouble(value);
+            }
+            break;
+        }
+        case INT:
+        {
+            final int[] values = (int[]) body.getValueArray();
+            out.writeInt(values.length);
+            writeBitSet(out, body.getNullValueIndicators());
+            for (int value : values) {
+                out.writeInt(value);
+            }
+            break;
+        }
+        case OBJECT:
+        {
+            final Object[] values = (Object[]) body.getValueArray();
+            out.writeInt(values.length);
+            SegmentCodec.writeDictionaryValues(out, values);
+            break;
+        }
+        case SPARSE:
+        {
+            final Map<CellKey, Object> map = body.getValueMap();
+            out.writeInt(map.size());
+            for (Map.Entry<CellKey, Object> entry : map.entrySet()) {
+                for (int ordinal : entry.getKey().getOrdinals()) {
+                    out.writeInt(ordinal);
+                }
+                SegmentCodec.writeValue(out, entry.getValue());
+            }
+            break;
+        }
+        default:
+            throw Util.unexpected(kind);
+        }
+        out.flush();
+    }
+
+    private static void writeBitSet(DataOutputStream out, BitSet bitSet)
+        throws IOException
+    {
+        final int wordCount = (bitSet.length() + 63) / 64;
+        out.writeInt(wordCount);
+        for (int w = 0; w < wordCount; w++) {
+            long word = 0;
+            for (int i = bitSet.nextSetBit(w * 64);
+                 i >= 0 && i < (w + 1) * 64;
+                 i = bitSet.nextSetBit(i + 1))
+            {
+                word |= 1L << (i - w * 64);
+            }
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Returns the number of bytes occupied by this body's buffer.
+     *
+     * @return Number of bytes
+     */
+    public int getByteCount() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns a new view of the buffer of this body.
+     *
+     * @return Buffer
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    public synchronized SortedSet<Comparable>[] getAxisValueSets() {
+        if (axisValueSets == null) {
+            final ByteBuffer b = buffer.duplicate();
+            b.position(axesOffset);
+            //noinspection unchecked
+            final SortedSet<Comparable>[] sets = new SortedSet[axisCount];
+            final boolean[] flags = new boolean[axisCount];
+            for (int i = 0; i < axisCount; i++) {
+                flags[i] = b.get() != 0;
+                sets[i] = SegmentCodec.readSortedSet(b);
+            }
+            this.nullAxisFlags = flags;
+            this.axisValueSets = sets;
+        }
+        return axisValueSets;
+    }
+
+    public synchronized boolean[] getNullAxisFlags() {
+        if (nullAxisFlags == null) {
+            getAxisValueSets();
+        }
+        return nullAxisFlags;
+    }
+
+    public BitSet getNullValueIndicators() {
+        switch (kind) {
+        case DOUBLE:
+        case INT:
+            return readBitSet();
+        default:
+            throw new UnsupportedOperationException(
+                "This method is only supported for dense segments "
+                + "of native values");
+        }
+    }
+
+    private BitSet readBitSet() {
+        final ByteBuffer b = buffer.duplicate();
+        b.position(dataOffset);
+        final int wordCount = b.getInt();
+        final BitSet bitSet = new BitSet(wordCount * 64);
+        for (int w = 0; w < wordCount; w++) {
+            final long word = b.getLong();
+            if (word == 0) {
+                continue;
+            }
+            for (int i = 0; i < 64; i++) {
+                if ((word & (1L << i)) != 0) {
+                    bitSet.set(w * 64 + i);
+                }
+            }
+        }
+        return bitSet;
+    }
+
+    /**
+     * Returns the offset in the buffer of the first native value of a dense
+     * segment, just after the null indicators.
+     */
+    private int nativeValuesOffset() {
+        return dataOffset + 4 + buffer.getInt(dataOffset) * 8;
+    }
+
+    public Object getValueArray() {
+        switch (kind) {
+        case DOUBLE:
+        {
+            final double[] values = new double[cellCount];
+            final ByteBuffer b = buffer.duplicate();
+            b.position(nativeValuesOffset());
+            b.asDoubleBuffer().get(values);
+            return values;
+        }
+        case INT:
+        {
+            final int[] values = new int[cellCount];
+            final ByteBuffer b = buffer.duplicate();
+            b.position(nativeValuesOffset());
+            b.asIntBuffer().get(values);
+            return values;
+        }
+        case OBJECT:
+        {
+            final ByteBuffer b = buffer.duplicate();
+            b.position(dataOffset);
+            return SegmentCodec.readDictionaryValues(b);
+        }
+        default:
+            throw new UnsupportedOperationException(
+                "This method is only supported for dense segments");
+        }
+    }
+
+    public Map<CellKey, Object> getValueMap() {
+        if (kind != Kind.SPARSE) {
+            return toHeapBody().getValueMap();
+        }
+        final Map<CellKey, Object> map =
+            new HashMap<CellKey, Object>(cellCount * 3 / 2);
+        final ByteBuffer b = buffer.duplicate();
+        b.position(dataOffset);
+        for (int i = 0; i < cellCount; i++) {
+            final int[] ordinals = new int[axisCount];
+            for (int j = 0; j < axisCount; j++) {
+                ordinals[j] = b.getInt();
+            }
+            map.put(
+                CellKey.Generator.newCellKey(ordinals),
+                SegmentCodec.readValue(b));
+        }
+        return map;
+    }
+
+    /**
+     * Creates a dataset over the contents of this body.
+     *
+     * <p>Segments of {@code double} and {@code int} values are read directly
+     * from the buffer. Other segments are decoded onto the heap.</p>
+     *
+     * @param axes Segment axes
+     * @return Dataset
+     */
+    SegmentDataset createDataset(SegmentAxis[] axes) {
+        switch (kind) {
+        case DOUBLE:
+            return new DoubleBufferSegmentDataset(
+                axes, buffer, nativeValuesOffset(), cellCount, readBitSet());
+        case INT:
+            return new IntBufferSegmentDataset(
+                axes, buffer, nativeValuesOffset(), cellCount, readBitSet());
+        case OBJECT:
+            return new DenseObjectSegmentDataset(
+                axes, (Object[]) getValueArray());
+        case SPARSE:
+            return new SparseSegmentDataset(getValueMap());
+        default:
+            throw Util.unexpected(kind);
+        }
+    }
+
+    /**
+     * Converts this body into a regular, heap-based body.
+     *
+     * @return Heap-based segment body
+     */
+    public SegmentBody toHeapBody() {
+        final SortedSet<Comparable>[] sets = getAxisValueSets();
+        final boolean[] flags = getNullAxisFlags();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        for (int i = 0; i < sets.length; i++) {
+            axes.add(Pair.of(sets[i], flags[i]));
+        }
+        switch (kind) {
+        case DOUBLE:
+            return new DenseDoubleSegmentBody(
+                getNullValueIndicators(), (double[]) getValueArray(), axes);
+        case INT:
+            return new DenseIntSegmentBody(
+                getNullValueIndicators(), (int[]) getValueArray(), axes);
+        case OBJECT:
+            return new DenseObjectSegmentBody(
+                (Object[]) getValueArray(), axes);
+        case SPARSE:
+            return new SparseSegmentBody(getValueMap(), axes);
+        default:
+            throw Util.unexpected(kind);
+        }
+    }
+
+    /**
+     * Replaces this body with a heap-based body when serialized; buffers
+     * are not serializable.
+     */
+    protected Object writeReplace() throws ObjectStreamException {
+        return toHeapBody();
+    }
+
+    public String toString() {
+        return "ByteBufferSegmentBody(kind=" + kind
+            + ", cellCount=" + cellCount
+            + ", bytes=" + getByteCount() + ")";
+    }
+
+    /**
+     * Copies a region of a buffer into a new buffer, which is direct if the
+     * original is direct.
+     *
+     * @param buffer Buffer
+     * @param offset Offset of region
+     * @param length Length of region
+     * @return New buffer, containing the region at offset 0
+     */
+    private static ByteBuffer copy(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer region = buffer.duplicate();
+        region.limit(offset + length);
+        region.position(offset);
+        final ByteBuffer copy =
+            buffer.isDirect()
+                ? ByteBuffer.allocateDirect(length)
+                : ByteBuffer.allocate(length);
+        copy.put(region);
+        copy.clear();
+        return copy;
+    }
+
+    /**
+     * Output stream that writes into a buffer, replacing it with a larger
+     * one when it is full.
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final boolean direct;
+        private ByteBuffer buffer;
+
+        BufferOutputStream(int capacity, boolean direct) {
+            this.direct = direct;
+            this.buffer = allocate(capacity);
+        }
+
+        private ByteBuffer allocate(int capacity) {
+            return direct
+                ? ByteBuffer.allocateDirect(capacity)
+                : ByteBuffer.allocate(capacity);
+        }
+
+        private void ensureRemaining(int n) {
+            if (buffer.remaining() < n) {
+                final ByteBuffer larger =
+                    allocate(
+                        Math.max(
+                            buffer.capacity() * 2, buffer.position() + n));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        public void write(int b) {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+        }
+
+        /**
+         * Returns the buffer, positioned at 0, whose limit is the number of
+         * bytes written. If the buffer has grown well beyond that, returns a
+         * copy of the right size.
+         */
+        ByteBuffer toBuffer() {
+            buffer.flip();
+            if (buffer.capacity() - buffer.limit() > buffer.limit() / 8) {
+                final ByteBuffer exact = allocate(buffer.limit());
+                exact.put(buffer);
+                exact.flip();
+                return exact;
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Layout of the cells in a body.
+     */
+    private enum Kind {
+        DOUBLE,
+        INT,
+        OBJECT,
+        SPARSE;
+
+        static Kind of(SegmentBody body) {
+            if (body instanceof ByteBufferSegmentBody) {
+                return ((ByteBufferSegmentBody) body).kind;
+            } else if (body instanceof DenseDoubleSegmentBody) {
+                return DOUBLE;
+            } else if (body instanceof DenseIntSegmentBody) {
+                return INT;
+            } else if (body instanceof DenseObjectSegmentBody) {
+                return OBJECT;
+            } else if (body instanceof SparseSegmentBody) {
+                return SPARSE;
+            } else {
+                throw Util.newInternal(
+                    "Unknown segment body type: " + body.getClass());
+            }
+        }
+    }
+
+    /**
+     * Dataset of {@code double} values that reads from a buffer.
+     *
+     * <p>Until it is written, the dataset shares the body's buffer, which is
+     * immutable. The first call to {@code populateFrom} copies the values
+     * into a buffer of the dataset's own, and writes go to that copy.</p>
+     */
+    private static class DoubleBufferSegmentDataset
+        extends DenseNativeSegmentDataset
+    {
+        private ByteBuffer buffer;
+        private int offset;
+        private final int size;
+        private boolean shared = true;
+
+        DoubleBufferSegmentDataset(
+            SegmentAxis[] axes,
+            ByteBuffer buffer,
+            int offset,
+            int size,
+            BitSet nullValues)
+        {
+            super(axes, nullValues);
+            this.buffer = buffer;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public double getDouble(CellKey key) {
+            return buffer.getDouble(
+                offset + key.getOffset(axisMultipliers) * 8);
+        }
+
+        public Object getObject(CellKey pos) {
+            if (size == 0) {
+                return null;
+            }
+            return getObject(pos.getOffset(axisMultipliers));
+        }
+
+        protected Double getObject(int i) {
+            final double value = buffer.getDouble(offset + i * 8);
+            if (value == 0d && isNull(i)) {
+                return null;
+            }
+            return value;
+        }
+
+        public boolean exists(CellKey pos) {
+            return true;
+        }
+
+        public void populateFrom(int[] pos, SegmentDataset data, CellKey key) {
+            final int i = getOffset(pos);
+            final double value = data.getDouble(key);
+            put(i, value);
+            if (value != 0d || !data.isNull(key)) {
+                nullValues.clear(i);
+            }
+        }
+
+        public void populateFrom(
+            int[] pos, SegmentLoader.RowList rowList, int column)
+        {
+            final int i = getOffset(pos);
+            final double value = rowList.getDouble(column);
+            put(i, value);
+            if (value != 0d || !rowList.isNull(column)) {
+                nullValues.clear(i);
+            }
+        }
+
+        /**
+         * Writes a value. The first write copies the values into a buffer
+         * of this dataset's own, because the body's buffer is immutable.
+         */
+        private void put(int i, double value) {
+            if (shared) {
+                buffer = copy(buffer, offset, size * 8);
+                offset = 0;
+                shared = false;
+            }
+            buffer.putDouble(offset + i * 8, value);
+        }
+
+        public SqlStatement.Type getType() {
+            return SqlStatement.Type.DOUBLE;
+        }
+
+        protected int getSize() {
+            return size;
+        }
+
+        public SegmentBody createSegmentBody(
+            List<Pair<SortedSet<Comparable>, Boolean>> axes)
+        {
+            final double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = buffer.getDouble(offset + i * 8);
+            }
+            return new DenseDoubleSegmentBody(nullValues, values, axes);
+        }
+    }
+
+    /**
+     * Dataset of {@code int} values that reads from a buffer.
+     *
+     * <p>Until it is written, the dataset shares the body's buffer, which is
+     * immutable. The first call to {@code populateFrom} copies the values
+     * into a buffer of the dataset's own, and writes go to that copy.</p>
+     */
+    private static class IntBufferSegmentDataset
+        extends DenseNativeSegmentDataset
+    {
+        private ByteBuffer buffer;
+        private int offset;
+        private final int size;
+        private boolean shared = true;
+
+        IntBufferSegmentDataset(
+            SegmentAxis[] axes,
+            ByteBuffer buffer,
+            int offset,
+            int size,
+            BitSet nullValues)
+        {
+            super(axes, nullValues);
+            this.buffer = buffer;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public int getInt(CellKey key) {
+            return buffer.getInt(offset + key.getOffset(axisMultipliers) * 4);
+        }
+
+        public Object getObject(CellKey pos) {
+            if (size == 0) {
+                return null;
+            }
+            return getObject(pos.getOffset(axisMultipliers));
+        }
+
+        protected Integer getObject(int i) {
+            final int value = buffer.getInt(offset + i * 4);
+            if (value == 0 && isNull(i)) {
+                return null;
+            }
+            return value;
+        }
+
+        public boolean exists(CellKey pos) {
+            return true;
+        }
+
+        public void populateFrom(int[] pos, SegmentDataset data, CellKey key) {
+            final int i = getOffset(pos);
+            final int value = data.getInt(key);
+            put(i, value);
+            if (value != 0 || !data.isNull(key)) {
+                nullValues.clear(i);
+            }
+        }
+
+        public void populateFrom(
+            int[] pos, SegmentLoader.RowList rowList, int column)
+        {
+            final int i = getOffset(pos);
+            final int value = rowList.getInt(column);
+            put(i, value);
+            if (value != 0 || !rowList.isNull(column)) {
+                nullValues.clear(i);
+            }
+        }
+
+        /**
+         * Writes a value. The first write copies the values into a buffer
+         * of this dataset's own, because the body's buffer is immutable.
+         */
+        private void put(int i, int value) {
+            if (shared) {
+                buffer = copy(buffer, offset, size * 4);
+                offset = 0;
+                shared = false;
+            }
+            buffer.putInt(offset + i * 4, value);
+        }
+
+        public SqlStatement.Type getType() {
+            return SqlStatement.Type.INT;
+        }
+
+        protected int getSize() {
+            return size;
+        }
+
+        public SegmentBody createSegmentBody(
+            List<Pair<SortedSet<Comparable>, Boolean>> axes)
+        {
+            final int[] values = new int[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = buffer.getInt(offset + i * 4);
+            }
+            return new DenseIntSegmentBody(nullValues, values, axes);
+        }
+    }
+}
+
+// End ByteBufferSegmentBody.java
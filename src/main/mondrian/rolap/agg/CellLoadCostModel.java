@@ -0,0 +1,239 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.spi.SegmentBody;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.ByteString;
+
+import java.util.*;
+
+/**
+ * Estimates whether it is cheaper to load a segment by rolling up segments
+ * that are already in cache, or by executing SQL.
+ *
+ * <p>There is one cost model per {@link RolapStar}. It learns from loads
+ * that have already happened:<ul>
+ * <li>the number of cells in each segment that has been loaded, rolled up,
+ *     or fetched from the external cache, so that the cost of a rollup can
+ *     be estimated from the segments it would read;</li>
+ * <li>the time taken to roll up a cell;</li>
+ * <li>the time taken by SQL that reads the fact table and each aggregate
+ *     table.</li>
+ * </ul></p>
+ *
+ * <p>If SQL would read an aggregate table that has not been read yet, its
+ * cost is estimated from the number of rows in the table, which
+ * {@link AggStar} already knows. The number of rows in the fact table is not
+ * used, because computing it might require SQL, and the decision is made by
+ * the cache manager, which must not block.</p>
+ *
+ * <p>Rollup is the default. SQL is chosen only if both costs are known, and
+ * the rollup is estimated to be both slow and slower than SQL.</p>
+ *
+ * <p>Thread safe.</p>
+ */
+public class CellLoadCostModel {
+    /**
+     * Estimated time to roll up one cell, in nanoseconds, before any rollup
+     * has been timed.
+     */
+    static final double DEFAULT_ROLLUP_NANOS_PER_CELL = 50d;
+
+    /**
+     * Estimated time to read one row of an aggregate table, in nanoseconds.
+     */
+    static final double SQL_NANOS_PER_ROW = 100d;
+
+    /**
+     * Estimated fixed cost of executing a SQL statement, in milliseconds.
+     */
+    static final double SQL_OVERHEAD_MILLIS = 5d;
+
+    /**
+     * Rollups estimated to take less time than this, in milliseconds, are
+     * always chosen; the estimates are not accurate enough to justify going
+     * to the database.
+     */
+    static final double MIN_OVERRIDE_MILLIS = 10d;
+
+    /**
+     * Rollups of fewer cells than this are not used to calibrate the cost
+     * per cell, because their fixed costs dominate.
+     */
+    static final int MIN_CALIBRATION_CELLS = 1000;
+
+    /**
+     * Weight of the newest observation in the moving averages.
+     */
+    private static final double ALPHA = 0.3d;
+
+    private static final int MAX_SEGMENTS = 10000;
+
+    private final Map<ByteString, Integer> cellCounts =
+        new LinkedHashMap<ByteString, Integer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                Map.Entry<ByteString, Integer> eldest)
+            {
+                return size() > MAX_SEGMENTS;
+            }
+        };
+
+    private final Map<String, Double> sqlMillisByTable =
+        new HashMap<String, Double>();
+
+    private double rollupNanosPerCell = DEFAULT_ROLLUP_NANOS_PER_CELL;
+
+    /**
+     * Creates a CellLoadCostModel.
+     */
+    public CellLoadCostModel() {
+    }
+
+    /**
+     * Records the number of cells in a segment.
+     *
+     * @param header Segment header
+     * @param body Segment body
+     */
+    public void recordCellCount(SegmentHeader header, SegmentBody body) {
+        final int cellCount = SegmentBuilder.getCellCount(body);
+        if (cellCount >= 0) {
+            recordCellCount(header, cellCount);
+        }
+    }
+
+    synchronized void recordCellCount(SegmentHeader header, int cellCount) {
+        cellCounts.put(header.getUniqueID(), cellCount);
+    }
+
+    /**
+     * Records the time taken to roll up segments.
+     *
+     * @param cellCount Number of cells in the source segments
+     * @param nanos Elapsed time, in nanoseconds
+     */
+    public synchronized void recordRollup(long cellCount, long nanos) {
+        if (cellCount < MIN_CALIBRATION_CELLS || nanos <= 0) {
+            return;
+        }
+        rollupNanosPerCell =
+            average(rollupNanosPerCell, (double) nanos / cellCount);
+    }
+
+    /**
+     * Records the time taken by a SQL statement that loaded segments.
+     *
+     * @param table Name of the table read by the statement, per
+     *   {@link #getTableName}
+     * @param millis Elapsed time, in milliseconds
+     */
+    public synchronized void recordSqlLoad(String table, long millis) {
+        final Double previous = sqlMillisByTable.get(table);
+        sqlMillisByTable.put(
+            table,
+            previous == null ? millis : average(previous, millis));
+    }
+
+    /**
+     * Estimates the cost of loading a segment by rolling up some segments,
+     * and by executing SQL.
+     *
+     * @param rollupHeaders Headers of the segments that a rollup would read
+     * @param sqlTable Name of the table that SQL would read, per
+     *   {@link #getTableName}
+     * @param sqlRowCount Number of rows in that table, or -1 if not known
+     * @return Estimate
+     */
+    public synchronized Estimate estimate(
+        List<SegmentHeader> rollupHeaders,
+        String sqlTable,
+        long sqlRowCount)
+    {
+        double rollupMillis = 0;
+        for (SegmentHeader header : rollupHeaders) {
+            final Integer cellCount = cellCounts.get(header.getUniqueID());
+            if (cellCount == null) {
+                rollupMillis = Double.NaN;
+                break;
+            }
+            rollupMillis += cellCount * rollupNanosPerCell / 1000000d;
+        }
+        double sqlMillis = Double.NaN;
+        final Double history = sqlMillisByTable.get(sqlTable);
+        if (history != null) {
+            sqlMillis = history;
+        } else if (sqlRowCount >= 0) {
+            sqlMillis =
+                SQL_OVERHEAD_MILLIS
+                + sqlRowCount * SQL_NANOS_PER_ROW / 1000000d;
+        }
+        return new Estimate(rollupMillis, sqlMillis);
+    }
+
+    /**
+     * Returns the name of the table that SQL reads: the aggregate table, or
+     * the alias of the fact table if the aggregate table is null.
+     *
+     * @param star Star
+     * @param aggStar Aggregate table, or null
+     * @return Table name
+     */
+    public static String getTableName(RolapStar star, AggStar aggStar) {
+        return aggStar == null
+            ? star.getFactTable().getAlias()
+            : aggStar.getFactTable().getName();
+    }
+
+    private static double average(double previous, double value) {
+        return previous + ALPHA * (value - previous);
+    }
+
+    /**
+     * Estimated costs of the ways to load a segment.
+     */
+    public static class Estimate {
+        /**
+         * Estimated time to roll up, in milliseconds, or NaN if not known.
+         */
+        public final double rollupMillis;
+
+        /**
+         * Estimated time to execute SQL, in milliseconds, or NaN if not
+         * known.
+         */
+        public final double sqlMillis;
+
+        Estimate(double rollupMillis, double sqlMillis) {
+            this.rollupMillis = rollupMillis;
+            this.sqlMillis = sqlMillis;
+        }
+
+        /**
+         * Returns whether SQL is estimated to be cheaper than rollup.
+         *
+         * @return Whether to execute SQL rather than roll up
+         */
+        public boolean isSqlCheaper() {
+            return !Double.isNaN(rollupMillis)
+                && !Double.isNaN(sqlMillis)
+                && rollupMillis >= MIN_OVERRIDE_MILLIS
+                && rollupMillis > sqlMillis;
+        }
+
+        public String toString() {
+            return "rollup=" + rollupMillis + "ms, sql=" + sqlMillis + "ms";
+        }
+    }
+}
+
+// End CellLoadCostModel.java
@@ -0,0 +1,308 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.resource.MondrianResource;
+import mondrian.server.Execution;
+
+import org.apache.log4j.Logger;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the SQL statements that populate segments against one data source,
+ * limiting how many run at a time.
+ *
+ * <p>The segment cache manager creates one executor per
+ * {@link javax.sql.DataSource}, so that a slow database cannot use up all of
+ * the threads and starve queries against other databases. All executors
+ * share one thread pool of bounded size; an executor hands a task to the
+ * pool only while fewer than {@code maxConcurrency} of its own tasks are
+ * running.</p>
+ *
+ * <p>Tasks that cannot run yet wait in a priority queue. Small loads, which
+ * are usually on behalf of interactive queries, go ahead of large batch loads.
+ * A task's priority is the time it was submitted plus a delay that grows with
+ * the logarithm of the number of cells it will load; so a large load is
+ * overtaken by small loads submitted shortly after it, but is not starved by
+ * them.</p>
+ *
+ * <p>The queue is not bounded, so submitting a task never fails. Instead,
+ * {@link #awaitCapacity(mondrian.server.Execution)} applies back pressure:
+ * a statement that is about to request segments waits while the queue is
+ * longer than {@link MondrianProperties#SegmentCacheManagerSqlQueueLimit}, and
+ * fails only if it is canceled, times out or is interrupted while waiting.</p>
+ *
+ * <p>The limits are fixed when the executor is created; they do not adapt
+ * to the response times of the database.</p>
+ */
+public class DataSourceExecutor {
+    private static final Logger LOGGER =
+        Logger.getLogger(DataSourceExecutor.class);
+
+    /**
+     * Delay, in milliseconds, added to a task's priority for each doubling
+     * of the number of cells it loads.
+     */
+    static final int PRIORITY_STEP_MILLIS = 50;
+
+    /**
+     * Longest time, in milliseconds, that {@link #awaitCapacity} waits
+     * between checks whether its execution has been canceled or has timed
+     * out. It is woken sooner when a task leaves the queue.
+     */
+    static final int CANCEL_CHECK_MILLIS = 100;
+
+    /**
+     * Name of the timing that records the time that loads wait in the queue.
+     */
+    public static final String QUEUE_TIMING_NAME = "SqlQueue";
+
+    private final String name;
+    private final Executor threadPool;
+    private final int maxConcurrency;
+    private final int queueLimit;
+
+    // Guarded by "this".
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<Task<?>>();
+    private int runningCount;
+    private long sequence;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    /**
+     * Creates a DataSourceExecutor.
+     *
+     * @param name Name, for logging
+     * @param threadPool Pool that runs tasks; must not reject tasks
+     * @param maxConcurrency Maximum number of tasks to run at a time; if not
+     *   positive, there is no limit
+     * @param queueLimit Number of waiting tasks beyond which
+     *   {@link #awaitCapacity} blocks; if not positive, there is no limit
+     */
+    public DataSourceExecutor(
+        String name,
+        Executor threadPool,
+        int maxConcurrency,
+        int queueLimit)
+    {
+        this.name = name;
+        this.threadPool = threadPool;
+        this.maxConcurrency =
+            maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+        this.queueLimit = queueLimit > 0 ? queueLimit : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Submits a task.
+     *
+     * @param callable Task
+     * @param cellCount Number of cells that the task will load; determines
+     *   its priority
+     * @param execution Execution on whose behalf the task runs, or null;
+     *   time spent in the queue is recorded in its timing
+     * @return Future result of the task
+     */
+    public <T> Future<T> submit(
+        Callable<T> callable,
+        int cellCount,
+        Execution execution)
+    {
+        final long deadline =
+            System.currentTimeMillis()
+            + PRIORITY_STEP_MILLIS
+            * (32 - Integer.numberOfLeadingZeros(Math.max(cellCount, 0)));
+        final Task<T> task;
+        synchronized (this) {
+            task = new Task<T>(callable, deadline, sequence++, execution);
+            queue.add(task);
+        }
+        dispatch();
+        return task;
+    }
+
+    /**
+     * Waits until the number of tasks in the queue is below the limit.
+     *
+     * <p>{@link #dispatch()} wakes waiting threads when tasks leave the queue.
+     * If there is an execution, the thread also wakes periodically to check
+     * whether the execution has been canceled or has timed out.</p>
+     *
+     * @param execution Execution to check for cancel and timeout, or null
+     * @throws mondrian.olap.QueryCanceledException if the thread is
+     *   interrupted while waiting; the thread's interrupt flag is set
+     */
+    public void awaitCapacity(Execution execution) {
+        synchronized (this) {
+            while (queue.size() >= queueLimit) {
+                if (execution != null) {
+                    execution.checkCancelOrTimeout();
+                }
+                try {
+                    if (execution != null) {
+                        wait(CANCEL_CHECK_MILLIS);
+                    } else {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw MondrianResource.instance().QueryCanceled.ex();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands waiting tasks to the thread pool, while there are fewer than
+     * {@code maxConcurrency} tasks running.
+     */
+    private void dispatch() {
+        while (true) {
+            final Task<?> task;
+            synchronized (this) {
+                if (runningCount >= maxConcurrency || queue.isEmpty()) {
+                    return;
+                }
+                task = queue.remove();
+                ++runningCount;
+                notifyAll();
+            }
+            try {
+                threadPool.execute(task);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    --runningCount;
+                }
+                task.setException(e);
+            }
+        }
+    }
+
+    private void started(Task<?> task) {
+        final long queueNanos = System.nanoTime() - task.submitNanos;
+        totalQueueNanos.addAndGet(queueNanos);
+        long max;
+        while (queueNanos > (max = maxQueueNanos.get())) {
+            if (maxQueueNanos.compareAndSet(max, queueNanos)) {
+                break;
+            }
+        }
+        final long queueMillis = queueNanos / 1000000;
+        if (task.execution != null) {
+            task.execution.getQueryTiming()
+                .markFull(QUEUE_TIMING_NAME, queueMillis);
+        }
+        if (LOGGER.isDebugEnabled() && queueMillis > 0) {
+            LOGGER.debug(
+                name + ": SQL load waited " + queueMillis + " ms in queue");
+        }
+    }
+
+    private void finished() {
+        completedCount.incrementAndGet();
+        synchronized (this) {
+            --runningCount;
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     */
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of tasks running.
+     */
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * Returns the number of tasks that have completed.
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, that tasks have waited in the
+     * queue before starting.
+     */
+    public long getTotalQueueMillis() {
+        return totalQueueNanos.get() / 1000000;
+    }
+
+    /**
+     * Returns the longest time, in milliseconds, that a task has waited in
+     * the queue before starting.
+     */
+    public long getMaxQueueMillis() {
+        return maxQueueNanos.get() / 1000000;
+    }
+
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Task in the queue. Ordered by deadline, then by order of submission.
+     */
+    private class Task<T>
+        extends FutureTask<T>
+        implements Comparable<Task<?>>
+    {
+        private final long deadline;
+        private final long sequence;
+        private final Execution execution;
+        private final long submitNanos = System.nanoTime();
+
+        Task(
+            Callable<T> callable,
+            long deadline,
+            long sequence,
+            Execution execution)
+        {
+            super(callable);
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.execution = execution;
+        }
+
+        public int compareTo(Task<?> o) {
+            if (deadline != o.deadline) {
+                return deadline < o.deadline ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence == o.sequence ? 0 : 1;
+        }
+
+        public void run() {
+            try {
+                started(this);
+                super.run();
+            } finally {
+                finished();
+            }
+        }
+
+        protected void setException(Throwable t) {
+            super.setException(t);
+        }
+    }
+}
+
+// End DataSourceExecutor.java
@@ -49,7 +49,7 @@ abstract class DenseSegmentDataset implements SegmentDataset {
         for (int i = axes.length - 1; i >= 0; --i) {
             final SegmentAxis axis = axes[i];
             axisMultipliers[i] = multiplier;
-            multiplier *= axis.getKeys().length;
+            multiplier *= axis.getKeyCount();
         }
         return axisMultipliers;
     }
@@ -71,20 +71,14 @@ abstract class DenseSegmentDataset implements SegmentDataset {
 
     protected final int getOffset(Object[] keys) {
         int offset = 0;
-outer:
         for (int i = 0; i < keys.length; i++) {
             SegmentAxis axis = axes[i];
-            Object[] ks = axis.getKeys();
-            final int axisLength = ks.length;
-            offset *= axisLength;
-            Object value = keys[i];
-            for (int j = 0; j < axisLength; j++) {
-                if (ks[j].equals(value)) {
-                    offset += j;
-                    continue outer;
-                }
+            offset *= axis.getKeyCount();
+            final int j = axis.getOffset((Comparable) keys[i]);
+            if (j < 0) {
+                return -1; // not found
             }
-            return -1; // not found
+            offset += j;
         }
         return offset;
     }
@@ -132,7 +126,7 @@ outer:
             ++i;
             int k = ordinals.length - 1;
             while (k >= 0) {
-                if (ordinals[k] < axes[k].getKeys().length - 1) {
+                if (ordinals[k] < axes[k].getKeyCount() - 1) {
                     ++ordinals[k];
                     break;
                 } else {
@@ -0,0 +1,526 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.spi.Dialect.Datatype;
+import mondrian.spi.SegmentBody;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Rolls up segments of numeric values into arrays of primitive accumulators,
+ * without boxing each value.
+ *
+ * <p>Used by {@link SegmentBuilder#rollup} if the rollup aggregator
+ * {@link RolapAggregator#supportsPrimitiveAggregates supports primitive
+ * aggregates}. Each cell of the target segment has a slot in a
+ * {@code long[]} (for {@link Datatype#Integer} measures) or a
+ * {@code double[]} (for {@link Datatype#Numeric} measures). Each axis has
+ * one more slot than it has values, for the null value.</p>
+ *
+ * <p>If there are more source cells than
+ * {@link MondrianProperties#RollupParallelThreshold}, the source cells are
+ * divided into partitions. Each partition is aggregated on its own thread
+ * into its own accumulators, and the accumulators are then merged. The
+ * number of partitions is limited so that the accumulators occupy no more
+ * memory than the source cells.</p>
+ */
+class PrimitiveRollup {
+    /**
+     * Number of target cells that are always allowed, even if there are
+     * fewer source cells.
+     */
+    private static final int MIN_TARGET_CELLS = 1024;
+
+    private final RolapAggregator aggregator;
+    private final boolean integral;
+    private final int[] targetSizes;
+    private final int[] targetMultipliers;
+    private final long targetCellCount;
+    private final List<Source> sources = new ArrayList<Source>();
+    private long sourceCellCount;
+    private Accumulator result;
+
+    /**
+     * Creates a PrimitiveRollup.
+     *
+     * @param aggregator Rollup aggregator; must support primitive aggregates
+     *   of the datatype
+     * @param datatype Datatype of the measure
+     * @param targetSizes Number of values of each target axis, not
+     *   including the null value
+     */
+    PrimitiveRollup(
+        RolapAggregator aggregator,
+        Datatype datatype,
+        int[] targetSizes)
+    {
+        assert aggregator.supportsPrimitiveAggregates(datatype);
+        this.aggregator = aggregator;
+        this.integral = datatype == Datatype.Integer;
+        this.targetSizes = new int[targetSizes.length];
+        this.targetMultipliers = new int[targetSizes.length];
+        // If the number of cells exceeds Integer.MAX_VALUE, it saturates,
+        // and the rollup is not applicable.
+        long count = 1;
+        for (int i = targetSizes.length - 1; i >= 0; --i) {
+            this.targetSizes[i] = targetSizes[i] + 1;
+            this.targetMultipliers[i] = (int) count;
+            count =
+                Math.min(
+                    count * this.targetSizes[i],
+                    (long) Integer.MAX_VALUE + 1);
+        }
+        this.targetCellCount = count;
+    }
+
+    /**
+     * Adds a source segment.
+     *
+     * @param body Segment body
+     * @param ordinalMaps For each axis of the source segment, an array that
+     *   maps the ordinal of each value to the ordinal of the target axis, or
+     *   to -1 if the target does not contain the value; or null if the axis
+     *   is rolled up. The ordinal one past the last value represents the
+     *   null value.
+     */
+    void addSource(SegmentBody body, int[][] ordinalMaps) {
+        final Source source = new Source(body, ordinalMaps);
+        sources.add(source);
+        sourceCellCount += source.size;
+    }
+
+    /**
+     * Returns whether the target is small enough, relative to the source
+     * segments, to be rolled up into arrays. If it is not, the target is
+     * probably sparse, and the caller should aggregate each cell's values
+     * in a map.
+     *
+     * @return Whether primitive rollup is suitable
+     */
+    boolean isApplicable() {
+        return targetCellCount <= Integer.MAX_VALUE
+            && targetCellCount <= Math.max(sourceCellCount, MIN_TARGET_CELLS);
+    }
+
+    /**
+     * Aggregates the source cells.
+     */
+    void run() {
+        assert isApplicable();
+        final int threshold =
+            MondrianProperties.instance().RollupParallelThreshold.get();
+        int partitionCount = 1;
+        if (threshold > 0 && sourceCellCount > threshold) {
+            partitionCount =
+                (int) Math.min(
+                    Runtime.getRuntime().availableProcessors(),
+                    Math.min(
+                        sourceCellCount / threshold,
+                        sourceCellCount / Math.max(targetCellCount, 1)));
+            partitionCount = Math.max(partitionCount, 1);
+        }
+        if (partitionCount == 1) {
+            result = aggregate(0, sourceCellCount);
+            return;
+        }
+
+        // Aggregate the first partition in this thread, and the others in
+        // the executor's threads.
+        final List<Future<Accumulator>> futures =
+            new ArrayList<Future<Accumulator>>();
+        for (int i = 1; i < partitionCount; i++) {
+            final long start = sourceCellCount * i / partitionCount;
+            final long end = sourceCellCount * (i + 1) / partitionCount;
+            futures.add(
+                Util.getCpuExecutorService().submit(
+                    new Callable<Accumulator>() {
+                        public Accumulator call() {
+                            return aggregate(start, end);
+                        }
+                    }));
+        }
+        result = aggregate(0, sourceCellCount / partitionCount);
+        for (Future<Accumulator> future : futures) {
+            result.merge(
+                Util.safeGet(future, "Error while rolling up segments"));
+        }
+    }
+
+    /**
+     * Returns the number of target cells that received at least one source
+     * cell, including cells whose value is null.
+     *
+     * @return Number of target cells
+     */
+    int getCellCount() {
+        return result.touched.cardinality();
+    }
+
+    /**
+     * Returns the aggregated values as a map. Cells that received only null
+     * values map to null.
+     *
+     * @return Map from cell key to aggregated value
+     */
+    Map<CellKey, Object> toMap() {
+        final Map<CellKey, Object> map = new HashMap<CellKey, Object>();
+        final int[] ordinals = new int[targetSizes.length];
+        for (int i = result.touched.nextSetBit(0); i >= 0;
+             i = result.touched.nextSetBit(i + 1))
+        {
+            toOrdinals(i, ordinals);
+            map.put(CellKey.Generator.newCellKey(ordinals), result.get(i));
+        }
+        return map;
+    }
+
+    /**
+     * Writes the aggregated values of an {@link Datatype#Integer} measure
+     * into a dense array.
+     *
+     * @param axisMultipliers Multiplier of each axis of the dense array
+     * @param values Array of values
+     * @param nullValues Null indicators; must be set for all cells on entry
+     */
+    void toArray(int[] axisMultipliers, int[] values, BitSet nullValues) {
+        final int[] ordinals = new int[targetSizes.length];
+        for (int i = result.present.nextSetBit(0); i >= 0;
+             i = result.present.nextSetBit(i + 1))
+        {
+            toOrdinals(i, ordinals);
+            final int offset =
+                CellKey.Generator.getOffset(ordinals, axisMultipliers);
+            values[offset] = (int) result.longs[i];
+            nullValues.clear(offset);
+        }
+    }
+
+    /**
+     * Writes the aggregated values of a {@link Datatype#Numeric} measure
+     * into a dense array.
+     *
+     * @param axisMultipliers Multiplier of each axis of the dense array
+     * @param values Array of values
+     * @param nullValues Null indicators; must be set for all cells on entry
+     */
+    void toArray(int[] axisMultipliers, double[] values, BitSet nullValues) {
+        final int[] ordinals = new int[targetSizes.length];
+        for (int i = result.present.nextSetBit(0); i >= 0;
+             i = result.present.nextSetBit(i + 1))
+        {
+            toOrdinals(i, ordinals);
+            final int offset =
+                CellKey.Generator.getOffset(ordinals, axisMultipliers);
+            values[offset] = result.doubles[i];
+            nullValues.clear(offset);
+        }
+    }
+
+    private void toOrdinals(int index, int[] ordinals) {
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = index / targetMultipliers[i];
+            index -= ordinals[i] * targetMultipliers[i];
+        }
+    }
+
+    /**
+     * Aggregates a range of source cells, numbered consecutively across all
+     * sources, into new accumulators.
+     */
+    private Accumulator aggregate(long start, long end) {
+        final Accumulator accumulator = new Accumulator();
+        long sourceStart = 0;
+        for (Source source : sources) {
+            final long sourceEnd = sourceStart + source.size;
+            if (sourceEnd > start && sourceStart < end) {
+                source.accumulate(
+                    (int) (Math.max(start, sourceStart) - sourceStart),
+                    (int) (Math.min(end, sourceEnd) - sourceStart),
+                    accumulator);
+            }
+            sourceStart = sourceEnd;
+        }
+        return accumulator;
+    }
+
+    /**
+     * Accumulated values of the target cells.
+     */
+    private class Accumulator {
+        final long[] longs;
+        final double[] doubles;
+
+        /** Cells that have received a source cell, even if null. */
+        final BitSet touched = new BitSet();
+
+        /** Cells that have received a source cell that is not null. */
+        final BitSet present = new BitSet();
+
+        Accumulator() {
+            if (integral) {
+                longs = new long[(int) targetCellCount];
+                doubles = null;
+            } else {
+                longs = null;
+                doubles = new double[(int) targetCellCount];
+            }
+        }
+
+        void add(int index, long value) {
+            if (integral) {
+                addLong(index, value);
+            } else {
+                addDouble(index, value);
+            }
+        }
+
+        void add(int index, double value) {
+            if (integral) {
+                // As RolapAggregator.Sum.aggregate(List, Datatype) does.
+                addLong(index, (int) value);
+            } else {
+                addDouble(index, value);
+            }
+        }
+
+        void add(int index, Object value) {
+            if (value == null) {
+                touched.set(index);
+            } else if (integral) {
+                addLong(index, ((Number) value).intValue());
+            } else {
+                addDouble(index, ((Number) value).doubleValue());
+            }
+        }
+
+        private void addLong(int index, long value) {
+            if (present.get(index)) {
+                longs[index] = aggregator.aggregate(longs[index], value);
+            } else {
+                longs[index] = value;
+                present.set(index);
+                touched.set(index);
+            }
+        }
+
+        private void addDouble(int index, double value) {
+            if (present.get(index)) {
+                doubles[index] = aggregator.aggregate(doubles[index], value);
+            } else {
+                doubles[index] = value;
+                present.set(index);
+                touched.set(index);
+            }
+        }
+
+        Object get(int index) {
+            if (!present.get(index)) {
+                return null;
+            }
+            return integral
+                ? (Object) (int) longs[index]
+                : (Object) doubles[index];
+        }
+
+        void merge(Accumulator other) {
+            touched.or(other.touched);
+            for (int i = other.present.nextSetBit(0); i >= 0;
+                 i = other.present.nextSetBit(i + 1))
+            {
+                if (integral) {
+                    addLong(i, other.longs[i]);
+                } else {
+                    addDouble(i, other.doubles[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cells of a source segment.
+     *
+     * <p>Dense bodies are read from their arrays, in the order that
+     * {@link AbstractSegmentBody#getValueMap()} iterates over them; null
+     * cells are skipped. Other bodies are read as a list of cell keys and
+     * values.</p>
+     */
+    private class Source {
+        /**
+         * For each source axis, offset in the target of each ordinal, or -1;
+         * or null if the axis is rolled up.
+         */
+        final int[][] offsetMaps;
+        final int[] axisSizes;
+        final int size;
+        final int[] ints;
+        final double[] doubles;
+        final BitSet nullValues;
+        final Object[] objects;
+        final CellKey[] keys;
+
+        Source(SegmentBody body, int[][] ordinalMaps) {
+            offsetMaps = new int[ordinalMaps.length][];
+            int z = 0;
+            for (int i = 0; i < ordinalMaps.length; i++) {
+                final int[] ordinalMap = ordinalMaps[i];
+                if (ordinalMap == null) {
+                    continue;
+                }
+                final int[] offsetMap = new int[ordinalMap.length];
+                offsetMaps[i] = offsetMap;
+                for (int j = 0; j < ordinalMap.length; j++) {
+                    offsetMap[j] = ordinalMap[j] < 0
+                        ? -1
+                        : ordinalMap[j] * targetMultipliers[z];
+                }
+                ++z;
+            }
+            final SortedSet<Comparable>[] axisValueSets =
+                body.getAxisValueSets();
+            axisSizes = new int[axisValueSets.length];
+            for (int i = 0; i < axisValueSets.length; i++) {
+                axisSizes[i] = axisValueSets[i].size();
+            }
+            if (body instanceof DenseDoubleSegmentBody
+                || body instanceof DenseIntSegmentBody
+                || body instanceof DenseObjectSegmentBody
+                || (body instanceof ByteBufferSegmentBody
+                    && !((ByteBufferSegmentBody) body).isSparse()))
+            {
+                final Object array = body.getValueArray();
+                keys = null;
+                if (array instanceof double[]) {
+                    doubles = (double[]) array;
+                    ints = null;
+                    objects = null;
+                    nullValues = body.getNullValueIndicators();
+                    size = doubles.length;
+                } else if (array instanceof int[]) {
+                    doubles = null;
+                    ints = (int[]) array;
+                    objects = null;
+                    nullValues = body.getNullValueIndicators();
+                    size = ints.length;
+                } else {
+                    doubles = null;
+                    ints = null;
+                    objects = (Object[]) array;
+                    nullValues = null;
+                    size = objects.length;
+                }
+            } else {
+                doubles = null;
+                ints = null;
+                nullValues = null;
+                if (body instanceof SparseSegmentBody) {
+                    keys = ((SparseSegmentBody) body).keys;
+                    objects = ((SparseSegmentBody) body).data;
+                } else {
+                    final Map<CellKey, Object> valueMap = body.getValueMap();
+                    keys = new CellKey[valueMap.size()];
+                    objects = new Object[valueMap.size()];
+                    int i = 0;
+                    for (Map.Entry<CellKey, Object> entry
+                        : valueMap.entrySet())
+                    {
+                        keys[i] = entry.getKey();
+                        objects[i] = entry.getValue();
+                        ++i;
+                    }
+                }
+                size = keys.length;
+            }
+        }
+
+        void accumulate(int start, int end, Accumulator accumulator) {
+            if (keys != null) {
+                cellLoop:
+                for (int i = start; i < end; i++) {
+                    final CellKey key = keys[i];
+                    int index = 0;
+                    for (int j = 0; j < offsetMaps.length; j++) {
+                        final int[] offsetMap = offsetMaps[j];
+                        if (offsetMap != null) {
+                            final int offset = offsetMap[key.getAxis(j)];
+                            if (offset < 0) {
+                                continue cellLoop;
+                            }
+                            index += offset;
+                        }
+                    }
+                    accumulator.add(index, objects[i]);
+                }
+                return;
+            }
+
+            // Position of the first cell.
+            final int[] ordinals = new int[axisSizes.length];
+            long product = 1;
+            for (int axisSize : axisSizes) {
+                product *= axisSize;
+            }
+            if (product == 0) {
+                return;
+            }
+            long remainder = start % product;
+            for (int j = axisSizes.length - 1; j >= 0; --j) {
+                ordinals[j] = (int) (remainder % axisSizes[j]);
+                remainder /= axisSizes[j];
+            }
+
+            cellLoop:
+            for (int i = start; i < end; i++) {
+                if (i > start) {
+                    // Move to the next cell; the last axis varies fastest.
+                    for (int j = ordinals.length - 1; j >= 0; --j) {
+                        if (++ordinals[j] < axisSizes[j]) {
+                            break;
+                        }
+                        ordinals[j] = 0;
+                    }
+                }
+                if (doubles != null
+                    ? doubles[i] == 0d && nullValues.get(i)
+                    : ints != null
+                    ? ints[i] == 0 && nullValues.get(i)
+                    : objects[i] == null)
+                {
+                    continue;
+                }
+                int index = 0;
+                for (int j = 0; j < offsetMaps.length; j++) {
+                    final int[] offsetMap = offsetMaps[j];
+                    if (offsetMap != null) {
+                        final int offset = offsetMap[ordinals[j]];
+                        if (offset < 0) {
+                            continue cellLoop;
+                        }
+                        index += offset;
+                    }
+                }
+                if (doubles != null) {
+                    accumulator.add(index, doubles[i]);
+                } else if (ints != null) {
+                    accumulator.add(index, (long) ints[i]);
+                } else {
+                    accumulator.add(index, objects[i]);
+                }
+            }
+        }
+    }
+}
+
+// End PrimitiveRollup.java
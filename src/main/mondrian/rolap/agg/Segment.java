@@ -276,6 +276,9 @@ public class Segment {
         SqlStatement.Type type,
         int size)
     {
+        if (measure.getAggregator() == RolapAggregator.ApproxDistinctCount) {
+            return new SketchSegmentDataset();
+        }
         if (sparse) {
             return new SparseSegmentDataset();
         } else {
@@ -12,8 +12,7 @@
 package mondrian.rolap.agg;
 
 import mondrian.olap.Util;
-import mondrian.rolap.RolapUtil;
-import mondrian.rolap.StarColumnPredicate;
+import mondrian.rolap.*;
 import mondrian.util.ArraySortedSet;
 import mondrian.util.Pair;
 
@@ -38,20 +37,10 @@ public class SegmentAxis {
     private final Set<Object> predicateValues;
 
     /**
-     * Map holding the position of each key value.
-     *
-     * <p>TODO: Hold keys in a sorted array, then deduce ordinal by doing
-     * binary search.
-     */
-    private final Map<Comparable, Integer> mapKeyToOffset;
-
-    /**
-     * Actual key values retrieved.
+     * Key values, and map from key value to ordinal.
      */
-    private final Comparable[] keys;
+    private final KeyIndex index;
 
-    private static final Integer ZERO = Integer.valueOf(0);
-    private static final Integer ONE = Integer.valueOf(1);
     private static final Comparable[] NO_COMPARABLES = new Comparable[0];
 
     /**
@@ -67,22 +56,9 @@ public class SegmentAxis {
             predicate instanceof LiteralStarPredicate
             && ((LiteralStarPredicate) predicate).getValue();
         this.predicateValues = predicateValueSet(predicate);
-        if (keys.length == 0) {
-            // Optimize the case where axis is empty. Not that infrequent:
-            // it records that mondrian has looked in the database and found
-            // nothing.
-            this.keys = NO_COMPARABLES;
-            this.mapKeyToOffset = Collections.emptyMap();
-        } else {
-            this.keys = keys;
-            mapKeyToOffset =
-                new HashMap<Comparable, Integer>(keys.length * 3 / 2);
-            for (int i = 0; i < keys.length; i++) {
-                mapKeyToOffset.put(keys[i], i);
-            }
-        }
         assert predicate != null;
         assert safe || Util.isSorted(Arrays.asList(keys));
+        this.index = KeyIndex.create(predicate.getConstrainedColumn(), keys);
     }
 
     private static Set<Object> predicateValueSet(
@@ -163,19 +139,46 @@ public class SegmentAxis {
         return predicate;
     }
 
+    /**
+     * Returns the key values of this axis.
+     *
+     * <p>If the keys are held as primitives, creates a new array each time it
+     * is called; code that accesses keys one at a time should use
+     * {@link #getKeyCount()} and {@link #getKey(int)}.
+     */
     final Comparable[] getKeys() {
-        return keys;
+        return index.getKeys();
+    }
+
+    /**
+     * Returns the number of key values of this axis.
+     */
+    final int getKeyCount() {
+        return index.size;
+    }
+
+    /**
+     * Returns the key value with a given ordinal.
+     */
+    final Comparable getKey(int ordinal) {
+        return index.getKey(ordinal);
     }
 
+    /**
+     * Returns the ordinal of a key value, or -1 if the key is not on this
+     * axis.
+     */
     final int getOffset(Comparable key) {
-        if (keys.length == 1) {
-            return keys[0].equals(key) ? 0 : -1;
-        }
-        Integer ordinal = mapKeyToOffset.get(key);
-        if (ordinal == null) {
-            return -1;
-        }
-        return ordinal;
+        return index.getOffset(key);
+    }
+
+    /**
+     * Returns the ordinal of an {@code int} key value, or -1 if the key is
+     * not on this axis. Equivalent to, but cheaper than,
+     * {@code getOffset(Integer.valueOf(key))}.
+     */
+    final int getOffset(int key) {
+        return index.getOffset(key);
     }
 
     /**
@@ -203,8 +206,8 @@ public class SegmentAxis {
      */
     public int getMatchCount(StarColumnPredicate predicate) {
         int matchCount = 0;
-        for (Object key : keys) {
-            if (predicate.evaluate(key)) {
+        for (int i = 0; i < index.size; i++) {
+            if (predicate.evaluate(index.getKey(i))) {
                 ++matchCount;
             }
         }
@@ -213,6 +216,7 @@ public class SegmentAxis {
 
     @SuppressWarnings({"unchecked"})
     public Pair<SortedSet<Comparable>, Boolean> getValuesAndIndicator() {
+        final Comparable[] keys = index.getKeys();
         if (keys.length > 0
             && keys[keys.length - 1] == RolapUtil.sqlNullValue)
         {
@@ -225,6 +229,258 @@ public class SegmentAxis {
                 Boolean.FALSE);
         }
     }
+
+    /**
+     * Holds the keys of an axis, and finds the ordinal of a key.
+     *
+     * <p>Ordinals are found using an open-addressing hash table of ordinals,
+     * which is a single {@code int} array, rather than a
+     * {@link java.util.HashMap} with an entry and a boxed ordinal per key.
+     * Subclasses hold keys of type {@code int} and {@code long} in primitive
+     * arrays. String keys are replaced with the canonical instance from the
+     * column's dictionary (see {@link RolapStar.Column#internValue}), so that
+     * segments of the same column share their keys.</p>
+     *
+     * <p>{@link RolapUtil#sqlNullValue}, if present, is always the last key.
+     * It is not held in the primitive arrays.</p>
+     */
+    private static abstract class KeyIndex {
+        /** Number of keys, including the null key. */
+        final int size;
+        /** Ordinal of the null key, or -1. */
+        final int nullOrdinal;
+        /** Hash table of ordinals plus one; 0 means empty slot. */
+        final int[] table;
+        final int mask;
+
+        KeyIndex(int size, boolean hasNull) {
+            this.size = size;
+            this.nullOrdinal = hasNull ? size - 1 : -1;
+            int capacity = 1;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            this.table = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        static KeyIndex create(RolapStar.Column column, Comparable[] keys) {
+            final boolean hasNull =
+                keys.length > 0
+                && keys[keys.length - 1] == RolapUtil.sqlNullValue;
+            final int n = hasNull ? keys.length - 1 : keys.length;
+            if (n > 0 && allInstancesOf(keys, n, Integer.class)) {
+                return new IntKeyIndex(keys, n, hasNull);
+            }
+            if (n > 0 && allInstancesOf(keys, n, Long.class)) {
+                return new LongKeyIndex(keys, n, hasNull);
+            }
+            return new ObjectKeyIndex(column, keys);
+        }
+
+        private static boolean allInstancesOf(
+            Comparable[] keys, int n, Class<?> clazz)
+        {
+            for (int i = 0; i < n; i++) {
+                if (keys[i].getClass() != clazz) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        abstract Comparable[] getKeys();
+
+        abstract Comparable getKey(int ordinal);
+
+        abstract int getOffset(Comparable key);
+
+        int getOffset(int key) {
+            return getOffset(Integer.valueOf(key));
+        }
+    }
+
+    /**
+     * Index of keys of type {@link Integer}.
+     */
+    private static class IntKeyIndex extends KeyIndex {
+        private final int[] keys;
+
+        IntKeyIndex(Comparable[] keys, int n, boolean hasNull) {
+            super(keys.length, hasNull);
+            this.keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                final int key = (Integer) keys[i];
+                this.keys[i] = key;
+                int slot = mix(key) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+
+        Comparable[] getKeys() {
+            final Comparable[] a = new Comparable[size];
+            for (int i = 0; i < keys.length; i++) {
+                a[i] = keys[i];
+            }
+            if (nullOrdinal >= 0) {
+                a[nullOrdinal] = RolapUtil.sqlNullValue;
+            }
+            return a;
+        }
+
+        Comparable getKey(int ordinal) {
+            return ordinal == nullOrdinal
+                ? RolapUtil.sqlNullValue
+                : Integer.valueOf(keys[ordinal]);
+        }
+
+        int getOffset(Comparable key) {
+            if (key instanceof Integer) {
+                return getOffset(((Integer) key).intValue());
+            }
+            return key == RolapUtil.sqlNullValue ? nullOrdinal : -1;
+        }
+
+        int getOffset(int key) {
+            int slot = mix(key) & mask;
+            for (;;) {
+                final int ordinal = table[slot] - 1;
+                if (ordinal < 0) {
+                    return -1;
+                }
+                if (keys[ordinal] == key) {
+                    return ordinal;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    /**
+     * Index of keys of type {@link Long}.
+     */
+    private static class LongKeyIndex extends KeyIndex {
+        private final long[] keys;
+
+        LongKeyIndex(Comparable[] keys, int n, boolean hasNull) {
+            super(keys.length, hasNull);
+            this.keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                final long key = (Long) keys[i];
+                this.keys[i] = key;
+                int slot = hash(key) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+
+        private static int hash(long key) {
+            return mix((int) (key ^ (key >>> 32)));
+        }
+
+        Comparable[] getKeys() {
+            final Comparable[] a = new Comparable[size];
+            for (int i = 0; i < keys.length; i++) {
+                a[i] = keys[i];
+            }
+            if (nullOrdinal >= 0) {
+                a[nullOrdinal] = RolapUtil.sqlNullValue;
+            }
+            return a;
+        }
+
+        Comparable getKey(int ordinal) {
+            return ordinal == nullOrdinal
+                ? RolapUtil.sqlNullValue
+                : Long.valueOf(keys[ordinal]);
+        }
+
+        int getOffset(Comparable key) {
+            if (!(key instanceof Long)) {
+                return key == RolapUtil.sqlNullValue ? nullOrdinal : -1;
+            }
+            final long k = (Long) key;
+            int slot = hash(k) & mask;
+            for (;;) {
+                final int ordinal = table[slot] - 1;
+                if (ordinal < 0) {
+                    return -1;
+                }
+                if (keys[ordinal] == k) {
+                    return ordinal;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    /**
+     * Index of keys of any type.
+     */
+    private static class ObjectKeyIndex extends KeyIndex {
+        private final Comparable[] keys;
+
+        ObjectKeyIndex(RolapStar.Column column, Comparable[] keys) {
+            super(
+                keys.length,
+                keys.length > 0
+                && keys[keys.length - 1] == RolapUtil.sqlNullValue);
+            if (keys.length == 0) {
+                // Optimize the case where axis is empty. Not that infrequent:
+                // it records that mondrian has looked in the database and
+                // found nothing.
+                this.keys = NO_COMPARABLES;
+                return;
+            }
+            this.keys = keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (column != null && keys[i] instanceof String) {
+                    keys[i] = column.internValue((String) keys[i]);
+                }
+                int slot = mix(keys[i].hashCode()) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+
+        Comparable[] getKeys() {
+            return keys;
+        }
+
+        Comparable getKey(int ordinal) {
+            return keys[ordinal];
+        }
+
+        int getOffset(Comparable key) {
+            if (key == null) {
+                return -1;
+            }
+            int slot = mix(key.hashCode()) & mask;
+            for (;;) {
+                final int ordinal = table[slot] - 1;
+                if (ordinal < 0) {
+                    return -1;
+                }
+                final Comparable k = keys[ordinal];
+                if (k == key || k.equals(key)) {
+                    return ordinal;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
 }
 
 // End SegmentAxis.java
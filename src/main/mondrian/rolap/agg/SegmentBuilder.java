@@ -16,6 +16,7 @@ import mondrian.rolap.sql.SqlQuery;
 import mondrian.spi.*;
 import mondrian.spi.Dialect.Datatype;
 import mondrian.util.ArraySortedSet;
+import mondrian.util.HyperLogLog;
 import mondrian.util.Pair;
 
 import org.olap4j.impl.UnmodifiableArrayList;
@@ -33,6 +34,12 @@ import java.util.Map.Entry;
  * @author LBoudreau
  */
 public class SegmentBuilder {
+    /** Estimated number of bytes in the header of an object. */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    /** Estimated number of bytes in a reference. */
+    private static final int REFERENCE_SIZE = 8;
+
     /**
      * Converts a segment plus a {@link SegmentBody} into a
      * {@link mondrian.rolap.agg.SegmentWithData}.
@@ -71,7 +78,9 @@ public class SegmentBuilder {
         SegmentAxis[] axes)
     {
         final SegmentDataset dataSet;
-        if (body instanceof DenseDoubleSegmentBody) {
+        if (body instanceof ByteBufferSegmentBody) {
+            dataSet = ((ByteBufferSegmentBody) body).createDataset(axes);
+        } else if (body instanceof DenseDoubleSegmentBody) {
             dataSet =
                 new DenseDoubleSegmentDataset(
                     axes,
@@ -181,15 +190,6 @@ public class SegmentBuilder {
         Aggregator rollupAggregator,
         Datatype datatype)
     {
-        class AxisInfo {
-            SegmentColumn column;
-            SortedSet<Comparable> requestedValues;
-            SortedSet<Comparable> valueSet;
-            Comparable[] values;
-            boolean hasNull;
-            int src;
-            boolean lostPredicate;
-        }
         assert allHeadersHaveSameDimensionality(map.keySet());
 
         // store the map values in a list to assure the first header
@@ -269,18 +269,46 @@ public class SegmentBuilder {
                 axis.valueSet.toArray(new Comparable[axis.valueSet.size()]);
         }
 
+        // Build the axis list.
+        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        BigInteger bigValueCount = BigInteger.ONE;
+        for (AxisInfo axis : axes) {
+            axisList.add(Pair.of(axis.valueSet, axis.hasNull));
+            int size = axis.values.length;
+            if (axis.hasNull) {
+                ++size;
+            }
+            bigValueCount = bigValueCount.multiply(
+                BigInteger.valueOf(axis.hasNull ? size + 1 : size));
+        }
+
+        final int[] axisMultipliers =
+            computeAxisMultipliers(axisList);
+
+        // Roll up into arrays of primitive values if the aggregator supports
+        // it; this is much faster, and can use several threads.
+        final PrimitiveRollup primitiveRollup =
+            createPrimitiveRollup(
+                segments, axes, rollupAggregator, datatype, keepColumns);
+        if (primitiveRollup != null) {
+            primitiveRollup.run();
+            return Pair.of(
+                createRollupHeader(firstHeader, axes, axisList, targetBitkey),
+                toBody(
+                    primitiveRollup, datatype, axisList, bigValueCount,
+                    axisMultipliers));
+        }
+
         // Populate cells.
         //
-        // (This is a rough implementation, very inefficient. It makes all
+        // (This is a rough implementation, very inefficient. It is used only
+        // if the aggregator cannot roll up primitive values. It makes all
         // segment types pretend to be sparse, for purposes of reading. It
         // maps all axis ordinals to a value, then back to an axis ordinal,
         // even if this translation were not necessary, say if the source and
         // target axes had the same set of values. And it always creates a
-        // sparse segment.
-        //
-        // We should do really efficient rollup if the source is an array: we
-        // should box values (e.g double to Double and back), and we should read
-        // a stripe of values from the and add them up into a single cell.
+        // sparse segment. See PrimitiveRollup for the efficient way.)
         final Map<CellKey, List<Object>> cellValues =
             new HashMap<CellKey, List<Object>>();
         for (Map.Entry<SegmentHeader, SegmentBody> entry : map.entrySet()) {
@@ -340,33 +368,8 @@ public class SegmentBuilder {
             }
         }
 
-        // Build the axis list.
-        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
-            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
-        BigInteger bigValueCount = BigInteger.ONE;
-        for (AxisInfo axis : axes) {
-            axisList.add(Pair.of(axis.valueSet, axis.hasNull));
-            int size = axis.values.length;
-            if (axis.hasNull) {
-                ++size;
-            }
-            bigValueCount = bigValueCount.multiply(
-                BigInteger.valueOf(axis.hasNull ? size + 1 : size));
-        }
-
-        // The logic used here for the sparse check follows
-        // SegmentLoader.setAxisDataAndDecideSparseUse.
-        // The two methods use different data structures (AxisInfo/SegmentAxis)
-        // so combining logic is probably more trouble than it's worth.
         final boolean sparse =
-            bigValueCount.compareTo
-                (BigInteger.valueOf(Integer.MAX_VALUE)) > 0
-                || SegmentLoader.useSparse(
-                    bigValueCount.doubleValue(),
-                    cellValues.size());
-        final int[] axisMultipliers =
-            computeAxisMultipliers(axisList);
-
+            useSparse(bigValueCount, cellValues.size());
         final SegmentBody body;
         // Peak at the values and determine the best way to store them
         // (whether to use a dense native dataset or a sparse one.
@@ -397,7 +400,13 @@ public class SegmentBuilder {
         } else {
             final BitSet nullValues;
             final int valueCount = bigValueCount.intValue();
-            switch (datatype) {
+            // Sketches of approximate distinct-count measures are objects,
+            // whatever the datatype of the measure.
+            final Datatype valueType =
+                rollupAggregator == RolapAggregator.ApproxDistinctCount
+                    ? Datatype.String
+                    : datatype;
+            switch (valueType) {
             case Integer:
                 final int[] ints = new int[valueCount];
                 nullValues = Util.bitSetBetween(0, valueCount);
@@ -466,7 +475,33 @@ public class SegmentBuilder {
             }
         }
 
-        // Create header.
+        return Pair.of(
+            createRollupHeader(firstHeader, axes, axisList, targetBitkey),
+            body);
+    }
+
+    /**
+     * Axis of the target segment of a rollup.
+     */
+    private static class AxisInfo {
+        SegmentColumn column;
+        SortedSet<Comparable> requestedValues;
+        SortedSet<Comparable> valueSet;
+        Comparable[] values;
+        boolean hasNull;
+        int src;
+        boolean lostPredicate;
+    }
+
+    /**
+     * Creates the header of the target segment of a rollup.
+     */
+    private static SegmentHeader createRollupHeader(
+        SegmentHeader firstHeader,
+        AxisInfo[] axes,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        BitKey targetBitkey)
+    {
         final List<SegmentColumn> constrainedColumns =
             new ArrayList<SegmentColumn>();
         for (int i = 0; i < axes.length; i++) {
@@ -479,19 +514,127 @@ public class SegmentBuilder {
                         ? axisList.get(i).left
                         : axisInfo.column.values));
         }
-        final SegmentHeader header =
-            new SegmentHeader(
-                firstHeader.schemaName,
-                firstHeader.schemaChecksum,
-                firstHeader.cubeName,
-                firstHeader.measureName,
-                constrainedColumns,
-                firstHeader.compoundPredicates,
-                firstHeader.rolapStarFactTableName,
-                targetBitkey,
-                Collections.<SegmentColumn>emptyList());
-
-        return Pair.of(header, body);
+        return new SegmentHeader(
+            firstHeader.schemaName,
+            firstHeader.schemaChecksum,
+            firstHeader.cubeName,
+            firstHeader.measureName,
+            constrainedColumns,
+            firstHeader.compoundPredicates,
+            firstHeader.rolapStarFactTableName,
+            targetBitkey,
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    /**
+     * Creates a rollup into primitive accumulators, or returns null if the
+     * aggregator does not support primitive aggregates of the datatype, or
+     * if the target segment is too sparse.
+     */
+    private static PrimitiveRollup createPrimitiveRollup(
+        List<Map.Entry<SegmentHeader, SegmentBody>> segments,
+        AxisInfo[] axes,
+        Aggregator rollupAggregator,
+        Datatype datatype,
+        Set<String> keepColumns)
+    {
+        if (!(rollupAggregator instanceof RolapAggregator)
+            || !((RolapAggregator) rollupAggregator)
+                .supportsPrimitiveAggregates(datatype))
+        {
+            return null;
+        }
+        final int[] targetSizes = new int[axes.length];
+        for (int i = 0; i < axes.length; i++) {
+            targetSizes[i] = axes[i].values.length;
+        }
+        final PrimitiveRollup primitiveRollup =
+            new PrimitiveRollup(
+                (RolapAggregator) rollupAggregator, datatype, targetSizes);
+        final List<SegmentColumn> columns =
+            segments.get(0).getKey().getConstrainedColumns();
+        for (Map.Entry<SegmentHeader, SegmentBody> entry : segments) {
+            final SegmentBody body = entry.getValue();
+            final SortedSet<Comparable>[] axisValueSets =
+                body.getAxisValueSets();
+            final int[][] ordinalMaps = new int[axisValueSets.length][];
+            int z = 0;
+            for (int i = 0; i < axisValueSets.length; i++) {
+                if (!keepColumns.contains(columns.get(i).columnExpression)) {
+                    continue;
+                }
+                // Map as the boxed rollup does; the ordinal after the last
+                // value represents the null value.
+                final AxisInfo axis = axes[z++];
+                final int[] ordinalMap =
+                    new int[axisValueSets[i].size() + 1];
+                int j = 0;
+                for (Comparable value : axisValueSets[i]) {
+                    ordinalMap[j++] =
+                        value == null
+                            ? axis.values.length
+                            : Math.max(
+                                Util.binarySearch(
+                                    axis.values, 0, axis.values.length, value),
+                                -1);
+                }
+                ordinalMap[j] = axis.hasNull ? axis.values.length : -1;
+                ordinalMaps[i] = ordinalMap;
+            }
+            primitiveRollup.addSource(body, ordinalMaps);
+        }
+        return primitiveRollup.isApplicable() ? primitiveRollup : null;
+    }
+
+    /**
+     * Creates the body of the target segment of a rollup into primitive
+     * accumulators.
+     */
+    private static SegmentBody toBody(
+        PrimitiveRollup primitiveRollup,
+        Datatype datatype,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        BigInteger bigValueCount,
+        int[] axisMultipliers)
+    {
+        final int cellCount = primitiveRollup.getCellCount();
+        if (cellCount == 0) {
+            return new DenseObjectSegmentBody(new Object[0], axisList);
+        }
+        if (useSparse(bigValueCount, cellCount)) {
+            return new SparseSegmentBody(primitiveRollup.toMap(), axisList);
+        }
+        final int valueCount = bigValueCount.intValue();
+        final BitSet nullValues = Util.bitSetBetween(0, valueCount);
+        switch (datatype) {
+        case Integer:
+            final int[] ints = new int[valueCount];
+            primitiveRollup.toArray(axisMultipliers, ints, nullValues);
+            return new DenseIntSegmentBody(nullValues, ints, axisList);
+        default:
+            final double[] doubles = new double[valueCount];
+            primitiveRollup.toArray(axisMultipliers, doubles, nullValues);
+            return new DenseDoubleSegmentBody(nullValues, doubles, axisList);
+        }
+    }
+
+    /**
+     * Returns whether the target segment of a rollup should be sparse.
+     *
+     * <p>The logic used here for the sparse check follows
+     * SegmentLoader.setAxisDataAndDecideSparseUse.
+     * The two methods use different data structures (AxisInfo/SegmentAxis)
+     * so combining logic is probably more trouble than it's worth.</p>
+     */
+    private static boolean useSparse(
+        BigInteger bigValueCount,
+        int cellCount)
+    {
+        return bigValueCount.compareTo
+                (BigInteger.valueOf(Integer.MAX_VALUE)) > 0
+            || SegmentLoader.useSparse(
+                bigValueCount.doubleValue(),
+                cellCount);
     }
 
     private static boolean allHeadersHaveSameDimensionality(
@@ -688,6 +831,94 @@ public class SegmentBuilder {
             Collections.<SegmentColumn>emptyList());
     }
 
+    /**
+     * Estimates the number of bytes of memory occupied by a segment body.
+     *
+     * <p>Counts the cell values, null indicators, cell keys of sparse
+     * segments, and axis values, using typical sizes of objects and
+     * references. The estimate is approximate, but it grows in proportion to
+     * the real footprint, which is what a cache needs to enforce a
+     * budget.</p>
+     *
+     * @param body Segment body
+     * @return Estimated size in bytes
+     */
+    public static long estimateSize(SegmentBody body) {
+        if (body instanceof ByteBufferSegmentBody) {
+            // Cells and axes are encoded in a buffer, and decoded on demand.
+            return OBJECT_OVERHEAD
+                + ((ByteBufferSegmentBody) body).getEncodedSize();
+        }
+        long size = OBJECT_OVERHEAD;
+        final SortedSet<Comparable>[] axisValueSets = body.getAxisValueSets();
+        for (SortedSet<Comparable> values : axisValueSets) {
+            size += OBJECT_OVERHEAD;
+            for (Comparable value : values) {
+                size += REFERENCE_SIZE + estimateSize(value);
+            }
+        }
+        if (body instanceof SparseSegmentBody) {
+            final SparseSegmentBody sparseBody = (SparseSegmentBody) body;
+            final long keySize =
+                OBJECT_OVERHEAD + 4 * axisValueSets.length + 2 * REFERENCE_SIZE;
+            for (Object value : sparseBody.data) {
+                size += keySize + estimateSize(value);
+            }
+            return size;
+        }
+        final Object array = body.getValueArray();
+        if (array instanceof double[]) {
+            size += 8L * ((double[]) array).length
+                + ((double[]) array).length / 8;
+        } else if (array instanceof int[]) {
+            size += 4L * ((int[]) array).length
+                + ((int[]) array).length / 8;
+        } else if (array instanceof Object[]) {
+            for (Object value : (Object[]) array) {
+                size += REFERENCE_SIZE + estimateSize(value);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of cells in a segment body, or -1 if it is not
+     * known without scanning the body.
+     *
+     * @param body Segment body
+     * @return Number of cells, or -1
+     */
+    public static int getCellCount(SegmentBody body) {
+        if (body instanceof ByteBufferSegmentBody) {
+            return ((ByteBufferSegmentBody) body).getCellCount();
+        }
+        if (body instanceof AbstractSegmentBody) {
+            return ((AbstractSegmentBody) body).getSize();
+        }
+        return -1;
+    }
+
+    /**
+     * Estimates the number of bytes occupied by a cell or axis value.
+     */
+    private static long estimateSize(Object value) {
+        if (value == null || value == RolapUtil.sqlNullValue) {
+            return 0;
+        } else if (value instanceof String) {
+            return OBJECT_OVERHEAD * 2 + 8 + 2 * ((String) value).length();
+        } else if (value instanceof Double
+            || value instanceof Long
+            || value instanceof Integer)
+        {
+            return OBJECT_OVERHEAD + 8;
+        } else if (value instanceof HyperLogLog) {
+            return ((HyperLogLog) value).getSizeInBytes();
+        } else {
+            // BigDecimal, Date, and so forth
+            return OBJECT_OVERHEAD * 3;
+        }
+    }
+
     private static RolapStar.Column[] getConstrainedColumns(
         RolapStar star,
         BitKey bitKey)
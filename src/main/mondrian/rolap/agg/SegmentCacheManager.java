@@ -27,6 +27,8 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 
+import javax.sql.DataSource;
+
 /**
  * Active object that maintains the "global cache" (in JVM, but shared between
  * connections using a particular schema) and "external cache" (as implemented
@@ -209,9 +211,28 @@ import java.util.concurrent.*;
  */
 public class SegmentCacheManager {
     private final Handler handler = new Handler();
-    private final Actor ACTOR;
+
+    /**
+     * Actors, one per shard. Each {@link RolapStar} is assigned to exactly one
+     * shard, and its {@link SegmentCacheIndex} is only ever accessed from that
+     * shard's thread, except during a global command, when all shards are
+     * parked. See {@link #executeGlobal(Command)}.
+     */
+    private final Actor[] actors;
+    private final Thread[] threads;
+
+    /**
+     * Thread of the first actor. Global commands run on this thread.
+     */
     public final Thread thread;
 
+    /**
+     * Lock held while enqueueing the parts of a global command, so that all
+     * shards see global commands in the same order. Otherwise two global
+     * commands could each park the shard that the other is waiting for.
+     */
+    private final Object globalLock = new Object();
+
     /**
      * Executor with which to send requests to external caches.
      */
@@ -232,26 +253,28 @@ public class SegmentCacheManager {
             });
 
     /**
-     * Executor with which to execute SQL requests.
-     *
-     * <p>TODO: create using factory and/or configuration parameters. Executor
-     * should be shared within MondrianServer or target JDBC database.
+     * Thread pool shared by the executors that run SQL requests. Each
+     * {@link DataSourceExecutor} limits the number of statements it runs at a
+     * time; the pool limits the total, to
+     * {@link MondrianProperties#SegmentCacheManagerTotalSqlThreads}. Tasks
+     * that executors hand over while all threads are busy wait in the pool's
+     * queue.
      */
-    public final ExecutorService sqlExecutor =
-        Util.getExecutorService(
-            MondrianProperties.instance()
-                .SegmentCacheManagerNumberSqlThreads.get(),
-            0, 1,
-            "mondrian.rolap.agg.SegmentCacheManager$sqlExecutor",
-            new RejectedExecutionHandler() {
-                public void rejectedExecution(
-                    Runnable r,
-                    ThreadPoolExecutor executor)
-                {
-                    throw MondrianResource.instance()
-                        .SqlQueryLimitReached.ex();
-                }
-            });
+    private final ExecutorService sqlThreadPool =
+        Util.getFixedExecutorService(
+            Math.max(
+                1,
+                MondrianProperties.instance()
+                    .SegmentCacheManagerTotalSqlThreads.get()),
+            "mondrian.rolap.agg.SegmentCacheManager$sqlExecutor");
+
+    /**
+     * Executors with which to execute SQL requests, one per data source.
+     * Weak, so that the executor of a schema that has been flushed can be
+     * garbage-collected.
+     */
+    private final Map<DataSource, DataSourceExecutor> sqlExecutors =
+        new WeakHashMap<DataSource, DataSourceExecutor>();
 
     // NOTE: This list is only mutable for testing purposes. Would rather it
     // were immutable.
@@ -261,17 +284,35 @@ public class SegmentCacheManager {
     public final SegmentCache compositeCache;
     private final SegmentCacheIndexRegistry indexRegistry;
 
+    /**
+     * The local cache, or null if there is none.
+     */
+    private SegmentCache localCache;
+
     private static final Logger LOGGER =
         Logger.getLogger(AggregationManager.class);
     private final MondrianServer server;
 
     public SegmentCacheManager(MondrianServer server) {
         this.server = server;
-        ACTOR = new Actor();
-        thread = new Thread(
-            ACTOR, "mondrian.rolap.agg.SegmentCacheManager$ACTOR");
-        thread.setDaemon(true);
-        thread.start();
+        final int shardCount =
+            Math.max(
+                1,
+                MondrianProperties.instance()
+                    .SegmentCacheManagerNumberShards.get());
+        actors = new Actor[shardCount];
+        threads = new Thread[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            actors[i] = new Actor();
+            threads[i] = new Thread(
+                actors[i],
+                shardCount == 1
+                    ? "mondrian.rolap.agg.SegmentCacheManager$ACTOR"
+                    : "mondrian.rolap.agg.SegmentCacheManager$ACTOR#" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        thread = threads[0];
 
         // Create the index registry.
         this.indexRegistry = new SegmentCacheIndexRegistry();
@@ -280,14 +321,30 @@ public class SegmentCacheManager {
         if (!MondrianProperties.instance().DisableLocalSegmentCache.get()
             && !MondrianProperties.instance().DisableCaching.get())
         {
-            final MemorySegmentCache cache = new MemorySegmentCache();
+            final SegmentCache cache =
+                MondrianProperties.instance().OffHeapSegmentCacheSize.get() > 0
+                    ? new OffHeapSegmentCache()
+                    : MondrianProperties.instance().SegmentCacheSize.get() > 0
+                    ? new BoundedSegmentCache()
+                    : new MemorySegmentCache();
+            localCache = cache;
             segmentCacheWorkers.add(
                 new SegmentCacheWorker(cache, thread));
+            if (cache instanceof EvictingSegmentCache) {
+                ((EvictingSegmentCache) cache).addEvictionListener(
+                    new EvictionListener(this));
+            }
         }
 
         // Add an external cache, if configured.
         final List<SegmentCache> externalCache = SegmentCacheWorker.initCache();
         for (SegmentCache cache : externalCache) {
+            // Segments that a persistent cache has kept since the previous
+            // run will be added to the index of their star when it is
+            // created.
+            if (cache instanceof DiskSegmentCache) {
+                indexRegistry.addStartupHeaders(cache.getSegmentHeaders());
+            }
             // Create a worker for this external cache
             segmentCacheWorkers.add(
                 new SegmentCacheWorker(cache, thread));
@@ -300,8 +357,94 @@ public class SegmentCacheManager {
         compositeCache = new CompositeSegmentCache(segmentCacheWorkers);
     }
 
+    /**
+     * Executes a command that may access the index of any star.
+     *
+     * <p>If the cache manager has more than one shard, the other shards are
+     * parked while the command runs. Prefer
+     * {@link #execute(RolapStar, Command)} if the command only accesses
+     * the index of one star.</p>
+     *
+     * @param command Command
+     * @return Result of command
+     */
     public <T> T execute(Command<T> command) {
-        return ACTOR.execute(handler, command);
+        if (actors.length == 1) {
+            return actors[0].execute(handler, command);
+        }
+        return executeGlobal(command);
+    }
+
+    /**
+     * Executes a command that only accesses the index of a given star.
+     *
+     * <p>The command runs on the shard that owns the star, concurrently with
+     * commands for stars owned by other shards.</p>
+     *
+     * @param star Star whose index the command accesses
+     * @param command Command
+     * @return Result of command
+     */
+    public <T> T execute(RolapStar star, Command<T> command) {
+        return actorFor(star).execute(handler, command);
+    }
+
+    /**
+     * Returns the number of shards (actor threads) of this cache manager.
+     *
+     * @return Number of shards
+     */
+    public int getShardCount() {
+        return actors.length;
+    }
+
+    private Actor actorFor(RolapStar star) {
+        if (actors.length == 1) {
+            return actors[0];
+        }
+        return actors[shardOf(star.getFactTable().getAlias(), actors.length)];
+    }
+
+    /**
+     * Returns the shard that owns a given fact table.
+     *
+     * @param factTableAlias Alias of the fact table of a star
+     * @param shardCount Number of shards
+     * @return Shard ordinal, between 0 and shardCount - 1
+     */
+    static int shardOf(String factTableAlias, int shardCount) {
+        return (factTableAlias.hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    private <T> T executeGlobal(Command<T> command) {
+        final CountDownLatch parked = new CountDownLatch(actors.length - 1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final GlobalCommand<T> globalCommand =
+            new GlobalCommand<T>(command, parked, released);
+        synchronized (globalLock) {
+            for (int i = 1; i < actors.length; i++) {
+                actors[i].event(handler, new ParkEvent(parked, released));
+            }
+            actors[0].submit(handler, globalCommand);
+        }
+        return actors[0].await(globalCommand);
+    }
+
+    private void eventGlobal(final Event event) {
+        if (actors.length == 1) {
+            actors[0].event(handler, event);
+            return;
+        }
+        final CountDownLatch parked = new CountDownLatch(actors.length - 1);
+        final CountDownLatch released = new CountDownLatch(1);
+        synchronized (globalLock) {
+            for (int i = 1; i < actors.length; i++) {
+                actors[i].event(handler, new ParkEvent(parked, released));
+            }
+            actors[0].event(
+                handler,
+                new GlobalEvent(event, parked, released));
+        }
     }
 
     public SegmentCacheIndexRegistry getIndexRegistry() {
@@ -325,7 +468,7 @@ public class SegmentCacheManager {
         SegmentBody body)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
+        actorFor(star).event(
             handler,
             new SegmentLoadSucceededEvent(
                 System.currentTimeMillis(),
@@ -355,7 +498,7 @@ public class SegmentCacheManager {
         Throwable throwable)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
+        actorFor(star).event(
             handler,
             new SegmentLoadFailedEvent(
                 System.currentTimeMillis(),
@@ -384,7 +527,7 @@ public class SegmentCacheManager {
         SegmentHeader header)
     {
         final Locus locus = Locus.peek();
-        ACTOR.event(
+        actorFor(star).event(
             handler,
             new SegmentRemoveEvent(
                 System.currentTimeMillis(),
@@ -410,8 +553,7 @@ public class SegmentCacheManager {
             // Ignore cache requests.
             return;
         }
-        ACTOR.event(
-            handler,
+        eventGlobal(
             new ExternalSegmentCreatedEvent(
                 System.currentTimeMillis(),
                 server.getMonitor(),
@@ -435,8 +577,7 @@ public class SegmentCacheManager {
             // Ignore cache requests.
             return;
         }
-        ACTOR.event(
-            handler,
+        eventGlobal(
             new ExternalSegmentDeletedEvent(
                 System.currentTimeMillis(),
                 server.getMonitor(),
@@ -448,23 +589,97 @@ public class SegmentCacheManager {
                 header));
     }
 
+    /**
+     * Tells the cache that the local cache has evicted a segment.
+     *
+     * <p>Unless another cache still holds the segment, removes it from the
+     * index of its star. Call is asynchronous; the index is updated by the
+     * star's own shard.</p>
+     *
+     * @param header Segment header
+     */
+    private void segmentEvicted(SegmentHeader header) {
+        if (compositeCache.contains(header)) {
+            // Another cache, such as a disk cache, still holds the segment,
+            // or it has already been put into the local cache again.
+            return;
+        }
+        final RolapStar star = indexRegistry.getStar(header);
+        if (star == null) {
+            // No star has indexed the segment.
+            return;
+        }
+        actorFor(star).event(
+            handler,
+            new SegmentEvictedEvent(this, star, header));
+    }
+
     public void printCacheState(
         CellRegion region,
         PrintWriter pw,
         Locus locus)
     {
-        ACTOR.execute(
-            handler,
-            new PrintCacheStateCommand(region, pw, locus));
+        execute(new PrintCacheStateCommand(region, pw, locus));
     }
 
     /**
      * Shuts down this cache manager and all active threads and indexes.
      */
     public void shutdown() {
-        execute(new ShutdownCommand());
+        for (Actor actor : actors) {
+            actor.execute(handler, new ShutdownCommand());
+        }
         cacheExecutor.shutdown();
-        sqlExecutor.shutdown();
+        sqlThreadPool.shutdown();
+    }
+
+    /**
+     * Returns the executor with which to execute SQL requests against a
+     * given data source, creating it if necessary.
+     *
+     * <p>The executor runs at most
+     * {@link MondrianProperties#SegmentCacheManagerNumberSqlThreads}
+     * statements at a time.</p>
+     *
+     * @param dataSource Data source
+     * @return Executor
+     */
+    public DataSourceExecutor getSqlExecutor(DataSource dataSource) {
+        synchronized (sqlExecutors) {
+            DataSourceExecutor executor = sqlExecutors.get(dataSource);
+            if (executor == null) {
+                final MondrianProperties properties =
+                    MondrianProperties.instance();
+                executor =
+                    new DataSourceExecutor(
+                        "sqlExecutor("
+                        + dataSource.getClass().getSimpleName() + "@"
+                        + Integer.toHexString(
+                            System.identityHashCode(dataSource))
+                        + ")",
+                        sqlThreadPool,
+                        properties.SegmentCacheManagerNumberSqlThreads.get(),
+                        properties.SegmentCacheManagerSqlQueueLimit.get());
+                sqlExecutors.put(dataSource, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Records how long it took to load a segment from SQL, so that the local
+     * cache can take into account the cost of losing it.
+     *
+     * <p>Called by a SQL worker thread before it puts the segment into
+     * {@link #compositeCache}.</p>
+     *
+     * @param header Segment header
+     * @param millis Load time in milliseconds
+     */
+    public void recordLoadTime(SegmentHeader header, long millis) {
+        if (localCache instanceof BoundedSegmentCache) {
+            ((BoundedSegmentCache) localCache).recordLoadTime(header, millis);
+        }
     }
 
     public SegmentBuilder.SegmentConverter getConverter(
@@ -504,6 +719,7 @@ public class SegmentCacheManager {
     public SegmentWithData peek(final CellRequest request) {
         final SegmentCacheManager.PeekResponse response =
             execute(
+                request.getMeasure().getStar(),
                 new PeekCommand(request, Locus.peek()));
         for (SegmentHeader header : response.headerMap.keySet()) {
             final SegmentBody body = compositeCache.get(header);
@@ -546,6 +762,7 @@ public class SegmentCacheManager {
         void visit(SegmentRemoveEvent event);
         void visit(ExternalSegmentCreatedEvent event);
         void visit(ExternalSegmentDeletedEvent event);
+        void visit(SegmentEvictedEvent event);
     }
 
     private class Handler implements Visitor {
@@ -646,6 +863,15 @@ public class SegmentCacheManager {
                         CellCacheEvent.Source.EXTERNAL));
             }
         }
+
+        public void visit(SegmentEvictedEvent event) {
+            if (event.cacheMgr.localCache.contains(event.header)) {
+                // The segment was loaded and cached again after it was
+                // evicted.
+                return;
+            }
+            indexRegistry.getIndex(event.star).removeLoaded(event.header);
+        }
     }
 
     interface Message {
@@ -970,11 +1196,19 @@ public class SegmentCacheManager {
         }
 
         <T> T execute(Handler handler, Command<T> command) {
+            submit(handler, command);
+            return await(command);
+        }
+
+        void submit(Handler handler, Command<?> command) {
             try {
                 eventQueue.put(Pair.<Handler, Message>of(handler, command));
             } catch (InterruptedException e) {
                 throw Util.newError(e, "Exception while executing " + command);
             }
+        }
+
+        <T> T await(Command<T> command) {
             try {
                 final Pair<Object, Throwable> pair =
                     responseMap.get(command);
@@ -1003,6 +1237,97 @@ public class SegmentCacheManager {
         }
     }
 
+    /**
+     * Event that blocks a shard until a global command has completed on
+     * the first shard.
+     */
+    private static class ParkEvent extends Event {
+        private final CountDownLatch parked;
+        private final CountDownLatch released;
+
+        ParkEvent(CountDownLatch parked, CountDownLatch released) {
+            this.parked = parked;
+            this.released = released;
+        }
+
+        public void acceptWithoutResponse(Visitor visitor) {
+            parked.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wrapper around a command that may access the index of any star. Runs on
+     * the first shard, once all other shards have been parked by a
+     * {@link ParkEvent}.
+     */
+    private static class GlobalCommand<T> implements Command<T> {
+        private final Command<T> command;
+        private final CountDownLatch parked;
+        private final CountDownLatch released;
+
+        GlobalCommand(
+            Command<T> command,
+            CountDownLatch parked,
+            CountDownLatch released)
+        {
+            this.command = command;
+            this.parked = parked;
+            this.released = released;
+        }
+
+        public T call() throws Exception {
+            try {
+                parked.await();
+                return command.call();
+            } finally {
+                released.countDown();
+            }
+        }
+
+        public Locus getLocus() {
+            return command.getLocus();
+        }
+    }
+
+    /**
+     * As {@link GlobalCommand}, but for events.
+     */
+    private static class GlobalEvent extends Event {
+        private final Event event;
+        private final CountDownLatch parked;
+        private final CountDownLatch released;
+
+        GlobalEvent(
+            Event event,
+            CountDownLatch parked,
+            CountDownLatch released)
+        {
+            this.event = event;
+            this.parked = parked;
+            this.released = released;
+        }
+
+        public void acceptWithoutResponse(Visitor visitor) {
+            try {
+                parked.await();
+                event.acceptWithoutResponse(visitor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                released.countDown();
+            }
+        }
+
+        public String toString() {
+            return event.toString();
+        }
+    }
+
     private static class SegmentLoadSucceededEvent extends Event {
         private final SegmentHeader header;
         private final SegmentBody body;
@@ -1195,6 +1520,27 @@ public class SegmentCacheManager {
         }
     }
 
+    private static class SegmentEvictedEvent extends Event {
+        private final SegmentCacheManager cacheMgr;
+        private final RolapStar star;
+        private final SegmentHeader header;
+
+        public SegmentEvictedEvent(
+            SegmentCacheManager cacheMgr,
+            RolapStar star,
+            SegmentHeader header)
+        {
+            assert header != null;
+            this.cacheMgr = cacheMgr;
+            this.star = star;
+            this.header = header;
+        }
+
+        public void acceptWithoutResponse(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
     /**
      * Implementation of SegmentCacheListener that updates the
      * segment index of its aggregation manager instance when it receives
@@ -1264,6 +1610,34 @@ public class SegmentCacheManager {
         }
     }
 
+    /**
+     * Implementation of SegmentCacheListener that removes a segment from the
+     * index when the local cache evicts it, for example to make room for
+     * other segments.
+     *
+     * <p>It is registered via
+     * {@link EvictingSegmentCache#addEvictionListener}, so it does not hear
+     * about segments that are removed explicitly; the code that removes them
+     * updates the index itself.</p>
+     */
+    private static class EvictionListener
+        implements SegmentCache.SegmentCacheListener
+    {
+        private final SegmentCacheManager cacheMgr;
+
+        public EvictionListener(SegmentCacheManager cacheMgr) {
+            this.cacheMgr = cacheMgr;
+        }
+
+        public void handle(SegmentCacheEvent e) {
+            if (e.getEventType()
+                == SegmentCacheEvent.EventType.ENTRY_DELETED)
+            {
+                cacheMgr.segmentEvicted(e.getSource());
+            }
+        }
+    }
+
     /**
      * Makes a collection of {@link SegmentCacheWorker} objects (each of which
      * is backed by a {@link SegmentCache} appear to be a SegmentCache.
@@ -1318,14 +1692,22 @@ public class SegmentCacheManager {
             }
         }
 
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Returns false if every cache declined to store the segment.</p>
+         */
         public boolean put(SegmentHeader header, SegmentBody body) {
             if (MondrianProperties.instance().DisableCaching.get()) {
                 return true;
             }
+            boolean result = workers.isEmpty();
             for (SegmentCacheWorker worker : workers) {
-                worker.put(header, body);
+                if (worker.put(header, body)) {
+                    result = true;
+                }
             }
-            return true;
+            return result;
         }
 
         public boolean remove(SegmentHeader header) {
@@ -1490,21 +1872,114 @@ public class SegmentCacheManager {
     public class SegmentCacheIndexRegistry {
         private final Map<RolapStar, SegmentCacheIndex> indexes =
             new WeakHashMap<RolapStar, SegmentCacheIndex>();
+
+        /**
+         * Headers of segments that were in a persistent cache when this
+         * cache manager started, and have not yet been added to the index of
+         * a star.
+         */
+        private final List<SegmentHeader> startupHeaders =
+            new ArrayList<SegmentHeader>();
+
+        private synchronized void addStartupHeaders(
+            List<SegmentHeader> headers)
+        {
+            startupHeaders.addAll(headers);
+        }
+
         /**
          * Returns the {@link SegmentCacheIndex} for a given
          * {@link RolapStar}.
+         *
+         * <p>Synchronized, because when the cache manager has several
+         * shards, indexes of different stars are requested from different
+         * threads.</p>
          */
-        public SegmentCacheIndex getIndex(RolapStar star) {
+        public synchronized SegmentCacheIndex getIndex(RolapStar star) {
             if (!indexes.containsKey(star)) {
-                indexes.put(star, new SegmentCacheIndexImpl(thread));
+                // The index is accessed from the star's own shard, and from
+                // the first shard when executing global commands.
+                final Thread shardThread =
+                    threads.length == 1
+                        ? thread
+                        : threads[shardOf(
+                            star.getFactTable().getAlias(), threads.length)];
+                final SegmentCacheIndex index =
+                    new SegmentCacheIndexImpl(thread, shardThread);
+                indexes.put(star, index);
+                if (!startupHeaders.isEmpty()) {
+                    registerStartupHeaders(star, index);
+                }
             }
             return indexes.get(star);
         }
+
+        /**
+         * Adds to the index of a newly used star the headers of segments that
+         * were in a persistent cache at startup and belong to the star.
+         *
+         * <p>Segments of the same schema that have a different checksum were
+         * created by a previous version of the schema. They are stale and
+         * are removed from the caches.</p>
+         */
+        private void registerStartupHeaders(
+            RolapStar star,
+            SegmentCacheIndex index)
+        {
+            final RolapSchema schema = star.getSchema();
+            final String factTableAlias = star.getFactTable().getAlias();
+            for (Iterator<SegmentHeader> iterator = startupHeaders.iterator();
+                 iterator.hasNext();)
+            {
+                final SegmentHeader header = iterator.next();
+                if (!header.schemaName.equals(schema.getName())) {
+                    continue;
+                }
+                if (!header.schemaChecksum.equals(schema.getChecksum())) {
+                    iterator.remove();
+                    cacheExecutor.submit(
+                        new Runnable() {
+                            public void run() {
+                                try {
+                                    compositeCache.remove(header);
+                                } catch (Throwable e) {
+                                    LOGGER.warn(
+                                        "remove stale header failed: "
+                                        + header,
+                                        e);
+                                }
+                            }
+                        });
+                    continue;
+                }
+                if (header.rolapStarFactTableName.equals(factTableAlias)) {
+                    iterator.remove();
+                    index.add(header, false, null);
+                }
+            }
+        }
+        /**
+         * Returns the star whose index has been created and belongs to a
+         * given {@link SegmentHeader}, or null.
+         */
+        private synchronized RolapStar getStar(SegmentHeader header) {
+            for (RolapStar star : indexes.keySet()) {
+                if (star.getFactTable().getTableName().equals(
+                        header.rolapStarFactTableName)
+                    && star.getSchema().getChecksum().equals(
+                        header.schemaChecksum))
+                {
+                    return star;
+                }
+            }
+            return null;
+        }
+
         /**
          * Returns the {@link SegmentCacheIndex} for a given
          * {@link SegmentHeader}.
          */
-        private SegmentCacheIndex getIndex(
+        private synchronized SegmentCacheIndex getIndex(
             SegmentHeader header)
         {
             // First we check the indexes that already exist.
@@ -1536,7 +2011,7 @@ public class SegmentCacheManager {
             }
             return null;
         }
-        public void cancelExecutionSegments(Execution exec) {
+        public synchronized void cancelExecutionSegments(Execution exec) {
             for (SegmentCacheIndex index : indexes.values()) {
                 index.cancel(exec);
             }
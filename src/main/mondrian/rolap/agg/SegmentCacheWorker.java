@@ -11,6 +11,7 @@ package mondrian.rolap.agg;
 
 import mondrian.olap.MondrianProperties;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.cache.DiskSegmentCache;
 import mondrian.spi.*;
 import mondrian.util.ClassResolver;
 import mondrian.util.ServiceDiscovery;
@@ -83,6 +84,13 @@ public final class SegmentCacheWorker {
             }
         }
 
+        // Add a persistent cache, if a directory is configured.
+        if (MondrianProperties.instance().DiskSegmentCacheDirectory.get()
+            != null)
+        {
+            caches.add(new DiskSegmentCache());
+        }
+
         // Check the SegmentCacheInjector
         // People might have sent instances into this thing.
         caches.addAll(SegmentCache.SegmentCacheInjector.getCaches());
@@ -146,21 +154,25 @@ public final class SegmentCacheWorker {
      * Places a segment in the cache. Returns true or false
      * if the operation succeeds.
      *
+     * <p>A cache may decline to store a segment, for example because the
+     * segment is larger than the cache, or because a bounded cache judges it
+     * less valuable than the segments it would displace. That is not an
+     * error; this method returns false.</p>
+     *
      * @param header A header to search for in the segment cache.
      * @param body The segment body to cache.
+     * @return Whether the cache stored the segment
      */
-    public void put(SegmentHeader header, SegmentBody body) {
+    public boolean put(SegmentHeader header, SegmentBody body) {
         checkThread();
         try {
             final boolean result = cache.put(header, body);
             if (!result) {
-                LOGGER.error(
-                    MondrianResource.instance()
-                        .SegmentCacheFailedToSaveSegment
-                        .baseMessage);
-                throw MondrianResource.instance()
-                    .SegmentCacheFailedToSaveSegment.ex();
+                LOGGER.debug(
+                    "Cache " + cache + " did not store segment "
+                    + header.getUniqueID());
             }
+            return result;
         } catch (Throwable t) {
             LOGGER.error(
                 MondrianResource.instance()
@@ -0,0 +1,633 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapUtil;
+import mondrian.spi.*;
+import mondrian.util.ArraySortedSet;
+import mondrian.util.ByteString;
+import mondrian.util.HyperLogLog;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Compact binary encoding of {@link SegmentHeader} and {@link SegmentBody},
+ * for use by implementations of {@link mondrian.spi.SegmentCache} that need
+ * to store segments as bytes.
+ *
+ * <p>Compared to Java serialization, the encoding is smaller and faster to
+ * read and write. It does not write class descriptors. A column of values
+ * of the same type (say all {@link Integer}) is written as one type tag
+ * followed by the raw values. Cell values of {@code double} and {@code int}
+ * segments are written as raw primitive arrays. Object cell values are
+ * dictionary-encoded, so that a value that occurs in many cells is written
+ * once.</p>
+ *
+ * <p>Encoded bodies can be compressed. Compression uses
+ * {@link Deflater#BEST_SPEED}, which, like LZ4, favors speed over ratio, and
+ * is available without additional libraries.</p>
+ *
+ * <p>Every encoded header and body starts with a format version. Decoding
+ * data written with an unknown version fails with an error, rather than
+ * returning garbage; caches should treat such entries as absent.</p>
+ *
+ * <p>Body encoding uses the layout of {@link ByteBufferSegmentBody}, so
+ * decoding is lazy: {@link #decodeBody(byte[])} returns a body that reads
+ * from the decoded bytes when asked.</p>
+ */
+public final class SegmentCodec {
+    /**
+     * Version of the format. Increment when the format changes.
+     */
+    public static final byte VERSION = 1;
+
+    private static final byte FLAG_COMPRESSED = 1;
+
+    // Tags of individual values.
+    private static final byte NULL = 0;
+    private static final byte SQL_NULL = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte BIG_DECIMAL = 6;
+    private static final byte BOOLEAN = 7;
+    private static final byte FLOAT = 8;
+    private static final byte SHORT = 9;
+    private static final byte BYTE = 10;
+    private static final byte SERIALIZED = 11;
+    private static final byte HYPER_LOG_LOG = 12;
+
+    // Tags of columns of values. A column whose values all have the same type
+    // is written as the tag of that type followed by the raw values; other
+    // columns as MIXED followed by one tagged value per element.
+    private static final byte MIXED = 100;
+
+    private SegmentCodec() {
+    }
+
+    /**
+     * Encodes a segment header.
+     *
+     * @param header Segment header
+     * @return Encoded bytes
+     */
+    public static byte[] encodeHeader(SegmentHeader header) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(baos);
+        try {
+            out.writeByte(VERSION);
+            writeString(out, header.schemaName);
+            final ByteString checksum = header.schemaChecksum;
+            out.writeInt(checksum.length());
+            for (int i = 0; i < checksum.length(); i++) {
+                out.writeByte(checksum.byteAt(i));
+            }
+            writeString(out, header.cubeName);
+            writeString(out, header.measureName);
+            writeString(out, header.rolapStarFactTableName);
+            writeBitKey(out, header.getConstrainedColumnsBitKey());
+            out.writeInt(header.compoundPredicates.size());
+            for (String predicate : header.compoundPredicates) {
+                writeString(out, predicate);
+            }
+            writeColumns(out, header.getConstrainedColumns());
+            writeColumns(out, header.getExcludedRegions());
+            out.flush();
+        } catch (IOException e) {
+            throw Util.newError(e, "Error while encoding segment header");
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decodes a segment header.
+     *
+     * @param bytes Bytes created by {@link #encodeHeader}
+     * @return Segment header
+     */
+    public static SegmentHeader decodeHeader(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        checkVersion(buffer.get());
+        final String schemaName = readString(buffer);
+        final byte[] checksum = new byte[buffer.getInt()];
+        buffer.get(checksum);
+        final String cubeName = readString(buffer);
+        final String measureName = readString(buffer);
+        final String factTableName = readString(buffer);
+        final BitKey bitKey = readBitKey(buffer);
+        final int predicateCount = buffer.getInt();
+        final List<String> compoundPredicates =
+            new ArrayList<String>(predicateCount);
+        for (int i = 0; i < predicateCount; i++) {
+            compoundPredicates.add(readString(buffer));
+        }
+        final List<SegmentColumn> constrainedColumns = readColumns(buffer);
+        final List<SegmentColumn> excludedRegions = readColumns(buffer);
+        return new SegmentHeader(
+            schemaName,
+            new ByteString(checksum),
+            cubeName,
+            measureName,
+            constrainedColumns,
+            compoundPredicates,
+            factTableName,
+            bitKey,
+            excludedRegions);
+    }
+
+    /**
+     * Encodes a segment body.
+     *
+     * @param body Segment body
+     * @param compress Whether to compress
+     * @return Encoded bytes
+     */
+    public static byte[] encodeBody(SegmentBody body, boolean compress) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out = new DataOutputStream(baos);
+            out.writeByte(VERSION);
+            out.writeByte(compress ? FLAG_COMPRESSED : 0);
+            if (compress) {
+                final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+                ByteBufferSegmentBody.write(body, new DataOutputStream(raw));
+                out.writeInt(raw.size());
+                out.flush();
+                final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    final DeflaterOutputStream dos =
+                        new DeflaterOutputStream(baos, deflater);
+                    raw.writeTo(dos);
+                    dos.finish();
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                ByteBufferSegmentBody.write(body, out);
+            }
+        } catch (IOException e) {
+            throw Util.newError(e, "Error while encoding segment body");
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decodes a segment body.
+     *
+     * <p>The returned body reads lazily from a buffer; call
+     * {@link ByteBufferSegmentBody#toHeapBody()} to decode it fully.</p>
+     *
+     * @param bytes Bytes created by {@link #encodeBody}
+     * @return Segment body
+     */
+    public static ByteBufferSegmentBody decodeBody(byte[] bytes) {
+        checkVersion(bytes[0]);
+        if ((bytes[1] & FLAG_COMPRESSED) == 0) {
+            return new ByteBufferSegmentBody(
+                ByteBuffer.wrap(bytes, 2, bytes.length - 2).slice());
+        }
+        final byte[] raw =
+            new byte[ByteBuffer.wrap(bytes, 2, 4).getInt()];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, 6, bytes.length - 6);
+            int n = 0;
+            while (n < raw.length) {
+                final int k = inflater.inflate(raw, n, raw.length - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw Util.newError("Truncated segment body");
+                }
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw Util.newError(e, "Error while decoding segment body");
+        } finally {
+            inflater.end();
+        }
+        return new ByteBufferSegmentBody(ByteBuffer.wrap(raw));
+    }
+
+    private static void checkVersion(byte version) {
+        if (version != VERSION) {
+            throw Util.newError(
+                "Unsupported segment format version " + version
+                + "; expected " + VERSION);
+        }
+    }
+
+    private static void writeBitKey(DataOutputStream out, BitKey bitKey)
+        throws IOException
+    {
+        // Preserve the capacity class of the key.
+        out.writeInt(
+            bitKey instanceof BitKey.Small
+                ? 0
+                : bitKey instanceof BitKey.Mid128
+                ? 64
+                : 128);
+        final BitSet bitSet = bitKey.toBitSet();
+        out.writeInt(bitSet.cardinality());
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1))
+        {
+            out.writeInt(i);
+        }
+    }
+
+    private static BitKey readBitKey(ByteBuffer buffer) {
+        final int capacity = buffer.getInt();
+        final int count = buffer.getInt();
+        final int[] bits = new int[count];
+        int max = capacity;
+        for (int i = 0; i < count; i++) {
+            bits[i] = buffer.getInt();
+            max = Math.max(max, bits[i] + 1);
+        }
+        final BitKey bitKey = BitKey.Factory.makeBitKey(max);
+        for (int bit : bits) {
+            bitKey.set(bit);
+        }
+        return bitKey;
+    }
+
+    private static void writeColumns(
+        DataOutputStream out,
+        List<SegmentColumn> columns)
+        throws IOException
+    {
+        out.writeInt(columns.size());
+        for (SegmentColumn column : columns) {
+            writeString(out, column.columnExpression);
+            out.writeInt(column.valueCount);
+            out.writeBoolean(column.values != null);
+            if (column.values != null) {
+                writeValues(out, column.values);
+            }
+        }
+    }
+
+    private static List<SegmentColumn> readColumns(ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        final List<SegmentColumn> columns = new ArrayList<SegmentColumn>(count);
+        for (int i = 0; i < count; i++) {
+            final String expression = readString(buffer);
+            final int valueCount = buffer.getInt();
+            final SortedSet<Comparable> values;
+            if (buffer.get() != 0) {
+                values = readSortedSet(buffer);
+            } else {
+                values = null;
+            }
+            columns.add(new SegmentColumn(expression, valueCount, values));
+        }
+        return columns;
+    }
+
+    /**
+     * Reads a column of values that were written, in sorted order, by
+     * {@link #writeValues}, and returns them as a sorted set.
+     */
+    static SortedSet<Comparable> readSortedSet(ByteBuffer buffer) {
+        final Object[] objects = readValues(buffer);
+        final Comparable[] values = new Comparable[objects.length];
+        System.arraycopy(objects, 0, values, 0, objects.length);
+        //noinspection unchecked
+        return new ArraySortedSet(values);
+    }
+
+    /**
+     * Writes a column of values. If all values have the same type, writes
+     * the type once, followed by raw values.
+     *
+     * @param out Output stream
+     * @param values Values
+     * @throws IOException on error
+     */
+    static void writeValues(DataOutputStream out, Collection<?> values)
+        throws IOException
+    {
+        out.writeInt(values.size());
+        final byte type = columnType(values);
+        out.writeByte(type);
+        switch (type) {
+        case INTEGER:
+            for (Object value : values) {
+                out.writeInt((Integer) value);
+            }
+            break;
+        case LONG:
+            for (Object value : values) {
+                out.writeLong((Long) value);
+            }
+            break;
+        case DOUBLE:
+            for (Object value : values) {
+                out.writeDouble((Double) value);
+            }
+            break;
+        case STRING:
+            for (Object value : values) {
+                writeString(out, (String) value);
+            }
+            break;
+        default:
+            for (Object value : values) {
+                writeValue(out, value);
+            }
+        }
+    }
+
+    private static byte columnType(Collection<?> values) {
+        if (values.isEmpty()) {
+            return MIXED;
+        }
+        final Class<?> clazz = values.iterator().next() == null
+            ? null
+            : values.iterator().next().getClass();
+        for (Object value : values) {
+            if (value == null || value.getClass() != clazz) {
+                return MIXED;
+            }
+        }
+        if (clazz == Integer.class) {
+            return INTEGER;
+        } else if (clazz == Long.class) {
+            return LONG;
+        } else if (clazz == Double.class) {
+            return DOUBLE;
+        } else if (clazz == String.class) {
+            return STRING;
+        } else {
+            return MIXED;
+        }
+    }
+
+    /**
+     * Reads a column of values written by {@link #writeValues}.
+     *
+     * @param buffer Buffer
+     * @return Array of values
+     */
+    static Object[] readValues(ByteBuffer buffer) {
+        final Object[] values = new Object[buffer.getInt()];
+        final byte type = buffer.get();
+        switch (type) {
+        case INTEGER:
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getInt();
+            }
+            break;
+        case LONG:
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getLong();
+            }
+            break;
+        case DOUBLE:
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getDouble();
+            }
+            break;
+        case STRING:
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readString(buffer);
+            }
+            break;
+        case MIXED:
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(buffer);
+            }
+            break;
+        default:
+            throw Util.newInternal("Unknown column type " + type);
+        }
+        return values;
+    }
+
+    /**
+     * Writes an array of values, dictionary-encoded. Writes the distinct
+     * values once, then for each element the ordinal of its value in the
+     * dictionary, using 1, 2 or 4 bytes depending on the size of the
+     * dictionary.
+     *
+     * @param out Output stream
+     * @param values Values; may contain nulls
+     * @throws IOException on error
+     */
+    static void writeDictionaryValues(DataOutputStream out, Object[] values)
+        throws IOException
+    {
+        final Map<Object, Integer> dictionary =
+            new LinkedHashMap<Object, Integer>();
+        final int[] ordinals = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Integer ordinal = dictionary.get(values[i]);
+            if (ordinal == null) {
+                ordinal = dictionary.size();
+                dictionary.put(values[i], ordinal);
+            }
+            ordinals[i] = ordinal;
+        }
+        writeValues(out, dictionary.keySet());
+        out.writeInt(values.length);
+        final int width = ordinalWidth(dictionary.size());
+        for (int ordinal : ordinals) {
+            switch (width) {
+            case 1:
+                out.writeByte(ordinal);
+                break;
+            case 2:
+                out.writeShort(ordinal);
+                break;
+            default:
+                out.writeInt(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Reads an array of values written by {@link #writeDictionaryValues}.
+     *
+     * @param buffer Buffer
+     * @return Array of values
+     */
+    static Object[] readDictionaryValues(ByteBuffer buffer) {
+        final Object[] dictionary = readValues(buffer);
+        final Object[] values = new Object[buffer.getInt()];
+        final int width = ordinalWidth(dictionary.length);
+        for (int i = 0; i < values.length; i++) {
+            switch (width) {
+            case 1:
+                values[i] = dictionary[buffer.get() & 0xFF];
+                break;
+            case 2:
+                values[i] = dictionary[buffer.getShort() & 0xFFFF];
+                break;
+            default:
+                values[i] = dictionary[buffer.getInt()];
+            }
+        }
+        return values;
+    }
+
+    private static int ordinalWidth(int dictionarySize) {
+        return dictionarySize <= 0x100
+            ? 1
+            : dictionarySize <= 0x10000
+            ? 2
+            : 4;
+    }
+
+    /**
+     * Writes a single value, preceded by a tag that identifies its type.
+     *
+     * <p>Null, {@link RolapUtil#sqlNullValue}, and values of the common
+     * wrapper types, {@link String} and {@link BigDecimal} have a compact
+     * representation. Other values are written using Java serialization.</p>
+     *
+     * @param out Output stream
+     * @param value Value
+     * @throws IOException on error
+     */
+    static void writeValue(DataOutputStream out, Object value)
+        throws IOException
+    {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value == RolapUtil.sqlNullValue) {
+            out.writeByte(SQL_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof HyperLogLog) {
+            out.writeByte(HYPER_LOG_LOG);
+            final byte[] bytes = ((HyperLogLog) value).toByteArray();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeByte(SERIALIZED);
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(value);
+            oos.close();
+            out.writeInt(baos.size());
+            baos.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue}, starting at the buffer's
+     * current position, and advances the position.
+     *
+     * @param buffer Buffer
+     * @return Value
+     */
+    static Object readValue(ByteBuffer buffer) {
+        final byte tag = buffer.get();
+        switch (tag) {
+        case NULL:
+            return null;
+        case SQL_NULL:
+            return RolapUtil.sqlNullValue;
+        case INTEGER:
+            return buffer.getInt();
+        case LONG:
+            return buffer.getLong();
+        case DOUBLE:
+            return buffer.getDouble();
+        case STRING:
+            return readString(buffer);
+        case BIG_DECIMAL:
+            return new BigDecimal(readString(buffer));
+        case BOOLEAN:
+            return buffer.get() != 0;
+        case FLOAT:
+            return buffer.getFloat();
+        case SHORT:
+            return buffer.getShort();
+        case BYTE:
+            return buffer.get();
+        case HYPER_LOG_LOG:
+            final byte[] sketchBytes = new byte[buffer.getInt()];
+            buffer.get(sketchBytes);
+            return HyperLogLog.fromByteArray(sketchBytes);
+        case SERIALIZED:
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            try {
+                return new ObjectInputStream(new ByteArrayInputStream(bytes))
+                    .readObject();
+            } catch (IOException e) {
+                throw Util.newError(e, "Error while decoding segment value");
+            } catch (ClassNotFoundException e) {
+                throw Util.newError(e, "Error while decoding segment value");
+            }
+        default:
+            throw Util.newInternal("Unknown value tag " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw Util.newError(e, "UTF-8 not supported");
+        }
+    }
+}
+
+// End SegmentCodec.java
@@ -17,6 +17,7 @@ import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.SegmentCacheManager.AbortException;
+import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.server.Locus;
 import mondrian.server.monitor.SqlStatementEvent;
@@ -103,6 +104,91 @@ public class SegmentLoader {
         List<GroupingSet> groupingSets,
         List<StarPredicate> compoundPredicateList,
         List<Future<Map<Segment, SegmentWithData>>> segmentFutures)
+    {
+        register(groupingSets, compoundPredicateList);
+        try {
+            final Locus locus = Locus.peek();
+            final RolapStar star = groupingSets.get(0).segment0.star;
+            segmentFutures.add(
+                cacheMgr.getSqlExecutor(star.getDataSource()).submit(
+                    new SegmentLoadCommand(
+                        locus,
+                        this,
+                        cellRequestCount,
+                        groupingSets,
+                        compoundPredicateList),
+                    cellRequestCount,
+                    locus.execution));
+        } catch (Exception e) {
+            throw new MondrianException(e);
+        }
+    }
+
+    /**
+     * Loads the segments of a grouping set using several SQL statements,
+     * which the SQL executor may run concurrently, and merges the cells that
+     * the statements read into the segments of the grouping set.
+     *
+     * <p>The parts must divide the cells of {@code groupingSet} between them,
+     * each part having a subset of the values of a column, or a subset of the
+     * measures. Only the segments of {@code groupingSet} are registered in
+     * the index and cached; the segments of the parts are discarded once they
+     * have been merged.</p>
+     *
+     * <p>One future is added to {@code segmentFutures}. It completes when the
+     * last statement has finished and the segments have been merged.</p>
+     *
+     * @param cellRequestCount Number of missed cells that led to this request;
+     *   divided between the statements
+     * @param groupingSet Grouping set whose segments are loaded
+     * @param parts Grouping sets that divide the cells of groupingSet
+     * @param compoundPredicateList Compound predicates
+     * @param segmentFutures List of futures wherein to place a future of the
+     *                       loaded segments
+     */
+    public void loadSplit(
+        int cellRequestCount,
+        GroupingSet groupingSet,
+        List<GroupingSet> parts,
+        List<StarPredicate> compoundPredicateList,
+        List<Future<Map<Segment, SegmentWithData>>> segmentFutures)
+    {
+        register(
+            Collections.singletonList(groupingSet), compoundPredicateList);
+        final SplitLoad splitLoad =
+            new SplitLoad(groupingSet, parts.size(), compoundPredicateList);
+        try {
+            final Locus locus = Locus.peek();
+            final DataSourceExecutor executor =
+                cacheMgr.getSqlExecutor(
+                    groupingSet.segment0.star.getDataSource());
+            final int n = parts.size();
+            for (int k = 0; k < n; k++) {
+                // Each statement is ranked by its share of the cells.
+                final int partCellRequestCount =
+                    cellRequestCount / n + (k < cellRequestCount % n ? 1 : 0);
+                executor.submit(
+                    new SplitLoadCommand(
+                        locus,
+                        splitLoad,
+                        partCellRequestCount,
+                        parts.get(k)),
+                    partCellRequestCount,
+                    locus.execution);
+            }
+        } catch (Exception e) {
+            throw new MondrianException(e);
+        }
+        segmentFutures.add(splitLoad.future);
+    }
+
+    /**
+     * Registers the segments of some grouping sets in the index, as
+     * loading, and registers the current execution as a client of each.
+     */
+    private void register(
+        List<GroupingSet> groupingSets,
+        List<StarPredicate> compoundPredicateList)
     {
         if (!MondrianProperties.instance().DisableCaching.get()) {
             for (GroupingSet groupingSet : groupingSets) {
@@ -124,18 +210,6 @@ public class SegmentLoader {
                 }
             }
         }
-        try {
-            segmentFutures.add(
-                cacheMgr.sqlExecutor.submit(
-                    new SegmentLoadCommand(
-                        Locus.peek(),
-                        this,
-                        cellRequestCount,
-                        groupingSets,
-                        compoundPredicateList)));
-        } catch (Exception e) {
-            throw new MondrianException(e);
-        }
     }
 
     private static class SegmentLoadCommand
@@ -167,17 +241,290 @@ public class SegmentLoader {
                 return segmentLoader.loadImpl(
                     cellRequestCount,
                     groupingSets,
-                    compoundPredicateList);
+                    compoundPredicateList,
+                    true);
             } finally {
                 Locus.pop(locus);
             }
         }
     }
 
+    /**
+     * Command that runs one of the statements of a split load, and hands its
+     * segments to the {@link SplitLoad}.
+     */
+    private static class SplitLoadCommand implements Callable<Void> {
+        private final Locus locus;
+        private final SplitLoad splitLoad;
+        private final int cellRequestCount;
+        private final GroupingSet part;
+
+        SplitLoadCommand(
+            Locus locus,
+            SplitLoad splitLoad,
+            int cellRequestCount,
+            GroupingSet part)
+        {
+            this.locus = locus;
+            this.splitLoad = splitLoad;
+            this.cellRequestCount = cellRequestCount;
+            this.part = part;
+        }
+
+        public Void call() {
+            Locus.push(locus);
+            Map<Segment, SegmentWithData> segmentMap = null;
+            Throwable throwable = null;
+            try {
+                segmentMap =
+                    splitLoad.loader().loadImpl(
+                        cellRequestCount,
+                        new ArrayList<GroupingSet>(
+                            Collections.singletonList(part)),
+                        splitLoad.compoundPredicateList,
+                        false);
+            } catch (Throwable e) {
+                throwable = e;
+            } finally {
+                try {
+                    splitLoad.partLoaded(segmentMap, throwable);
+                } finally {
+                    Locus.pop(locus);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * State of a load that is split into several statements. The last
+     * statement to finish merges the segments that the statements loaded,
+     * caches the merged segments, and completes the future.
+     */
+    private class SplitLoad {
+        private final GroupingSet groupingSet;
+        private final List<StarPredicate> compoundPredicateList;
+        private final long startTime = System.currentTimeMillis();
+        final SlotFuture<Map<Segment, SegmentWithData>> future =
+            new SlotFuture<Map<Segment, SegmentWithData>>();
+
+        // Guarded by "this".
+        private final List<SegmentWithData> pieces =
+            new ArrayList<SegmentWithData>();
+        private int remaining;
+        private boolean incomplete;
+        private Throwable throwable;
+
+        SplitLoad(
+            GroupingSet groupingSet,
+            int partCount,
+            List<StarPredicate> compoundPredicateList)
+        {
+            this.groupingSet = groupingSet;
+            this.remaining = partCount;
+            this.compoundPredicateList = compoundPredicateList;
+        }
+
+        SegmentLoader loader() {
+            return SegmentLoader.this;
+        }
+
+        /**
+         * Called when a statement has finished, successfully or not.
+         *
+         * @param segmentMap Segments loaded by the statement, or null
+         * @param throwable Error, or null
+         */
+        void partLoaded(
+            Map<Segment, SegmentWithData> segmentMap,
+            Throwable throwable)
+        {
+            synchronized (this) {
+                if (throwable != null) {
+                    if (this.throwable == null) {
+                        this.throwable = throwable;
+                    }
+                } else if (segmentMap.isEmpty()) {
+                    // The statement had nothing to load, so the merged
+                    // segments would have holes.
+                    incomplete = true;
+                } else {
+                    pieces.addAll(segmentMap.values());
+                }
+                if (--remaining > 0) {
+                    return;
+                }
+            }
+            final Map<Segment, SegmentWithData> segmentMap2 =
+                new HashMap<Segment, SegmentWithData>();
+            Throwable throwable2 = this.throwable;
+            try {
+                if (throwable2 == null && !incomplete) {
+                    merge(segmentMap2);
+                }
+            } catch (Throwable e) {
+                throwable2 = e;
+            } finally {
+                setFailOnStillLoadingSegments(
+                    segmentMap2,
+                    new GroupingSetsList(
+                        Collections.singletonList(groupingSet)),
+                    throwable2);
+            }
+            if (throwable2 != null) {
+                future.fail(throwable2);
+            } else {
+                future.put(segmentMap2);
+            }
+        }
+
+        private void merge(Map<Segment, SegmentWithData> segmentMap) {
+            final long loadMillis = System.currentTimeMillis() - startTime;
+            for (Segment segment : groupingSet.getSegments()) {
+                final List<SegmentWithData> measurePieces =
+                    new ArrayList<SegmentWithData>();
+                for (SegmentWithData piece : pieces) {
+                    if (piece.measure == segment.measure) {
+                        measurePieces.add(piece);
+                    }
+                }
+                if (measurePieces.isEmpty()) {
+                    continue;
+                }
+                final SegmentWithData segmentWithData =
+                    SegmentLoader.merge(segment, measurePieces);
+                segmentMap.put(segment, segmentWithData);
+                cacheSegment(
+                    segment.star,
+                    segmentWithData.getHeader(),
+                    createBody(segmentWithData),
+                    loadMillis);
+            }
+        }
+    }
+
+    /**
+     * Merges segments, each of which holds the cells of a different part of
+     * a segment, into that segment.
+     *
+     * <p>The axes of the merged segment have the union of the values of the
+     * pieces' axes. Whether the merged segment is sparse is decided afresh
+     * from the number of cells.</p>
+     *
+     * @param segment Segment
+     * @param pieces Segments with data; their cells must not overlap
+     * @return Segment with the data of all pieces
+     */
+    static SegmentWithData merge(
+        Segment segment,
+        List<SegmentWithData> pieces)
+    {
+        if (pieces.size() == 1
+            && Arrays.equals(pieces.get(0).predicates, segment.predicates))
+        {
+            // Typical when the load was split by measure.
+            final SegmentWithData piece = pieces.get(0);
+            return new SegmentWithData(segment, piece.getData(), piece.axes);
+        }
+        final int arity = segment.predicates.length;
+        final SegmentAxis[] axes = new SegmentAxis[arity];
+        double possibleCount = 1;
+        for (int i = 0; i < arity; i++) {
+            final SortedSet<Comparable> valueSet = new TreeSet<Comparable>();
+            boolean hasNull = false;
+            for (SegmentWithData piece : pieces) {
+                final Pair<SortedSet<Comparable>, Boolean> pair =
+                    piece.axes[i].getValuesAndIndicator();
+                valueSet.addAll(pair.left);
+                hasNull = hasNull || pair.right;
+            }
+            axes[i] =
+                new SegmentAxis(segment.predicates[i], valueSet, hasNull);
+            possibleCount *= axes[i].getKeyCount();
+        }
+
+        // Native datasets can only be populated from datasets of the same
+        // type; otherwise the merged dataset holds objects.
+        SqlStatement.Type type = pieces.get(0).getData().getType();
+        int cellCount = 0;
+        for (SegmentWithData piece : pieces) {
+            if (piece.getData().getType() != type) {
+                type = SqlStatement.Type.OBJECT;
+            }
+            for (Map.Entry<CellKey, Object> entry : piece.getData()) {
+                if (entry.getValue() != null) {
+                    ++cellCount;
+                }
+            }
+        }
+        final boolean sparse = useSparse(possibleCount, cellCount);
+        final SegmentDataset data =
+            segment.createDataset(
+                axes, sparse, type, sparse ? 0 : (int) possibleCount);
+
+        // Map the ordinals of each piece's axes to ordinals of the merged
+        // axes, and copy the cells.
+        final int[] pos = new int[arity];
+        for (SegmentWithData piece : pieces) {
+            final int[][] ordinalMaps = new int[arity][];
+            for (int i = 0; i < arity; i++) {
+                final SegmentAxis axis = piece.axes[i];
+                final int[] ordinalMap = ordinalMaps[i] =
+                    new int[axis.getKeyCount()];
+                for (int j = 0; j < ordinalMap.length; j++) {
+                    ordinalMap[j] = axes[i].getOffset(axis.getKey(j));
+                }
+            }
+            for (Map.Entry<CellKey, Object> entry : piece.getData()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                final CellKey key = entry.getKey();
+                final int[] ordinals = key.getOrdinals();
+                for (int i = 0; i < arity; i++) {
+                    pos[i] = ordinalMaps[i][ordinals[i]];
+                }
+                data.populateFrom(pos, piece.getData(), key);
+            }
+        }
+        return new SegmentWithData(segment, data, axes);
+    }
+
+    /**
+     * Creates the body of a segment, to be cached.
+     */
+    private static SegmentBody createBody(
+        final SegmentWithData segmentWithData)
+    {
+        return segmentWithData.getData().createSegmentBody(
+            new AbstractList<Pair<SortedSet<Comparable>, Boolean>>() {
+                public Pair<SortedSet<Comparable>, Boolean> get(int index) {
+                    return segmentWithData.axes[index]
+                        .getValuesAndIndicator();
+                }
+
+                public int size() {
+                    return segmentWithData.axes.length;
+                }
+            });
+    }
+
+    /**
+     * Executes a statement and loads the segments of some grouping sets.
+     *
+     * @param cellRequestCount Number of missed cells that led to this request
+     * @param groupingSets Grouping sets
+     * @param compoundPredicateList Compound predicates
+     * @param cache Whether to cache the segments, and to mark in the index
+     *   those that could not be loaded; false if the segments are pieces of
+     *   a split load, which are merged before being cached
+     * @return Loaded segments
+     */
     private Map<Segment, SegmentWithData> loadImpl(
         int cellRequestCount,
         List<GroupingSet> groupingSets,
-        List<StarPredicate> compoundPredicateList)
+        List<StarPredicate> compoundPredicateList,
+        boolean cache)
     {
         SqlStatement stmt = null;
         GroupingSetsList groupingSetsList =
@@ -188,6 +535,7 @@ public class SegmentLoader {
         final Map<Segment, SegmentWithData> segmentMap =
             new HashMap<Segment, SegmentWithData>();
         Throwable throwable = null;
+        final long startTime = System.currentTimeMillis();
         try {
             int arity = defaultColumns.length;
             SortedSet<Comparable>[] axisValueSets =
@@ -204,35 +552,68 @@ public class SegmentLoader {
             }
 
             boolean[] axisContainsNull = new boolean[arity];
+            final List<SqlStatement.Type> measureTypes =
+                new ArrayList<SqlStatement.Type>(
+                    stmt.guessTypes().subList(
+                        arity,
+                        arity + groupingSetsList.getDefaultSegments().size()));
 
             RowList rows =
                 processData(
                     stmt,
                     axisContainsNull,
                     axisValueSets,
-                    groupingSetsList);
+                    groupingSetsList,
+                    MondrianProperties.instance().SegmentLoadBufferedRowLimit
+                        .get());
+            final int rowCount = stmt.rowCount;
 
             boolean sparse =
                 setAxisDataAndDecideSparseUse(
                     axisValueSets,
                     axisContainsNull,
                     groupingSetsList,
-                    rows);
+                    rows,
+                    rowCount);
 
             final Map<BitKey, GroupingSetsList.Cohort> groupingDataSetsMap =
                 createDataSetsForGroupingSets(
                     groupingSetsList,
                     sparse,
-                    rows.getTypes().subList(
-                        arity, rows.getTypes().size()));
+                    measureTypes);
 
-            loadDataToDataSets(
-                groupingSetsList, rows, groupingDataSetsMap);
+            if (rows != null) {
+                loadDataToDataSets(
+                    groupingSetsList, rows, groupingDataSetsMap);
+            } else {
+                // The result had too many rows to buffer. Now that we know
+                // the axes, execute the statement again, and write each row
+                // straight into the datasets.
+                LOGGER.debug(
+                    "Segment load of " + rowCount
+                    + " rows exceeded buffer limit; reading rows again");
+                stmt.close();
+                stmt = null;
+                stmt = createExecuteSql(
+                    cellRequestCount,
+                    groupingSetsList,
+                    compoundPredicateList);
+                if (stmt == null) {
+                    return segmentMap;
+                }
+                loadDataToDataSets(
+                    stmt, groupingSetsList, groupingDataSetsMap);
+            }
 
+            final long loadMillis = System.currentTimeMillis() - startTime;
+            recordSqlLoad(
+                groupingSetsList, compoundPredicateList, loadMillis);
             setDataToSegments(
                 groupingSetsList,
                 groupingDataSetsMap,
-                segmentMap);
+                segmentMap,
+                loadMillis,
+                cache);
 
             return segmentMap;
         } catch (Throwable e) {
@@ -245,22 +626,47 @@ public class SegmentLoader {
             if (stmt != null) {
                 stmt.close();
             }
-            setFailOnStillLoadingSegments(
-                segmentMap, groupingSetsList, throwable);
+            if (cache) {
+                setFailOnStillLoadingSegments(
+                    segmentMap, groupingSetsList, throwable);
+            }
         }
     }
 
+    /**
+     * Records the time taken to load segments, so that the star's cost model
+     * can compare SQL against rollup next time.
+     */
+    private void recordSqlLoad(
+        GroupingSetsList groupingSetsList,
+        List<StarPredicate> compoundPredicateList,
+        long loadMillis)
+    {
+        final RolapStar star = groupingSetsList.getStar();
+        final AggStar aggStar =
+            AggregationManager.findAggForSql(
+                star,
+                groupingSetsList.getDefaultLevelBitKey(),
+                groupingSetsList.getDefaultMeasureBitKey(),
+                compoundPredicateList,
+                new boolean[1]);
+        star.getCellLoadCostModel().recordSqlLoad(
+            CellLoadCostModel.getTableName(star, aggStar), loadMillis);
+    }
+
     /**
      * Called when a segment has been loaded from SQL, to put into the segment
      * index and the external cache.
      *
      * @param header Segment header
      * @param body Segment body
+     * @param loadMillis Time taken to load the segment, in milliseconds
      */
     private void cacheSegment(
         RolapStar star,
         SegmentHeader header,
-        SegmentBody body)
+        SegmentBody body,
+        long loadMillis)
     {
         // Write the segment into external cache.
         //
@@ -272,8 +678,15 @@ public class SegmentLoader {
         // called cacheMgr.loadSucceeded. That call will allow the current
         // query to proceed.
         if (!MondrianProperties.instance().DisableCaching.get()) {
-            cacheMgr.compositeCache.put(header, body);
+            cacheMgr.recordLoadTime(header, loadMillis);
+            star.getCellLoadCostModel().recordCellCount(header, body);
+            final boolean cached = cacheMgr.compositeCache.put(header, body);
             cacheMgr.loadSucceeded(star, header, body);
+            if (!cached) {
+                // No cache kept the segment. Remove it from the index once
+                // the queries waiting for it have received it.
+                cacheMgr.remove(star, header);
+            }
         }
     }
 
@@ -317,7 +730,10 @@ public class SegmentLoader {
         SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
         int segmentLength = groupingSetsList.getDefaultSegments().size();
 
-        final List<SqlStatement.Type> types = rows.getTypes();
+        final int[] nullOrdinals = new int[arity];
+        for (int j = 0; j < arity; j++) {
+            nullOrdinals[j] = axes[j].getOffset(RolapUtil.sqlNullValue);
+        }
         final boolean useGroupingSet = groupingSetsList.useGroupingSets();
         for (rows.first(); rows.next();) {
             final BitKey groupingBitKey;
@@ -333,34 +749,18 @@ public class SegmentLoader {
             }
             final int[] pos = cohort.pos;
             for (int j = 0, k = 0; j < arity; j++) {
-                final SqlStatement.Type type = types.get(j);
-                switch (type) {
-                // TODO: different treatment for INT, LONG, DOUBLE
-                case OBJECT:
-                case STRING:
-                case INT:
-                case LONG:
-                case DOUBLE:
-                    Object o = rows.getObject(j);
+                // Axis columns hold the ordinal of the value in its axis,
+                // or null.
+                if (rows.isNull(j)) {
                     if (useGroupingSet
-                        && (o == null || o == RolapUtil.sqlNullValue)
                         && groupingBitKey.get(
                             groupingSetsList.findGroupingFunctionIndex(j)))
                     {
                         continue;
                     }
-                    SegmentAxis axis = axes[j];
-                    if (o == null) {
-                        o = RolapUtil.sqlNullValue;
-                    }
-                    // Note: We believe that all value types are Comparable.
-                    // In JDK 1.4, Boolean did not implement Comparable, but
-                    // that's too minor/long ago to worry about.
-                    int offset = axis.getOffset((Comparable) o);
-                    pos[k++] = offset;
-                    break;
-                default:
-                    throw Util.unexpected(type);
+                    pos[k++] = nullOrdinals[j];
+                } else {
+                    pos[k++] = rows.getInt(j);
                 }
             }
 
@@ -371,11 +771,173 @@ public class SegmentLoader {
         }
     }
 
+    /**
+     * Loads data to the datasets directly from a result set, without
+     * buffering rows. Used when a result is too large to buffer, and has
+     * therefore been read twice: once to find the axis values, and again,
+     * by this method, to populate the datasets.
+     */
+    private void loadDataToDataSets(
+        SqlStatement stmt,
+        GroupingSetsList groupingSetsList,
+        Map<BitKey, GroupingSetsList.Cohort> groupingDataSetMap)
+        throws SQLException
+    {
+        final int arity = groupingSetsList.getDefaultColumns().length;
+        final SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
+        final List<Segment> segments = groupingSetsList.getDefaultSegments();
+        final int segmentLength = segments.size();
+        final boolean useGroupingSet = groupingSetsList.useGroupingSets();
+        final ResultSet rawRows = loadData(stmt, groupingSetsList);
+        final List<SqlStatement.Type> types = stmt.guessTypes();
+        final boolean[] numeric = numericMeasures(segments);
+
+        final int[] nullOrdinals = new int[arity];
+        for (int j = 0; j < arity; j++) {
+            nullOrdinals[j] = axes[j].getOffset(RolapUtil.sqlNullValue);
+        }
+
+        // A one-row list, reused for each row, from which datasets read
+        // measure values.
+        final RowList row =
+            new RowList(types.subList(0, arity + segmentLength), 1);
+        while (rawRows.next()) {
+            checkResultLimit(++stmt.rowCount);
+            final BitKey groupingBitKey;
+            final GroupingSetsList.Cohort cohort;
+            if (useGroupingSet) {
+                groupingBitKey =
+                    getRollupBitKey(
+                        groupingSetsList.getRollupColumns().size(),
+                        rawRows,
+                        arity + segmentLength);
+                cohort = groupingDataSetMap.get(groupingBitKey);
+            } else {
+                groupingBitKey = null;
+                cohort = groupingDataSetMap.get(BitKey.EMPTY);
+            }
+            final int[] pos = cohort.pos;
+            for (int j = 0, k = 0; j < arity; j++) {
+                final SqlStatement.Type type = types.get(j);
+                final Object value;
+                final int offset;
+                switch (type) {
+                case INT:
+                    final int intValue = rawRows.getInt(j + 1);
+                    value = intValue == 0 && rawRows.wasNull()
+                        ? null
+                        : intValue;
+                    offset = value == null ? -1 : axes[j].getOffset(intValue);
+                    break;
+                case LONG:
+                    final long longValue = rawRows.getLong(j + 1);
+                    value = longValue == 0 && rawRows.wasNull()
+                        ? null
+                        : longValue;
+                    offset =
+                        value == null ? -1 : axes[j].getOffset(longValue);
+                    break;
+                case DOUBLE:
+                    final double doubleValue = rawRows.getDouble(j + 1);
+                    value = doubleValue == 0 && rawRows.wasNull()
+                        ? null
+                        : doubleValue;
+                    offset =
+                        value == null ? -1 : axes[j].getOffset(doubleValue);
+                    break;
+                default:
+                    value = rawRows.getObject(j + 1);
+                    offset = value == null
+                        ? -1
+                        : getOffset(axes[j], (Comparable) value);
+                    break;
+                }
+                if (value != null) {
+                    if (offset < 0) {
+                        throw unmatchedValue(groupingSetsList, j, value);
+                    }
+                    pos[k++] = offset;
+                } else if (useGroupingSet
+                    && groupingBitKey.get(
+                        groupingSetsList.findGroupingFunctionIndex(j)))
+                {
+                    // Column is rolled up in this row's grouping set.
+                } else {
+                    if (nullOrdinals[j] < 0) {
+                        throw unmatchedValue(groupingSetsList, j, null);
+                    }
+                    pos[k++] = nullOrdinals[j];
+                }
+            }
+            row.clear();
+            row.createRow();
+            readMeasures(rawRows, types, row, arity, numeric);
+            for (int j = 0; j < segmentLength; j++) {
+                cohort.segmentDatasetList.get(j).populateFrom(
+                    pos, row, arity + j);
+            }
+        }
+    }
+
+    /**
+     * Returns the ordinal of a value on an axis, or -1.
+     *
+     * <p>The first pass over the rows gives values that compare equal, such
+     * as {@code BigDecimal}s 1.0 and 1.00, the same ordinal, and keeps only
+     * one of them on the axis. If the value is not found by equality, it is
+     * therefore looked for by comparison among the sorted keys.</p>
+     */
+    private static int getOffset(SegmentAxis axis, Comparable value) {
+        final int offset = axis.getOffset(value);
+        if (offset >= 0) {
+            return offset;
+        }
+        int lo = 0;
+        int hi = axis.getKeyCount() - 1;
+        if (hi >= 0 && axis.getKey(hi) == RolapUtil.sqlNullValue) {
+            --hi;
+        }
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            //noinspection unchecked
+            final int c = axis.getKey(mid).compareTo(value);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the error thrown when the second pass over the rows of a
+     * segment finds an axis value that the first pass did not. The data
+     * may have changed between the two executions of the statement; the
+     * cells cannot be placed, so the load fails rather than caching wrong
+     * values.
+     */
+    private static RuntimeException unmatchedValue(
+        GroupingSetsList groupingSetsList,
+        int axis,
+        Object value)
+    {
+        return Util.newError(
+            "Value " + (value == null ? "null" : "'" + value + "'")
+            + " of column "
+            + groupingSetsList.getDefaultColumns()[axis].getName()
+            + " was not read by the first pass over the rows of the segment;"
+            + " the data may have changed while the segment was loading");
+    }
+
     private boolean setAxisDataAndDecideSparseUse(
         SortedSet<Comparable>[] axisValueSets,
         boolean[] axisContainsNull,
         GroupingSetsList groupingSetsList,
-        RowList rows)
+        RowList rows,
+        int rowCount)
     {
         SegmentAxis[] axes = groupingSetsList.getDefaultAxes();
         RolapStar.Column[] allColumns = groupingSetsList.getDefaultColumns();
@@ -390,7 +952,7 @@ public class SegmentLoader {
                     groupingSetsList.getDefaultPredicates()[i],
                     valueSet,
                     axisContainsNull[i]);
-            int size = axes[i].getKeys().length;
+            int size = axes[i].getKeyCount();
             setAxisDataToGroupableList(
                 groupingSetsList,
                 valueSet,
@@ -404,6 +966,9 @@ public class SegmentLoader {
                 sparse = true;
             }
         }
+        if (rows == null) {
+            return sparse || useSparse((double) n, (double) rowCount);
+        }
         return useSparse(sparse, n, rows);
     }
 
@@ -415,7 +980,9 @@ public class SegmentLoader {
     private void setDataToSegments(
         GroupingSetsList groupingSetsList,
         Map<BitKey, GroupingSetsList.Cohort> datasetsMap,
-        Map<Segment, SegmentWithData> segmentSlotMap)
+        Map<Segment, SegmentWithData> segmentSlotMap,
+        long loadMillis,
+        boolean cache)
     {
         List<GroupingSet> groupingSets = groupingSetsList.getGroupingSets();
         for (int i = 0; i < groupingSets.size(); i++) {
@@ -434,28 +1001,17 @@ public class SegmentLoader {
                         cohort.axes);
 
                 segmentSlotMap.put(segment, segmentWithData);
-
-                final SegmentHeader header = segmentWithData.getHeader();
-                final SegmentBody body =
-                    segmentWithData.getData().createSegmentBody(
-                        new AbstractList<
-                                Pair<SortedSet<Comparable>, Boolean>>()
-                        {
-                            public Pair<SortedSet<Comparable>, Boolean> get(
-                                int index)
-                            {
-                                return segmentWithData.axes[index]
-                                    .getValuesAndIndicator();
-                            }
-
-                            public int size() {
-                                return segmentWithData.axes.length;
-                            }
-                        });
+                if (!cache) {
+                    continue;
+                }
 
                 // Send a message to the agg manager. It will place the segment
                 // in the index.
-                cacheSegment(segment.star, header, body);
+                cacheSegment(
+                    segment.star,
+                    segmentWithData.getHeader(),
+                    createBody(segmentWithData),
+                    loadMillis);
             }
         }
     }
@@ -494,7 +1050,7 @@ public class SegmentLoader {
     private int calculateMaxDataSize(SegmentAxis[] axes) {
         int n = 1;
         for (SegmentAxis axis : axes) {
-            n *= axis.getKeys().length;
+            n *= axis.getKeyCount();
         }
         return n;
     }
@@ -558,7 +1114,7 @@ public class SegmentLoader {
         final GroupingSetsList groupingSetsList,
         List<StarPredicate> compoundPredicateList)
     {
-        RolapStar star = groupingSetsList.getStar();
+        final RolapStar star = groupingSetsList.getStar();
         Pair<String, List<SqlStatement.Type>> pair =
             AggregationManager.generateSql(
                 groupingSetsList, compoundPredicateList);
@@ -577,6 +1133,7 @@ public class SegmentLoader {
             new Util.Functor1<Void, Statement>() {
                 public Void apply(final Statement stmt) {
                     cacheMgr.execute(
+                        star,
                         new SegmentCacheManager.Command<Void>() {
                             public Void call() throws Exception {
                                 boolean atLeastOneActive = false;
@@ -653,6 +1210,42 @@ public class SegmentLoader {
         final boolean[] axisContainsNull,
         final SortedSet<Comparable>[] axisValueSets,
         final GroupingSetsList groupingSetsList) throws SQLException
+    {
+        return processData(
+            stmt, axisContainsNull, axisValueSets, groupingSetsList, 0);
+    }
+
+    /**
+     * Reads the rows of a segment SQL statement in a single pass.
+     *
+     * <p>Each distinct value of an axis column is given a code by an
+     * {@link AxisDictionary}, and the row holds the code, as an {@code int},
+     * rather than the value. Measure values are held in primitive columns.
+     * When all rows have been read, the distinct values of each axis are
+     * sorted into {@code axisValueSets}, and the codes in the rows are
+     * replaced with the ordinals of the values in the sorted axes. The
+     * returned rows therefore need no further lookups to be loaded into
+     * datasets.</p>
+     *
+     * <p>If {@code bufferedRowLimit} is positive and the statement returns
+     * more rows than that, stops buffering rows, reads the remaining rows
+     * only to find the axis values, and returns null. The caller must then
+     * read the rows again.</p>
+     *
+     * @param stmt Statement
+     * @param axisContainsNull Output; whether each axis contains null
+     * @param axisValueSets Output; the distinct values of each axis
+     * @param groupingSetsList Grouping sets
+     * @param bufferedRowLimit Maximum number of rows to buffer, or 0
+     * @return Rows, or null if there were too many rows to buffer
+     * @throws SQLException on error
+     */
+    RowList processData(
+        SqlStatement stmt,
+        final boolean[] axisContainsNull,
+        final SortedSet<Comparable>[] axisValueSets,
+        final GroupingSetsList groupingSetsList,
+        int bufferedRowLimit) throws SQLException
     {
         List<Segment> segments = groupingSetsList.getDefaultSegments();
         int measureCount = segments.size();
@@ -662,23 +1255,40 @@ public class SegmentLoader {
         int arity = axisValueSets.length;
         final int groupingColumnStartIndex = arity + measureCount;
 
-        // If we're using grouping sets, the SQL query will have a number of
-        // indicator columns, and we roll these into a single BitSet column in
-        // the processed data set.
-        final List<SqlStatement.Type> processedTypes;
+        // Axis columns hold codes. If we're using grouping sets, the SQL
+        // query will have a number of indicator columns, and we roll these
+        // into a single BitSet column in the processed data set.
+        final List<SqlStatement.Type> processedTypes =
+            new ArrayList<SqlStatement.Type>(
+                Collections.nCopies(arity, SqlStatement.Type.INT));
+        processedTypes.addAll(types.subList(arity, groupingColumnStartIndex));
         if (groupingSetsList.useGroupingSets()) {
-            processedTypes =
-                new ArrayList<SqlStatement.Type>(
-                    types.subList(0, groupingColumnStartIndex));
             processedTypes.add(SqlStatement.Type.OBJECT);
-        } else {
-            processedTypes = types;
         }
-        final RowList processedRows = new RowList(processedTypes, 100);
+        RowList processedRows = new RowList(processedTypes, 100);
+
+        final AxisDictionary[] dictionaries = new AxisDictionary[arity];
+        for (int i = 0; i < arity; i++) {
+            dictionaries[i] = new AxisDictionary();
+        }
+        final boolean[] numeric = numericMeasures(segments);
+
+        // Rows of the same grouping set share a bit key.
+        final Map<BitKey, BitKey> rollupBitKeys = new HashMap<BitKey, BitKey>();
 
         while (rawRows.next()) {
             checkResultLimit(++stmt.rowCount);
-            processedRows.createRow();
+            if (processedRows != null
+                && bufferedRowLimit > 0
+                && stmt.rowCount > bufferedRowLimit)
+            {
+                // Too many rows. Keep reading, to find the axis values, but
+                // release the rows read so far.
+                processedRows = null;
+            }
+            if (processedRows != null) {
+                processedRows.createRow();
+            }
 
             // get the columns
             int columnIndex = 0;
@@ -686,154 +1296,193 @@ public class SegmentLoader {
                  axisIndex++, columnIndex++)
             {
                 final SqlStatement.Type type = types.get(columnIndex);
+                final AxisDictionary dictionary = dictionaries[axisIndex];
+                final int code;
                 switch (type) {
                 case OBJECT:
                 case STRING:
                     Object o = rawRows.getObject(columnIndex + 1);
                     if (o == null) {
-                        o = RolapUtil.sqlNullValue;
-                        if (!groupingSetsList.useGroupingSets()
-                            || !isAggregateNull(
-                                rawRows, groupingColumnStartIndex,
-                            groupingSetsList,
-                            axisIndex))
-                        {
-                            axisContainsNull[axisIndex] = true;
-                        }
+                        code = -1;
                     } else {
                         // We assume that all values are Comparable. Boolean
                         // wasn't Comparable until JDK 1.5, but we can live with
                         // that bug because JDK 1.4 is no longer important.
-                        axisValueSets[axisIndex].add((Comparable) o);
+                        code = dictionary.code((Comparable) o);
                     }
-                    processedRows.setObject(columnIndex, o);
                     break;
                 case INT:
                     final int intValue = rawRows.getInt(columnIndex + 1);
                     if (intValue == 0 && rawRows.wasNull()) {
-                        if (!groupingSetsList.useGroupingSets()
-                            || !isAggregateNull(
-                                rawRows, groupingColumnStartIndex,
-                            groupingSetsList,
-                            axisIndex))
-                        {
-                            axisContainsNull[axisIndex] = true;
-                        }
-                        processedRows.setNull(columnIndex, true);
+                        code = -1;
                     } else {
-                        axisValueSets[axisIndex].add(intValue);
-                        processedRows.setInt(columnIndex, intValue);
+                        code = dictionary.code(intValue);
                     }
                     break;
                 case LONG:
                     final long longValue = rawRows.getLong(columnIndex + 1);
                     if (longValue == 0 && rawRows.wasNull()) {
-                        if (!groupingSetsList.useGroupingSets()
-                            || !isAggregateNull(
-                                rawRows,
-                                groupingColumnStartIndex,
-                                groupingSetsList,
-                                axisIndex))
-                        {
-                            axisContainsNull[axisIndex] = true;
-                        }
-                        processedRows.setNull(columnIndex, true);
+                        code = -1;
                     } else {
-                        axisValueSets[axisIndex].add(longValue);
-                        processedRows.setLong(columnIndex, longValue);
+                        code = dictionary.code(longValue);
                     }
                     break;
                 case DOUBLE:
                     final double doubleValue =
                         rawRows.getDouble(columnIndex + 1);
                     if (doubleValue == 0 && rawRows.wasNull()) {
-                        if (!groupingSetsList.useGroupingSets()
-                            || !isAggregateNull(
-                                rawRows, groupingColumnStartIndex,
-                            groupingSetsList,
-                            axisIndex))
-                        {
-                            axisContainsNull[axisIndex] = true;
-                        }
+                        code = -1;
+                    } else {
+                        code = dictionary.code(doubleValue);
                     }
-                    axisValueSets[axisIndex].add(doubleValue);
-                    processedRows.setDouble(columnIndex, doubleValue);
                     break;
                 default:
                     throw Util.unexpected(type);
                 }
-            }
-
-            // pre-compute which measures are numeric
-            final boolean[] numeric = new boolean[measureCount];
-            int k = 0;
-            for (Segment segment : segments) {
-                numeric[k++] = segment.measure.getDatatype().isNumeric();
-            }
-
-            // get the measure
-            for (int i = 0; i < measureCount; i++, columnIndex++) {
-                final SqlStatement.Type type =
-                    types.get(columnIndex);
-                switch (type) {
-                case OBJECT:
-                case STRING:
-                    Object o = rawRows.getObject(columnIndex + 1);
-                    if (o == null) {
-                        o = Util.nullValue; // convert to placeholder
-                    } else if (numeric[i]) {
-                        if (o instanceof Double) {
-                            // nothing to do
-                        } else if (o instanceof Number) {
-                            o = ((Number) o).doubleValue();
-                        } else if (o instanceof byte[]) {
-                            // On MySQL 5.0 in German locale, values can come
-                            // out as byte arrays. Don't know why. Bug 1594119.
-                            o = Double.parseDouble(new String((byte[]) o));
-                        } else {
-                            o = Double.parseDouble(o.toString());
-                        }
-                    }
-                    processedRows.setObject(columnIndex, o);
-                    break;
-                case INT:
-                    final int intValue = rawRows.getInt(columnIndex + 1);
-                    processedRows.setInt(columnIndex, intValue);
-                    if (intValue == 0 && rawRows.wasNull()) {
-                        processedRows.setNull(columnIndex, true);
+                if (code < 0) {
+                    if (!groupingSetsList.useGroupingSets()
+                        || !isAggregateNull(
+                            rawRows, groupingColumnStartIndex,
+                            groupingSetsList,
+                            axisIndex))
+                    {
+                        axisContainsNull[axisIndex] = true;
                     }
-                    break;
-                case LONG:
-                    final long longValue = rawRows.getLong(columnIndex + 1);
-                    processedRows.setLong(columnIndex, longValue);
-                    if (longValue == 0 && rawRows.wasNull()) {
+                    if (processedRows != null) {
                         processedRows.setNull(columnIndex, true);
                     }
-                    break;
-                case DOUBLE:
-                    final double doubleValue =
-                        rawRows.getDouble(columnIndex + 1);
-                    processedRows.setDouble(columnIndex, doubleValue);
-                    if (doubleValue == 0 && rawRows.wasNull()) {
-                        processedRows.setNull(columnIndex, true);
-                    }
-                    break;
-                default:
-                    throw Util.unexpected(type);
+                } else if (processedRows != null) {
+                    processedRows.setInt(columnIndex, code);
                 }
             }
 
+            if (processedRows == null) {
+                continue;
+            }
+
+            // get the measure
+            columnIndex =
+                readMeasures(
+                    rawRows, types, processedRows, columnIndex, numeric);
+
             if (groupingSetsList.useGroupingSets()) {
-                processedRows.setObject(
-                    columnIndex,
+                final BitKey bitKey =
                     getRollupBitKey(
                         groupingSetsList.getRollupColumns().size(),
-                        rawRows, columnIndex));
+                        rawRows, columnIndex);
+                BitKey sharedBitKey = rollupBitKeys.get(bitKey);
+                if (sharedBitKey == null) {
+                    sharedBitKey = bitKey;
+                    rollupBitKeys.put(bitKey, bitKey);
+                }
+                processedRows.setObject(columnIndex, sharedBitKey);
+            }
+        }
+
+        // Sort the values of each axis, and convert the codes in the rows to
+        // ordinals.
+        final int[][] ordinals = new int[arity][];
+        for (int i = 0; i < arity; i++) {
+            ordinals[i] = dictionaries[i].sort(axisValueSets[i]);
+        }
+        if (processedRows != null) {
+            for (processedRows.first(); processedRows.next();) {
+                for (int i = 0; i < arity; i++) {
+                    if (!processedRows.isNull(i)) {
+                        processedRows.setInt(
+                            i, ordinals[i][processedRows.getInt(i)]);
+                    }
+                }
             }
         }
         return processedRows;
     }
 
+    private static boolean[] numericMeasures(List<Segment> segments) {
+        final boolean[] numeric = new boolean[segments.size()];
+        int k = 0;
+        for (Segment segment : segments) {
+            // The values of an approximate distinct-count measure are keys,
+            // whatever the datatype of the measure.
+            numeric[k++] = segment.measure.getDatatype().isNumeric()
+                && segment.measure.getAggregator()
+                != RolapAggregator.ApproxDistinctCount;
+        }
+        return numeric;
+    }
+
+    /**
+     * Reads the measure values of the current row of a result set into the
+     * current row of a row list.
+     *
+     * @param rawRows Result set
+     * @param types Types of the columns of the result set
+     * @param rows Row list
+     * @param columnIndex Index of the first measure column
+     * @param numeric Whether each measure is numeric
+     * @return Index of the column after the last measure
+     * @throws SQLException on error
+     */
+    private static int readMeasures(
+        ResultSet rawRows,
+        List<SqlStatement.Type> types,
+        RowList rows,
+        int columnIndex,
+        boolean[] numeric) throws SQLException
+    {
+        for (int i = 0; i < numeric.length; i++, columnIndex++) {
+            final SqlStatement.Type type =
+                types.get(columnIndex);
+            switch (type) {
+            case OBJECT:
+            case STRING:
+                Object o = rawRows.getObject(columnIndex + 1);
+                if (o == null) {
+                    o = Util.nullValue; // convert to placeholder
+                } else if (numeric[i]) {
+                    if (o instanceof Double) {
+                        // nothing to do
+                    } else if (o instanceof Number) {
+                        o = ((Number) o).doubleValue();
+                    } else if (o instanceof byte[]) {
+                        // On MySQL 5.0 in German locale, values can come
+                        // out as byte arrays. Don't know why. Bug 1594119.
+                        o = Double.parseDouble(new String((byte[]) o));
+                    } else {
+                        o = Double.parseDouble(o.toString());
+                    }
+                }
+                rows.setObject(columnIndex, o);
+                break;
+            case INT:
+                final int intValue = rawRows.getInt(columnIndex + 1);
+                rows.setInt(columnIndex, intValue);
+                if (intValue == 0 && rawRows.wasNull()) {
+                    rows.setNull(columnIndex, true);
+                }
+                break;
+            case LONG:
+                final long longValue = rawRows.getLong(columnIndex + 1);
+                rows.setLong(columnIndex, longValue);
+                if (longValue == 0 && rawRows.wasNull()) {
+                    rows.setNull(columnIndex, true);
+                }
+                break;
+            case DOUBLE:
+                final double doubleValue =
+                    rawRows.getDouble(columnIndex + 1);
+                rows.setDouble(columnIndex, doubleValue);
+                if (doubleValue == 0 && rawRows.wasNull()) {
+                    rows.setNull(columnIndex, true);
+                }
+                break;
+            default:
+                throw Util.unexpected(type);
+            }
+        }
+        return columnIndex;
+    }
+
     private void checkResultLimit(int currentCount) {
         final int limit =
             MondrianProperties.instance().ResultLimit.get();
@@ -969,6 +1618,145 @@ public class SegmentLoader {
         }
     }
 
+    /**
+     * Assigns a code to each distinct value of an axis column, in order of
+     * arrival, so that a row being loaded can hold an {@code int} per axis
+     * rather than a value object.
+     *
+     * <p>Values of type {@code int} are looked up in an open-addressing hash
+     * table of primitives, so only the first occurrence of each value is
+     * boxed.</p>
+     */
+    static class AxisDictionary {
+        private final Map<Comparable, Integer> map =
+            new HashMap<Comparable, Integer>();
+        private final List<Comparable> values = new ArrayList<Comparable>();
+
+        private int[] intKeys = new int[16];
+        /** Code plus one of each slot of {@link #intKeys}; 0 if empty. */
+        private int[] intCodes = new int[16];
+        private int intCount;
+
+        /**
+         * Returns the code of a value, assigning a new code if the value
+         * has not been seen before.
+         */
+        int code(Comparable value) {
+            Integer code = map.get(value);
+            if (code == null) {
+                code = values.size();
+                map.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        /**
+         * Returns the code of an {@code int} value, assigning a new code if
+         * the value has not been seen before.
+         */
+        int code(int value) {
+            int mask = intKeys.length - 1;
+            int slot = hash(value) & mask;
+            for (;;) {
+                final int code = intCodes[slot] - 1;
+                if (code < 0) {
+                    break;
+                }
+                if (intKeys[slot] == value) {
+                    return code;
+                }
+                slot = (slot + 1) & mask;
+            }
+            final int code = values.size();
+            values.add(value);
+            intKeys[slot] = value;
+            intCodes[slot] = code + 1;
+            if (++intCount * 2 > intKeys.length) {
+                rehash();
+            }
+            return code;
+        }
+
+        private static int hash(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private void rehash() {
+            final int[] oldKeys = intKeys;
+            final int[] oldCodes = intCodes;
+            intKeys = new int[oldKeys.length * 2];
+            intCodes = new int[oldKeys.length * 2];
+            final int mask = intKeys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCodes[i] != 0) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (intCodes[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    intKeys[slot] = oldKeys[i];
+                    intCodes[slot] = oldCodes[i];
+                }
+            }
+        }
+
+        /**
+         * Adds the values to a sorted set, and returns an array that maps
+         * each code to the ordinal of its value in the set.
+         *
+         * <p>Values that are distinct by {@code equals} but equal by the
+         * set's comparator (for instance {@code 1.0} and {@code 1.00} as
+         * {@link java.math.BigDecimal}) receive the same ordinal.</p>
+         *
+         * @param valueSet Sorted set; must be empty
+         * @return Map from code to ordinal
+         */
+        int[] sort(SortedSet<Comparable> valueSet) {
+            assert valueSet.isEmpty();
+            final Comparator<? super Comparable> comparator =
+                valueSet.comparator();
+            final Integer[] codes = new Integer[values.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = i;
+            }
+            Arrays.sort(
+                codes,
+                new Comparator<Integer>() {
+                    public int compare(Integer o1, Integer o2) {
+                        return AxisDictionary.compare(
+                            comparator, values.get(o1), values.get(o2));
+                    }
+                });
+            final int[] ordinals = new int[codes.length];
+            Comparable previous = null;
+            int ordinal = -1;
+            for (Integer code : codes) {
+                final Comparable value = values.get(code);
+                if (previous == null
+                    || compare(comparator, previous, value) != 0)
+                {
+                    valueSet.add(value);
+                    previous = value;
+                    ++ordinal;
+                }
+                ordinals[code] = ordinal;
+            }
+            return ordinals;
+        }
+
+        @SuppressWarnings({"unchecked"})
+        private static int compare(
+            Comparator<? super Comparable> comparator,
+            Comparable o1,
+            Comparable o2)
+        {
+            return comparator == null
+                ? o1.compareTo(o2)
+                : comparator.compare(o1, o2);
+        }
+    }
+
     /**
      * Collection of rows, each with a set of columns of type Object, double, or
      * int. Native types are not boxed.
@@ -1117,6 +1905,17 @@ public class SegmentLoader {
             columns[columnIndex].setNull(currentRow, b);
         }
 
+        /**
+         * Removes all rows, keeping the allocated capacity.
+         */
+        void clear() {
+            rowCount = 0;
+            currentRow = -1;
+            for (Column column : columns) {
+                column.clear();
+            }
+        }
+
         static abstract class Column {
             final int ordinal;
             final SqlStatement.Type type;
@@ -1148,6 +1947,12 @@ public class SegmentLoader {
 
             public abstract void resize(int newSize);
 
+            /**
+             * Resets the null indicators, if any, of all rows.
+             */
+            public void clear() {
+            }
+
             public void setObject(int row, Object value) {
                 throw new UnsupportedOperationException();
             }
@@ -1234,6 +2039,12 @@ public class SegmentLoader {
                 getNullIndicators().set(row, b);
             }
 
+            public void clear() {
+                if (nullIndicators != null) {
+                    nullIndicators.clear();
+                }
+            }
+
             protected BitSet getNullIndicators() {
                 if (nullIndicators == null) {
                     nullIndicators = new BitSet(getCapacity());
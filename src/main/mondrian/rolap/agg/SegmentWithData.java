@@ -11,6 +11,7 @@ package mondrian.rolap.agg;
 
 import mondrian.olap.Util;
 import mondrian.rolap.*;
+import mondrian.util.HyperLogLog;
 
 import java.util.*;
 
@@ -179,6 +180,11 @@ public class SegmentWithData extends Segment {
             Object o = data.getObject(cellKey);
             if (o == null) {
                 o = Util.nullValue;
+            } else if (o instanceof HyperLogLog) {
+                // Cell of an approximate distinct-count measure. Its value is
+                // the estimate; the sketch is only needed to roll up.
+                o = (int) Math.min(
+                    Integer.MAX_VALUE, ((HyperLogLog) o).estimate());
             }
             return o;
         }
@@ -213,7 +219,7 @@ public class SegmentWithData extends Segment {
     public int getCellCount() {
         int cellCount = 1;
         for (SegmentAxis axis : axes) {
-            cellCount *= axis.getKeys().length;
+            cellCount *= axis.getKeyCount();
         }
         for (ExcludedRegion excludedRegion : excludedRegions) {
             cellCount -= excludedRegion.getCellCount();
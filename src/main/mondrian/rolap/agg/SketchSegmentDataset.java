@@ -0,0 +1,51 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.CellKey;
+import mondrian.rolap.RolapAggregator;
+import mondrian.util.HyperLogLog;
+
+/**
+ * Segment dataset for a measure whose aggregator is
+ * {@link RolapAggregator#ApproxDistinctCount}.
+ *
+ * <p>The SQL statement returns a row for each distinct key of each cell,
+ * rather than one row per cell. Each cell holds a {@link HyperLogLog} sketch,
+ * and each row adds its key to the sketch of its cell. A row whose key is
+ * null creates the cell but adds nothing to it, just as
+ * <code>count(distinct ...)</code> ignores nulls.</p>
+ */
+class SketchSegmentDataset extends SparseSegmentDataset {
+    /**
+     * Creates an empty SketchSegmentDataset.
+     */
+    SketchSegmentDataset() {
+        super();
+    }
+
+    public void populateFrom(
+        int[] pos, SegmentLoader.RowList rowList, int column)
+    {
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        HyperLogLog sketch = (HyperLogLog) getObject(key);
+        if (sketch == null) {
+            sketch = new HyperLogLog();
+            put(key, sketch);
+        }
+        final Object o = rowList.getObject(column);
+        if (o != null && o != Util.nullValue) {
+            sketch.add(o);
+        }
+    }
+}
+
+// End SketchSegmentDataset.java
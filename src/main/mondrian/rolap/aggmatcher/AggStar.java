@@ -90,6 +90,13 @@ public class AggStar {
              it.hasNext();)
         {
             JdbcSchema.Table.Column.Usage usage = it.next();
+            if (usage.getAggregator() == RolapAggregator.ApproxDistinctCount)
+            {
+                // An aggregate table holds counts, not the distinct keys
+                // that an approx-distinct-count sketch is built from, so the
+                // measure is always read from the fact table.
+                continue;
+            }
             aggStarFactTable.loadMeasure(usage);
         }
 
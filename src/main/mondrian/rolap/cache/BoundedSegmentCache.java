@@ -0,0 +1,379 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.agg.SegmentBuilder;
+import mondrian.spi.*;
+import mondrian.util.FrequencySketch;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
+ * in memory, within a budget of bytes.
+ *
+ * <p>Unlike {@link MemorySegmentCache}, which lets the garbage collector
+ * discard segments, this cache holds segments strongly, estimates the size
+ * of each body using {@link SegmentBuilder#estimateSize(SegmentBody)}, and
+ * decides itself which segments to keep.</p>
+ *
+ * <p>When a new segment does not fit, the cache chooses as victims the least
+ * recently used segments that would make enough room, and applies a
+ * frequency-aware admission policy in the style of TinyLFU: the new segment
+ * is admitted only if its value is greater than the combined value of the
+ * victims; otherwise the victims stay and the new segment is not cached.
+ * The value of a segment is its estimated recent frequency of access, from
+ * a {@link FrequencySketch} that counts requests for segments whether or not
+ * they are in the cache, multiplied by the time it took to load the segment
+ * from SQL. So expensive, frequently used segments are kept, and a large
+ * segment that is used only once, such as the result of a drill-through,
+ * does not flush the working set.</p>
+ *
+ * <p>This cache is used as the local cache if
+ * {@link MondrianProperties#SegmentCacheSize} is positive (and
+ * {@link MondrianProperties#OffHeapSegmentCacheSize} is not).</p>
+ */
+public class BoundedSegmentCache implements EvictingSegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(BoundedSegmentCache.class);
+
+    /**
+     * Maximum number of load times to remember for segments that have not
+     * yet been put into the cache.
+     */
+    private static final int MAX_PENDING_LOAD_TIMES = 1000;
+
+    private final long maxBytes;
+
+    /**
+     * Map from header to entry, in order of access, least recently used
+     * first. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<SegmentHeader, Entry> map =
+        new LinkedHashMap<SegmentHeader, Entry>(16, 0.75f, true);
+
+    /**
+     * Load times recorded by {@link #recordLoadTime} for segments that are
+     * about to be put into the cache. Guarded by {@code this}.
+     */
+    private final Map<SegmentHeader, Long> pendingLoadTimes =
+        new HashMap<SegmentHeader, Long>();
+
+    /**
+     * Recent frequency of requests for each segment. Guarded by
+     * {@code this}.
+     */
+    private final FrequencySketch<SegmentHeader> sketch;
+
+    /**
+     * Estimated number of bytes in all segments in {@link #map}. Guarded by
+     * {@code this}.
+     */
+    private long byteCount;
+
+    /** Number of segments that were not admitted. Guarded by {@code this}. */
+    private long rejectCount;
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    private final List<SegmentCacheListener> evictionListeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates a BoundedSegmentCache whose size is given by
+     * {@link MondrianProperties#SegmentCacheSize}.
+     */
+    public BoundedSegmentCache() {
+        this(
+            MondrianProperties.instance().SegmentCacheSize.get()
+            * 1024L * 1024L);
+    }
+
+    /**
+     * Creates a BoundedSegmentCache with a given budget.
+     *
+     * @param maxBytes Maximum estimated number of bytes of segments to hold
+     */
+    public BoundedSegmentCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                "maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        // Size the sketch for the number of segments of 16KB that would fit.
+        this.sketch =
+            new FrequencySketch<SegmentHeader>(
+                (int) Math.max(256, Math.min(1 << 20, maxBytes >> 14)));
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        final Entry entry;
+        synchronized (this) {
+            sketch.increment(header);
+            entry = map.get(header);
+        }
+        return entry == null ? null : entry.body;
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    /**
+     * Records how long it took to load a segment. Call this before putting
+     * the segment into the cache; the admission policy uses it to estimate
+     * how costly it would be to lose the segment.
+     *
+     * @param header Segment header
+     * @param millis Time taken to load the segment, in milliseconds
+     */
+    public synchronized void recordLoadTime(SegmentHeader header, long millis) {
+        if (pendingLoadTimes.size() >= MAX_PENDING_LOAD_TIMES) {
+            // Segments that were loaded but never put; forget them.
+            pendingLoadTimes.clear();
+        }
+        pendingLoadTimes.put(header, millis);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Returns false if the admission policy decides not to keep the
+     * segment. Segments evicted to make room for it are reported to
+     * listeners, and to eviction listeners, as deleted.</p>
+     */
+    public boolean put(final SegmentHeader header, SegmentBody body) {
+        assert header != null;
+        assert body != null;
+        // Estimate outside the lock.
+        final long bytes = SegmentBuilder.estimateSize(body);
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        boolean admitted;
+        synchronized (this) {
+            sketch.increment(header);
+            final Long loadMillis = pendingLoadTimes.remove(header);
+            final Entry entry =
+                new Entry(body, bytes, loadMillis == null ? 0 : loadMillis);
+            final Entry previous = map.remove(header);
+            if (previous != null) {
+                byteCount -= previous.bytes;
+            }
+            admitted = admit(header, entry, evicted);
+            if (admitted) {
+                map.put(header, entry);
+                byteCount += bytes;
+            } else {
+                ++rejectCount;
+                if (previous != null) {
+                    evicted.add(header);
+                }
+            }
+        }
+        if (!admitted) {
+            LOGGER.debug(
+                "Segment of " + bytes + " bytes not admitted to cache: "
+                + header.getUniqueID());
+        } else {
+            fireSegmentCacheEvent(
+                header,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_CREATED);
+        }
+        for (SegmentHeader evictedHeader : evicted) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+            fireEvictionEvent(evictedHeader);
+        }
+        return admitted;
+    }
+
+    /**
+     * Decides whether to admit a segment, and if so, removes the victims
+     * that make room for it. Must be called while holding the lock.
+     *
+     * @param header Header of new segment
+     * @param entry Entry for new segment
+     * @param evicted List to which to add the headers of evicted segments
+     * @return Whether the segment was admitted
+     */
+    private boolean admit(
+        SegmentHeader header,
+        Entry entry,
+        List<SegmentHeader> evicted)
+    {
+        if (entry.bytes > maxBytes) {
+            return false;
+        }
+        long excess = byteCount + entry.bytes - maxBytes;
+        if (excess <= 0) {
+            return true;
+        }
+        // Choose victims in order of least recent use, until there is room.
+        final List<Map.Entry<SegmentHeader, Entry>> victims =
+            new ArrayList<Map.Entry<SegmentHeader, Entry>>();
+        long victimValue = 0;
+        final long value = value(header, entry);
+        for (Map.Entry<SegmentHeader, Entry> victim : map.entrySet()) {
+            victims.add(victim);
+            victimValue += value(victim.getKey(), victim.getValue());
+            excess -= victim.getValue().bytes;
+            if (excess <= 0 || victimValue >= value) {
+                break;
+            }
+        }
+        if (victimValue >= value) {
+            return false;
+        }
+        for (Map.Entry<SegmentHeader, Entry> victim : victims) {
+            evicted.add(victim.getKey());
+            byteCount -= victim.getValue().bytes;
+        }
+        // Remove after iterating; removing from an access-ordered map while
+        // iterating its entries would fail.
+        for (SegmentHeader victim : evicted) {
+            map.remove(victim);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the value of keeping a segment in the cache: its recent
+     * frequency multiplied by the cost of loading it again.
+     */
+    private long value(SegmentHeader header, Entry entry) {
+        return (long) sketch.frequency(header) * (1 + entry.loadMillis);
+    }
+
+    public boolean remove(final SegmentHeader header) {
+        synchronized (this) {
+            final Entry entry = map.remove(header);
+            if (entry == null) {
+                return false;
+            }
+            byteCount -= entry.bytes;
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED);
+        return true;
+    }
+
+    /**
+     * Returns the estimated number of bytes of segments currently held.
+     *
+     * @return Number of bytes
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the number of segments that the admission policy has declined
+     * to cache.
+     *
+     * @return Number of segments not admitted
+     */
+    public synchronized long getRejectCount() {
+        return rejectCount;
+    }
+
+    public void tearDown() {
+        synchronized (this) {
+            map.clear();
+            pendingLoadTimes.clear();
+            byteCount = 0;
+        }
+        listeners.clear();
+        evictionListeners.clear();
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addEvictionListener(SegmentCacheListener listener) {
+        evictionListeners.add(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    private void fireSegmentCacheEvent(
+        SegmentHeader header,
+        SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        fireSegmentCacheEvent(header, eventType, listeners);
+    }
+
+    private void fireEvictionEvent(SegmentHeader header) {
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED,
+            evictionListeners);
+    }
+
+    private static void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType,
+        List<SegmentCacheListener> listeners)
+    {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final SegmentCacheListener.SegmentCacheEvent event =
+            new SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            };
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(event);
+        }
+    }
+
+    /**
+     * Cached segment body, with its estimated size and its load time.
+     */
+    private static class Entry {
+        final SegmentBody body;
+        final long bytes;
+        final long loadMillis;
+
+        Entry(SegmentBody body, long bytes, long loadMillis) {
+            this.body = body;
+            this.bytes = bytes;
+            this.loadMillis = loadMillis;
+        }
+    }
+}
+
+// End BoundedSegmentCache.java
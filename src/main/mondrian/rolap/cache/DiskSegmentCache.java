@@ -0,0 +1,447 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.agg.ByteBufferSegmentBody;
+import mondrian.rolap.agg.SegmentCodec;
+import mondrian.spi.*;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segments
+ * in files in a local directory, so that the cache survives a restart of the
+ * server.
+ *
+ * <p>Each segment is stored in a file whose name is the
+ * {@link SegmentHeader#getUniqueID() unique id} of its header. The file
+ * contains a magic number and a format version, the header encoded by
+ * {@link SegmentCodec}, and the body in the binary format of
+ * {@link ByteBufferSegmentBody}. Bodies are read by
+ * mapping the file into memory; cell values of numeric segments are read
+ * from the mapped region, not copied.</p>
+ *
+ * <p>On construction, the cache reads the headers of all files in the
+ * directory. Files that cannot be read, or were written in a different
+ * format version, are deleted. The cache manager registers the headers in
+ * the segment index of each star as the star is first used, and discards
+ * segments whose schema has changed since they were written; see
+ * {@link mondrian.rolap.agg.SegmentCacheManager}.</p>
+ *
+ * <p>The files occupy at most a given number of bytes. When a new segment
+ * does not fit, the least recently used segments are evicted and their
+ * files deleted. Reading a segment touches its file, so that the order of
+ * use survives a restart; segments that are never read again, such as
+ * those of a schema that has changed, are the first to be evicted.</p>
+ *
+ * <p>A file is mapped into memory when its segment is first read, and the
+ * mapping is shared by later reads.</p>
+ *
+ * <p>This cache is used if
+ * {@link MondrianProperties#DiskSegmentCacheDirectory} is set.</p>
+ */
+public class DiskSegmentCache implements SegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(DiskSegmentCache.class);
+
+    /** "MSEG" */
+    private static final int MAGIC = 0x4D534547;
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Map from header to file, in order of access, least recently used
+     * first. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<SegmentHeader, Entry> map =
+        new LinkedHashMap<SegmentHeader, Entry>(16, 0.75f, true);
+
+    /**
+     * Number of bytes in all files in {@link #map}. Guarded by
+     * {@code this}.
+     */
+    private long byteCount;
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates a DiskSegmentCache in the directory given by
+     * {@link MondrianProperties#DiskSegmentCacheDirectory}.
+     */
+    public DiskSegmentCache() {
+        this(
+            new File(
+                MondrianProperties.instance().DiskSegmentCacheDirectory
+                    .get()));
+    }
+
+    /**
+     * Creates a DiskSegmentCache in a given directory, whose size is given
+     * by {@link MondrianProperties#DiskSegmentCacheSize}, and reads the
+     * headers of the segments already there.
+     *
+     * @param directory Directory; created if it does not exist
+     */
+    public DiskSegmentCache(File directory) {
+        this(
+            directory,
+            MondrianProperties.instance().DiskSegmentCacheSize.get()
+            * 1024L * 1024L);
+    }
+
+    /**
+     * Creates a DiskSegmentCache in a given directory with a given budget,
+     * and reads the headers of the segments already there. If they occupy
+     * more than the budget, the least recently used are evicted.
+     *
+     * @param directory Directory; created if it does not exist
+     * @param maxBytes Maximum number of bytes of segment files
+     */
+    public DiskSegmentCache(File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                "maxBytes must be positive: " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw Util.newError(
+                "Cannot create segment cache directory " + directory);
+        }
+        load();
+    }
+
+    private void load() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest first, so that they are the first to be evicted.
+        Arrays.sort(
+            files,
+            new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    final long t1 = f1.lastModified();
+                    final long t2 = f2.lastModified();
+                    return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+                }
+            });
+        final List<File> evicted = new ArrayList<File>();
+        synchronized (this) {
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    // Left over from a write that did not complete.
+                    delete(file);
+                    continue;
+                }
+                if (!file.getName().endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    final Entry entry = new Entry(file);
+                    map.put(readHeader(file), entry);
+                    byteCount += entry.length;
+                } catch (Exception e) {
+                    LOGGER.warn(
+                        "Discarding unreadable segment file " + file, e);
+                    delete(file);
+                }
+            }
+            evict(null, evicted);
+        }
+        for (File file : evicted) {
+            delete(file);
+        }
+        LOGGER.debug(
+            "Read " + map.size() + " segment headers from " + directory);
+    }
+
+    private static SegmentHeader readHeader(File file) throws IOException {
+        final DataInputStream in =
+            new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a segment file");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported version " + version);
+            }
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return SegmentCodec.decodeHeader(bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        final Entry entry;
+        synchronized (this) {
+            entry = map.get(header);
+        }
+        if (entry == null) {
+            return null;
+        }
+        try {
+            final ByteBuffer buffer = entry.getBuffer();
+            if (!entry.file.setLastModified(System.currentTimeMillis())) {
+                LOGGER.debug("Cannot touch segment file " + entry.file);
+            }
+            return new ByteBufferSegmentBody(buffer);
+        } catch (IOException e) {
+            LOGGER.warn("Error while reading segment file " + entry.file, e);
+            remove(header);
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    /**
+     * Returns the number of bytes of segment files currently held.
+     *
+     * @return Number of bytes
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    public boolean put(final SegmentHeader header, SegmentBody body) {
+        assert header != null;
+        assert body != null;
+        final File file =
+            new File(directory, header.getUniqueID() + SUFFIX);
+        final File tempFile =
+            new File(directory, header.getUniqueID() + TEMP_SUFFIX);
+        try {
+            final byte[] headerBytes = SegmentCodec.encodeHeader(header);
+            final ByteBuffer bodyBuffer =
+                ByteBufferSegmentBody.encode(body, false);
+            if (12 + headerBytes.length + bodyBuffer.limit() > maxBytes) {
+                LOGGER.debug(
+                    "Segment is larger than the cache; not caching: "
+                    + header.getUniqueID());
+                return false;
+            }
+
+            final DataOutputStream out =
+                new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(headerBytes.length);
+                out.write(headerBytes);
+                out.write(
+                    bodyBuffer.array(),
+                    bodyBuffer.arrayOffset(),
+                    bodyBuffer.limit());
+            } finally {
+                out.close();
+            }
+            // Replace atomically, so that readers never see a partial file.
+            if (!tempFile.renameTo(file)) {
+                delete(file);
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("cannot rename " + tempFile);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error while writing segment file " + file, e);
+            delete(tempFile);
+            return false;
+        }
+        final List<SegmentHeader> evictedHeaders =
+            new ArrayList<SegmentHeader>();
+        final List<File> evicted = new ArrayList<File>();
+        synchronized (this) {
+            final Entry entry = new Entry(file);
+            final Entry previous = map.put(header, entry);
+            if (previous != null) {
+                byteCount -= previous.length;
+            }
+            byteCount += entry.length;
+            evictedHeaders.addAll(evict(header, evicted));
+        }
+        for (File evictedFile : evicted) {
+            delete(evictedFile);
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_CREATED);
+        for (SegmentHeader evictedHeader : evictedHeaders) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+        }
+        return true;
+    }
+
+    /**
+     * Removes least recently used entries until the files fit in the
+     * budget. Must be called while holding the lock.
+     *
+     * @param keep Header not to evict, or null
+     * @param evictedFiles List to which to add the files of evicted entries,
+     *   which the caller must delete
+     * @return Headers of evicted entries
+     */
+    private List<SegmentHeader> evict(
+        SegmentHeader keep,
+        List<File> evictedFiles)
+    {
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        final Iterator<Map.Entry<SegmentHeader, Entry>> iterator =
+            map.entrySet().iterator();
+        while (byteCount > maxBytes && iterator.hasNext()) {
+            final Map.Entry<SegmentHeader, Entry> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            byteCount -= entry.getValue().length;
+            evicted.add(entry.getKey());
+            evictedFiles.add(entry.getValue().file);
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    public boolean remove(final SegmentHeader header) {
+        final Entry entry;
+        synchronized (this) {
+            entry = map.remove(header);
+            if (entry == null) {
+                return false;
+            }
+            byteCount -= entry.length;
+        }
+        delete(entry.file);
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED);
+        return true;
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            // On some platforms, a file cannot be deleted while it is mapped.
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Does not delete the files; they will be read when the cache is next
+     * created.</p>
+     */
+    public void tearDown() {
+        synchronized (this) {
+            map.clear();
+            byteCount = 0;
+        }
+        listeners.clear();
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    private void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        final SegmentCacheListener.SegmentCacheEvent event =
+            new SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            };
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(event);
+        }
+    }
+
+    /**
+     * File of a cached segment, and the mapping of its body into memory
+     * once the segment has been read.
+     */
+    private static class Entry {
+        final File file;
+        final long length;
+        private ByteBuffer buffer;
+
+        Entry(File file) {
+            this.file = file;
+            this.length = file.length();
+        }
+
+        /**
+         * Returns the body of the segment, mapping the file on first call.
+         * The mapping remains valid after the file is closed.
+         */
+        synchronized ByteBuffer getBuffer() throws IOException {
+            if (buffer == null) {
+                final RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    raf.seek(8);
+                    final long bodyOffset = 12 + raf.readInt();
+                    final FileChannel channel = raf.getChannel();
+                    buffer =
+                        channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            bodyOffset,
+                            channel.size() - bodyOffset);
+                } finally {
+                    raf.close();
+                }
+            }
+            return buffer;
+        }
+    }
+}
+
+// End DiskSegmentCache.java
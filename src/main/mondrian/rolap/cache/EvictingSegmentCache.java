@@ -0,0 +1,37 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.spi.SegmentCache;
+
+/**
+ * Segment cache that decides itself which segments to discard, and can tell
+ * the cache manager when it does.
+ *
+ * <p>Listeners added via {@link #addListener} hear about every segment that
+ * is deleted, including segments removed by a call to {@link #remove}.
+ * Listeners added via {@link #addEvictionListener} receive an
+ * {@link SegmentCacheListener.SegmentCacheEvent.EventType#ENTRY_DELETED}
+ * event only when the cache evicts a segment of its own accord, for example
+ * to make room for another.</p>
+ */
+public interface EvictingSegmentCache extends SegmentCache {
+    /**
+     * Adds a listener that is told when this cache evicts a segment.
+     *
+     * <p>The listener is called by the thread that put the segment that
+     * caused the eviction.</p>
+     *
+     * @param listener Listener
+     */
+    void addEvictionListener(SegmentCacheListener listener);
+}
+
+// End EvictingSegmentCache.java
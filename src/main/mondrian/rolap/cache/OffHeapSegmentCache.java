@@ -0,0 +1,242 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.agg.ByteBufferSegmentBody;
+import mondrian.spi.*;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implementation of {@link mondrian.spi.SegmentCache} that stores segment
+ * bodies in direct (off-heap) byte buffers.
+ *
+ * <p>Unlike {@link MemorySegmentCache}, the cached cells do not occupy the
+ * Java heap, so a large cache does not lengthen garbage collection pauses,
+ * and segments are not discarded at the whim of the garbage collector.
+ * Instead, the cache has an explicit budget of bytes, and when a new segment
+ * does not fit, the least recently used segments are evicted.</p>
+ *
+ * <p>Bodies returned by {@link #get} are {@link ByteBufferSegmentBody}
+ * objects that share the cached buffer; cell values of numeric segments are
+ * read from the buffer, not copied. A buffer's memory is released when the
+ * segment has been evicted and no dataset uses it any more.</p>
+ *
+ * <p>This cache is used as the local cache if
+ * {@link MondrianProperties#OffHeapSegmentCacheSize} is positive. It can
+ * also be used as an external cache via
+ * {@link MondrianProperties#SegmentCache}.</p>
+ */
+public class OffHeapSegmentCache implements EvictingSegmentCache {
+    private static final Logger LOGGER =
+        Logger.getLogger(OffHeapSegmentCache.class);
+
+    private final long maxBytes;
+
+    /**
+     * Map from header to buffer, in order of access, least recently used
+     * first. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<SegmentHeader, ByteBuffer> map =
+        new LinkedHashMap<SegmentHeader, ByteBuffer>(16, 0.75f, true);
+
+    /**
+     * Number of bytes in all buffers in {@link #map}. Guarded by
+     * {@code this}.
+     */
+    private long byteCount;
+
+    private final List<SegmentCacheListener> listeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    private final List<SegmentCacheListener> evictionListeners =
+        new CopyOnWriteArrayList<SegmentCacheListener>();
+
+    /**
+     * Creates an OffHeapSegmentCache whose size is given by
+     * {@link MondrianProperties#OffHeapSegmentCacheSize}.
+     */
+    public OffHeapSegmentCache() {
+        this(
+            MondrianProperties.instance().OffHeapSegmentCacheSize.get()
+            * 1024L * 1024L);
+    }
+
+    /**
+     * Creates an OffHeapSegmentCache with a given budget.
+     *
+     * @param maxBytes Maximum number of bytes of segment data to hold
+     */
+    public OffHeapSegmentCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException(
+                "maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public SegmentBody get(SegmentHeader header) {
+        final ByteBuffer buffer;
+        synchronized (this) {
+            buffer = map.get(header);
+        }
+        if (buffer == null) {
+            return null;
+        }
+        return new ByteBufferSegmentBody(buffer);
+    }
+
+    public synchronized boolean contains(SegmentHeader header) {
+        return map.containsKey(header);
+    }
+
+    public synchronized List<SegmentHeader> getSegmentHeaders() {
+        return new ArrayList<SegmentHeader>(map.keySet());
+    }
+
+    public boolean put(final SegmentHeader header, SegmentBody body) {
+        assert header != null;
+        assert body != null;
+        // Encode outside the lock; it is the expensive part.
+        final ByteBuffer buffer = ByteBufferSegmentBody.encode(body, true);
+        if (buffer.limit() > maxBytes) {
+            LOGGER.debug(
+                "Segment of " + buffer.limit()
+                + " bytes is larger than the cache; not caching: "
+                + header.getUniqueID());
+            return false;
+        }
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        synchronized (this) {
+            final ByteBuffer previous = map.put(header, buffer);
+            if (previous != null) {
+                byteCount -= previous.limit();
+            }
+            byteCount += buffer.limit();
+            final Iterator<Map.Entry<SegmentHeader, ByteBuffer>> iterator =
+                map.entrySet().iterator();
+            while (byteCount > maxBytes && iterator.hasNext()) {
+                final Map.Entry<SegmentHeader, ByteBuffer> entry =
+                    iterator.next();
+                if (entry.getKey().equals(header)) {
+                    continue;
+                }
+                byteCount -= entry.getValue().limit();
+                evicted.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        fireSegmentCacheEvent(
+            header, SegmentCacheListener.SegmentCacheEvent.EventType
+                .ENTRY_CREATED);
+        for (SegmentHeader evictedHeader : evicted) {
+            fireSegmentCacheEvent(
+                evictedHeader,
+                SegmentCacheListener.SegmentCacheEvent.EventType
+                    .ENTRY_DELETED);
+            fireEvictionEvent(evictedHeader);
+        }
+        return true;
+    }
+
+    public boolean remove(final SegmentHeader header) {
+        synchronized (this) {
+            final ByteBuffer buffer = map.remove(header);
+            if (buffer == null) {
+                return false;
+            }
+            byteCount -= buffer.limit();
+        }
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED);
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes of segment data currently held.
+     *
+     * @return Number of bytes
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    public void tearDown() {
+        synchronized (this) {
+            map.clear();
+            byteCount = 0;
+        }
+        listeners.clear();
+        evictionListeners.clear();
+    }
+
+    public void addListener(SegmentCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SegmentCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addEvictionListener(SegmentCacheListener listener) {
+        evictionListeners.add(listener);
+    }
+
+    public boolean supportsRichIndex() {
+        return true;
+    }
+
+    private void fireSegmentCacheEvent(
+        SegmentHeader header,
+        SegmentCacheListener.SegmentCacheEvent.EventType eventType)
+    {
+        fireSegmentCacheEvent(header, eventType, listeners);
+    }
+
+    private void fireEvictionEvent(SegmentHeader header) {
+        fireSegmentCacheEvent(
+            header,
+            SegmentCacheListener.SegmentCacheEvent.EventType.ENTRY_DELETED,
+            evictionListeners);
+    }
+
+    private static void fireSegmentCacheEvent(
+        final SegmentHeader header,
+        final SegmentCacheListener.SegmentCacheEvent.EventType eventType,
+        List<SegmentCacheListener> listeners)
+    {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        final SegmentCacheListener.SegmentCacheEvent event =
+            new SegmentCacheListener.SegmentCacheEvent() {
+                public boolean isLocal() {
+                    return true;
+                }
+                public SegmentHeader getSource() {
+                    return header;
+                }
+                public EventType getEventType() {
+                    return eventType;
+                }
+            };
+        for (SegmentCacheListener listener : listeners) {
+            listener.handle(event);
+        }
+    }
+}
+
+// End OffHeapSegmentCache.java
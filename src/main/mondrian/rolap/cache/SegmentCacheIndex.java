@@ -160,6 +160,18 @@ public interface SegmentCacheIndex {
      */
     void remove(SegmentHeader header);
 
+    /**
+     * Removes a header from the index, unless it is being loaded.
+     *
+     * <p>Unlike {@link #remove}, does not flag a header that is being loaded
+     * to be removed when the load completes. Use it when a segment that was
+     * loaded earlier is no longer available, and the load in progress, if
+     * any, will make it available again.</p>
+     *
+     * @param header Segment header
+     */
+    void removeLoaded(SegmentHeader header);
+
     /**
      * Prints the state of the cache to the given writer.
      *
@@ -65,16 +65,53 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     private final Map<SegmentHeader, HeaderInfo> headerMap =
         new HashMap<SegmentHeader, HeaderInfo>();
 
-    private final Thread thread;
+    private final List<Thread> threads;
+
+    /**
+     * Ordinal to assign to the next header added; used to return headers in
+     * the order they were added.
+     */
+    private long nextOrdinal;
+
+    /**
+     * Compares column values. Consistent with the ordering of the value sets
+     * of {@link SegmentColumn}; puts the null value first, and orders values
+     * of different types, which one column should not contain, by class name
+     * rather than failing.
+     */
+    private static final Comparator<Object> VALUE_COMPARATOR =
+        new Comparator<Object>() {
+            @SuppressWarnings("unchecked")
+            public int compare(Object o1, Object o2) {
+                if (o1 == o2) {
+                    return 0;
+                }
+                if (o1 == null || o1 == RolapUtil.sqlNullValue) {
+                    return -1;
+                }
+                if (o2 == null || o2 == RolapUtil.sqlNullValue) {
+                    return 1;
+                }
+                try {
+                    return ((Comparable) o1).compareTo(o2);
+                } catch (ClassCastException e) {
+                    return o1.getClass().getName().compareTo(
+                        o2.getClass().getName());
+                }
+            }
+        };
 
     /**
      * Creates a SegmentCacheIndexImpl.
      *
-     * @param thread Thread that must be used to execute commands.
+     * @param threads Threads that may be used to execute commands. Usually
+     *   just one thread, but a sharded cache manager also executes global
+     *   commands on its first shard.
      */
-    public SegmentCacheIndexImpl(Thread thread) {
-        this.thread = thread;
-        assert thread != null;
+    public SegmentCacheIndexImpl(Thread... threads) {
+        this.threads = Arrays.asList(threads);
+        assert threads.length > 0;
+        assert !this.threads.contains(null);
     }
 
     public static List makeConverterKey(SegmentHeader header) {
@@ -112,21 +149,27 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     {
         checkThread();
 
-        List<SegmentHeader> list = Collections.emptyList();
-        final List starKey =
-            makeBitkeyKey(
+        final SortedSpatialValueTree<String, Object, SegmentHeader> tree =
+            getTree(
                 schemaName,
                 schemaChecksum,
                 cubeName,
                 rolapStarFactTableName,
-                constrainedColsBitKey,
                 measureName,
-                compoundPredicates);
-        final List<SegmentHeader> headerList = bitkeyMap.get(starKey);
-        if (headerList == null) {
+                constrainedColsBitKey);
+        if (tree == null) {
             return Collections.emptyList();
         }
-        for (SegmentHeader header : headerList) {
+
+        // The tree returns the headers whose constrained columns contain the
+        // coordinates. Check the compound predicates and excluded regions of
+        // those few.
+        final HeaderRegion region = new HeaderRegion();
+        for (Map.Entry<String, Comparable> entry : coordinates.entrySet()) {
+            region.put(entry.getKey(), entry.getValue());
+        }
+        List<SegmentHeader> list = Collections.emptyList();
+        for (SegmentHeader header : sort(tree.get(region))) {
             if (matches(header, coordinates, compoundPredicates)) {
                 // Be lazy. Don't allocate a list unless there is at least one
                 // entry.
@@ -139,6 +182,53 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         return list;
     }
 
+    /**
+     * Returns the tree that indexes the headers of a given fact and
+     * dimensionality, or null if there are none.
+     */
+    private SortedSpatialValueTree<String, Object, SegmentHeader> getTree(
+        String schemaName,
+        ByteString schemaChecksum,
+        String cubeName,
+        String rolapStarFactTableName,
+        String measureName,
+        BitKey constrainedColsBitKey)
+    {
+        final FuzzyFactInfo fuzzyFactInfo =
+            fuzzyFactMap.get(
+                makeFuzzyFactKey(
+                    schemaName,
+                    schemaChecksum,
+                    cubeName,
+                    rolapStarFactTableName,
+                    measureName));
+        if (fuzzyFactInfo == null) {
+            return null;
+        }
+        return fuzzyFactInfo.treeMap.get(constrainedColsBitKey);
+    }
+
+    /**
+     * Sorts headers into the order in which they were added to this index.
+     */
+    private List<SegmentHeader> sort(Collection<SegmentHeader> headers) {
+        final List<SegmentHeader> list = new ArrayList<SegmentHeader>(headers);
+        if (list.size() > 1) {
+            Collections.sort(
+                list,
+                new Comparator<SegmentHeader>() {
+                    public int compare(SegmentHeader o1, SegmentHeader o2) {
+                        final long ordinal1 = headerMap.get(o1).ordinal;
+                        final long ordinal2 = headerMap.get(o2).ordinal;
+                        return ordinal1 < ordinal2
+                            ? -1
+                            : ordinal1 == ordinal2 ? 0 : 1;
+                    }
+                });
+        }
+        return list;
+    }
+
     public boolean add(
         SegmentHeader header,
         boolean loading,
@@ -156,6 +246,7 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
             return false;
         }
         headerInfo = new HeaderInfo();
+        headerInfo.ordinal = nextOrdinal++;
         if (loading) {
             headerInfo.slot = new SlotFuture<SegmentBody>();
         }
@@ -188,6 +279,16 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
             fuzzyFactMap.put(fuzzyFactKey, fuzzyFactInfo);
         }
         fuzzyFactInfo.headerList.add(header);
+        final BitKey bitKey = header.getConstrainedColumnsBitKey();
+        SortedSpatialValueTree<String, Object, SegmentHeader> tree =
+            fuzzyFactInfo.treeMap.get(bitKey);
+        if (tree == null) {
+            tree =
+                new SortedSpatialValueTree<String, Object, SegmentHeader>(
+                    VALUE_COMPARATOR);
+            fuzzyFactInfo.treeMap.put(bitKey, tree);
+        }
+        tree.add(HeaderRegion.of(header), header);
         return true;
     }
 
@@ -227,6 +328,18 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         headerInfo.clients.clear();
     }
 
+    public void removeLoaded(SegmentHeader header) {
+        checkThread();
+
+        final HeaderInfo headerInfo = headerMap.get(header);
+        if (headerInfo == null
+            || headerInfo.slot != null && !headerInfo.slot.isDone())
+        {
+            return;
+        }
+        remove(header);
+    }
+
     public void remove(SegmentHeader header) {
         checkThread();
 
@@ -255,6 +368,15 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         final FuzzyFactInfo fuzzyFactInfo = fuzzyFactMap.get(fuzzyFactKey);
         if (fuzzyFactInfo != null) {
             fuzzyFactInfo.headerList.remove(header);
+            final BitKey bitKey = header.getConstrainedColumnsBitKey();
+            final SortedSpatialValueTree<String, Object, SegmentHeader> tree =
+                fuzzyFactInfo.treeMap.get(bitKey);
+            if (tree != null) {
+                tree.remove(HeaderRegion.of(header), header);
+                if (tree.size() == 0) {
+                    fuzzyFactInfo.treeMap.remove(bitKey);
+                }
+            }
             if (fuzzyFactInfo.headerList.size() == 0) {
                 fuzzyFactMap.remove(fuzzyFactKey);
             }
@@ -270,8 +392,8 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
     }
 
     private void checkThread() {
-        assert thread == Thread.currentThread()
-            : "expected " + thread + ", but was " + Thread.currentThread();
+        assert threads.contains(Thread.currentThread())
+            : "expected " + threads + ", but was " + Thread.currentThread();
     }
 
     public static boolean matches(
@@ -336,7 +458,34 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         if (factInfo == null) {
             return list;
         }
-        for (SegmentHeader header : factInfo.headerList) {
+
+        // A header intersects the region if it intersects any of the region's
+        // columns. For each dimensionality, gather from the tree the headers
+        // that intersect each column; if the headers of a dimensionality
+        // do not constrain one of the columns, they all intersect.
+        final Set<SegmentHeader> candidates = new HashSet<SegmentHeader>();
+        for (SortedSpatialValueTree<String, Object, SegmentHeader> tree
+            : factInfo.treeMap.values())
+        {
+            final List<String> dimensions = tree.getDimensions();
+            boolean unconstrained = region.length == 0;
+            for (SegmentColumn regionColumn : region) {
+                if (!dimensions.contains(regionColumn.getColumnExpression())) {
+                    unconstrained = true;
+                    break;
+                }
+            }
+            if (unconstrained) {
+                candidates.addAll(tree.get(new HeaderRegion()));
+                continue;
+            }
+            for (SegmentColumn regionColumn : region) {
+                final HeaderRegion columnRegion = new HeaderRegion();
+                columnRegion.put(regionColumn);
+                candidates.addAll(tree.get(columnRegion));
+            }
+        }
+        for (SegmentHeader header : sort(candidates)) {
             // Don't return stale segments.
             if (headerMap.get(header).removeAfterLoad) {
                 continue;
@@ -649,8 +798,37 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
                 bitKey,
                 measureName,
                 compoundPredicates);
-            final List<SegmentHeader> headers = bitkeyMap.get(bitkeyKey);
-            assert headers != null : "bitkeyPoset / bitkeyMap inconsistency";
+            assert bitkeyMap.get(bitkeyKey) != null
+                : "bitkeyPoset / bitkeyMap inconsistency";
+            final SortedSpatialValueTree<String, Object, SegmentHeader> tree =
+                getTree(
+                    schemaName,
+                    schemaChecksum,
+                    cubeName,
+                    rolapStarFactTableName,
+                    measureName,
+                    bitKey);
+
+            // Use the tree to find the headers whose value ranges contain the
+            // coordinates of the columns that they constrain.
+            final List<String> dimensions = tree.getDimensions();
+            final HeaderRegion region = new HeaderRegion();
+            for (Map.Entry<String, Comparable> entry : coordinates.entrySet())
+            {
+                if (dimensions.contains(entry.getKey())) {
+                    Comparable value = entry.getValue();
+                    if (value == null) {
+                        value = RolapUtil.sqlNullValue;
+                    }
+                    region.put(entry.getKey(), value);
+                }
+            }
+            final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+            for (SegmentHeader header : sort(tree.get(region))) {
+                if (header.compoundPredicates.equals(compoundPredicates)) {
+                    headers.add(header);
+                }
+            }
 
             // For columns that are still present after roll up, make sure that
             // the required value is in the range covered by the segment.
@@ -945,6 +1123,15 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         private final List<SegmentHeader> headerList =
             new ArrayList<SegmentHeader>();
 
+        /**
+         * For each dimensionality, a tree that indexes the headers by the
+         * values of their constrained columns.
+         */
+        private final Map<BitKey,
+            SortedSpatialValueTree<String, Object, SegmentHeader>> treeMap =
+            new HashMap<BitKey,
+                SortedSpatialValueTree<String, Object, SegmentHeader>>();
+
         FuzzyFactInfo() {
         }
     }
@@ -975,6 +1162,53 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
          * when flushing.
          */
         private boolean removeAfterLoad;
+        /**
+         * Ordinal of this header in the order that headers were added.
+         */
+        private long ordinal;
+    }
+
+    /**
+     * Region of a {@link SortedSpatialValueTree} whose dimensions are column
+     * expressions and whose bounds are column values.
+     */
+    private static class HeaderRegion
+        implements SpatialValueTree.SpatialRegion<String, Object>
+    {
+        private final Map<String, Object[]> map =
+            new LinkedHashMap<String, Object[]>();
+
+        /**
+         * Creates the region covered by the constrained columns of a header.
+         */
+        static HeaderRegion of(SegmentHeader header) {
+            final HeaderRegion region = new HeaderRegion();
+            for (SegmentColumn column : header.getConstrainedColumns()) {
+                region.put(column);
+            }
+            return region;
+        }
+
+        void put(String columnExpression, Object value) {
+            map.put(columnExpression, new Object[] {value});
+        }
+
+        void put(SegmentColumn column) {
+            final SortedSet<Comparable> values = column.getValues();
+            map.put(
+                column.getColumnExpression(),
+                values == null
+                    ? new Object[] {SpatialValueTree.AXIS_WILDCARD}
+                    : values.toArray());
+        }
+
+        public List<String> getDimensions() {
+            return new ArrayList<String>(map.keySet());
+        }
+
+        public Object[] getValues(String dimension) {
+            return map.get(dimension);
+        }
     }
 }
 
@@ -0,0 +1,133 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+/**
+ * Approximate count of how often each element has been seen recently.
+ *
+ * <p>A count-min sketch: each element increments one counter in each of four
+ * rows, chosen by hashing, and its frequency is estimated as the smallest of
+ * those counters. The estimate is never less than the true count (until
+ * counters saturate at 15), and the sketch uses a fixed amount of memory
+ * however many distinct elements are seen.</p>
+ *
+ * <p>To favor recent history, all counters are halved after a number of
+ * increments proportional to the width of the sketch. This is the frequency
+ * estimator of the TinyLFU cache admission policy: a cache admits a new
+ * entry only if it is seen more often than the entries it would evict.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @param <E> Element type
+ */
+public class FrequencySketch<E> {
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int[] SEEDS = {
+        0x97cb3127, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f
+    };
+
+    private final byte[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Creates a FrequencySketch.
+     *
+     * @param width Number of counters per row; rounded up to a power of two.
+     *   Should be at least the number of distinct elements whose frequency
+     *   matters, for example the number of entries in the cache
+     */
+    public FrequencySketch(int width) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("width must be positive");
+        }
+        int w = Integer.highestOneBit(width);
+        if (w < width) {
+            w <<= 1;
+        }
+        this.mask = w - 1;
+        this.table = new byte[DEPTH * w];
+        this.sampleSize = 10 * w;
+    }
+
+    /**
+     * Records an occurrence of an element.
+     *
+     * <p>Only the smallest of the element's counters are incremented
+     * ("conservative update"), which reduces the overestimate caused by
+     * collisions.</p>
+     *
+     * @param e Element
+     */
+    public void increment(E e) {
+        final int hash = spread(e.hashCode());
+        final int min = frequency(hash);
+        if (min >= MAX_COUNT) {
+            return;
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            final int index = index(hash, i);
+            if (table[index] == min) {
+                ++table[index];
+            }
+        }
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent occurrences of an element.
+     *
+     * @param e Element
+     * @return Estimated frequency, between 0 and 15
+     */
+    public int frequency(E e) {
+        return frequency(spread(e.hashCode()));
+    }
+
+    private int frequency(int hash) {
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[index(hash, i)]);
+        }
+        return min;
+    }
+
+    /**
+     * Halves every counter, so that old occurrences count for less than
+     * recent ones.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>= 1;
+        }
+        additions >>= 1;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        h ^= h >>> 16;
+        return row * (mask + 1) + (h & mask);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h;
+    }
+}
+
+// End FrequencySketch.java
@@ -0,0 +1,421 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Sketch that estimates the number of distinct values added to it, using
+ * the HyperLogLog algorithm.
+ *
+ * <p>Each value is hashed to 64 bits. The first {@code precision} bits of the
+ * hash choose one of 2<sup>precision</sup> registers, and the register
+ * remembers the longest run of leading zeros seen in the remaining bits. The
+ * number of distinct values is estimated from the harmonic mean of the
+ * registers. With the default precision of 12, the sketch occupies 4KB and
+ * the standard error of the estimate is about 1.6%.</p>
+ *
+ * <p>Sketches are mergeable: the union of two sketches is the register-wise
+ * maximum, and estimates the number of distinct values added to either. This
+ * is what allows distinct counts to be rolled up, unlike exact distinct
+ * counts.</p>
+ *
+ * <p>While it has seen only a few distinct values, the sketch holds their
+ * hashes instead of registers, and its estimate is exact (barring collisions
+ * of 64-bit hashes). This keeps sketches small for the many cells of a
+ * segment that have low cardinality.</p>
+ *
+ * <p>Values that are equal numbers hash the same whatever their class; for
+ * example, {@code Integer} 1, {@code Long} 1 and {@code BigDecimal} 1.0 are
+ * the same value. Other values are hashed by their string representation.</p>
+ *
+ * <p>Not thread safe. A sketch that has been published, for example as the
+ * value of a cell in a cached segment, must not be modified; merge it into a
+ * new sketch instead.</p>
+ */
+public class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 3906143517530516734L;
+
+    /** Default precision. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    public static final int MIN_PRECISION = 4;
+
+    public static final int MAX_PRECISION = 16;
+
+    private static final byte ENCODING_SPARSE = 1;
+
+    private static final byte ENCODING_DENSE = 2;
+
+    private final int precision;
+
+    /**
+     * Registers, or null if the sketch is sparse.
+     */
+    private byte[] registers;
+
+    /**
+     * Open-addressing hash set of the hashes of values, or null if the
+     * sketch is dense. Zero marks an empty slot; a hash of zero is stored
+     * as one.
+     */
+    private long[] hashes;
+
+    /** Number of hashes in {@link #hashes}. */
+    private int hashCount;
+
+    /**
+     * Cached estimate plus one, or zero if the estimate must be computed.
+     * Volatile, because cells of cached segments are read by several threads
+     * at once.
+     */
+    private transient volatile long estimatePlusOne;
+
+    /**
+     * Creates an empty HyperLogLog with the default precision.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty HyperLogLog.
+     *
+     * @param precision Number of bits of each hash that choose a register;
+     *   between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                "precision must be between " + MIN_PRECISION + " and "
+                + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.hashes = new long[8];
+    }
+
+    /**
+     * Returns the precision of this sketch.
+     *
+     * @return Precision
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value Value; must not be null
+     */
+    public void add(Object value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * Adds a value that has already been hashed using {@link #hash(Object)}.
+     *
+     * @param hash Hash of value
+     */
+    public void addHash(long hash) {
+        if (estimatePlusOne != 0) {
+            estimatePlusOne = 0;
+        }
+        if (hashes != null) {
+            addSparse(hash == 0 ? 1 : hash);
+            if (hashCount > sparseLimit()) {
+                toDense();
+            }
+        } else {
+            addDense(hash);
+        }
+    }
+
+    /**
+     * Adds all values of another sketch to this one. The other sketch is not
+     * modified.
+     *
+     * @param other Other sketch; must have the same precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException(
+                "cannot merge sketches of precision " + precision + " and "
+                + other.precision);
+        }
+        estimatePlusOne = 0;
+        if (other.hashes != null) {
+            for (long hash : other.hashes) {
+                if (hash != 0) {
+                    addHash(hash);
+                }
+            }
+            return;
+        }
+        if (hashes != null) {
+            toDense();
+        }
+        final byte[] otherRegisters = other.registers;
+        for (int i = 0; i < registers.length; i++) {
+            if (otherRegisters[i] > registers[i]) {
+                registers[i] = otherRegisters[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values added to this sketch.
+     *
+     * @return Estimated number of distinct values
+     */
+    public long estimate() {
+        long estimate = estimatePlusOne - 1;
+        if (estimate < 0) {
+            estimate = hashes != null ? hashCount : denseEstimate();
+            estimatePlusOne = estimate + 1;
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the number of bytes occupied by this sketch, approximately.
+     *
+     * @return Size in bytes
+     */
+    public int getSizeInBytes() {
+        return 32 + (hashes != null ? hashes.length * 8 : registers.length);
+    }
+
+    /**
+     * Encodes this sketch as an array of bytes, which can be decoded using
+     * {@link #fromByteArray(byte[])}.
+     *
+     * @return Encoded sketch
+     */
+    public byte[] toByteArray() {
+        final ByteBuffer buffer;
+        if (hashes != null) {
+            buffer = ByteBuffer.allocate(6 + hashCount * 8);
+            buffer.put(ENCODING_SPARSE);
+            buffer.put((byte) precision);
+            buffer.putInt(hashCount);
+            for (long hash : hashes) {
+                if (hash != 0) {
+                    buffer.putLong(hash);
+                }
+            }
+        } else {
+            buffer = ByteBuffer.allocate(2 + registers.length);
+            buffer.put(ENCODING_DENSE);
+            buffer.put((byte) precision);
+            buffer.put(registers);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a sketch encoded by {@link #toByteArray()}.
+     *
+     * @param bytes Encoded sketch
+     * @return Sketch
+     */
+    public static HyperLogLog fromByteArray(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final byte encoding = buffer.get();
+        final HyperLogLog sketch = new HyperLogLog(buffer.get());
+        switch (encoding) {
+        case ENCODING_SPARSE:
+            for (int i = buffer.getInt(); i > 0; i--) {
+                sketch.addHash(buffer.getLong());
+            }
+            break;
+        case ENCODING_DENSE:
+            sketch.hashes = null;
+            sketch.hashCount = 0;
+            sketch.registers = new byte[1 << sketch.precision];
+            buffer.get(sketch.registers);
+            break;
+        default:
+            throw new IllegalArgumentException(
+                "unknown sketch encoding " + encoding);
+        }
+        return sketch;
+    }
+
+    public String toString() {
+        return "HyperLogLog(" + estimate() + ")";
+    }
+
+    /**
+     * Hashes a value to 64 bits.
+     *
+     * @param value Value
+     * @return Hash
+     */
+    public static long hash(Object value) {
+        if (value instanceof Integer
+            || value instanceof Long
+            || value instanceof Short
+            || value instanceof Byte)
+        {
+            return hash(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            final long integral = integralValue((Number) value);
+            if (integral != Long.MIN_VALUE) {
+                return hash(integral);
+            }
+        }
+        final String s = value.toString();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // Make strings that look like numbers hash differently from numbers.
+        return mix(h ^ 0x5bd1e995L);
+    }
+
+    private static long hash(long value) {
+        return mix(value);
+    }
+
+    /**
+     * Returns the value of a number if it is integral, otherwise
+     * {@link Long#MIN_VALUE}.
+     */
+    private static long integralValue(Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            final double d = number.doubleValue();
+            if (d == Math.rint(d)
+                && d > Long.MIN_VALUE
+                && d <= Long.MAX_VALUE)
+            {
+                return (long) d;
+            }
+        } else if (number instanceof BigDecimal) {
+            try {
+                return ((BigDecimal) number).toBigIntegerExact().longValue();
+            } catch (ArithmeticException e) {
+                // not integral
+            }
+        } else if (number instanceof BigInteger) {
+            if (((BigInteger) number).bitLength() < 64) {
+                return number.longValue();
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Finalization step of MurmurHash3; spreads the bits of a value over all
+     * 64 bits of the result.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private int sparseLimit() {
+        // Switch to registers when the hashes would occupy more space.
+        return (1 << precision) / 8;
+    }
+
+    private void addSparse(long hash) {
+        if (hashCount * 2 >= hashes.length) {
+            final long[] oldHashes = hashes;
+            hashes = new long[oldHashes.length * 2];
+            hashCount = 0;
+            for (long oldHash : oldHashes) {
+                if (oldHash != 0) {
+                    addSparse(oldHash);
+                }
+            }
+        }
+        final int mask = hashes.length - 1;
+        for (int i = (int) (hash ^ (hash >>> 32)) & mask;;
+             i = (i + 1) & mask)
+        {
+            if (hashes[i] == 0) {
+                hashes[i] = hash;
+                ++hashCount;
+                return;
+            }
+            if (hashes[i] == hash) {
+                return;
+            }
+        }
+    }
+
+    private void toDense() {
+        final long[] oldHashes = hashes;
+        hashes = null;
+        hashCount = 0;
+        registers = new byte[1 << precision];
+        for (long hash : oldHashes) {
+            if (hash != 0) {
+                addDense(hash);
+            }
+        }
+    }
+
+    private void addDense(long hash) {
+        final int index = (int) (hash >>> (64 - precision));
+        // Leading zeros of the remaining bits, plus one. A sentinel bit stops
+        // the count if all remaining bits are zero.
+        final long rest = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    private long denseEstimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1d / (1L << register);
+            if (register == 0) {
+                ++zeros;
+            }
+        }
+        final double alpha;
+        switch (m) {
+        case 16:
+            alpha = 0.673;
+            break;
+        case 32:
+            alpha = 0.697;
+            break;
+        case 64:
+            alpha = 0.709;
+            break;
+        default:
+            alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        final double raw = alpha * m * m / sum;
+        if (raw <= 2.5 * m && zeros > 0) {
+            // For small cardinalities the raw estimate is biased, and linear
+            // counting, based on the number of empty registers, is better.
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(raw);
+    }
+}
+
+// End HyperLogLog.java
@@ -0,0 +1,302 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import java.util.*;
+
+/**
+ * Implementation of {@link SpatialValueTree} that indexes each dimension
+ * separately.
+ *
+ * <p>For each dimension, the tree holds a sorted map from each bound to the
+ * values stored at that bound, and the set of values that were stored at
+ * {@link SpatialValueTree#AXIS_WILDCARD}, that is, at every bound of the
+ * dimension. A lookup unions, for each dimension of the region, the values
+ * stored at the requested bounds, and intersects the results, starting with
+ * the smallest. Its cost therefore depends on the number of values found, not
+ * on the number of values in the tree.</p>
+ *
+ * <p>Unlike the convention described in {@link SpatialValueTree}, bounds are
+ * compared using a {@link Comparator}. This allows a client to use the same
+ * notion of equality as a sorted collection of bounds; for example,
+ * {@link java.math.BigDecimal} values 1.0 and 1.00 are the same bound. Values
+ * are compared using {@link Object#equals(Object)}.</p>
+ *
+ * <p>Not thread safe.</p>
+ *
+ * @param <K> Type of the dimensions
+ * @param <E> Type of the dimension bounds
+ * @param <V> Type of the values to store
+ */
+public class SortedSpatialValueTree<K, E, V>
+    implements SpatialValueTree<K, E, V>
+{
+    private final Comparator<? super E> comparator;
+
+    private final Map<K, Axis<E, V>> axes = new LinkedHashMap<K, Axis<E, V>>();
+
+    private final Set<V> values = new HashSet<V>();
+
+    /**
+     * Creates a SortedSpatialValueTree.
+     *
+     * @param comparator Comparator for bounds; must accept every bound that
+     *   is added to or looked up in the tree, except
+     *   {@link SpatialValueTree#AXIS_WILDCARD}
+     */
+    public SortedSpatialValueTree(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+    }
+
+    public void add(SpatialRegion<K, E> region, V value) {
+        values.add(value);
+        for (K dimension : region.getDimensions()) {
+            Axis<E, V> axis = axes.get(dimension);
+            if (axis == null) {
+                axis = new Axis<E, V>(comparator);
+                axes.put(dimension, axis);
+            }
+            axis.add(region.getValues(dimension), value);
+        }
+    }
+
+    /**
+     * Removes a value from the tree.
+     *
+     * <p>The region must be the one with which the value was added; the value
+     * is only removed from the bounds of that region.</p>
+     *
+     * @param region Region with which the value was added
+     * @param value Value
+     * @return Whether the value was in the tree
+     */
+    public boolean remove(SpatialRegion<K, E> region, V value) {
+        if (!values.remove(value)) {
+            return false;
+        }
+        for (K dimension : region.getDimensions()) {
+            final Axis<E, V> axis = axes.get(dimension);
+            if (axis != null) {
+                axis.remove(region.getValues(dimension), value);
+                if (axis.all.isEmpty()) {
+                    axes.remove(dimension);
+                }
+            }
+        }
+        return true;
+    }
+
+    public void clear(SpatialRegion<K, E> region) {
+        final Set<V> found = get(region);
+        if (found.isEmpty()) {
+            return;
+        }
+        values.removeAll(found);
+        for (Iterator<Axis<E, V>> iterator = axes.values().iterator();
+            iterator.hasNext();)
+        {
+            final Axis<E, V> axis = iterator.next();
+            axis.removeAll(found);
+            if (axis.all.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A value is returned if, for each dimension of the region, it is
+     * stored at one of the region's bounds (or at every bound). If the region
+     * has no dimensions, returns all values. If the region has a dimension
+     * that is not in the tree, returns the empty set.</p>
+     */
+    public Set<V> get(SpatialRegion<K, E> region) {
+        final List<K> dimensions = region.getDimensions();
+        if (dimensions.isEmpty()) {
+            return new HashSet<V>(values);
+        }
+        final List<Set<V>> sets = new ArrayList<Set<V>>(dimensions.size());
+        for (K dimension : dimensions) {
+            final Axis<E, V> axis = axes.get(dimension);
+            if (axis == null) {
+                return Collections.emptySet();
+            }
+            final Set<V> set = axis.get(region.getValues(dimension));
+            if (set.isEmpty()) {
+                return Collections.emptySet();
+            }
+            sets.add(set);
+        }
+        // Intersect, starting with the smallest set, so that the cost is
+        // proportional to the size of the smallest set.
+        Set<V> smallest = sets.get(0);
+        for (Set<V> set : sets) {
+            if (set.size() < smallest.size()) {
+                smallest = set;
+            }
+        }
+        final Set<V> result = new HashSet<V>(smallest);
+        for (Set<V> set : sets) {
+            if (set != smallest) {
+                result.retainAll(set);
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    public Set<V> match(SpatialRegion<K, E> region) {
+        final Set<V> result = get(region);
+        for (K dimension : region.getDimensions()) {
+            final Axis<E, V> axis = axes.get(dimension);
+            final E[] bounds = region.getValues(dimension);
+            for (Iterator<V> iterator = result.iterator(); iterator.hasNext();)
+            {
+                if (!axis.covers(bounds, iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<K> getDimensions() {
+        return new ArrayList<K>(axes.keySet());
+    }
+
+    public int getDimensionality() {
+        return axes.size();
+    }
+
+    /**
+     * Returns the number of values in this tree.
+     *
+     * @return Number of values
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Index of the values along one dimension.
+     *
+     * @param <E> Type of the dimension bounds
+     * @param <V> Type of the values
+     */
+    private static class Axis<E, V> {
+        /** Values stored at each bound. */
+        private final SortedMap<E, Set<V>> boundMap;
+
+        /** Values stored at every bound. */
+        private final Set<V> wildcards = new HashSet<V>();
+
+        /** All values that have been stored along this dimension. */
+        private final Set<V> all = new HashSet<V>();
+
+        Axis(Comparator<? super E> comparator) {
+            boundMap = new TreeMap<E, Set<V>>(comparator);
+        }
+
+        void add(E[] bounds, V value) {
+            all.add(value);
+            for (E bound : bounds) {
+                if (bound == AXIS_WILDCARD) {
+                    wildcards.add(value);
+                    continue;
+                }
+                Set<V> set = boundMap.get(bound);
+                if (set == null) {
+                    set = new HashSet<V>();
+                    boundMap.put(bound, set);
+                }
+                set.add(value);
+            }
+        }
+
+        void remove(E[] bounds, V value) {
+            all.remove(value);
+            for (E bound : bounds) {
+                if (bound == AXIS_WILDCARD) {
+                    wildcards.remove(value);
+                    continue;
+                }
+                final Set<V> set = boundMap.get(bound);
+                if (set != null) {
+                    set.remove(value);
+                    if (set.isEmpty()) {
+                        boundMap.remove(bound);
+                    }
+                }
+            }
+        }
+
+        void removeAll(Set<V> values) {
+            all.removeAll(values);
+            wildcards.removeAll(values);
+            for (Iterator<Set<V>> iterator = boundMap.values().iterator();
+                iterator.hasNext();)
+            {
+                final Set<V> set = iterator.next();
+                set.removeAll(values);
+                if (set.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Returns the values stored at any of the given bounds. The result
+         * may be a set owned by this axis, and must not be modified.
+         */
+        Set<V> get(E[] bounds) {
+            for (E bound : bounds) {
+                if (bound == AXIS_WILDCARD) {
+                    return all;
+                }
+            }
+            if (bounds.length == 1 && wildcards.isEmpty()) {
+                final Set<V> set = boundMap.get(bounds[0]);
+                return set == null ? Collections.<V>emptySet() : set;
+            }
+            final Set<V> result = new HashSet<V>(wildcards);
+            for (E bound : bounds) {
+                final Set<V> set = boundMap.get(bound);
+                if (set != null) {
+                    result.addAll(set);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns whether a value is stored at all of the given bounds.
+         */
+        boolean covers(E[] bounds, V value) {
+            if (wildcards.contains(value)) {
+                return true;
+            }
+            for (E bound : bounds) {
+                if (bound == AXIS_WILDCARD) {
+                    return false;
+                }
+                final Set<V> set = boundMap.get(bound);
+                if (set == null || !set.contains(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
+
+// End SortedSpatialValueTree.java
@@ -0,0 +1,83 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.calc.impl;
+
+import mondrian.olap.*;
+import mondrian.test.TestContext;
+
+import org.eigenbase.util.property.StringProperty;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark that executes calculation-heavy queries, whose cells are already
+ * cached, with {@link BetterExpCompiler} and with {@link FusedExpCompiler}.
+ *
+ * @see MondrianProperties#ExpCompilerClass
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExpCompilerBenchmark {
+    /**
+     * Ratios and differences of measures for each of about 1,500 products,
+     * each evaluated for four quarters.
+     */
+    private static final String QUERY =
+        "with member [Measures].[Profit] as\n"
+        + "  '[Measures].[Store Sales] - [Measures].[Store Cost]'\n"
+        + " member [Measures].[Margin] as\n"
+        + "  '100 * IIf([Measures].[Store Sales] = 0, 0,\n"
+        + "   [Measures].[Profit] / [Measures].[Store Sales])'\n"
+        + " member [Measures].[Weighted] as\n"
+        + "  '([Measures].[Unit Sales] * 2 + [Measures].[Sales Count])\n"
+        + "   / CoalesceEmpty([Measures].[Customer Count], 1) - 1'\n"
+        + "select {[Measures].[Profit], [Measures].[Margin],\n"
+        + "  [Measures].[Weighted]} on 0,\n"
+        + " Crossjoin([Product].[Product Name].Members,\n"
+        + "  [Time].[1997].Children) on 1\n"
+        + "from [Sales]";
+
+    /** Name of the expression compiler class. */
+    @Param({
+        "mondrian.calc.impl.BetterExpCompiler",
+        "mondrian.calc.impl.FusedExpCompiler"
+    })
+    public String compiler;
+
+    private Connection connection;
+    private String previousCompiler;
+
+    @Setup
+    public void setup() {
+        final StringProperty property =
+            MondrianProperties.instance().ExpCompilerClass;
+        previousCompiler = property.get();
+        property.set(compiler);
+        connection =
+            DriverManager.getConnection(
+                TestContext.getDefaultConnectString(), null);
+        // Load the segments, so that the benchmark measures evaluation.
+        execute();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+        MondrianProperties.instance().ExpCompilerClass.set(previousCompiler);
+    }
+
+    @Benchmark
+    public Result execute() {
+        return connection.execute(connection.parseQuery(QUERY));
+    }
+}
+
+// End ExpCompilerBenchmark.java
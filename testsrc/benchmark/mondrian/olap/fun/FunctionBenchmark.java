@@ -0,0 +1,69 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.olap.fun;
+
+import mondrian.calc.*;
+import mondrian.calc.impl.UnaryTupleList;
+import mondrian.olap.Member;
+import mondrian.rolap.FoodMartState;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for the set functions whose cost dominates large
+ * queries: partial sort (as used by TopCount) and crossjoin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FunctionBenchmark {
+    /** Number of members to return from the partial sort. */
+    @Param({"10", "100"})
+    public int limit;
+
+    private Calc nameCalc;
+    private TupleList products;
+    private TupleList stores;
+    private TupleList cities;
+
+    @Setup
+    public void setup(FoodMartState state) {
+        // Sort key that needs no cell values, so that the benchmark measures
+        // the sort and the evaluator, not the cache.
+        nameCalc = state.compileScalar("[Product].CurrentMember.Name");
+        products = new UnaryTupleList(state.products);
+        stores = new UnaryTupleList(state.stores);
+        cities = new UnaryTupleList(state.cities);
+    }
+
+    @Benchmark
+    public List<Member> partiallySortMembers(FoodMartState state) {
+        return FunUtil.partiallySortMembers(
+            state.evaluator.push(),
+            products.slice(0),
+            nameCalc,
+            limit,
+            true);
+    }
+
+    @Benchmark
+    public TupleList mutableCrossJoin() {
+        return CrossJoinFunDef.mutableCrossJoin(products, stores);
+    }
+
+    @Benchmark
+    public TupleList mutableCrossJoinLarge() {
+        return CrossJoinFunDef.mutableCrossJoin(cities, stores);
+    }
+}
+
+// End FunctionBenchmark.java
@@ -0,0 +1,81 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.olap.fun;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for the sorts behind {@code Order}, {@code TopCount} and
+ * {@code BottomCount}, on random values whose keys have already been
+ * evaluated.
+ *
+ * <p>{@link #stablePartialSort} compares the partial-sort algorithms
+ * of {@link FunUtil#stablePartialSort(List, Comparator, int, int)};
+ * algorithm 5 is the heap, which is the default.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortBenchmark {
+    /** Number of values to sort. */
+    @Param({"10000", "200000"})
+    public int size;
+
+    /** Number of values to return from the partial sort. */
+    @Param({"10", "1000"})
+    public int limit;
+
+    /** Partial-sort algorithm. */
+    @Param({"1", "2", "4", "5"})
+    public int algorithm;
+
+    private Object[] values;
+    private List<Double> valueList;
+    private final Comparator<Double> comparator =
+        new Comparator<Double>() {
+            public int compare(Double d1, Double d2) {
+                return FunUtil.compareValues(d2, d1);
+            }
+        };
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        values = new Object[size];
+        final Double[] doubles = new Double[size];
+        for (int i = 0; i < size; i++) {
+            // Repeat values, so that the sorts must be stable.
+            doubles[i] = (double) random.nextInt(size / 10);
+            values[i] = doubles[i];
+        }
+        valueList = Arrays.asList(doubles);
+    }
+
+    @Benchmark
+    public List<Double> stablePartialSort() {
+        return FunUtil.stablePartialSort(
+            valueList, comparator, limit, algorithm);
+    }
+
+    @Benchmark
+    public int[] sort() {
+        return IndexSorter.forValues(values, true).sort(size, 1);
+    }
+
+    @Benchmark
+    public int[] sortParallel() {
+        return IndexSorter.forValues(values, true).sort(
+            size, Runtime.getRuntime().availableProcessors());
+    }
+}
+
+// End SortBenchmark.java
@@ -0,0 +1,73 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.TestContext;
+
+import org.eigenbase.util.property.IntegerProperty;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark that evaluates the cells of a large grid whose segments are
+ * already cached, on one thread or in parallel partitions.
+ *
+ * @see MondrianProperties#ParallelCellEvaluationThreshold
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CellEvaluationBenchmark {
+    /** About 18,000 cells: 109 cities by 3 genders by 45 categories. */
+    private static final String QUERY =
+        "select Crossjoin(\n"
+        + "  [Customers].[City].Members, [Gender].Members) on 0,\n"
+        + " [Product].[Product Category].Members on 1\n"
+        + "from [Sales]\n"
+        + "where [Measures].[Unit Sales]";
+
+    /**
+     * Value of {@link MondrianProperties#ParallelCellEvaluationThreshold};
+     * 0 evaluates the cells on the calling thread.
+     */
+    @Param({"0", "1000"})
+    public int threshold;
+
+    private Connection connection;
+    private int previousThreshold;
+
+    @Setup
+    public void setup() {
+        final IntegerProperty property =
+            MondrianProperties.instance().ParallelCellEvaluationThreshold;
+        previousThreshold = property.get();
+        property.set(threshold);
+        connection =
+            DriverManager.getConnection(
+                TestContext.getDefaultConnectString(), null);
+        // Load the segments, so that the benchmark measures evaluation.
+        execute();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+        MondrianProperties.instance().ParallelCellEvaluationThreshold.set(
+            previousThreshold);
+    }
+
+    @Benchmark
+    public Result execute() {
+        return connection.execute(connection.parseQuery(QUERY));
+    }
+}
+
+// End CellEvaluationBenchmark.java
@@ -0,0 +1,66 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for changing the context of a {@link RolapEvaluator}, which
+ * happens for every cell and every member of every set function.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EvaluatorBenchmark {
+    private Evaluator evaluator;
+    private List<Member> products;
+    private List<Member> stores;
+    private int i;
+
+    @Setup
+    public void setup(FoodMartState state) {
+        evaluator = state.evaluator;
+        products = state.products;
+        stores = state.stores;
+    }
+
+    /**
+     * Creates a child evaluator and sets two members, as a function does
+     * when it evaluates an expression for a tuple.
+     */
+    @Benchmark
+    public Evaluator pushSetContext() {
+        final Evaluator child = evaluator.push();
+        child.setContext(products.get(i++ % products.size()));
+        child.setContext(stores.get(i % stores.size()));
+        return child;
+    }
+
+    /**
+     * Sets two members and restores the previous context, without creating
+     * an evaluator.
+     */
+    @Benchmark
+    public Member savepointRestore() {
+        final int savepoint = evaluator.savepoint();
+        try {
+            evaluator.setContext(products.get(i++ % products.size()));
+            return evaluator.setContext(stores.get(i % stores.size()));
+        } finally {
+            evaluator.restore(savepoint);
+        }
+    }
+}
+
+// End EvaluatorBenchmark.java
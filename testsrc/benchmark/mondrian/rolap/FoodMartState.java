@@ -0,0 +1,90 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.TestContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+
+/**
+ * Benchmark state that holds a connection to FoodMart, an evaluator, and
+ * lists of members to operate on.
+ *
+ * <p>The connect string is built by
+ * {@link TestContext#getDefaultConnectString()}, so the database is given by
+ * the {@code mondrian.foodmart.jdbcURL} property; the {@code benchmark} Ant
+ * target points it at the embedded Derby database.</p>
+ */
+@State(Scope.Thread)
+public class FoodMartState {
+    public Connection connection;
+
+    /** Root evaluator of a query against the Sales cube. */
+    public Evaluator evaluator;
+
+    /** Members of the [Product].[Product Name] level. */
+    public List<Member> products;
+
+    /** Members of the [Store].[Store Name] level. */
+    public List<Member> stores;
+
+    /** Members of the [Customers].[City] level. */
+    public List<Member> cities;
+
+    @Setup
+    public void setup() {
+        connection =
+            DriverManager.getConnection(
+                TestContext.getDefaultConnectString(), null);
+        products = members("[Product].[Product Name].Members");
+        stores = members("[Store].[Store Name].Members");
+        final RolapResult result =
+            (RolapResult) execute("[Customers].[City].Members");
+        cities = positions(result);
+        evaluator = result.getRootEvaluator();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+    }
+
+    /**
+     * Parses and compiles a scalar expression in the context of the query of
+     * {@link #evaluator}.
+     */
+    public mondrian.calc.Calc compileScalar(String expression) {
+        return evaluator.getQuery().compileExpression(
+            connection.parseExpression(expression), true, null);
+    }
+
+    private List<Member> members(String set) {
+        return positions(execute(set));
+    }
+
+    private Result execute(String set) {
+        return connection.execute(
+            connection.parseQuery(
+                "select " + set + " on 0 from [Sales]"
+                + " where [Measures].[Unit Sales]"));
+    }
+
+    private static List<Member> positions(Result result) {
+        final List<Member> list = new ArrayList<Member>();
+        for (Position position : result.getAxes()[0].getPositions()) {
+            list.add(position.get(0));
+        }
+        return list;
+    }
+}
+
+// End FoodMartState.java
@@ -0,0 +1,82 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for {@link CellKey} and {@link BitKey}, which are created
+ * and compared for every cell request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeyBenchmark {
+    /** Number of axes of cell keys. */
+    @Param({"2", "4", "6"})
+    public int axisCount;
+
+    /** Number of bits in bit keys; selects the BitKey implementation. */
+    @Param({"40", "100", "300"})
+    public int bitCount;
+
+    private int[][] ordinals;
+    private Map<CellKey, Integer> cellKeyMap;
+    private BitKey[] bitKeys;
+    private int i;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        ordinals = new int[1024][];
+        cellKeyMap = new HashMap<CellKey, Integer>();
+        for (int k = 0; k < ordinals.length; k++) {
+            ordinals[k] = new int[axisCount];
+            for (int a = 0; a < axisCount; a++) {
+                ordinals[k][a] = random.nextInt(100);
+            }
+            cellKeyMap.put(CellKey.Generator.newCellKey(ordinals[k]), k);
+        }
+        bitKeys = new BitKey[256];
+        for (int k = 0; k < bitKeys.length; k++) {
+            bitKeys[k] = BitKey.Factory.makeBitKey(bitCount);
+            for (int b = 0; b < 5; b++) {
+                bitKeys[k].set(random.nextInt(bitCount));
+            }
+        }
+    }
+
+    @Benchmark
+    public CellKey newCellKey() {
+        return CellKey.Generator.newCellKey(ordinals[i++ & 1023]);
+    }
+
+    @Benchmark
+    public Integer cellKeyLookup() {
+        return cellKeyMap.get(
+            CellKey.Generator.newCellKey(ordinals[i++ & 1023]));
+    }
+
+    @Benchmark
+    public void bitKeyOperations(Blackhole blackhole) {
+        final BitKey a = bitKeys[i++ & 255];
+        final BitKey b = bitKeys[i & 255];
+        blackhole.consume(a.and(b));
+        blackhole.consume(a.isSuperSetOf(b));
+        blackhole.consume(a.intersects(b));
+        blackhole.consume(a.equals(b));
+        blackhole.consume(a.hashCode());
+    }
+}
+
+// End KeyBenchmark.java
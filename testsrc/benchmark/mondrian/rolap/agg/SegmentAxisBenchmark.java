@@ -0,0 +1,71 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.util.ArraySortedSet;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for {@link SegmentAxis#getOffset}, which is called for
+ * each axis of each cell read from a segment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SegmentAxisBenchmark {
+    /** Number of keys on the axis. */
+    @Param({"10", "1000", "100000"})
+    public int keyCount;
+
+    private SegmentAxis intAxis;
+    private SegmentAxis stringAxis;
+    private Comparable[] intKeys;
+    private Comparable[] stringKeys;
+    private int i;
+
+    @Setup
+    public void setup() {
+        intKeys = new Comparable[keyCount];
+        stringKeys = new Comparable[keyCount];
+        for (int k = 0; k < keyCount; k++) {
+            intKeys[k] = k * 3;
+            stringKeys[k] = "key" + (1000000 + k);
+        }
+        intAxis =
+            new SegmentAxis(
+                LiteralStarPredicate.TRUE,
+                new ArraySortedSet(intKeys),
+                false);
+        stringAxis =
+            new SegmentAxis(
+                LiteralStarPredicate.TRUE,
+                new ArraySortedSet(stringKeys),
+                false);
+    }
+
+    @Benchmark
+    public int intOffset() {
+        return intAxis.getOffset(intKeys[i++ % keyCount]);
+    }
+
+    @Benchmark
+    public int stringOffset() {
+        return stringAxis.getOffset(stringKeys[i++ % keyCount]);
+    }
+
+    @Benchmark
+    public int missingOffset() {
+        return intAxis.getOffset(i++ * 3 + 1);
+    }
+}
+
+// End SegmentAxisBenchmark.java
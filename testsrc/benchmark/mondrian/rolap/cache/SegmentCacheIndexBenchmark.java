@@ -0,0 +1,135 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.cache;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.*;
+import mondrian.util.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmark for {@link SegmentCacheIndexImpl#locate}, which is called
+ * for each cell request that misses the local cache, for
+ * {@link SegmentCacheIndexImpl#intersectRegion}, which is called for each
+ * flush, and for {@link SegmentCacheIndexImpl#findRollupCandidates}.
+ *
+ * <p>The index holds {@code headerCount} segments of one measure, each
+ * constrained to a different range of years and to a different state.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SegmentCacheIndexBenchmark {
+    private static final ByteString CHECKSUM =
+        new ByteString(new byte[] {1, 2, 3});
+
+    /** Number of segment headers in the index. */
+    @Param({"10", "1000", "10000", "100000"})
+    public int headerCount;
+
+    private SegmentCacheIndexImpl index;
+    private BitKey bitKey;
+    private BitKey yearBitKey;
+    private List<Map<String, Comparable>> coordinates;
+    private int i;
+
+    @Setup
+    public void setup() {
+        // The index checks that it is accessed from the thread that created
+        // it; JMH runs trial setup on the benchmark thread.
+        index = new SegmentCacheIndexImpl(Thread.currentThread());
+        bitKey = BitKey.Factory.makeBitKey(10);
+        bitKey.set(1);
+        bitKey.set(2);
+        yearBitKey = BitKey.Factory.makeBitKey(10);
+        yearBitKey.set(1);
+        coordinates = new ArrayList<Map<String, Comparable>>();
+        for (int h = 0; h < headerCount; h++) {
+            final List<SegmentColumn> columns =
+                Arrays.asList(
+                    new SegmentColumn(
+                        "time_by_day.the_year",
+                        1000,
+                        new ArraySortedSet(
+                            new Comparable[] {h, h + 1, h + 2})),
+                    new SegmentColumn(
+                        "store.store_state",
+                        headerCount,
+                        new ArraySortedSet(new Comparable[] {"S" + h})));
+            index.add(
+                new SegmentHeader(
+                    "FoodMart",
+                    CHECKSUM,
+                    "Sales",
+                    "Unit Sales",
+                    columns,
+                    Collections.<String>emptyList(),
+                    "sales_fact_1997",
+                    bitKey,
+                    Collections.<SegmentColumn>emptyList()),
+                false,
+                null);
+            final Map<String, Comparable> coordinate =
+                new HashMap<String, Comparable>();
+            coordinate.put("time_by_day.the_year", h + 1);
+            coordinate.put("store.store_state", "S" + h);
+            coordinates.add(coordinate);
+        }
+    }
+
+    @Benchmark
+    public List<SegmentHeader> locate() {
+        return index.locate(
+            "FoodMart",
+            CHECKSUM,
+            "Sales",
+            "Unit Sales",
+            "sales_fact_1997",
+            bitKey,
+            coordinates.get(i++ % headerCount),
+            Collections.<String>emptyList());
+    }
+
+    @Benchmark
+    public List<SegmentHeader> intersectRegion() {
+        final int h = i++ % headerCount;
+        return index.intersectRegion(
+            "FoodMart",
+            CHECKSUM,
+            "Sales",
+            "Unit Sales",
+            "sales_fact_1997",
+            new SegmentColumn[] {
+                new SegmentColumn(
+                    "store.store_state",
+                    headerCount,
+                    new ArraySortedSet(new Comparable[] {"S" + h}))
+            });
+    }
+
+    @Benchmark
+    public List<List<SegmentHeader>> findRollupCandidates() {
+        return index.findRollupCandidates(
+            "FoodMart",
+            CHECKSUM,
+            "Sales",
+            "Unit Sales",
+            "sales_fact_1997",
+            yearBitKey,
+            Collections.<String, Comparable>singletonMap(
+                "time_by_day.the_year", i++ % headerCount),
+            Collections.<String>emptyList());
+    }
+}
+
+// End SegmentCacheIndexBenchmark.java
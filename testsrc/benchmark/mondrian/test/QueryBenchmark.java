@@ -0,0 +1,108 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.test;
+
+import mondrian.olap.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark that executes MDX queries against FoodMart.
+ *
+ * <p>With {@code flush} true, the cells of the Sales cube are flushed before
+ * each query, so the query loads segments using SQL; otherwise the queries
+ * are answered from the segment cache, and the benchmark measures the
+ * evaluation of the query.</p>
+ *
+ * <p>The connect string is built by
+ * {@link TestContext#getDefaultConnectString()}; the {@code benchmark} Ant
+ * target points it at the embedded Derby database.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QueryBenchmark {
+    private static final Map<String, String> QUERIES =
+        new HashMap<String, String>();
+
+    static {
+        QUERIES.put(
+            "simple",
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales]}"
+            + " on 0,\n"
+            + " [Product].[Product Family].Members on 1\n"
+            + "from [Sales]");
+        QUERIES.put(
+            "crossjoin",
+            "select NON EMPTY Crossjoin(\n"
+            + "  [Customers].[City].Members, [Gender].Members) on 0,\n"
+            + " NON EMPTY [Product].[Product Category].Members on 1\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Unit Sales]");
+        QUERIES.put(
+            "topcount",
+            "select TopCount([Product].[Product Name].Members, 20,\n"
+            + "  [Measures].[Unit Sales]) on 0,\n"
+            + " [Time].[Quarter].Members on 1\n"
+            + "from [Sales]");
+        QUERIES.put(
+            "calc",
+            "with member [Measures].[Profit Pct] as\n"
+            + "  '([Measures].[Store Sales] - [Measures].[Store Cost])\n"
+            + "   / [Measures].[Store Sales]', format_string = '0.00%'\n"
+            + "select {[Measures].[Profit Pct]} on 0,\n"
+            + " Order([Store].[Store Name].Members, [Measures].[Profit Pct],"
+            + " BDESC) on 1\n"
+            + "from [Sales]");
+    }
+
+    /** Name of the query to run. */
+    @Param({"simple", "crossjoin", "topcount", "calc"})
+    public String query;
+
+    /** Whether to flush the cell cache before each query. */
+    @Param({"false", "true"})
+    public boolean flush;
+
+    private Connection connection;
+    private CacheControl.CellRegion region;
+
+    @Setup
+    public void setup() {
+        connection =
+            DriverManager.getConnection(
+                TestContext.getDefaultConnectString(), null);
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        region =
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true));
+    }
+
+    @Setup(Level.Invocation)
+    public void flushCells() {
+        if (flush) {
+            connection.getCacheControl(null).flush(region);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Benchmark
+    public Result execute() {
+        return connection.execute(connection.parseQuery(QUERIES.get(query)));
+    }
+}
+
+// End QueryBenchmark.java
@@ -0,0 +1,128 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link FusedExpCompiler}. Checks that queries return the same
+ * results as with the default compiler.
+ */
+public class FusedExpCompilerTest extends FoodMartTestCase {
+    public FusedExpCompilerTest() {
+    }
+
+    public FusedExpCompilerTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that an arithmetic expression is compiled into a single
+     * calculation, and that IIf on its own is not.
+     */
+    public void testFused() {
+        propSaver.set(
+            propSaver.properties.ExpCompilerClass,
+            FusedExpCompiler.class.getName());
+        final Query query =
+            getConnection().parseQuery(
+                "with member [Measures].[A] as\n"
+                + "  '([Measures].[Unit Sales] + 1) * -2'\n"
+                + " member [Measures].[B] as\n"
+                + "  'IIf([Measures].[Unit Sales] > 100, 1, 2)'\n"
+                + "select {[Measures].[A], [Measures].[B]} on 0\n"
+                + "from [Sales]");
+        final Formula[] formulas = query.getFormulas();
+        final Calc calc0 =
+            query.compileExpression(formulas[0].getExpression(), true, null);
+        assertTrue(calc0 instanceof FusedExpCompiler.FusedDoubleCalc);
+        assertEquals(1, calc0.getCalcs().length);
+        final Calc calc1 =
+            query.compileExpression(formulas[1].getExpression(), true, null);
+        assertFalse(calc1 instanceof FusedExpCompiler.FusedDoubleCalc);
+    }
+
+    /**
+     * Tests arithmetic on empty cells, which are null.
+     */
+    public void testNulls() {
+        assertSameResult(
+            "with member [Measures].[Sum] as\n"
+            + "  '[Measures].[Unit Sales] + ([Measures].[Unit Sales],\n"
+            + "   [Time].[1998])'\n"
+            + " member [Measures].[Difference] as\n"
+            + "  '([Measures].[Unit Sales], [Time].[1998])\n"
+            + "   - [Measures].[Unit Sales]'\n"
+            + " member [Measures].[Product] as\n"
+            + "  '[Measures].[Unit Sales] * ([Measures].[Unit Sales],\n"
+            + "   [Time].[1998])'\n"
+            + " member [Measures].[Ratio] as\n"
+            + "  '[Measures].[Unit Sales] / ([Measures].[Unit Sales],\n"
+            + "   [Time].[1998])'\n"
+            + " member [Measures].[Negative] as\n"
+            + "  '- ([Measures].[Unit Sales], [Time].[1998]) + 1'\n"
+            + "select {[Measures].[Sum], [Measures].[Difference],\n"
+            + "  [Measures].[Product], [Measures].[Ratio],\n"
+            + "  [Measures].[Negative]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests division by null when
+     * {@link MondrianProperties#NullDenominatorProducesNull} is true.
+     */
+    public void testNullDenominatorProducesNull() {
+        propSaver.set(propSaver.properties.NullDenominatorProducesNull, true);
+        assertSameResult(
+            "with member [Measures].[Ratio] as\n"
+            + "  '[Measures].[Unit Sales] / ([Measures].[Unit Sales],\n"
+            + "   [Time].[1998])'\n"
+            + "select {[Measures].[Ratio]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests IIf and CoalesceEmpty within arithmetic, and calculated members
+     * that refer to other calculated members.
+     */
+    public void testConditional() {
+        assertSameResult(
+            "with member [Measures].[Profit] as\n"
+            + "  '[Measures].[Store Sales] - [Measures].[Store Cost]'\n"
+            + " member [Measures].[Margin] as\n"
+            + "  '100 * IIf([Measures].[Store Sales] = 0, 0,\n"
+            + "   [Measures].[Profit] / [Measures].[Store Sales])',\n"
+            + "  FORMAT_STRING = '#.00'\n"
+            + " member [Measures].[Growth] as\n"
+            + "  'CoalesceEmpty(([Measures].[Unit Sales], [Time].[1998]),\n"
+            + "   ([Measures].[Unit Sales], [Time].[1997]), 0) + 1'\n"
+            + "select {[Measures].[Profit], [Measures].[Margin],\n"
+            + "  [Measures].[Growth]} on 0,\n"
+            + " [Product].[Product Department].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    private void assertSameResult(String mdx) {
+        final TestContext context = getTestContext();
+        final String expected = TestContext.toString(context.executeQuery(mdx));
+        propSaver.set(
+            propSaver.properties.ExpCompilerClass,
+            FusedExpCompiler.class.getName());
+        assertEquals(
+            expected, TestContext.toString(context.executeQuery(mdx)));
+    }
+}
+
+// End FusedExpCompilerTest.java
@@ -15,6 +15,7 @@ import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.type.*;
 import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
 
 import junit.framework.Assert;
 
@@ -252,6 +253,72 @@ if (! Util.Retrowoven) {
         Assert.assertEquals(e, s);
     }
 
+    ////////////////////////////////////////////////////////////////////////
+    // Non empty
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Tests that a NON EMPTY crossjoin that removes empty tuples while it
+     * generates its product, and loads cells batch by batch, returns the same
+     * result as one that materializes its product.
+     */
+    public void testNonEmptyStreamed() {
+        propSaver.set(propSaver.properties.EnableNativeCrossJoin, false);
+        final String mdx =
+            "with member [Measures].[Profit] as\n"
+            + "  '[Measures].[Store Sales] - [Measures].[Store Cost]'\n"
+            + "select NON EMPTY {[Measures].[Unit Sales],\n"
+            + "  [Measures].[Profit]} on 0,\n"
+            + " NON EMPTY Crossjoin([Store].[Store City].Members,\n"
+            + "  [Product].[Product Family].Members) on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q1]";
+        propSaver.set(
+            propSaver.properties.CrossJoinStreamingSize, Integer.MAX_VALUE);
+        getTestContext().flushSchemaCache();
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(mdx));
+        propSaver.set(propSaver.properties.CrossJoinStreamingSize, 0);
+        getTestContext().flushSchemaCache();
+        assertEquals(
+            expected,
+            TestContext.toString(getTestContext().executeQuery(mdx)));
+    }
+
+    /**
+     * Tests that when NonEmptyCrossJoin streams its product, the result limit
+     * applies to the non-empty tuples, not to the product.
+     */
+    public void testNonEmptyCrossJoinStreamedResultLimit() {
+        propSaver.set(propSaver.properties.EnableNativeCrossJoin, false);
+        final String mdx =
+            "select NonEmptyCrossJoin([Store].[Store City].Members,\n"
+            + "  [Product].[Product Family].Members) on 0\n"
+            + "from [Sales]";
+        propSaver.set(
+            propSaver.properties.CrossJoinStreamingSize, Integer.MAX_VALUE);
+        final Result result = getTestContext().executeQuery(mdx);
+        final int count = result.getAxes()[0].getPositions().size();
+        assertTrue(count > 0);
+        final String expected = TestContext.toString(result);
+
+        // The product has more tuples than the limit.
+        propSaver.set(propSaver.properties.ResultLimit, count + 1);
+        try {
+            getTestContext().executeQuery(mdx);
+            fail("expected error");
+        } catch (Throwable e) {
+            assertTrue(
+                e.getMessage(),
+                e.getMessage().indexOf("Size of CrossJoin result") >= 0);
+        }
+
+        propSaver.set(propSaver.properties.CrossJoinStreamingSize, 0);
+        assertEquals(
+            expected,
+            TestContext.toString(getTestContext().executeQuery(mdx)));
+    }
+
     ////////////////////////////////////////////////////////////////////////
     // Helper methods
     ////////////////////////////////////////////////////////////////////////
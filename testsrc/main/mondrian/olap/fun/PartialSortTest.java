@@ -9,6 +9,7 @@
 
 package mondrian.olap.fun;
 
+import mondrian.olap.Util;
 import mondrian.test.PerformanceTest;
 
 import junit.framework.TestCase;
@@ -502,6 +503,67 @@ public class PartialSortTest extends TestCase
         randomItemTests(50000, 12000);
     }
 
+    // checks that each algorithm returns the same items as a full stable sort
+    public void testStableAlgorithmsAgree() {
+        final Item[] vec = newRandomItems(5000, 0, 500);
+        final List<Item> expected = new ArrayList<Item>(Arrays.asList(vec));
+        Collections.sort(expected, Item.byKey);
+        for (int algorithm : new int[] {0, 1, 4, 5}) {
+            for (int limit : new int[] {1, 10, 2500, 5000}) {
+                assertEquals(
+                    "algorithm " + algorithm + ", limit " + limit,
+                    expected.subList(0, limit),
+                    FunUtil.stablePartialSort(
+                        Arrays.asList(vec), Item.byKey, limit, algorithm));
+            }
+        }
+        assertEquals(
+            Collections.<Item>emptyList(),
+            FunUtil.stablePartialSortHeap(Arrays.asList(vec), Item.byKey, 0));
+    }
+
+    // checks that sorting positions by precomputed values, on one thread or
+    // several, is stable and agrees with FunUtil.compareValues
+    public void testIndexSorter() {
+        final int length = 20000;
+        final Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            final int r = random.nextInt(length / 10);
+            values[i] = r == 0 ? Util.nullValue : (Object) r;
+        }
+        values[7] = Double.NaN;
+        values[11] = Double.NEGATIVE_INFINITY;
+        for (boolean desc : new boolean[] {false, true}) {
+            final Integer[] expected = new Integer[length];
+            for (int i = 0; i < length; i++) {
+                expected[i] = i;
+            }
+            final boolean desc2 = desc;
+            Arrays.sort(
+                expected,
+                new Comparator<Integer>() {
+                    public int compare(Integer i, Integer j) {
+                        final int c =
+                            FunUtil.compareValues(values[i], values[j]);
+                        return desc2 ? -c : c;
+                    }
+                });
+            final IndexSorter sorter = IndexSorter.forValues(values, desc);
+            for (int partitionCount : new int[] {1, 2, 3, 8}) {
+                final int[] indexes = sorter.sort(length, partitionCount);
+                for (int i = 0; i < length; i++) {
+                    assertEquals(
+                        "partitions " + partitionCount + ", position " + i,
+                        (int) expected[i], indexes[i]);
+                }
+            }
+            final int[] top = sorter.top(length, 100);
+            for (int i = 0; i < top.length; i++) {
+                assertEquals((int) expected[i], top[i]);
+            }
+        }
+    }
+
 
     // Compares elapsed time of full sort (mergesort), partial sort, and stable
     // partial sort on the same input set.
@@ -545,6 +607,13 @@ public class PartialSortTest extends TestCase
         FunUtil.stablePartialSort(vec4List, comp, limit, 4);
         dt = System.currentTimeMillis() - now;
         logger.debug(" julian's stable partial sort took " + dt + " msecs");
+
+        // heap of positions, the default algorithm
+        List<Integer> vec5List = Arrays.asList(vec1.clone());
+        now = System.currentTimeMillis();
+        FunUtil.stablePartialSort(vec5List, comp, limit, 5);
+        dt = System.currentTimeMillis() - now;
+        logger.debug(" heap stable partial sort took " + dt + " msecs");
     }
 
     // compare speed on different sizes of input
@@ -0,0 +1,87 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.olap.fun;
+
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+
+/**
+ * Unit test for {@link ValueAccumulator}. Checks that {@code Sum} and
+ * {@code Avg} of a measure, which set the measure once, return the same
+ * values as of an expression, which is evaluated for each tuple.
+ */
+public class ValueAccumulatorTest extends FoodMartTestCase {
+    public ValueAccumulatorTest() {
+    }
+
+    public ValueAccumulatorTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests sets of members, some of whose cells are empty.
+     */
+    public void testMembers() {
+        assertSameValues(
+            "[Time].[Quarter].Members",
+            "[Gender].Members");
+    }
+
+    /**
+     * Tests a set of tuples, evaluated lazily.
+     */
+    public void testTuples() {
+        assertSameValues(
+            "Crossjoin([Gender].Children, [Time].[Month].Members)",
+            "[Store].[Store Country].Members");
+    }
+
+    /**
+     * Tests a set which contains measures, whose cells are evaluated with
+     * each measure in turn.
+     */
+    public void testSetContainsMeasures() {
+        assertSameValues(
+            "{[Measures].[Unit Sales], [Measures].[Store Sales]}",
+            "[Gender].Members");
+    }
+
+    private void assertSameValues(String set, String rows) {
+        final Result result =
+            executeQuery(
+                "with member [Measures].[Sum] as\n"
+                + "  'Sum(" + set + ", [Measures].[Unit Sales])'\n"
+                + " member [Measures].[Sum 2] as\n"
+                + "  'Sum(" + set + ", [Measures].[Unit Sales] * 1)'\n"
+                + " member [Measures].[Avg] as\n"
+                + "  'Avg(" + set + ", [Measures].[Unit Sales])'\n"
+                + " member [Measures].[Avg 2] as\n"
+                + "  'Avg(" + set + ", [Measures].[Unit Sales] * 1)'\n"
+                + "select {[Measures].[Sum], [Measures].[Sum 2],\n"
+                + "  [Measures].[Avg], [Measures].[Avg 2]} on 0,\n"
+                + " " + rows + " on 1\n"
+                + "from [Sales]");
+        final int rowCount =
+            result.getAxes()[1].getPositions().size();
+        assertTrue(rowCount > 0);
+        for (int i = 0; i < rowCount; i++) {
+            for (int j = 0; j < 4; j += 2) {
+                final Object expected =
+                    result.getCell(new int[] {j + 1, i}).getValue();
+                final Object actual =
+                    result.getCell(new int[] {j, i}).getValue();
+                assertEquals(
+                    "row " + i + ", column " + j, expected, actual);
+            }
+        }
+    }
+}
+
+// End ValueAccumulatorTest.java
@@ -0,0 +1,104 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap;
+
+import mondrian.olap.Util;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link RolapResult.CellInfoStore}.
+ */
+public class CellInfoStoreTest extends TestCase {
+    private static final RolapResult.ValueFormatter FORMATTER =
+        new RolapResult.ValueFormatter() {
+            public String format(Object value, String formatString) {
+                return formatString + ":" + value;
+            }
+        };
+
+    public void testDense() {
+        final RolapResult.CellInfoContainer store =
+            RolapResult.CellInfoStore.create(
+                new int[] {3, 4}, false, CellKey.Generator.newCellKey(2));
+        assertTrue(store instanceof RolapResult.CellInfoStore);
+        checkStore(store);
+    }
+
+    public void testSparse() {
+        final RolapResult.CellInfoContainer store =
+            RolapResult.CellInfoStore.create(
+                new int[] {3, 4}, true, CellKey.Generator.newCellKey(2));
+        checkStore(store);
+
+        // Many cells, to force the arrays and hash table to grow.
+        store.clear();
+        final RolapResult.CellInfoContainer bigStore =
+            RolapResult.CellInfoStore.create(
+                new int[] {100000, 100000},
+                false,
+                CellKey.Generator.newCellKey(2));
+        for (int i = 0; i < 1000; i++) {
+            bigStore.put(new int[] {i * 97, i}, i, "#", FORMATTER);
+        }
+        bigStore.trimToSize();
+        assertEquals(1000, bigStore.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, bigStore.lookup(new int[] {i * 97, i}).value);
+        }
+        assertNull(bigStore.lookup(new int[] {1, 1}).value);
+        bigStore.put(new int[] {1, 1}, 5, "#", FORMATTER);
+        assertEquals(1001, bigStore.size());
+    }
+
+    public void testOverflow() {
+        // Cell ordinals would not fit into a long.
+        final RolapResult.CellInfoContainer store =
+            RolapResult.CellInfoStore.create(
+                new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE, 3},
+                false,
+                CellKey.Generator.newCellKey(3));
+        assertTrue(store instanceof RolapResult.CellInfoMap);
+    }
+
+    private void checkStore(RolapResult.CellInfoContainer store) {
+        assertEquals(0, store.size());
+        store.put(new int[] {0, 0}, 1.5d, "#.0", FORMATTER);
+        store.put(new int[] {2, 3}, "x", null, FORMATTER);
+        store.put(new int[] {1, 2}, null, "#.0", FORMATTER);
+        store.put(new int[] {2, 0}, Util.nullValue, "#.0", FORMATTER);
+        assertEquals(4, store.size());
+
+        RolapResult.CellInfo ci = store.lookup(new int[] {0, 0});
+        assertEquals(1.5d, ci.value);
+        assertEquals("#.0", ci.formatString);
+        assertEquals("#.0:1.5", ci.getFormatValue());
+        assertEquals("x", store.lookup(new int[] {2, 3}).value);
+        assertNull(store.lookup(new int[] {2, 3}).formatString);
+        assertNull(store.lookup(new int[] {1, 2}).value);
+        assertSame(Util.nullValue, store.lookup(new int[] {2, 0}).value);
+
+        // Value arrives in a later pass; format is replaced.
+        store.put(new int[] {1, 2}, 7, "#", FORMATTER);
+        assertEquals(7, store.lookup(new int[] {1, 2}).value);
+        assertEquals("#", store.lookup(new int[] {1, 2}).formatString);
+        assertEquals(4, store.size());
+
+        // Cells that were not stored, and positions out of range.
+        assertNull(store.lookup(new int[] {0, 1}).value);
+        assertNull(store.lookup(new int[] {3, 0}).value);
+        assertNull(store.lookup(new int[] {0, -1}).value);
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.lookup(new int[] {0, 0}).value);
+    }
+}
+
+// End CellInfoStoreTest.java
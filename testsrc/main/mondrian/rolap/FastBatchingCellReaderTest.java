@@ -12,6 +12,7 @@ package mondrian.rolap;
 import mondrian.olap.Connection;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.MondrianServer;
+import mondrian.olap.Result;
 import mondrian.rolap.agg.*;
 import mondrian.server.*;
 import mondrian.spi.Dialect;
@@ -2286,6 +2287,100 @@ public class FastBatchingCellReaderTest extends BatchTestCase {
                 Arrays.asList(intSet4),
                 Dialect.Datatype.Integer));
     }
+
+    /**
+     * Tests that splitting segment loads into concurrent SQL statements,
+     * per {@link MondrianProperties#SegmentLoadParallelism}, gives the same
+     * results as loading each batch in one statement.
+     */
+    public void testSegmentLoadParallelism() {
+        final String query =
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales],\n"
+            + " [Measures].[Customer Count]} on 0,\n"
+            + " {[Store].[Store State].Members} * {[Gender].Members} on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q1]";
+        final TestContext testContext = getTestContext();
+        testContext.flushSchemaCache();
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.SegmentLoadParallelism, 4);
+        testContext.flushSchemaCache();
+        assertEquals(
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+    }
+
+    /**
+     * Tests that two approximate distinct-count measures on one star are
+     * loaded by separate SQL statements. Each statement groups by its
+     * measure's distinct key; if the two shared a statement, it would return
+     * a row for each combination of the two keys.
+     */
+    public void testApproxDistinctCountMeasuresLoadedSeparately() {
+        final TestContext testContext =
+            getTestContext().createSubstitutingCube(
+                "Sales",
+                null,
+                "<Measure name=\"Approx Customer Count\" column=\"customer_id\""
+                + " aggregator=\"approx-distinct-count\"/>\n"
+                + "<Measure name=\"Approx Product Count\" column=\"product_id\""
+                + " aggregator=\"approx-distinct-count\"/>",
+                null,
+                null);
+        testContext.flushSchemaCache();
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        final Result result;
+        try {
+            result =
+                testContext.executeQuery(
+                    "select {[Measures].[Approx Customer Count],\n"
+                    + " [Measures].[Approx Product Count],\n"
+                    + " [Measures].[Customer Count]} on 0,\n"
+                    + " [Gender].[Gender].Members on 1\n"
+                    + "from [Sales]");
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        int customerCount = 0;
+        int productCount = 0;
+        for (String sql : sqls) {
+            final int groupBy = sql.indexOf("group by");
+            if (groupBy < 0) {
+                continue;
+            }
+            final String groupByClause = sql.substring(groupBy);
+            final boolean customer = groupByClause.contains("customer_id");
+            final boolean product = groupByClause.contains("product_id");
+            assertFalse(sql, customer && product);
+            if (customer) {
+                ++customerCount;
+            }
+            if (product) {
+                ++productCount;
+            }
+        }
+        assertEquals(sqls.toString(), 1, customerCount);
+        assertEquals(sqls.toString(), 1, productCount);
+
+        // The estimates are close to the exact counts.
+        for (int i = 0; i < 2; i++) {
+            final double exact =
+                ((Number) result.getCell(new int[] {2, i}).getValue())
+                    .doubleValue();
+            final double approx =
+                ((Number) result.getCell(new int[] {0, i}).getValue())
+                    .doubleValue();
+            assertEquals(exact, approx, exact * 0.06);
+        }
+    }
 }
 
 // End FastBatchingCellReaderTest.java
@@ -0,0 +1,104 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for {@link MemberPrefetcher}.
+ */
+public class MemberPrefetcherTest extends FoodMartTestCase {
+    public MemberPrefetcherTest() {
+    }
+
+    public MemberPrefetcherTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that the reads of the axes, the slicer and the named sets that
+     * they reference are found, grouped by hierarchy.
+     */
+    public void testFindReads() {
+        propSaver.set(propSaver.properties.EnableNativeNonEmpty, true);
+        assertReads(
+            "with set [Cities] as '[Store].[Store City].Members'\n"
+            + " set [Unused] as '[Customers].[Country].Members'\n"
+            + "select Crossjoin([Product].[Product Family].Members,\n"
+            + "  [Gender].[All Gender].Children) on 0,\n"
+            + " Crossjoin([Cities], [Product].[Product Department].Members)"
+            + " on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997]",
+            "[[Product].[Product Family], [Product].[Product Department],"
+            + " [Gender].[All Gender], [Store].[Store City]]");
+    }
+
+    /**
+     * Tests that the members of non-empty axes, and of the arguments of
+     * non-empty functions, are not read if native non-empty evaluation is
+     * enabled, because the query will read them using different SQL.
+     */
+    public void testNonEmpty() {
+        final String mdx =
+            "select NON EMPTY [Product].[Product Family].Members on 0,\n"
+            + " NonEmptyCrossJoin([Store].[Store Country].Members,\n"
+            + "   [Gender].[Gender].Members) on 1\n"
+            + "from [Sales]";
+        propSaver.set(propSaver.properties.EnableNativeNonEmpty, true);
+        assertReads(mdx, "[]");
+        propSaver.set(propSaver.properties.EnableNativeNonEmpty, false);
+        assertReads(
+            mdx,
+            "[[Product].[Product Family], [Store].[Store Country],"
+            + " [Gender].[Gender]]");
+    }
+
+    /**
+     * Tests that a query returns the same result whether or not its members
+     * are prefetched.
+     */
+    public void testSameResult() {
+        final String mdx =
+            "with set [Cities] as '[Store].[Store City].Members'\n"
+            + "select Crossjoin([Product].[Product Family].Members,\n"
+            + "  [Gender].[All Gender].Children) on 0,\n"
+            + " [Cities] on 1\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Unit Sales]";
+        final TestContext context = getTestContext();
+        propSaver.set(propSaver.properties.ConcurrentMemberPrefetch, false);
+        context.flushSchemaCache();
+        final String expected = TestContext.toString(context.executeQuery(mdx));
+        propSaver.set(propSaver.properties.ConcurrentMemberPrefetch, true);
+        context.flushSchemaCache();
+        assertEquals(
+            expected, TestContext.toString(context.executeQuery(mdx)));
+    }
+
+    private void assertReads(String mdx, String expected) {
+        final Query query = getConnection().parseQuery(mdx);
+        final MemberPrefetcher prefetcher =
+            new MemberPrefetcher(query.getSchemaReader(true));
+        prefetcher.addQuery(query);
+        final List<String> names = new ArrayList<String>();
+        for (Object read : prefetcher.getReads()) {
+            names.add(((OlapElement) read).getUniqueName());
+        }
+        assertEquals(expected, names.toString());
+    }
+}
+
+// End MemberPrefetcherTest.java
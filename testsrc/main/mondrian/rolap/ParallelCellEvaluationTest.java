@@ -0,0 +1,91 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Tests that evaluating the cells of a result in parallel partitions, per
+ * {@link MondrianProperties#ParallelCellEvaluationThreshold}, gives the same
+ * results as evaluating them on one thread.
+ */
+public class ParallelCellEvaluationTest extends FoodMartTestCase {
+    public ParallelCellEvaluationTest() {
+    }
+
+    public ParallelCellEvaluationTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Grid without calculated members, which is evaluated in parallel.
+     */
+    public void testPlainGrid() {
+        assertSameResult(
+            "select Crossjoin(\n"
+            + "  [Store].[Store State].Members, [Gender].Members) on 0,\n"
+            + " [Product].[Product Department].Members on 1\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Unit Sales]",
+            false);
+    }
+
+    /**
+     * Grid whose cells are loaded in several batches, so that partitions
+     * stop early and the next pass evaluates all cells again.
+     */
+    public void testSmallBatches() {
+        propSaver.set(propSaver.properties.CellBatchSize, 10);
+        assertSameResult(
+            "select Crossjoin(\n"
+            + "  [Store].[Store City].Members, [Gender].Members) on 0,\n"
+            + " {[Measures].[Unit Sales], [Measures].[Store Cost]} on 1\n"
+            + "from [Sales]",
+            true);
+    }
+
+    /**
+     * Grid with a calculated member, which is evaluated on one thread.
+     */
+    public void testCalculatedMember() {
+        assertSameResult(
+            "with member [Measures].[Profit] as\n"
+            + "  '[Measures].[Store Sales] - [Measures].[Store Cost]'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Profit]} on 0,\n"
+            + " [Store].[Store City].Members on 1\n"
+            + "from [Sales]",
+            false);
+    }
+
+    private void assertSameResult(String mdx, boolean flush) {
+        final TestContext context = getTestContext();
+        propSaver.set(
+            propSaver.properties.ParallelCellEvaluationThreshold, 0);
+        if (flush) {
+            context.flushSchemaCache();
+        }
+        final String expected = TestContext.toString(context.executeQuery(mdx));
+
+        propSaver.set(
+            propSaver.properties.ParallelCellEvaluationThreshold, 1);
+        if (flush) {
+            context.flushSchemaCache();
+        }
+        // Once while loading cells, and once from cache.
+        assertEquals(
+            expected, TestContext.toString(context.executeQuery(mdx)));
+        assertEquals(
+            expected, TestContext.toString(context.executeQuery(mdx)));
+    }
+}
+
+// End ParallelCellEvaluationTest.java
@@ -0,0 +1,153 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.List;
+
+/**
+ * Unit test for {@link QueryPlanCache}, and for the caching of validated
+ * queries per {@link MondrianProperties#QueryPlanCacheSize}.
+ */
+public class QueryPlanCacheTest extends FoodMartTestCase {
+    public QueryPlanCacheTest() {
+    }
+
+    public QueryPlanCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that white space is collapsed, except in strings and
+     * identifiers.
+     */
+    public void testNormalize() {
+        assertEquals(
+            "select {[Measures].[Unit  Sales]} on 0 from [Sales]"
+            + " where Filter('a  b')",
+            QueryPlanCache.normalize(
+                "  select {[Measures].[Unit  Sales]}\n  on 0\n"
+                + "from [Sales]\t where Filter('a  b')\n"));
+    }
+
+    /**
+     * Tests that comments, and escaped closing quotes and brackets, are
+     * kept; in particular, that the line end that ends a line comment is
+     * not collapsed.
+     */
+    public void testNormalizeComments() {
+        assertEquals(
+            "select -- on 1\n [Gender].Members on 0 // x\nfrom [Sales]",
+            QueryPlanCache.normalize(
+                "select  -- on 1\n  [Gender].Members on 0 // x\nfrom [Sales]"));
+        assertEquals(
+            "select /* a\n  b */ {} on 0 from [Sales]",
+            QueryPlanCache.normalize(
+                "select /* a\n  b */\n{} on 0 from [Sales]"));
+        assertEquals(
+            "select {[A]]  b], 'x''  y'} on 0",
+            QueryPlanCache.normalize("select {[A]]  b], 'x''  y'}\n on 0"));
+        assertFalse(
+            QueryPlanCache.normalize(
+                "select -- on 1\n [Gender].Members on 0 from [Sales]")
+                .equals(
+                    QueryPlanCache.normalize(
+                        "select -- on 1 [Gender].Members on 0 from [Sales]")));
+    }
+
+    /**
+     * Tests that a query whose text differs only in white space is found in
+     * the cache, and returns the same result as the original query.
+     */
+    public void testHit() {
+        propSaver.set(propSaver.properties.QueryPlanCacheSize, 10);
+        final QueryPlanCache cache = getCache();
+        final String mdx =
+            "with member [Measures].[Profit] as\n"
+            + "  '[Measures].[Store Sales] - [Measures].[Store Cost]'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Profit]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]";
+        final String expected = execute(mdx);
+        assertEquals(1, cache.size());
+        assertEquals(expected, execute(mdx.replace("\n", "\n  ")));
+        assertEquals(1, cache.size());
+
+        // Modifying the query returned does not modify the cached query.
+        final Query query = getConnection().parseQuery(mdx);
+        query.addFormula(
+            new Id(new Id.NameSegment("Extra")),
+            getConnection().parseExpression("{[Gender].[M]}"));
+        assertEquals(expected, execute(mdx));
+    }
+
+    /**
+     * Tests that a query with parameters is not cached.
+     */
+    public void testParameterNotCached() {
+        propSaver.set(propSaver.properties.QueryPlanCacheSize, 10);
+        final QueryPlanCache cache = getCache();
+        execute(
+            "select {Parameter(\"Gender\", [Gender], [Gender].[M])} on 0\n"
+            + "from [Sales]");
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that the cache discards the least recently used queries, and
+     * rejects queries parsed before it was cleared.
+     */
+    public void testEviction() {
+        propSaver.set(propSaver.properties.QueryPlanCacheSize, 2);
+        final QueryPlanCache cache = getCache();
+        final String[] mdxs = {
+            "select [Gender].Members on 0 from [Sales]",
+            "select [Store].Children on 0 from [Sales]",
+            "select [Time].Children on 0 from [Sales]",
+        };
+        for (String mdx : mdxs) {
+            execute(mdx);
+        }
+        assertEquals(2, cache.size());
+        final Role role = getConnection().getRole();
+        final FunTable funTable = getConnection().getSchema().getFunTable();
+        assertNull(
+            cache.get(
+                QueryPlanCache.createKey(mdxs[0], role, funTable, false)));
+        final Query query =
+            cache.get(
+                QueryPlanCache.createKey(mdxs[2], role, funTable, false));
+        assertNotNull(query);
+
+        final int generation = cache.getGeneration();
+        cache.clear();
+        assertEquals(0, cache.size());
+        final List<Object> key =
+            QueryPlanCache.createKey(mdxs[1], role, funTable, false);
+        cache.put(key, query, generation, 2);
+        assertNull(cache.get(key));
+    }
+
+    private QueryPlanCache getCache() {
+        final QueryPlanCache cache =
+            ((RolapSchema) getConnection().getSchema()).getQueryPlanCache();
+        cache.clear();
+        return cache;
+    }
+
+    private String execute(String mdx) {
+        return TestContext.toString(getTestContext().executeQuery(mdx));
+    }
+}
+
+// End QueryPlanCacheTest.java
@@ -0,0 +1,114 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.calc.Calc;
+import mondrian.olap.*;
+import mondrian.rolap.agg.CellRequest;
+import mondrian.server.Locus;
+import mondrian.test.FoodMartTestCase;
+
+/**
+ * Unit test for {@link RolapEvaluator}.
+ */
+public class RolapEvaluatorTest extends FoodMartTestCase {
+    public RolapEvaluatorTest() {
+    }
+
+    public RolapEvaluatorTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that {@code Sum} of a stored measure reads the cells of the set
+     * via {@link RolapEvaluator#evaluateCells}, making a cell request for
+     * each tuple rather than setting it into the context and evaluating the
+     * current cell, whereas {@code Sum} of an expression evaluates the
+     * current cell for each tuple.
+     */
+    public void testSumOfStoredMeasureReadsCellsInOneCall() {
+        final RolapResult result =
+            (RolapResult) executeQuery(
+                "with member [Measures].[Sum] as\n"
+                + "  'Sum([Time].[Month].Members, [Measures].[Unit Sales])'\n"
+                + " member [Measures].[Sum 2] as\n"
+                + "  'Sum([Time].[Month].Members,"
+                + " [Measures].[Unit Sales] * 1)'\n"
+                + "select {[Measures].[Sum], [Measures].[Sum 2]} on 0\n"
+                + "from [Sales]");
+        final Query query = result.getQuery();
+        final Formula[] formulas = query.getFormulas();
+
+        // 24 months, each of whose cells the reader says is 1.
+        CountingCellReader reader =
+            evaluate(result, query, formulas[0], 24d);
+        assertEquals(0, reader.evaluatorCount);
+        assertEquals(24, reader.requestCount);
+
+        reader = evaluate(result, query, formulas[1], 24d);
+        assertEquals(24, reader.evaluatorCount);
+        assertEquals(0, reader.requestCount);
+    }
+
+    private CountingCellReader evaluate(
+        final RolapResult result,
+        final Query query,
+        final Formula formula,
+        final double expected)
+    {
+        final RolapEvaluator evaluator =
+            (RolapEvaluator) result.getEvaluator(new int[] {0});
+        final CountingCellReader reader = new CountingCellReader();
+        evaluator.setCellReader(reader);
+        final Calc calc =
+            query.compileExpression(formula.getExpression(), true, null);
+        final Object value =
+            Locus.execute(
+                (RolapConnection) getConnection(),
+                "RolapEvaluatorTest",
+                new Locus.Action<Object>() {
+                    public Object execute() {
+                        return calc.evaluate(evaluator);
+                    }
+                });
+        assertEquals(expected, ((Number) value).doubleValue(), 0d);
+        return reader;
+    }
+
+    /**
+     * Cell reader that says that every cell is 1, and counts how it was
+     * asked.
+     */
+    private static class CountingCellReader implements CellReader {
+        int evaluatorCount;
+        int requestCount;
+
+        public Object get(RolapEvaluator evaluator) {
+            ++evaluatorCount;
+            return 1;
+        }
+
+        public Object get(CellRequest request) {
+            assertNotNull(request);
+            ++requestCount;
+            return 1;
+        }
+
+        public int getMissCount() {
+            return 0;
+        }
+
+        public boolean isDirty() {
+            return false;
+        }
+    }
+}
+
+// End RolapEvaluatorTest.java
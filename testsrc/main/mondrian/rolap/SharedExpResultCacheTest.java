@@ -0,0 +1,113 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap;
+
+import mondrian.olap.*;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link SharedExpResultCache}, and for the sharing of
+ * expression results between queries, per
+ * {@link MondrianProperties#SharedExpResultCacheSize}.
+ */
+public class SharedExpResultCacheTest extends FoodMartTestCase {
+    private static final String CACHED_QUERY =
+        "select Cache(Filter([Product].[Product Family].Members,\n"
+        + "  [Measures].[Unit Sales] > 30000)) on 0\n"
+        + "from [Sales]";
+
+    public SharedExpResultCacheTest() {
+    }
+
+    public SharedExpResultCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that the cache discards the least recently used results, and
+     * rejects results computed before it was cleared.
+     */
+    public void testCache() {
+        final SharedExpResultCache cache = new SharedExpResultCache();
+        final int generation = cache.getGeneration();
+        cache.put("a", 1, generation, 2);
+        cache.put("b", 2, generation, 2);
+        assertEquals(1, cache.get("a"));
+        cache.put("c", 3, generation, 2);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.get("c"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.put("d", 4, generation, 2);
+        assertNull(cache.get("d"));
+        cache.put("d", 4, cache.getGeneration(), 2);
+        assertEquals(4, cache.get("d"));
+    }
+
+    /**
+     * Tests that a result is shared with later queries, which return the same
+     * result, and is discarded when cells are flushed.
+     */
+    public void testShared() {
+        final SharedExpResultCache cache = getCache();
+        propSaver.set(propSaver.properties.SharedExpResultCacheSize, 0);
+        final String expected = execute(CACHED_QUERY);
+        assertEquals(0, cache.size());
+
+        propSaver.set(propSaver.properties.SharedExpResultCacheSize, 100);
+        assertEquals(expected, execute(CACHED_QUERY));
+        assertEquals(1, cache.size());
+        assertEquals(expected, execute(CACHED_QUERY));
+        assertEquals(1, cache.size());
+
+        final Connection connection = getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true)));
+        assertEquals(0, cache.size());
+        assertEquals(expected, execute(CACHED_QUERY));
+    }
+
+    /**
+     * Tests that the result of an expression that refers to a calculated
+     * member defined in the query is not shared.
+     */
+    public void testQueryMemberNotShared() {
+        final SharedExpResultCache cache = getCache();
+        propSaver.set(propSaver.properties.SharedExpResultCacheSize, 100);
+        cache.clear();
+        execute(
+            "with member [Product].[Drink and Food] as\n"
+            + "  'Aggregate({[Product].[Drink], [Product].[Food]})'\n"
+            + "select Cache({[Product].[Drink and Food],\n"
+            + "  [Product].[Non-Consumable]}) on 0\n"
+            + "from [Sales]");
+        assertEquals(0, cache.size());
+    }
+
+    private SharedExpResultCache getCache() {
+        final SharedExpResultCache cache =
+            ((RolapSchema) getConnection().getSchema())
+                .getSharedExpResultCache();
+        cache.clear();
+        return cache;
+    }
+
+    private String execute(String mdx) {
+        return TestContext.toString(getTestContext().executeQuery(mdx));
+    }
+}
+
+// End SharedExpResultCacheTest.java
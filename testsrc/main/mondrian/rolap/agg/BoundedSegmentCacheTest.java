@@ -0,0 +1,183 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.*;
+import mondrian.rolap.cache.BoundedSegmentCache;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link mondrian.rolap.cache.BoundedSegmentCache} and
+ * {@link SegmentBuilder#estimateSize(mondrian.spi.SegmentBody)}.
+ */
+public class BoundedSegmentCacheTest extends TestCase {
+
+    public void testEstimateSize() {
+        final long intSize =
+            SegmentBuilder.estimateSize(
+                new DenseIntSegmentBody(
+                    new BitSet(),
+                    new int[1000],
+                    SegmentBuilderTest.dummyAxes()));
+        final long doubleSize =
+            SegmentBuilder.estimateSize(
+                new DenseDoubleSegmentBody(
+                    new BitSet(),
+                    new double[1000],
+                    SegmentBuilderTest.dummyAxes()));
+        final long bigDoubleSize =
+            SegmentBuilder.estimateSize(
+                new DenseDoubleSegmentBody(
+                    new BitSet(),
+                    new double[100000],
+                    SegmentBuilderTest.dummyAxes()));
+        assertTrue(intSize > 4000);
+        assertTrue(doubleSize > intSize);
+        assertTrue(bigDoubleSize > 800000);
+        assertTrue(bigDoubleSize < 1000000);
+
+        final Map<CellKey, Object> map = new HashMap<CellKey, Object>();
+        for (int i = 0; i < 100; i++) {
+            map.put(CellKey.Generator.newCellKey(new int[] {i, 0}), i * 1.5d);
+        }
+        final long sparseSize =
+            SegmentBuilder.estimateSize(
+                new SparseSegmentBody(map, SegmentBuilderTest.dummyAxes()));
+        assertTrue(sparseSize > 100 * 24);
+    }
+
+    /**
+     * Tests that, among segments of equal value, the least recently used is
+     * evicted.
+     */
+    public void testEvictsLeastRecentlyUsed() {
+        final SegmentBody body = body(1000);
+        final long size = SegmentBuilder.estimateSize(body);
+        final BoundedSegmentCache cache =
+            new BoundedSegmentCache(size * 2 + size / 2);
+        final SegmentHeader h1 = SegmentBuilderTest.dummyHeader("m1");
+        final SegmentHeader h2 = SegmentBuilderTest.dummyHeader("m2");
+        final SegmentHeader h3 = SegmentBuilderTest.dummyHeader("m3");
+        final List<SegmentHeader> deleted = new ArrayList<SegmentHeader>();
+        cache.addListener(
+            new SegmentCache.SegmentCacheListener() {
+                public void handle(SegmentCacheEvent e) {
+                    if (e.getEventType()
+                        == SegmentCacheEvent.EventType.ENTRY_DELETED)
+                    {
+                        deleted.add(e.getSource());
+                    }
+                }
+            });
+        final List<SegmentHeader> evicted = new ArrayList<SegmentHeader>();
+        cache.addEvictionListener(
+            new SegmentCache.SegmentCacheListener() {
+                public void handle(SegmentCacheEvent e) {
+                    evicted.add(e.getSource());
+                }
+            });
+        assertTrue(cache.put(h1, body));
+        assertTrue(cache.put(h2, body));
+        assertEquals(size * 2, cache.getByteCount());
+        // touch h1, so that h2 is least recently used
+        assertNotNull(cache.get(h1));
+        // h3 has been requested more often than h2
+        assertNull(cache.get(h3));
+        assertNull(cache.get(h3));
+        assertTrue(cache.put(h3, body));
+        assertNotNull(cache.get(h1));
+        assertNull(cache.get(h2));
+        assertNotNull(cache.get(h3));
+        assertEquals(Collections.singletonList(h2), deleted);
+        assertEquals(Collections.singletonList(h2), evicted);
+        assertEquals(size * 2, cache.getByteCount());
+        assertEquals(0, cache.getRejectCount());
+
+        // An explicit remove is reported to listeners, but is not an
+        // eviction.
+        assertTrue(cache.remove(h1));
+        assertEquals(Arrays.asList(h2, h1), deleted);
+        assertEquals(Collections.singletonList(h2), evicted);
+    }
+
+    /**
+     * Tests that a large segment that has been seen once is not admitted if
+     * it would evict segments that are used frequently.
+     */
+    public void testRejectsOneOffSegment() {
+        final SegmentBody small = body(1000);
+        final long smallSize = SegmentBuilder.estimateSize(small);
+        final BoundedSegmentCache cache =
+            new BoundedSegmentCache(smallSize * 10);
+        final List<SegmentHeader> hot = new ArrayList<SegmentHeader>();
+        for (int i = 0; i < 8; i++) {
+            final SegmentHeader header =
+                SegmentBuilderTest.dummyHeader("hot" + i);
+            hot.add(header);
+            cache.put(header, small);
+            for (int j = 0; j < 3; j++) {
+                assertNotNull(cache.get(header));
+            }
+        }
+
+        final SegmentHeader big = SegmentBuilderTest.dummyHeader("big");
+        assertFalse(cache.put(big, body(5000)));
+        assertNull(cache.get(big));
+        assertEquals(1, cache.getRejectCount());
+        for (SegmentHeader header : hot) {
+            assertNotNull(cache.get(header));
+        }
+
+        // A segment larger than the whole cache is never admitted.
+        assertFalse(
+            cache.put(
+                SegmentBuilderTest.dummyHeader("huge"), body(100000)));
+        assertEquals(2, cache.getRejectCount());
+        assertEquals(smallSize * 8, cache.getByteCount());
+    }
+
+    /**
+     * Tests that a segment that took a long time to load is kept in
+     * preference to cheaper segments that are used as often.
+     */
+    public void testKeepsExpensiveSegment() {
+        final SegmentBody body = body(1000);
+        final long size = SegmentBuilder.estimateSize(body);
+        final BoundedSegmentCache cache =
+            new BoundedSegmentCache(size * 2 + size / 2);
+        final SegmentHeader expensive =
+            SegmentBuilderTest.dummyHeader("expensive");
+        final SegmentHeader cheap = SegmentBuilderTest.dummyHeader("cheap");
+        final SegmentHeader other = SegmentBuilderTest.dummyHeader("other");
+        cache.recordLoadTime(expensive, 5000);
+        cache.put(expensive, body);
+        cache.recordLoadTime(cheap, 10);
+        cache.put(cheap, body);
+        // Expensive is least recently used, but too valuable to evict.
+        assertNotNull(cache.get(cheap));
+        cache.recordLoadTime(other, 100);
+        cache.get(other);
+        assertFalse(cache.put(other, body));
+        assertNotNull(cache.get(expensive));
+        assertEquals(1, cache.getRejectCount());
+    }
+
+    private static SegmentBody body(int cellCount) {
+        return new DenseDoubleSegmentBody(
+            new BitSet(),
+            new double[cellCount],
+            SegmentBuilderTest.dummyAxes());
+    }
+}
+
+// End BoundedSegmentCacheTest.java
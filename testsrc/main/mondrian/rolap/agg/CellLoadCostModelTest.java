@@ -0,0 +1,128 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.SegmentColumn;
+import mondrian.spi.SegmentHeader;
+import mondrian.util.ByteString;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link CellLoadCostModel}.
+ */
+public class CellLoadCostModelTest extends TestCase {
+    /**
+     * Tests that rollup is chosen while either cost is unknown.
+     */
+    public void testUnknownCostPrefersRollup() {
+        final CellLoadCostModel model = new CellLoadCostModel();
+        final SegmentHeader header = header("a");
+        final List<SegmentHeader> headers = Collections.singletonList(header);
+
+        // Nothing known about the segment or the table.
+        CellLoadCostModel.Estimate estimate =
+            model.estimate(headers, "fact", -1);
+        assertTrue(Double.isNaN(estimate.rollupMillis));
+        assertTrue(Double.isNaN(estimate.sqlMillis));
+        assertFalse(estimate.isSqlCheaper());
+
+        // Huge segment, but SQL cost unknown.
+        model.recordCellCount(header, 100000000);
+        estimate = model.estimate(headers, "fact", -1);
+        assertEquals(5000d, estimate.rollupMillis, 0.001d);
+        assertFalse(estimate.isSqlCheaper());
+
+        // Unknown segment among known ones.
+        estimate =
+            model.estimate(Arrays.asList(header, header("b")), "agg", 10);
+        assertTrue(Double.isNaN(estimate.rollupMillis));
+        assertFalse(estimate.isSqlCheaper());
+    }
+
+    /**
+     * Tests that SQL against a small aggregate table beats rolling up a big
+     * segment, but not a small one.
+     */
+    public void testAggTableBeatsBigRollup() {
+        final CellLoadCostModel model = new CellLoadCostModel();
+        final SegmentHeader big = header("big");
+        final SegmentHeader small = header("small");
+        model.recordCellCount(big, 10000000);
+        model.recordCellCount(small, 1000);
+
+        CellLoadCostModel.Estimate estimate =
+            model.estimate(Collections.singletonList(big), "agg_c", 1000);
+        assertEquals(500d, estimate.rollupMillis, 0.001d);
+        assertEquals(5.1d, estimate.sqlMillis, 0.001d);
+        assertTrue(estimate.isSqlCheaper());
+
+        // Rollup of a small segment is always chosen, even though the SQL is
+        // estimated to be slower.
+        estimate =
+            model.estimate(Collections.singletonList(small), "agg_c", 1000);
+        assertFalse(estimate.isSqlCheaper());
+    }
+
+    /**
+     * Tests that recorded SQL latency overrides the estimate from row counts,
+     * and that recorded rollup times change the cost per cell.
+     */
+    public void testHistory() {
+        final CellLoadCostModel model = new CellLoadCostModel();
+        final SegmentHeader header = header("a");
+        final List<SegmentHeader> headers = Collections.singletonList(header);
+        model.recordCellCount(header, 10000000);
+
+        model.recordSqlLoad("fact", 2000);
+        CellLoadCostModel.Estimate estimate =
+            model.estimate(headers, "fact", -1);
+        assertEquals(2000d, estimate.sqlMillis, 0.001d);
+        assertFalse(estimate.isSqlCheaper());
+
+        // Moving average moves towards the new observation.
+        model.recordSqlLoad("fact", 100);
+        estimate = model.estimate(headers, "fact", -1);
+        assertEquals(1430d, estimate.sqlMillis, 0.001d);
+
+        // Rollups turn out to be slow: 1 microsecond per cell.
+        for (int i = 0; i < 20; i++) {
+            model.recordRollup(10000, 10000000);
+        }
+        estimate = model.estimate(headers, "fact", -1);
+        assertTrue(estimate.rollupMillis > 9000d);
+        assertTrue(estimate.isSqlCheaper());
+
+        // Small rollups do not calibrate.
+        final double rollupMillis = estimate.rollupMillis;
+        model.recordRollup(10, 1000000000);
+        estimate = model.estimate(headers, "fact", -1);
+        assertEquals(rollupMillis, estimate.rollupMillis, 0.001d);
+    }
+
+    private static SegmentHeader header(String measureName) {
+        return new SegmentHeader(
+            "dummySchemaName",
+            new ByteString(new byte[]{}),
+            "dummyCubeName",
+            measureName,
+            Collections.singletonList(
+                new SegmentColumn("col", 10, null)),
+            Collections.<String>emptyList(),
+            "dummyFactTable",
+            BitKey.Factory.makeBitKey(1),
+            Collections.<SegmentColumn>emptyList());
+    }
+}
+
+// End CellLoadCostModelTest.java
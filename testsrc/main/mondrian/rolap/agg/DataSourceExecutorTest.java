@@ -0,0 +1,167 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.olap.QueryCanceledException;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Unit test for {@link DataSourceExecutor}.
+ */
+public class DataSourceExecutorTest extends TestCase {
+    private ExecutorService threadPool;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        threadPool = Executors.newCachedThreadPool();
+    }
+
+    protected void tearDown() throws Exception {
+        threadPool.shutdownNow();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that, when the executor is busy, a small load submitted after a
+     * large load runs first.
+     */
+    public void testSmallLoadsFirst() throws Exception {
+        final DataSourceExecutor executor =
+            new DataSourceExecutor("test", threadPool, 1, 0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> order =
+            Collections.synchronizedList(new ArrayList<String>());
+        final Future<String> blocker =
+            executor.submit(task("blocker", latch, order), 1, null);
+        final Future<String> big =
+            executor.submit(task("big", null, order), 1000000, null);
+        final Future<String> small =
+            executor.submit(task("small", null, order), 10, null);
+        assertEquals(2, executor.getQueueLength());
+        latch.countDown();
+        assertEquals("blocker", blocker.get(10, TimeUnit.SECONDS));
+        assertEquals("big", big.get(10, TimeUnit.SECONDS));
+        assertEquals("small", small.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("blocker", "small", "big"), order);
+        assertEquals(0, executor.getQueueLength());
+        assertTrue(executor.getMaxQueueMillis() >= 0);
+    }
+
+    /**
+     * Tests that a data source whose statements are all blocked does not
+     * delay statements against another data source.
+     */
+    public void testDataSourcesIndependent() throws Exception {
+        final DataSourceExecutor slow =
+            new DataSourceExecutor("slow", threadPool, 2, 0);
+        final DataSourceExecutor fast =
+            new DataSourceExecutor("fast", threadPool, 2, 0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> order =
+            Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 5; i++) {
+            slow.submit(task("slow" + i, latch, order), 1, null);
+        }
+        assertEquals(2, slow.getRunningCount());
+        assertEquals(3, slow.getQueueLength());
+        final Future<String> future =
+            fast.submit(task("fast", null, order), 1, null);
+        assertEquals("fast", future.get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("fast"), order);
+        latch.countDown();
+    }
+
+    /**
+     * Tests that a statement waits while the queue is full, and resumes when
+     * it has drained.
+     */
+    public void testBackPressure() throws Exception {
+        final DataSourceExecutor executor =
+            new DataSourceExecutor("test", threadPool, 1, 2);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> order =
+            Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 3; i++) {
+            executor.submit(task("t" + i, latch, order), 1, null);
+        }
+        assertEquals(2, executor.getQueueLength());
+        final Future<?> waiter =
+            threadPool.submit(
+                new Runnable() {
+                    public void run() {
+                        executor.awaitCapacity(null);
+                    }
+                });
+        try {
+            waiter.get(200, TimeUnit.MILLISECONDS);
+            fail("expected to wait");
+        } catch (TimeoutException e) {
+            // ok
+        }
+        latch.countDown();
+        waiter.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Tests that a statement that is interrupted while waiting for the queue
+     * to drain fails, and keeps its interrupt flag.
+     */
+    public void testInterruptWhileWaiting() throws Exception {
+        final DataSourceExecutor executor =
+            new DataSourceExecutor("test", threadPool, 1, 1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> order =
+            Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 2; i++) {
+            executor.submit(task("t" + i, latch, order), 1, null);
+        }
+        final Thread[] waiterThread = {null};
+        final Future<Boolean> waiter =
+            threadPool.submit(
+                new Callable<Boolean>() {
+                    public Boolean call() {
+                        waiterThread[0] = Thread.currentThread();
+                        try {
+                            executor.awaitCapacity(null);
+                            return false;
+                        } catch (QueryCanceledException e) {
+                            return Thread.interrupted();
+                        }
+                    }
+                });
+        while (waiterThread[0] == null) {
+            Thread.sleep(10);
+        }
+        waiterThread[0].interrupt();
+        assertEquals(Boolean.TRUE, waiter.get(10, TimeUnit.SECONDS));
+        latch.countDown();
+    }
+
+    private static Callable<String> task(
+        final String name,
+        final CountDownLatch latch,
+        final List<String> order)
+    {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                if (latch != null) {
+                    latch.await();
+                }
+                order.add(name);
+                return name;
+            }
+        };
+    }
+}
+
+// End DataSourceExecutorTest.java
@@ -0,0 +1,128 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.cache.DiskSegmentCache;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Unit test for {@link mondrian.rolap.cache.DiskSegmentCache}.
+ */
+public class DiskSegmentCacheTest extends TestCase {
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("mondrian-segments", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testSurvivesRestart() {
+        final SegmentHeader header = header();
+        final BitSet nulls = new BitSet();
+        nulls.set(1);
+        final double[] values = {1d, 0d, 3d, 4d, 5d, 6d};
+        final SegmentBody body =
+            new DenseDoubleSegmentBody(
+                nulls, values, SegmentBuilderTest.dummyAxes());
+
+        final DiskSegmentCache cache = new DiskSegmentCache(directory);
+        assertTrue(cache.put(header, body));
+        cache.tearDown();
+
+        // A new cache on the same directory finds the segment.
+        final DiskSegmentCache cache2 = new DiskSegmentCache(directory);
+        assertEquals(
+            Collections.singletonList(header), cache2.getSegmentHeaders());
+        final SegmentBody body2 = cache2.get(header);
+        assertNotNull(body2);
+        assertTrue(Arrays.equals(values, (double[]) body2.getValueArray()));
+        assertEquals(nulls, body2.getNullValueIndicators());
+        assertEquals(
+            Arrays.asList(body.getAxisValueSets()),
+            Arrays.asList(body2.getAxisValueSets()));
+
+        assertTrue(cache2.remove(header));
+        assertNull(cache2.get(header));
+        assertTrue(
+            new DiskSegmentCache(directory).getSegmentHeaders().isEmpty());
+    }
+
+    public void testDiscardsCorruptFiles() throws IOException {
+        final File file = new File(directory, "garbage.seg");
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        final DiskSegmentCache cache = new DiskSegmentCache(directory);
+        assertTrue(cache.getSegmentHeaders().isEmpty());
+        assertFalse(file.exists());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        final SegmentBody body =
+            new DenseDoubleSegmentBody(
+                new BitSet(),
+                new double[] {1d, 2d, 3d, 4d, 5d, 6d},
+                SegmentBuilderTest.dummyAxes());
+        final SegmentHeader h1 = SegmentBuilderTest.dummyHeader("m1");
+        final SegmentHeader h2 = SegmentBuilderTest.dummyHeader("m2");
+        final SegmentHeader h3 = SegmentBuilderTest.dummyHeader("m3");
+        final DiskSegmentCache sizingCache =
+            new DiskSegmentCache(directory, Long.MAX_VALUE);
+        assertTrue(sizingCache.put(h1, body));
+        final long size = sizingCache.getByteCount();
+        assertTrue(sizingCache.remove(h1));
+
+        final DiskSegmentCache cache =
+            new DiskSegmentCache(directory, size * 2 + size / 2);
+        assertTrue(cache.put(h1, body));
+        assertTrue(cache.put(h2, body));
+        // read h1, so that h2 is least recently used
+        assertNotNull(cache.get(h1));
+        assertTrue(cache.put(h3, body));
+        assertNotNull(cache.get(h1));
+        assertNull(cache.get(h2));
+        assertNotNull(cache.get(h3));
+        assertEquals(size * 2, cache.getByteCount());
+        assertEquals(2, directory.listFiles().length);
+        cache.tearDown();
+
+        // A smaller cache on the same directory keeps only one segment.
+        final DiskSegmentCache cache2 =
+            new DiskSegmentCache(directory, size + size / 2);
+        assertEquals(1, cache2.getSegmentHeaders().size());
+        assertEquals(1, directory.listFiles().length);
+
+        // A segment larger than the whole cache is refused.
+        assertFalse(new DiskSegmentCache(directory, 10).put(h2, body));
+    }
+
+    private static SegmentHeader header() {
+        return SegmentBuilderTest.dummyHeader("Unit Sales");
+    }
+}
+
+// End DiskSegmentCacheTest.java
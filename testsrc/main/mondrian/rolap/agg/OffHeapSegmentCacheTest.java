@@ -0,0 +1,158 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.*;
+import mondrian.rolap.cache.OffHeapSegmentCache;
+import mondrian.spi.*;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Unit test for {@link ByteBufferSegmentBody} and
+ * {@link mondrian.rolap.cache.OffHeapSegmentCache}.
+ */
+public class OffHeapSegmentCacheTest extends TestCase {
+
+    public void testDenseDoubleRoundTrip() {
+        final BitSet nulls = new BitSet();
+        nulls.set(2);
+        final double[] values = {1.5, 0d, 0d, 7d, -3.25, 100d};
+        final SegmentBody body =
+            new DenseDoubleSegmentBody(
+                nulls, values, SegmentBuilderTest.dummyAxes());
+        final ByteBufferSegmentBody copy =
+            new ByteBufferSegmentBody(ByteBufferSegmentBody.encode(body, true));
+
+        assertTrue(
+            Arrays.equals(values, (double[]) copy.getValueArray()));
+        assertEquals(nulls, copy.getNullValueIndicators());
+        assertAxesEqual(body, copy);
+        assertEquals(body.getValueMap(), copy.getValueMap());
+    }
+
+    public void testDenseObjectRoundTrip() {
+        final Object[] values =
+            {"a", null, new BigDecimal("1.25"), 5L, 7, true};
+        final SegmentBody body =
+            new DenseObjectSegmentBody(values, SegmentBuilderTest.dummyAxes());
+        final ByteBufferSegmentBody copy =
+            new ByteBufferSegmentBody(
+                ByteBufferSegmentBody.encode(body, false));
+
+        assertTrue(Arrays.equals(values, (Object[]) copy.getValueArray()));
+        assertAxesEqual(body, copy);
+    }
+
+    public void testSparseRoundTrip() {
+        final Map<CellKey, Object> map = new HashMap<CellKey, Object>();
+        map.put(CellKey.Generator.newCellKey(new int[] {0, 1}), 3d);
+        map.put(CellKey.Generator.newCellKey(new int[] {1, 2}), "x");
+        final SegmentBody body =
+            new SparseSegmentBody(map, SegmentBuilderTest.dummyAxes());
+        final ByteBufferSegmentBody copy =
+            new ByteBufferSegmentBody(ByteBufferSegmentBody.encode(body, true));
+
+        assertEquals(map, copy.getValueMap());
+        assertAxesEqual(body, copy);
+    }
+
+    public void testPopulateBufferDataset() {
+        final BitSet nulls = new BitSet();
+        nulls.set(5);
+        final ByteBufferSegmentBody body =
+            new ByteBufferSegmentBody(
+                ByteBufferSegmentBody.encode(
+                    new DenseDoubleSegmentBody(
+                        nulls,
+                        new double[] {1, 2, 3, 4, 5, 0},
+                        SegmentBuilderTest.dummyAxes()),
+                    true));
+        final ByteBufferSegmentBody source =
+            new ByteBufferSegmentBody(
+                ByteBufferSegmentBody.encode(
+                    new DenseDoubleSegmentBody(
+                        new BitSet(), new double[] {6, 7, 8, 9, 10, 11},
+                        SegmentBuilderTest.dummyAxes()),
+                    true));
+        final SegmentAxis[] segmentAxes = segmentAxes(body);
+        final SegmentDataset dataset = body.createDataset(segmentAxes);
+        final int[] pos = {1, 2};
+        final CellKey key = CellKey.Generator.newCellKey(pos);
+        assertTrue(dataset.isNull(key));
+        dataset.populateFrom(
+            pos, source.createDataset(segmentAxes(source)), key);
+        assertEquals(11d, dataset.getDouble(key));
+        assertFalse(dataset.isNull(key));
+
+        // The body, and other datasets over it, are not modified.
+        final SegmentDataset dataset2 = body.createDataset(segmentAxes);
+        assertEquals(0d, dataset2.getDouble(key));
+        assertTrue(dataset2.isNull(key));
+        assertEquals(
+            5d,
+            dataset2.getDouble(
+                CellKey.Generator.newCellKey(new int[] {1, 1})));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        final SegmentBody body =
+            new DenseIntSegmentBody(
+                new BitSet(), new int[1000], SegmentBuilderTest.dummyAxes());
+        final int size = ByteBufferSegmentBody.encode(body, false).limit();
+        final OffHeapSegmentCache cache =
+            new OffHeapSegmentCache(size * 2 + size / 2);
+        final SegmentHeader h1 = SegmentBuilderTest.dummyHeader("m1");
+        final SegmentHeader h2 = SegmentBuilderTest.dummyHeader("m2");
+        final SegmentHeader h3 = SegmentBuilderTest.dummyHeader("m3");
+        assertTrue(cache.put(h1, body));
+        assertTrue(cache.put(h2, body));
+        // touch h1, so that h2 is least recently used
+        assertNotNull(cache.get(h1));
+        assertTrue(cache.put(h3, body));
+        assertNotNull(cache.get(h1));
+        assertNull(cache.get(h2));
+        assertNotNull(cache.get(h3));
+        assertEquals(size * 2, cache.getByteCount());
+
+        // A segment larger than the whole cache is refused.
+        final OffHeapSegmentCache tinyCache = new OffHeapSegmentCache(10);
+        assertFalse(tinyCache.put(h1, body));
+        assertEquals(0, tinyCache.getByteCount());
+    }
+
+    private static SegmentAxis[] segmentAxes(SegmentBody body) {
+        final SortedSet<Comparable>[] sets = body.getAxisValueSets();
+        final SegmentAxis[] segmentAxes = new SegmentAxis[sets.length];
+        for (int i = 0; i < sets.length; i++) {
+            // The value sets of the dummy axes already contain the null
+            // value.
+            segmentAxes[i] =
+                new SegmentAxis(
+                    new LiteralStarPredicate(null, true), sets[i], false);
+        }
+        return segmentAxes;
+    }
+
+    private static void assertAxesEqual(SegmentBody expected, SegmentBody actual)
+    {
+        assertEquals(
+            Arrays.asList(expected.getAxisValueSets()),
+            Arrays.asList(actual.getAxisValueSets()));
+        assertTrue(
+            Arrays.equals(
+                expected.getNullAxisFlags(), actual.getNullAxisFlags()));
+    }
+}
+
+// End OffHeapSegmentCacheTest.java
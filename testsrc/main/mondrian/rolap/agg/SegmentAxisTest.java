@@ -0,0 +1,82 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.RolapUtil;
+import mondrian.util.ArraySortedSet;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link SegmentAxis}.
+ */
+public class SegmentAxisTest extends TestCase {
+
+    public void testIntKeys() {
+        final SegmentAxis axis =
+            new SegmentAxis(
+                LiteralStarPredicate.TRUE,
+                new ArraySortedSet(new Comparable[] {-5, 3, 1997, 1998}),
+                true);
+        assertEquals(5, axis.getKeyCount());
+        assertEquals(0, axis.getOffset(-5));
+        assertEquals(2, axis.getOffset(1997));
+        assertEquals(3, axis.getOffset(Integer.valueOf(1998)));
+        assertEquals(4, axis.getOffset(RolapUtil.sqlNullValue));
+        assertEquals(-1, axis.getOffset(1999));
+        // Keys are compared using equals, as before; a Long is not an Integer.
+        assertEquals(-1, axis.getOffset(Long.valueOf(1997)));
+        assertEquals(-1, axis.getOffset("1997"));
+        assertEquals(
+            Arrays.<Comparable>asList(
+                -5, 3, 1997, 1998, RolapUtil.sqlNullValue),
+            Arrays.asList(axis.getKeys()));
+        assertEquals(Integer.valueOf(1997), axis.getKey(2));
+        assertEquals(
+            new ArraySortedSet(new Comparable[] {-5, 3, 1997, 1998}),
+            axis.getValuesAndIndicator().left);
+        assertTrue(axis.getValuesAndIndicator().right);
+    }
+
+    public void testLongKeys() {
+        final SegmentAxis axis =
+            new SegmentAxis(
+                LiteralStarPredicate.TRUE,
+                new Comparable[] {1L, 1L << 40, (1L << 40) + 1});
+        assertEquals(3, axis.getKeyCount());
+        assertEquals(1, axis.getOffset(1L << 40));
+        assertEquals(2, axis.getOffset((1L << 40) + 1));
+        assertEquals(-1, axis.getOffset(1));
+        assertEquals(-1, axis.getOffset(RolapUtil.sqlNullValue));
+    }
+
+    public void testObjectKeys() {
+        final int n = 1000;
+        final Comparable[] keys = new Comparable[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = "k" + (10000 + i);
+        }
+        final SegmentAxis axis =
+            new SegmentAxis(LiteralStarPredicate.TRUE, keys);
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, axis.getOffset("k" + (10000 + i)));
+        }
+        assertEquals(-1, axis.getOffset("k"));
+        assertEquals(-1, axis.getOffset(RolapUtil.sqlNullValue));
+
+        final SegmentAxis emptyAxis =
+            new SegmentAxis(LiteralStarPredicate.TRUE, new Comparable[0]);
+        assertEquals(0, emptyAxis.getKeyCount());
+        assertEquals(-1, emptyAxis.getOffset("x"));
+    }
+}
+
+// End SegmentAxisTest.java
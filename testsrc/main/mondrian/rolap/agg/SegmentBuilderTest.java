@@ -12,7 +12,9 @@ import mondrian.olap.*;
 import mondrian.rolap.*;
 import mondrian.spi.*;
 import mondrian.test.*;
+import mondrian.util.ArraySortedSet;
 import mondrian.util.ByteString;
+import mondrian.util.HyperLogLog;
 import mondrian.util.Pair;
 
 import java.util.*;
@@ -120,6 +122,192 @@ public class SegmentBuilderTest extends BatchTestCase {
         assertTrue(rollup.right instanceof DenseDoubleSegmentBody);
     }
 
+    /**
+     * Tests that a rollup split into partitions on several threads gives the
+     * same values as a rollup on one thread, for each aggregator that rolls
+     * up primitive values.
+     */
+    public void testParallelRollup() {
+        final String[][] colVals = dummyColumnValues(3, 40);
+        final Map<SegmentHeader, SegmentBody> map =
+            makeDoubleSegmentMap(new String[] {"c0", "c1", "c2"}, colVals);
+        final Set<String> keepColumns =
+            new HashSet<String>(Arrays.asList("c0", "c2"));
+        for (RolapAggregator aggregator
+            : new RolapAggregator[] {
+                RolapAggregator.Sum, RolapAggregator.Min, RolapAggregator.Max})
+        {
+            for (Dialect.Datatype datatype
+                : new Dialect.Datatype[] {
+                    Dialect.Datatype.Numeric, Dialect.Datatype.Integer})
+            {
+                propSaver.set(
+                    MondrianProperties.instance().RollupParallelThreshold, 0);
+                final SegmentBody serial =
+                    SegmentBuilder.rollup(
+                        map, keepColumns, null, aggregator, datatype).right;
+                propSaver.set(
+                    MondrianProperties.instance().RollupParallelThreshold, 10);
+                final SegmentBody parallel =
+                    SegmentBuilder.rollup(
+                        map, keepColumns, null, aggregator, datatype).right;
+                assertEquals(
+                    datatype == Dialect.Datatype.Integer
+                        ? DenseIntSegmentBody.class
+                        : DenseDoubleSegmentBody.class,
+                    parallel.getClass());
+                final Map<CellKey, Object> serialValues =
+                    serial.getValueMap();
+                final Map<CellKey, Object> parallelValues =
+                    parallel.getValueMap();
+                assertEquals(40 * 40, serialValues.size());
+                assertEquals(serialValues.keySet(), parallelValues.keySet());
+                for (Map.Entry<CellKey, Object> entry
+                    : serialValues.entrySet())
+                {
+                    assertEquals(
+                        ((Number) entry.getValue()).doubleValue(),
+                        ((Number) parallelValues.get(entry.getKey()))
+                            .doubleValue(),
+                        0.0001);
+                }
+            }
+        }
+
+        // Rolling up (c0, c1, c2) to (c0): cell c0v0 aggregates cells 0 to
+        // 1599, whose values are -400, -399.5, ..., 399.5.
+        final SegmentBody sum =
+            SegmentBuilder.rollup(
+                map, Collections.singleton("c0"), null,
+                RolapAggregator.Sum, Dialect.Datatype.Numeric).right;
+        assertEquals(-400d, sum.getValueMap().get(
+            CellKey.Generator.newCellKey(new int[] {0})));
+        final SegmentBody max =
+            SegmentBuilder.rollup(
+                map, Collections.singleton("c0"), null,
+                RolapAggregator.Max, Dialect.Datatype.Numeric).right;
+        assertEquals(399.5d, max.getValueMap().get(
+            CellKey.Generator.newCellKey(new int[] {0})));
+    }
+
+    /**
+     * Tests that rolling up a segment of an approximate distinct-count
+     * measure merges the sketches of its cells, so that a value counted in
+     * two cells is counted once.
+     */
+    public void testRollupApproxDistinctCountSketches() {
+        final String[][] colVals = {{"a", "b"}, {"x", "y"}};
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        final List<SegmentColumn> columns = new ArrayList<SegmentColumn>();
+        for (int i = 0; i < colVals.length; i++) {
+            final SortedSet<Comparable> vals =
+                new TreeSet<Comparable>(Arrays.<Comparable>asList(colVals[i]));
+            columns.add(new SegmentColumn("col" + i, 2, vals));
+            axes.add(Pair.of(vals, Boolean.FALSE));
+        }
+        final Map<CellKey, Object> cells = new HashMap<CellKey, Object>();
+        cells.put(
+            CellKey.Generator.newCellKey(new int[] {0, 0}), sketch(0, 100));
+        cells.put(
+            CellKey.Generator.newCellKey(new int[] {0, 1}), sketch(50, 150));
+        cells.put(
+            CellKey.Generator.newCellKey(new int[] {1, 0}), sketch(1000, 1010));
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            new SegmentHeader(
+                "dummySchemaName",
+                new ByteString(new byte[]{}),
+                "dummyCubeName",
+                "dummyMeasureName",
+                columns,
+                Collections.<String>emptyList(),
+                "dummyFactTable",
+                BitKey.Factory.makeBitKey(2),
+                Collections.<SegmentColumn>emptyList()),
+            new SparseSegmentBody(cells, axes));
+
+        final Pair<SegmentHeader, SegmentBody> rollup =
+            SegmentBuilder.rollup(
+                map,
+                Collections.singleton("col0"),
+                BitKey.Factory.makeBitKey(2),
+                RolapAggregator.ApproxDistinctCount,
+                Dialect.Datatype.Integer);
+        final Map<CellKey, Object> valueMap = rollup.right.getValueMap();
+        assertEquals(2, valueMap.size());
+        assertEquals(
+            150L,
+            ((HyperLogLog) valueMap.get(
+                CellKey.Generator.newCellKey(new int[] {0}))).estimate());
+        assertEquals(
+            10L,
+            ((HyperLogLog) valueMap.get(
+                CellKey.Generator.newCellKey(new int[] {1}))).estimate());
+    }
+
+    /**
+     * Tests that an approximate distinct-count measure gives the same values
+     * whether rolled up from a finer-grained segment or loaded from SQL, and
+     * that those values are close to the exact distinct count.
+     */
+    public void testRollupApproxDistinctCount() {
+        final TestContext testContext =
+            getTestContext().createSubstitutingCube(
+                "Sales",
+                null,
+                "<Measure name=\"Approx Customer Count\" column=\"customer_id\""
+                + " aggregator=\"approx-distinct-count\""
+                + " formatString=\"#,###\"/>",
+                null,
+                null);
+        final String coarseQuery =
+            "select [Gender].[Gender].Members on 0\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Approx Customer Count]";
+        final String fineQuery =
+            "select Crossjoin([Gender].[Gender].Members,\n"
+            + "  [Marital Status].[Marital Status].Members) on 0\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Approx Customer Count]";
+        final String exactQuery =
+            "select [Gender].[Gender].Members on 0\n"
+            + "from [Sales]\n"
+            + "where [Measures].[Customer Count]";
+        final Connection connection = testContext.getConnection();
+        final CacheControl cacheControl = connection.getCacheControl(null);
+        final CacheControl.CellRegion region =
+            cacheControl.createMeasuresRegion(
+                connection.getSchema().lookupCube("Sales", true));
+
+        cacheControl.flush(region);
+        final Result loaded = testContext.executeQuery(coarseQuery);
+        cacheControl.flush(region);
+        testContext.executeQuery(fineQuery);
+        final Result rolledUp = testContext.executeQuery(coarseQuery);
+        final Result exact = testContext.executeQuery(exactQuery);
+        for (int i = 0; i < 2; i++) {
+            final int[] pos = {i};
+            final Object value = rolledUp.getCell(pos).getValue();
+            assertEquals(loaded.getCell(pos).getValue(), value);
+            final double exactValue =
+                ((Number) exact.getCell(pos).getValue()).doubleValue();
+            assertEquals(
+                exactValue,
+                ((Number) value).doubleValue(),
+                exactValue * 0.06);
+        }
+    }
+
+    private static HyperLogLog sketch(int start, int end) {
+        final HyperLogLog sketch = new HyperLogLog();
+        for (int i = start; i < end; i++) {
+            sketch.add(i);
+        }
+        return sketch;
+    }
+
     public void testBadRollupCausesGreaterThan12Iterations() {
         // http://jira.pentaho.com/browse/MONDRIAN-1729
         // The first two queries populate the cache with segments
@@ -456,6 +644,48 @@ public class SegmentBuilderTest extends BatchTestCase {
         return map;
     }
 
+    /**
+     * Creates a map containing one segment of double values, dense over the
+     * given column values. The values of consecutive cells are -400, -399.5,
+     * and so on.
+     */
+    private Map<SegmentHeader, SegmentBody> makeDoubleSegmentMap(
+        String[] colExps, String[][] colVals)
+    {
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        int cellCount = 1;
+        for (int i = 0; i < colVals.length; i++) {
+            final SortedSet<Comparable> vals =
+                new TreeSet<Comparable>(Arrays.<Comparable>asList(colVals[i]));
+            constrainedColumns.add(
+                new SegmentColumn(colExps[i], colVals[i].length, vals));
+            axes.add(Pair.of(vals, Boolean.FALSE));
+            cellCount *= colVals[i].length;
+        }
+        final double[] cells = new double[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            cells[i] = (i % 1600) / 2d - 400d;
+        }
+        final Map<SegmentHeader, SegmentBody> map =
+            new HashMap<SegmentHeader, SegmentBody>();
+        map.put(
+            new SegmentHeader(
+                "dummySchemaName",
+                new ByteString(new byte[]{}),
+                "dummyCubeName",
+                "dummyMeasureName",
+                constrainedColumns,
+                Collections.<String>emptyList(),
+                "dummyFactTable",
+                BitKey.Factory.makeBitKey(3),
+                Collections.<SegmentColumn>emptyList()),
+            new DenseDoubleSegmentBody(new BitSet(), cells, axes));
+        return map;
+    }
+
     private Pair<SegmentHeader, SegmentBody> makeDummyHeaderBodyPair(
         String[] colExps, String[][] colVals, int numCellVals)
     {
@@ -496,6 +726,49 @@ public class SegmentBuilderTest extends BatchTestCase {
                 axes));
     }
 
+    /**
+     * Creates the axes of a dummy segment body of 6 cells: gender, with
+     * values "F" and "M", and year, with values 1997, 1998 and null.
+     *
+     * <p>Shared by the tests of segment caches and codecs.</p>
+     */
+    static List<Pair<SortedSet<Comparable>, Boolean>> dummyAxes() {
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        axes.add(
+            Pair.<SortedSet<Comparable>, Boolean>of(
+                new ArraySortedSet(new Comparable[] {"F", "M"}),
+                false));
+        axes.add(
+            Pair.<SortedSet<Comparable>, Boolean>of(
+                new ArraySortedSet(
+                    new Comparable[] {1997, 1998, RolapUtil.sqlNullValue}),
+                true));
+        return axes;
+    }
+
+    /**
+     * Creates the header of a dummy segment of the Sales cube, with no
+     * constrained columns.
+     *
+     * <p>Shared by the tests of segment caches.</p>
+     *
+     * @param measureName Name of measure; segments of different measures
+     *     have different headers
+     */
+    static SegmentHeader dummyHeader(String measureName) {
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[] {1, 2}),
+            "Sales",
+            measureName,
+            Collections.<SegmentColumn>emptyList(),
+            Collections.<String>emptyList(),
+            "sales_fact_1997",
+            BitKey.Factory.makeBitKey(0),
+            Collections.<SegmentColumn>emptyList());
+    }
+
     private String [][] dummyColumnValues(int cols, int numVals) {
         String [][] dummyColVals = new String[cols][numVals];
         for (int i = 0; i < cols; i++) {
@@ -0,0 +1,176 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+package mondrian.rolap.agg;
+
+import mondrian.rolap.*;
+import mondrian.spi.*;
+import mondrian.test.PerformanceTest;
+import mondrian.util.*;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Unit test for {@link SegmentCodec}.
+ */
+public class SegmentCodecTest extends TestCase {
+
+    public void testHeaderRoundTrip() {
+        final SegmentHeader header = header(70);
+        final SegmentHeader header2 =
+            SegmentCodec.decodeHeader(SegmentCodec.encodeHeader(header));
+        assertEquals(header, header2);
+        assertEquals(header.getUniqueID(), header2.getUniqueID());
+        assertEquals(
+            header.getConstrainedColumnsBitKey(),
+            header2.getConstrainedColumnsBitKey());
+        assertEquals(header.compoundPredicates, header2.compoundPredicates);
+        assertEquals(
+            header.rolapStarFactTableName, header2.rolapStarFactTableName);
+        assertNull(header2.getConstrainedColumns().get(1).values);
+        assertEquals(
+            header.getExcludedRegions().get(0).values,
+            header2.getExcludedRegions().get(0).values);
+    }
+
+    public void testBodyRoundTrip() {
+        final Object[] values =
+            {"a", null, new BigDecimal("1.25"), "a", "a", 5L};
+        final SegmentBody body =
+            new DenseObjectSegmentBody(values, SegmentBuilderTest.dummyAxes());
+        for (boolean compress : new boolean[] {false, true}) {
+            final SegmentBody body2 =
+                SegmentCodec.decodeBody(SegmentCodec.encodeBody(body, compress));
+            assertTrue(Arrays.equals(values, (Object[]) body2.getValueArray()));
+            assertEquals(
+                Arrays.asList(body.getAxisValueSets()),
+                Arrays.asList(body2.getAxisValueSets()));
+            assertTrue(
+                Arrays.equals(
+                    body.getNullAxisFlags(), body2.getNullAxisFlags()));
+        }
+    }
+
+    /**
+     * Tests that a dictionary of more than 256 distinct values uses wider
+     * ordinals.
+     */
+    public void testLargeDictionary() {
+        final Object[] values = new Object[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 2 == 0 ? i : ("s" + (i % 300));
+        }
+        final SegmentBody body =
+            new DenseObjectSegmentBody(values, SegmentBuilderTest.dummyAxes());
+        final SegmentBody body2 =
+            SegmentCodec.decodeBody(SegmentCodec.encodeBody(body, true));
+        assertTrue(Arrays.equals(values, (Object[]) body2.getValueArray()));
+    }
+
+    public void testRejectsUnknownVersion() {
+        final byte[] bytes = SegmentCodec.encodeHeader(header(3));
+        bytes[0] = (byte) (SegmentCodec.VERSION + 1);
+        try {
+            SegmentCodec.decodeHeader(bytes);
+            fail("expected error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    /**
+     * Compares the size and speed of the codec with Java serialization.
+     */
+    public void testCompareWithSerialization() throws Exception {
+        final int cellCount =
+            PerformanceTest.LOGGER.isDebugEnabled() ? 100000 : 1000;
+        final int iterations =
+            PerformanceTest.LOGGER.isDebugEnabled() ? 50 : 2;
+        final double[] values = new double[cellCount];
+        final Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1000);
+        }
+        final Comparable[] keys = new Comparable[cellCount];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+        final List<Pair<SortedSet<Comparable>, Boolean>> axes =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>();
+        axes.add(
+            Pair.<SortedSet<Comparable>, Boolean>of(
+                new ArraySortedSet(keys), false));
+        final SegmentBody body =
+            new DenseDoubleSegmentBody(new BitSet(), values, axes);
+        final SegmentHeader header = header(10);
+
+        long t0 = System.nanoTime();
+        int serialSize = 0;
+        for (int i = 0; i < iterations; i++) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(header);
+            oos.writeObject(body);
+            oos.close();
+            serialSize = baos.size();
+            final ObjectInputStream ois =
+                new ObjectInputStream(
+                    new ByteArrayInputStream(baos.toByteArray()));
+            assertEquals(header, ois.readObject());
+            final SegmentBody body2 = (SegmentBody) ois.readObject();
+            assertEquals(cellCount, ((double[]) body2.getValueArray()).length);
+        }
+        long t1 = System.nanoTime();
+        int codecSize = 0;
+        for (int i = 0; i < iterations; i++) {
+            final byte[] headerBytes = SegmentCodec.encodeHeader(header);
+            final byte[] bodyBytes = SegmentCodec.encodeBody(body, false);
+            codecSize = headerBytes.length + bodyBytes.length;
+            assertEquals(header, SegmentCodec.decodeHeader(headerBytes));
+            final SegmentBody body2 = SegmentCodec.decodeBody(bodyBytes);
+            assertEquals(cellCount, ((double[]) body2.getValueArray()).length);
+        }
+        long t2 = System.nanoTime();
+        assertTrue(codecSize < serialSize);
+        PerformanceTest.LOGGER.debug(
+            "SegmentCodecTest: " + cellCount + " cells; serialization "
+            + serialSize + " bytes, " + (t1 - t0) / 1000000 + " ms; codec "
+            + codecSize + " bytes, " + (t2 - t1) / 1000000 + " ms");
+    }
+
+    private static SegmentHeader header(int bitCount) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(bitCount);
+        bitKey.set(1);
+        bitKey.set(bitCount - 1);
+        return new SegmentHeader(
+            "FoodMart",
+            new ByteString(new byte[] {7, -1, 0}),
+            "Sales",
+            "Unit Sales",
+            Arrays.asList(
+                new SegmentColumn(
+                    "time_by_day.the_year",
+                    2,
+                    new ArraySortedSet(new Comparable[] {1997, 1998})),
+                new SegmentColumn("customer.gender", 2, null)),
+            Collections.singletonList("store.store_state = 'CA'"),
+            "sales_fact_1997",
+            bitKey,
+            Collections.singletonList(
+                new SegmentColumn(
+                    "store.store_country",
+                    3,
+                    new ArraySortedSet(new Comparable[] {"Canada", "USA"}))));
+    }
+}
+
+// End SegmentCodecTest.java
@@ -509,6 +509,196 @@ public class SegmentLoaderTest extends BatchTestCase {
         assertEquals(2, genderAxis.size());
     }
 
+    /**
+     * Tests that if a result has more rows than
+     * {@link MondrianProperties#SegmentLoadBufferedRowLimit}, processData
+     * does not buffer the rows but still finds the axis values.
+     */
+    public void testProcessDataExceedingBufferedRowLimit()
+        throws SQLException
+    {
+        GroupingSet groupingSetsInfo = getDefaultGroupingSet();
+        final SqlStatement stmt =
+            new MockSqlStatement(
+                0,
+                new GroupingSetsList(
+                    Collections.singletonList(groupingSetsInfo)),
+                trim(5, getDataWithNullInAxisColumn(false)));
+        SegmentLoader loader = new SegmentLoader(cacheMgr);
+        SortedSet<Comparable>[] axisValueSet =
+            loader.getDistinctValueWorkspace(4);
+        boolean[] axisContainsNull = new boolean[4];
+        SegmentLoader.RowList list =
+            loader.processData(
+                stmt,
+                axisContainsNull,
+                axisValueSet,
+                new GroupingSetsList(
+                    Collections.singletonList(groupingSetsInfo)),
+                2);
+        assertNull(list);
+        assertEquals(1, axisValueSet[0].size());
+        assertEquals(2, axisValueSet[3].size());
+        assertTrue(axisContainsNull[2]);
+    }
+
+    /**
+     * Tests that a segment loaded in two passes, because its result has
+     * more rows than {@link MondrianProperties#SegmentLoadBufferedRowLimit},
+     * has the same contents as one loaded in one pass.
+     */
+    public void testLoadExceedingBufferedRowLimit()
+        throws ExecutionException, InterruptedException
+    {
+        propSaver.set(propSaver.properties.SegmentLoadBufferedRowLimit, 3);
+        GroupingSet groupingSetsInfo = getDefaultGroupingSet();
+        ArrayList<GroupingSet> groupingSets =
+            new ArrayList<GroupingSet>();
+        groupingSets.add(groupingSetsInfo);
+        final int[] executeCount = {0};
+        SegmentLoader loader = new SegmentLoader(cacheMgr) {
+            SqlStatement createExecuteSql(
+                int cellRequestCount,
+                GroupingSetsList groupingSetsList,
+                List<StarPredicate> compoundPredicateList)
+            {
+                ++executeCount[0];
+                return new MockSqlStatement(
+                    cellRequestCount,
+                    groupingSetsList,
+                    trim(5, getData(false)));
+            }
+        };
+        final List<Future<Map<Segment, SegmentWithData>>> segmentFutures =
+            new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+        loader.load(0, groupingSets, null, segmentFutures);
+        for (Future<?> future : segmentFutures) {
+            Util.safeGet(future, "");
+        }
+        assertEquals(2, executeCount[0]);
+        verifyUnitSalesDetailed(
+            getFor(
+                segmentFutures,
+                groupingSetsInfo.getSegments().get(0)));
+    }
+
+    /**
+     * Tests that a segment loaded in two passes fails, rather than storing
+     * cells at the wrong coordinates, if the second pass reads a value that
+     * the first pass did not.
+     */
+    public void testLoadFailsIfSecondPassReadsNewValue() {
+        propSaver.set(propSaver.properties.SegmentLoadBufferedRowLimit, 3);
+        GroupingSet groupingSetsInfo = getDefaultGroupingSet();
+        ArrayList<GroupingSet> groupingSets =
+            new ArrayList<GroupingSet>();
+        groupingSets.add(groupingSetsInfo);
+        final int[] executeCount = {0};
+        SegmentLoader loader = new SegmentLoader(cacheMgr) {
+            SqlStatement createExecuteSql(
+                int cellRequestCount,
+                GroupingSetsList groupingSetsList,
+                List<StarPredicate> compoundPredicateList)
+            {
+                final List<Object[]> data = getData(false);
+                if (++executeCount[0] == 2) {
+                    // The data changed between the two executions.
+                    data.get(0)[1] = "Snacks";
+                }
+                return new MockSqlStatement(
+                    cellRequestCount,
+                    groupingSetsList,
+                    trim(5, data));
+            }
+        };
+        final List<Future<Map<Segment, SegmentWithData>>> segmentFutures =
+            new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+        try {
+            loader.load(0, groupingSets, null, segmentFutures);
+            for (Future<?> future : segmentFutures) {
+                Util.safeGet(future, "");
+            }
+            fail("expected error");
+        } catch (RuntimeException e) {
+            assertTrue(
+                Util.getErrorMessage(e).contains(
+                    "was not read by the first pass"));
+        }
+        assertEquals(2, executeCount[0]);
+    }
+
+    /**
+     * Tests that a load split into two statements, each of which reads the
+     * cells of one gender, yields one segment with the cells of both.
+     */
+    public void testLoadSplit()
+        throws ExecutionException, InterruptedException
+    {
+        final GroupingSet groupingSet = getDefaultGroupingSet();
+        final List<GroupingSet> parts =
+            Arrays.asList(getDefaultGroupingSet(), getDefaultGroupingSet());
+        final List<String> genders = new ArrayList<String>();
+        SegmentLoader loader = new SegmentLoader(cacheMgr) {
+            SqlStatement createExecuteSql(
+                int cellRequestCount,
+                GroupingSetsList groupingSetsList,
+                List<StarPredicate> compoundPredicateList)
+            {
+                final String gender;
+                synchronized (genders) {
+                    gender = genders.isEmpty() ? "F" : "M";
+                    genders.add(gender);
+                }
+                final List<Object[]> data = new ArrayList<Object[]>();
+                for (Object[] row : getData(false)) {
+                    if (row[3].equals(gender)) {
+                        data.add(row);
+                    }
+                }
+                return new MockSqlStatement(
+                    cellRequestCount,
+                    groupingSetsList,
+                    trim(5, data));
+            }
+        };
+        final List<Future<Map<Segment, SegmentWithData>>> segmentFutures =
+            new ArrayList<Future<Map<Segment, SegmentWithData>>>();
+        loader.loadSplit(5, groupingSet, parts, null, segmentFutures);
+        assertEquals(1, segmentFutures.size());
+        final SegmentWithData segment =
+            getFor(segmentFutures, groupingSet.getSegments().get(0));
+        assertNotNull(segment);
+        assertEquals(2, genders.size());
+        verifyUnitSalesDetailed(segment);
+    }
+
+    public void testAxisDictionary() {
+        final SegmentLoader.AxisDictionary intDictionary =
+            new SegmentLoader.AxisDictionary();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, intDictionary.code(1000 - i * 7));
+        }
+        assertEquals(3, intDictionary.code(1000 - 3 * 7));
+        final SortedSet<Comparable> intValues = new TreeSet<Comparable>();
+        final int[] intOrdinals = intDictionary.sort(intValues);
+        assertEquals(100, intValues.size());
+        assertEquals(99, intOrdinals[0]);
+        assertEquals(0, intOrdinals[99]);
+
+        // Values equal by comparison share an ordinal.
+        final SegmentLoader.AxisDictionary dictionary =
+            new SegmentLoader.AxisDictionary();
+        assertEquals(0, dictionary.code(new java.math.BigDecimal("2.0")));
+        assertEquals(1, dictionary.code(new java.math.BigDecimal("1.00")));
+        assertEquals(2, dictionary.code(new java.math.BigDecimal("1.0")));
+        final SortedSet<Comparable> values = new TreeSet<Comparable>();
+        final int[] ordinals = dictionary.sort(values);
+        assertEquals(2, values.size());
+        assertEquals(1, ordinals[0]);
+        assertEquals(0, ordinals[1]);
+        assertEquals(0, ordinals[2]);
+    }
+
     private void verifyUnitSalesDetailed(SegmentWithData segment) {
         Double[] unitSalesValues = {
             null, null, null, null, 1987.0, 2199.0,
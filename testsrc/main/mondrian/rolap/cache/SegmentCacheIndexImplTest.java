@@ -0,0 +1,229 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.rolap.cache;
+
+import mondrian.rolap.BitKey;
+import mondrian.spi.*;
+import mondrian.util.*;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link SegmentCacheIndexImpl}.
+ *
+ * <p>Checks the headers found using the index against a scan of all
+ * headers.</p>
+ */
+public class SegmentCacheIndexImplTest extends TestCase {
+    private static final ByteString CHECKSUM =
+        new ByteString(new byte[] {1, 2, 3});
+
+    private static final String[] COLUMNS = {
+        "time_by_day.the_year", "store.store_state", "customer.gender"
+    };
+
+    private static final List<String> NO_PREDICATES =
+        Collections.emptyList();
+
+    private final Random random = new Random(1);
+
+    public void testLocate() {
+        final SegmentCacheIndexImpl index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final List<SegmentHeader> headers = addRandomHeaders(index, 300);
+        for (int i = 0; i < 300; i++) {
+            final BitKey bitKey = randomBitKey();
+            final Map<String, Comparable> coordinates =
+                new HashMap<String, Comparable>();
+            for (int bit : bitKey) {
+                coordinates.put(COLUMNS[bit], random.nextInt(10));
+            }
+            final List<SegmentHeader> expected =
+                new ArrayList<SegmentHeader>();
+            for (SegmentHeader header : headers) {
+                if (header.getConstrainedColumnsBitKey().equals(bitKey)
+                    && SegmentCacheIndexImpl.matches(
+                        header, coordinates, NO_PREDICATES))
+                {
+                    expected.add(header);
+                }
+            }
+            assertEquals(
+                expected,
+                index.locate(
+                    "FoodMart", CHECKSUM, "Sales", "Unit Sales",
+                    "sales_fact_1997", bitKey, coordinates, NO_PREDICATES));
+        }
+    }
+
+    public void testIntersectRegion() {
+        final SegmentCacheIndexImpl index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final List<SegmentHeader> headers = addRandomHeaders(index, 300);
+        for (int i = 0; i < 300; i++) {
+            final List<SegmentColumn> region = new ArrayList<SegmentColumn>();
+            for (int bit : randomBitKey()) {
+                region.add(randomColumn(COLUMNS[bit]));
+            }
+            final SegmentColumn[] regionArray =
+                region.toArray(new SegmentColumn[region.size()]);
+            final List<SegmentHeader> expected =
+                new ArrayList<SegmentHeader>();
+            for (SegmentHeader header : headers) {
+                if (intersects(header, regionArray)) {
+                    expected.add(header);
+                }
+            }
+            assertEquals(
+                expected,
+                index.intersectRegion(
+                    "FoodMart", CHECKSUM, "Sales", "Unit Sales",
+                    "sales_fact_1997", regionArray));
+        }
+    }
+
+    /**
+     * Tests that removed headers are no longer found.
+     */
+    public void testRemove() {
+        final SegmentCacheIndexImpl index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final List<SegmentHeader> headers = addRandomHeaders(index, 100);
+        for (SegmentHeader header : headers) {
+            index.remove(header);
+        }
+        assertEquals(
+            Collections.<SegmentHeader>emptyList(),
+            index.intersectRegion(
+                "FoodMart", CHECKSUM, "Sales", "Unit Sales",
+                "sales_fact_1997", new SegmentColumn[0]));
+    }
+
+    /**
+     * Tests that a segment that wildcards a column can be rolled up, and that
+     * a segment that does not contain the coordinates cannot.
+     */
+    public void testFindRollupCandidates() {
+        final SegmentCacheIndexImpl index =
+            new SegmentCacheIndexImpl(Thread.currentThread());
+        final SegmentHeader header1997 =
+            header(
+                new SegmentColumn(COLUMNS[0], 10, values(1997)),
+                new SegmentColumn(COLUMNS[1], 10, null));
+        final SegmentHeader header1998 =
+            header(
+                new SegmentColumn(COLUMNS[0], 10, values(1998)),
+                new SegmentColumn(COLUMNS[1], 10, null));
+        index.add(header1997, false, null);
+        index.add(header1998, false, null);
+        final BitKey bitKey = BitKey.Factory.makeBitKey(COLUMNS.length);
+        bitKey.set(0);
+        final Map<String, Comparable> coordinates =
+            Collections.<String, Comparable>singletonMap(COLUMNS[0], 1998);
+        assertEquals(
+            Collections.singletonList(Collections.singletonList(header1998)),
+            index.findRollupCandidates(
+                "FoodMart", CHECKSUM, "Sales", "Unit Sales",
+                "sales_fact_1997", bitKey, coordinates, NO_PREDICATES));
+    }
+
+    private List<SegmentHeader> addRandomHeaders(
+        SegmentCacheIndexImpl index,
+        int count)
+    {
+        final List<SegmentHeader> headers = new ArrayList<SegmentHeader>();
+        for (int i = 0; i < count; i++) {
+            final List<SegmentColumn> columns = new ArrayList<SegmentColumn>();
+            for (int bit : randomBitKey()) {
+                columns.add(randomColumn(COLUMNS[bit]));
+            }
+            final SegmentHeader header =
+                header(columns.toArray(new SegmentColumn[columns.size()]));
+            if (index.add(header, false, null)) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    private BitKey randomBitKey() {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(COLUMNS.length);
+        for (int bit = 0; bit < COLUMNS.length; bit++) {
+            if (random.nextBoolean()) {
+                bitKey.set(bit);
+            }
+        }
+        return bitKey;
+    }
+
+    private SegmentColumn randomColumn(String columnExpression) {
+        if (random.nextInt(4) == 0) {
+            return new SegmentColumn(columnExpression, 10, null);
+        }
+        final Comparable[] values = new Comparable[1 + random.nextInt(3)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(10);
+        }
+        return new SegmentColumn(columnExpression, 10, values(values));
+    }
+
+    private static SortedSet<Comparable> values(Comparable... values) {
+        final SortedSet<Comparable> set = new TreeSet<Comparable>();
+        set.addAll(Arrays.asList(values));
+        return new ArraySortedSet(set.toArray(new Comparable[set.size()]));
+    }
+
+    private static SegmentHeader header(SegmentColumn... columns) {
+        final BitKey bitKey = BitKey.Factory.makeBitKey(COLUMNS.length);
+        for (SegmentColumn column : columns) {
+            bitKey.set(Arrays.asList(COLUMNS).indexOf(column.columnExpression));
+        }
+        return new SegmentHeader(
+            "FoodMart",
+            CHECKSUM,
+            "Sales",
+            "Unit Sales",
+            Arrays.asList(columns),
+            NO_PREDICATES,
+            "sales_fact_1997",
+            bitKey,
+            Collections.<SegmentColumn>emptyList());
+    }
+
+    /**
+     * Returns whether a header intersects a region, by the same rules as
+     * {@link SegmentCacheIndexImpl#intersectRegion}.
+     */
+    private static boolean intersects(
+        SegmentHeader header,
+        SegmentColumn[] region)
+    {
+        if (region.length == 0) {
+            return true;
+        }
+        for (SegmentColumn regionColumn : region) {
+            final SegmentColumn headerColumn =
+                header.getConstrainedColumn(regionColumn.columnExpression);
+            if (headerColumn == null
+                || headerColumn.getValues() == null
+                || regionColumn.getValues() == null
+                || !Collections.disjoint(
+                    headerColumn.getValues(), regionColumn.getValues()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+// End SegmentCacheIndexImplTest.java
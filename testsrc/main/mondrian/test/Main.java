@@ -13,6 +13,7 @@
 package mondrian.test;
 
 import mondrian.calc.impl.ConstantCalcTest;
+import mondrian.calc.impl.FusedExpCompilerTest;
 import mondrian.olap.*;
 import mondrian.olap.fun.*;
 import mondrian.olap.fun.vba.ExcelTest;
@@ -21,6 +22,7 @@ import mondrian.olap.type.TypeTest;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.*;
 import mondrian.rolap.aggmatcher.*;
+import mondrian.rolap.cache.SegmentCacheIndexImplTest;
 import mondrian.rolap.sql.SelectNotInGroupByTest;
 import mondrian.rolap.sql.SqlQueryTest;
 import mondrian.test.build.CodeComplianceTest;
@@ -205,6 +207,13 @@ public class Main extends TestSuite {
                 return suite;
             }
             addTest(suite, SegmentBuilderTest.class);
+            addTest(suite, CellLoadCostModelTest.class);
+            addTest(suite, SegmentAxisTest.class);
+            addTest(suite, DataSourceExecutorTest.class);
+            addTest(suite, OffHeapSegmentCacheTest.class);
+            addTest(suite, BoundedSegmentCacheTest.class);
+            addTest(suite, DiskSegmentCacheTest.class);
+            addTest(suite, SegmentCodecTest.class);
             addTest(suite, NativeFilterMatchingTest.class);
             addTest(suite, RolapConnectionTest.class);
             addTest(suite, FilteredIterableTest.class);
@@ -219,6 +228,7 @@ public class Main extends TestSuite {
             addTest(suite, ScenarioTest.class);
             addTest(suite, BasicQueryTest.class);
             addTest(suite, SegmentCacheTest.class);
+            addTest(suite, SegmentCacheIndexImplTest.class);
             addTest(suite, CVBasicTest.class, "suite");
             addTest(suite, GrandTotalTest.class, "suite");
             addTest(suite, HangerDimensionTest.class, "suite");
@@ -235,12 +245,16 @@ public class Main extends TestSuite {
             addTest(suite, FunctionTest.class);
             addTest(suite, CurrentDateMemberUdfTest.class);
             addTest(suite, PartialSortTest.class);
+            addTest(suite, ValueAccumulatorTest.class);
             addTest(suite, VbaTest.class);
             addTest(suite, ExcelTest.class);
             addTest(suite, HierarchyBugTest.class);
             addTest(suite, ScheduleTest.class);
             addTest(suite, UtilTestCase.class);
             addTest(suite, PartiallyOrderedSetTest.class);
+            addTest(suite, SortedSpatialValueTreeTest.class);
+            addTest(suite, FrequencySketchTest.class);
+            addTest(suite, HyperLogLogTest.class);
             addTest(suite, ConcatenableListTest.class);
             addTest(suite, ExpiringReferenceTest.class);
             addTest(suite, Olap4jTest.class);
@@ -297,12 +311,19 @@ public class Main extends TestSuite {
             addTest(suite, ModulosTest.class);
             addTest(suite, PrimeFinderTest.class);
             addTest(suite, CellKeyTest.class);
+            addTest(suite, CellInfoStoreTest.class);
+            addTest(suite, ParallelCellEvaluationTest.class);
+            addTest(suite, MemberPrefetcherTest.class);
+            addTest(suite, RolapEvaluatorTest.class);
+            addTest(suite, SharedExpResultCacheTest.class);
+            addTest(suite, QueryPlanCacheTest.class);
             addTest(suite, RolapAxisTest.class);
             addTest(suite, CrossJoinTest.class);
             if (Bug.BugMondrian503Fixed) {
                 addTest(suite, RolapResultTest.class);
             }
             addTest(suite, ConstantCalcTest.class);
+            addTest(suite, FusedExpCompilerTest.class);
             addTest(suite, SharedDimensionTest.class);
             addTest(suite, CellPropertyTest.class);
             addTest(suite, QueryTest.class);
@@ -12,6 +12,9 @@ package mondrian.test;
 import mondrian.olap.*;
 import mondrian.olap.fun.FunUtil;
 import mondrian.olap.type.*;
+import mondrian.rolap.*;
+import mondrian.rolap.agg.SegmentCacheManager;
+import mondrian.server.Locus;
 import mondrian.spi.UserDefinedFunction;
 import mondrian.util.Bug;
 
@@ -19,6 +22,7 @@ import org.apache.commons.collections.ComparatorUtils;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -771,6 +775,100 @@ public class PerformanceTest extends FoodMartTestCase {
         }
     }
 
+    /**
+     * Benchmark for contention in {@link SegmentCacheManager}. Many threads
+     * look up segments of several stars at the same time, as
+     * {@link SegmentCacheManager#peek} does. With one shard, all lookups are
+     * serialized on one actor thread; with several shards, lookups of stars
+     * owned by different shards proceed in parallel.
+     */
+    public void testSegmentCacheManagerContention() throws Exception {
+        final int threadCount = 8;
+        final int lookupCount = LOGGER.isDebugEnabled() ? 100000 : 2000;
+        final List<RolapStar> stars = new ArrayList<RolapStar>();
+        for (String cubeName
+            : new String[] {"Sales", "Warehouse", "Store", "HR"})
+        {
+            stars.add(
+                ((RolapCube) getConnection().getSchema()
+                    .lookupCube(cubeName, true)).getStar());
+        }
+        for (int shardCount : new int[] {1, 4}) {
+            propSaver.set(
+                propSaver.properties.SegmentCacheManagerNumberShards,
+                shardCount);
+            final SegmentCacheManager cacheMgr =
+                new SegmentCacheManager(
+                    MondrianServer.forConnection(getConnection()));
+            final Statistician statistician =
+                new Statistician(
+                    "testSegmentCacheManagerContention shards=" + shardCount);
+            final ExecutorService executor =
+                Executors.newFixedThreadPool(threadCount);
+            try {
+                for (int run = 0; run < 5; run++) {
+                    final List<Future<Integer>> futures =
+                        new ArrayList<Future<Integer>>();
+                    final long start = System.currentTimeMillis();
+                    for (int t = 0; t < threadCount; t++) {
+                        final RolapStar star = stars.get(t % stars.size());
+                        futures.add(
+                            executor.submit(
+                                new Callable<Integer>() {
+                                    public Integer call() {
+                                        return lookup(
+                                            cacheMgr, star, lookupCount);
+                                    }
+                                }));
+                    }
+                    for (Future<Integer> future : futures) {
+                        assertEquals(0, future.get().intValue());
+                    }
+                    statistician.record(start);
+                }
+            } finally {
+                executor.shutdown();
+                cacheMgr.shutdown();
+            }
+            statistician.printDurations();
+        }
+    }
+
+    private static int lookup(
+        final SegmentCacheManager cacheMgr,
+        final RolapStar star,
+        int lookupCount)
+    {
+        final RolapSchema schema = star.getSchema();
+        final BitKey bitKey =
+            BitKey.Factory.makeBitKey(star.getColumnCount());
+        int found = 0;
+        for (int i = 0; i < lookupCount; i++) {
+            found += cacheMgr.execute(
+                star,
+                new SegmentCacheManager.Command<Integer>() {
+                    public Integer call() {
+                        return cacheMgr.getIndexRegistry().getIndex(star)
+                            .locate(
+                                schema.getName(),
+                                schema.getChecksum(),
+                                "cube",
+                                "measure",
+                                star.getFactTable().getAlias(),
+                                bitKey,
+                                Collections.<String, Comparable>emptyMap(),
+                                Collections.<String>emptyList())
+                            .size();
+                    }
+
+                    public Locus getLocus() {
+                        return null;
+                    }
+                });
+        }
+        return found;
+    }
+
     /**
      * Collects statistics for a test that is run multiple times.
      */
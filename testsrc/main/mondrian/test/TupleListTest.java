@@ -10,6 +10,7 @@
 package mondrian.test;
 
 import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.*;
 import mondrian.olap.*;
@@ -174,6 +175,104 @@ public class TupleListTest extends FoodMartTestCase {
         checkProject(fm);
     }
 
+    public void testOrdinalTupleList() {
+        final Member genderFMember = xxx("[Gender].[F]");
+        final Member genderMMember = xxx("[Gender].[M]");
+        final Member storeUsaMember = xxx("[Store].[USA]");
+        final Member storeMexicoMember = xxx("[Store].[Mexico]");
+
+        final TupleList genders =
+            new UnaryTupleList(Arrays.asList(genderFMember, genderMMember));
+        final TupleList stores =
+            new UnaryTupleList(Arrays.asList(storeUsaMember));
+        final TupleList fm =
+            OrdinalTupleList.cartesianProduct(
+                Arrays.asList(genders, stores));
+        assertEquals(
+            "[[[Gender].[F], [Store].[USA]], [[Gender].[M], [Store].[USA]]]",
+            fm.toString());
+        checkProject(fm);
+
+        // Same contents as a list of members.
+        final TupleList array = new ArrayTupleList(2);
+        array.addTuple(genderFMember, storeUsaMember);
+        array.addTuple(genderMMember, storeUsaMember);
+        assertEquals(array, fm);
+        assertEquals(fm, array);
+
+        // Cursor sets members; adding from the cursor of a list with the
+        // same dictionaries copies ordinals.
+        final TupleList clone = fm.cloneList(0);
+        final TupleCursor cursor = fm.tupleCursor();
+        final Member[] members = new Member[3];
+        while (cursor.forward()) {
+            cursor.currentToArray(members, 1);
+            assertEquals(cursor.current().get(0), members[1]);
+            assertEquals(storeUsaMember, cursor.member(1));
+            clone.addCurrent(cursor);
+        }
+        assertEquals(fm, clone);
+
+        // Members not in a dictionary are added to it.
+        clone.addTuple(genderFMember, storeMexicoMember);
+        clone.add(0, Arrays.asList(genderMMember, storeMexicoMember));
+        assertEquals(4, clone.size());
+        assertEquals(
+            "[[[Gender].[M], [Store].[Mexico]],"
+            + " [[Gender].[F], [Store].[USA]],"
+            + " [[Gender].[M], [Store].[USA]],"
+            + " [[Gender].[F], [Store].[Mexico]]]",
+            clone.toString());
+        assertEquals(2, fm.size());
+
+        // Sort in place, then remove.
+        Collections.sort(
+            clone,
+            new Comparator<List<Member>>() {
+                public int compare(List<Member> o1, List<Member> o2) {
+                    return o1.toString().compareTo(o2.toString());
+                }
+            });
+        assertEquals(
+            "[[[Gender].[F], [Store].[Mexico]],"
+            + " [[Gender].[F], [Store].[USA]],"
+            + " [[Gender].[M], [Store].[Mexico]],"
+            + " [[Gender].[M], [Store].[USA]]]",
+            clone.toString());
+        clone.remove(1);
+        assertEquals(
+            "[[[Gender].[F], [Store].[Mexico]],"
+            + " [[Gender].[M], [Store].[Mexico]],"
+            + " [[Gender].[M], [Store].[USA]]]",
+            clone.toString());
+        assertEquals(clone.subList(1, 3), clone.cloneList(-1).subList(1, 3));
+        assertEquals(
+            Arrays.asList(storeMexicoMember, storeMexicoMember, storeUsaMember),
+            clone.slice(1));
+
+        try {
+            clone.addTuple(storeUsaMember);
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Tuple length does not match arity", e.getMessage());
+        }
+
+        // Dictionaries too large for 16-bit ordinals.
+        final List<Member> many =
+            Collections.nCopies(70000, genderMMember);
+        final TupleList wide =
+            OrdinalTupleList.cartesianProduct(
+                Arrays.asList(new UnaryTupleList(many), stores));
+        assertEquals(70000, wide.size());
+        assertEquals(
+            Arrays.asList(genderMMember, storeUsaMember),
+            wide.get(69999));
+        wide.add(Arrays.asList(genderFMember, storeMexicoMember));
+        assertEquals(
+            Arrays.asList(genderFMember, storeMexicoMember),
+            wide.get(70000));
+    }
+
     /**
      * This is a test for MONDRIAN-1040. The DelegatingTupleList.slice()
      * method was mixing up the column and index variables.
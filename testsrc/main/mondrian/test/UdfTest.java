@@ -27,6 +27,7 @@ import org.olap4j.metadata.Property;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -1420,6 +1421,56 @@ public class UdfTest extends FoodMartTestCase {
         }
     }
 
+    /**
+     * Tests that, once the cells that missed the cache have been loaded, only
+     * those cells are evaluated again.
+     */
+    public void testIncrementalCellEvaluation() {
+        propSaver.set(propSaver.properties.DisableCaching, false);
+        final TestContext context =
+            udfTestContext(
+                "<UserDefinedFunction name=\"CountCalls\" className=\""
+                + CountCallsUdf.class.getName()
+                + "\"/>\n");
+        // The cell for [M] hits the cache; the cell for [F] misses, because
+        // it reads [Store Sales].
+        final String mdx =
+            "with member [Measures].[Counted] as\n"
+            + " 'CountCalls(IIf([Gender].CurrentMember IS [Gender].[F],\n"
+            + "    [Measures].[Store Sales], [Measures].[Unit Sales]))'\n"
+            + "select {[Measures].[Counted]} on 0,\n"
+            + " {[Gender].[M], [Gender].[F]} on 1\n"
+            + "from [Sales]";
+        final String warmUpMdx =
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " {[Gender].[M], [Gender].[F]} on 1\n"
+            + "from [Sales]";
+
+        propSaver.set(
+            propSaver.properties.EnableIncrementalCellEvaluation, false);
+        context.flushSchemaCache();
+        context.executeQuery(warmUpMdx);
+        CountCallsUdf.CALL_COUNT.set(0);
+        final String fullResult =
+            TestContext.toString(context.executeQuery(mdx));
+        final int fullCallCount = CountCallsUdf.CALL_COUNT.get();
+
+        propSaver.set(
+            propSaver.properties.EnableIncrementalCellEvaluation, true);
+        context.flushSchemaCache();
+        context.executeQuery(warmUpMdx);
+        CountCallsUdf.CALL_COUNT.set(0);
+        final String incrementalResult =
+            TestContext.toString(context.executeQuery(mdx));
+        final int incrementalCallCount = CountCallsUdf.CALL_COUNT.get();
+
+        assertEquals(fullResult, incrementalResult);
+        // Both cells are evaluated twice, versus both cells once and the cell
+        // that missed the cache again.
+        assertEquals(4, fullCallCount);
+        assertEquals(3, incrementalCallCount);
+    }
+
     // ~ Inner classes --------------------------------------------------------
 
     /**
@@ -1461,6 +1512,43 @@ public class UdfTest extends FoodMartTestCase {
         }
     }
 
+    /**
+     * A user-defined function which returns its argument, and counts how
+     * many times it has been called.
+     */
+    public static class CountCallsUdf implements UserDefinedFunction {
+        static final AtomicInteger CALL_COUNT = new AtomicInteger();
+
+        public String getName() {
+            return "CountCalls";
+        }
+
+        public String getDescription() {
+            return "Returns its argument, and counts calls";
+        }
+
+        public Syntax getSyntax() {
+            return Syntax.Function;
+        }
+
+        public Type getReturnType(Type[] parameterTypes) {
+            return new NumericType();
+        }
+
+        public Type[] getParameterTypes() {
+            return new Type[] {new NumericType()};
+        }
+
+        public Object execute(Evaluator evaluator, Argument[] arguments) {
+            CALL_COUNT.incrementAndGet();
+            return arguments[0].evaluateScalar(evaluator);
+        }
+
+        public String[] getReservedWords() {
+            return null;
+        }
+    }
+
     /**
      * A simple user-defined function which adds one to its argument.
      */
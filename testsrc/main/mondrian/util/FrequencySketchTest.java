@@ -0,0 +1,73 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link FrequencySketch}.
+ */
+public class FrequencySketchTest extends TestCase {
+    public void testFrequency() {
+        final FrequencySketch<String> sketch = new FrequencySketch<String>(64);
+        assertEquals(0, sketch.frequency("a"));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("a");
+        }
+        sketch.increment("b");
+        assertEquals(5, sketch.frequency("a"));
+        assertEquals(1, sketch.frequency("b"));
+        assertEquals(0, sketch.frequency("c"));
+    }
+
+    public void testSaturates() {
+        final FrequencySketch<String> sketch = new FrequencySketch<String>(64);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a");
+        }
+        assertEquals(15, sketch.frequency("a"));
+    }
+
+    /**
+     * Tests that counts decay, so that an element that was popular long ago
+     * counts for less than one that is popular now.
+     */
+    public void testAging() {
+        final FrequencySketch<Integer> sketch =
+            new FrequencySketch<Integer>(16);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment(-1);
+        }
+        // 16 counters per row; halving happens after 160 increments.
+        for (int i = 0; i < 200; i++) {
+            sketch.increment(i);
+        }
+        assertTrue(sketch.frequency(-1) <= 4);
+    }
+
+    /**
+     * Tests that estimates are never less than the true count, even when the
+     * sketch is much narrower than the number of distinct elements.
+     */
+    public void testNeverUnderestimates() {
+        final FrequencySketch<Integer> sketch =
+            new FrequencySketch<Integer>(1024);
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < i % 4; j++) {
+                sketch.increment(i);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sketch.frequency(i) >= i % 4);
+        }
+    }
+}
+
+// End FrequencySketchTest.java
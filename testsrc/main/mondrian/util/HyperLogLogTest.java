@@ -0,0 +1,149 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.math.BigDecimal;
+
+/**
+ * Unit test for {@link HyperLogLog}.
+ */
+public class HyperLogLogTest extends TestCase {
+    public void testEmpty() {
+        final HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.estimate());
+    }
+
+    /**
+     * Tests that the estimate is exact while the sketch holds hashes.
+     */
+    public void testSmallCardinalityIsExact() {
+        final HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 500; i++) {
+            sketch.add(i);
+            sketch.add("s" + (i % 10));
+        }
+        for (int i = 0; i < 500; i++) {
+            sketch.add(i);
+        }
+        assertEquals(510, sketch.estimate());
+    }
+
+    public void testAccuracy() {
+        for (int n : new int[] {600, 2000, 5000, 20000, 100000, 1000000}) {
+            final HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                sketch.add(i);
+            }
+            assertEstimate(n, sketch.estimate(), 0.05);
+        }
+    }
+
+    /**
+     * Tests that equal numbers of different classes count as one value, and
+     * that a string that looks like a number does not.
+     */
+    public void testNumbersHashAlike() {
+        final HyperLogLog sketch = new HyperLogLog();
+        sketch.add(1);
+        sketch.add(1L);
+        sketch.add((short) 1);
+        sketch.add(1.0d);
+        sketch.add(new BigDecimal("1.00"));
+        assertEquals(1, sketch.estimate());
+        sketch.add("1");
+        sketch.add(1.5d);
+        assertEquals(3, sketch.estimate());
+    }
+
+    /**
+     * Tests that merging sketches gives the same estimate as adding all
+     * values to one sketch, whichever of the sketches are sparse.
+     */
+    public void testMerge() {
+        final int[][] ranges = {
+            {0, 100}, {50, 200}, {100, 5000}, {2000, 30000}
+        };
+        for (int[] range0 : ranges) {
+            for (int[] range1 : ranges) {
+                final HyperLogLog sketch0 = sketch(range0[0], range0[1]);
+                final HyperLogLog sketch1 = sketch(range1[0], range1[1]);
+                final HyperLogLog union = sketch(range0[0], range0[1]);
+                for (int i = range1[0]; i < range1[1]; i++) {
+                    union.add(i);
+                }
+                final long estimate1 = sketch1.estimate();
+                sketch0.merge(sketch1);
+                assertEquals(union.estimate(), sketch0.estimate());
+                // Other sketch is unchanged.
+                assertEquals(estimate1, sketch1.estimate());
+            }
+        }
+    }
+
+    public void testMergeDifferentPrecision() {
+        try {
+            new HyperLogLog(10).merge(new HyperLogLog(12));
+            fail("expected error");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("precision"));
+        }
+    }
+
+    public void testByteArray() {
+        for (int n : new int[] {0, 10, 10000}) {
+            final HyperLogLog sketch = sketch(0, n);
+            final HyperLogLog sketch2 =
+                HyperLogLog.fromByteArray(sketch.toByteArray());
+            assertEquals(sketch.estimate(), sketch2.estimate());
+            // The copy keeps counting.
+            sketch.add(-1);
+            sketch2.add(-1);
+            assertEquals(sketch.estimate(), sketch2.estimate());
+        }
+    }
+
+    public void testSerialize() throws Exception {
+        final HyperLogLog sketch = sketch(0, 10000);
+        final long estimate = sketch.estimate();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(sketch);
+        oos.close();
+        final HyperLogLog sketch2 =
+            (HyperLogLog) new ObjectInputStream(
+                new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals(estimate, sketch2.estimate());
+    }
+
+    private static HyperLogLog sketch(int start, int end) {
+        final HyperLogLog sketch = new HyperLogLog();
+        for (int i = start; i < end; i++) {
+            sketch.add(i);
+        }
+        return sketch;
+    }
+
+    private static void assertEstimate(
+        long expected,
+        long actual,
+        double tolerance)
+    {
+        final double error = Math.abs(actual - expected) / (double) expected;
+        assertTrue(
+            "expected " + expected + " +/- " + (tolerance * 100) + "%, was "
+            + actual,
+            error <= tolerance);
+    }
+}
+
+// End HyperLogLogTest.java
@@ -0,0 +1,246 @@
+/*
+* This software is subject to the terms of the Eclipse Public License v1.0
+* Agreement, available at the following URL:
+* http://www.eclipse.org/legal/epl-v10.html.
+* You must accept the terms of that agreement to use this software.
+*
+* Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+*/
+
+package mondrian.util;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Unit test for {@link SortedSpatialValueTree}.
+ */
+public class SortedSpatialValueTreeTest extends TestCase {
+    private static final Object WILDCARD = SpatialValueTree.AXIS_WILDCARD;
+
+    private static final Comparator<Object> COMPARATOR =
+        new Comparator<Object>() {
+            @SuppressWarnings("unchecked")
+            public int compare(Object o1, Object o2) {
+                return ((Comparable) o1).compareTo(o2);
+            }
+        };
+
+    /**
+     * Tests the example in the description of {@link SpatialValueTree}.
+     */
+    public void testGet() {
+        final SortedSpatialValueTree<String, Object, String> tree =
+            createTree();
+        assertEquals(
+            set("a", "b"),
+            tree.get(region("year", 1997, "state", "FL")));
+        assertEquals(
+            set("a", "b"),
+            tree.get(region("year", 1997, "state", new Object[] {"NY", "FL"})));
+        assertEquals(
+            set("a", "b", "c"),
+            tree.get(region("year", WILDCARD, "state", "FL")));
+        assertEquals(
+            set(),
+            tree.get(region("year", 1998, "state", "NY")));
+        assertEquals(set("a"), tree.get(region("state", "NY")));
+        assertEquals(set("a", "b", "c"), tree.get(region()));
+        assertEquals(set(), tree.get(region("city", "Miami")));
+        assertEquals(Arrays.asList("year", "state"), tree.getDimensions());
+        assertEquals(2, tree.getDimensionality());
+    }
+
+    /**
+     * Tests that a value stored at the wildcard of a dimension is found for
+     * any bound of that dimension.
+     */
+    public void testWildcardValue() {
+        final SortedSpatialValueTree<String, Object, String> tree =
+            createTree();
+        tree.add(region("year", 1998, "state", WILDCARD), "d");
+        assertEquals(
+            set("c", "d"),
+            tree.get(region("year", 1998, "state", "FL")));
+        assertEquals(
+            set("d"),
+            tree.get(region("year", 1998, "state", "TX")));
+        assertEquals(set("a", "d"), tree.get(region("state", "NY")));
+    }
+
+    public void testMatch() {
+        final SortedSpatialValueTree<String, Object, String> tree =
+            createTree();
+        tree.add(region("year", 1998, "state", WILDCARD), "d");
+        assertEquals(
+            set("a"),
+            tree.match(
+                region("year", 1997, "state", new Object[] {"NY", "FL"})));
+        assertEquals(
+            set("d"),
+            tree.match(
+                region("year", 1998, "state", new Object[] {"NY", "TX"})));
+        assertEquals(
+            set("d"),
+            tree.match(region("year", 1998, "state", WILDCARD)));
+    }
+
+    public void testRemove() {
+        final SortedSpatialValueTree<String, Object, String> tree =
+            createTree();
+        assertTrue(
+            tree.remove(
+                region("year", 1997, "state", new Object[] {"NY", "FL"}),
+                "a"));
+        assertFalse(
+            tree.remove(
+                region("year", 1997, "state", new Object[] {"NY", "FL"}),
+                "a"));
+        assertEquals(2, tree.size());
+        assertEquals(set(), tree.get(region("state", "NY")));
+        assertEquals(set("b", "c"), tree.get(region("state", "FL")));
+
+        tree.clear(region("year", 1998));
+        assertEquals(1, tree.size());
+        assertEquals(set("b"), tree.get(region()));
+
+        tree.clear(region("state", "FL"));
+        assertEquals(0, tree.size());
+        assertEquals(0, tree.getDimensionality());
+    }
+
+    /**
+     * Tests that bounds are compared using the comparator, not
+     * {@link Object#equals(Object)}.
+     */
+    public void testComparator() {
+        final SortedSpatialValueTree<String, Object, String> tree =
+            new SortedSpatialValueTree<String, Object, String>(COMPARATOR);
+        tree.add(region("price", new java.math.BigDecimal("1.0")), "a");
+        assertEquals(
+            set("a"),
+            tree.get(region("price", new java.math.BigDecimal("1.00"))));
+    }
+
+    /**
+     * Compares the tree with a brute-force search over random regions.
+     */
+    public void testRandom() {
+        final Random random = new Random(1);
+        final SortedSpatialValueTree<String, Object, Integer> tree =
+            new SortedSpatialValueTree<String, Object, Integer>(COMPARATOR);
+        final List<Map<String, Object[]>> regions =
+            new ArrayList<Map<String, Object[]>>();
+        for (int i = 0; i < 500; i++) {
+            final Map<String, Object[]> map = randomRegion(random);
+            regions.add(map);
+            tree.add(new MapRegion(map), i);
+        }
+        for (int i = 0; i < 100; i++) {
+            final Integer removed = random.nextInt(regions.size());
+            tree.remove(new MapRegion(regions.get(removed)), removed);
+            regions.set(removed, null);
+        }
+        for (int i = 0; i < 500; i++) {
+            final Map<String, Object[]> query = randomRegion(random);
+            final Set<Integer> expected = new HashSet<Integer>();
+            for (int j = 0; j < regions.size(); j++) {
+                if (regions.get(j) != null
+                    && intersects(regions.get(j), query))
+                {
+                    expected.add(j);
+                }
+            }
+            assertEquals(expected, tree.get(new MapRegion(query)));
+        }
+    }
+
+    private static Map<String, Object[]> randomRegion(Random random) {
+        final Map<String, Object[]> map = new HashMap<String, Object[]>();
+        for (String dimension : new String[] {"x", "y", "z"}) {
+            if (random.nextInt(5) == 0) {
+                map.put(dimension, new Object[] {WILDCARD});
+            } else {
+                final Object[] bounds = new Object[1 + random.nextInt(3)];
+                for (int i = 0; i < bounds.length; i++) {
+                    bounds[i] = random.nextInt(20);
+                }
+                map.put(dimension, bounds);
+            }
+        }
+        return map;
+    }
+
+    private static boolean intersects(
+        Map<String, Object[]> stored,
+        Map<String, Object[]> query)
+    {
+        for (Map.Entry<String, Object[]> entry : query.entrySet()) {
+            final List<Object> storedBounds =
+                Arrays.asList(stored.get(entry.getKey()));
+            final List<Object> queryBounds = Arrays.asList(entry.getValue());
+            if (storedBounds.contains(WILDCARD)
+                || queryBounds.contains(WILDCARD))
+            {
+                continue;
+            }
+            if (Collections.disjoint(storedBounds, queryBounds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SortedSpatialValueTree<String, Object, String> createTree()
+    {
+        final SortedSpatialValueTree<String, Object, String> tree =
+            new SortedSpatialValueTree<String, Object, String>(COMPARATOR);
+        tree.add(region("year", 1997, "state", new Object[] {"NY", "FL"}), "a");
+        tree.add(region("year", 1997, "state", "FL"), "b");
+        tree.add(region("year", 1998, "state", "FL"), "c");
+        return tree;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    /**
+     * Creates a region from alternating dimensions and bounds; a bound may
+     * be a single object or an array.
+     */
+    private static MapRegion region(Object... dimensionsAndBounds) {
+        final Map<String, Object[]> map =
+            new LinkedHashMap<String, Object[]>();
+        for (int i = 0; i < dimensionsAndBounds.length; i += 2) {
+            final Object bounds = dimensionsAndBounds[i + 1];
+            map.put(
+                (String) dimensionsAndBounds[i],
+                bounds instanceof Object[]
+                    ? (Object[]) bounds
+                    : new Object[] {bounds});
+        }
+        return new MapRegion(map);
+    }
+
+    private static class MapRegion
+        implements SpatialValueTree.SpatialRegion<String, Object>
+    {
+        private final Map<String, Object[]> map;
+
+        MapRegion(Map<String, Object[]> map) {
+            this.map = map;
+        }
+
+        public List<String> getDimensions() {
+            return new ArrayList<String>(map.keySet());
+        }
+
+        public Object[] getValues(String dimension) {
+            return map.get(dimension);
+        }
+    }
+}
+
+// End SortedSpatialValueTreeTest.java